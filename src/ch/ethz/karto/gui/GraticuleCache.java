@@ -0,0 +1,273 @@
+package ch.ethz.karto.gui;
+
+import com.jhlabs.map.proj.Projection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * GraticuleCache keeps projected graticule lines and projection outlines, so
+ * that they are not projected again when only the central meridian changes,
+ * for example while a slider is dragged.
+ *
+ * Entries are keyed by the fingerprint of the projection with a central
+ * meridian of 0, and by the settings of the LineProjector. A projection
+ * depends on the central meridian only through the longitude relative to it,
+ * so each meridian is cached by its relative longitude and is shared by all
+ * central meridians that place a meridian at the same relative longitude.
+ * Parallels and outlines do not depend on the central meridian.
+ *
+ * The centered copy of a compiled projection and its fingerprint are computed
+ * once and kept as long as the compiled projection is in use. The cache is
+ * bounded by an estimate of the memory used by the cached lines; the least
+ * recently used entries are removed first. A cache can be
+ * used by multiple threads. The cached lines are shared and must not be
+ * modified.
+ */
+public class GraticuleCache {
+
+    /**
+     * The default size of a cache in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * Estimated memory used by a MapLine without its points, and by a point.
+     */
+    private static final long LINE_BYTES = 80;
+    private static final long POINT_BYTES = 16;
+
+    private static final class Entry {
+
+        final MapLine[] lines;
+        final long bytes;
+
+        Entry(ArrayList<MapLine> lines) {
+            long b = 0;
+            for (MapLine line : lines) {
+                line.trimToSize();
+                b += LINE_BYTES + POINT_BYTES * line.size();
+            }
+            this.lines = lines.toArray(new MapLine[lines.size()]);
+            this.bytes = b;
+        }
+    }
+
+    /**
+     * A projection with a central meridian of 0 and its fingerprint.
+     */
+    private static final class Centered {
+
+        final Projection projection;
+        final String fingerprint;
+
+        Centered(Projection projection) {
+            Projection p0 = (Projection) projection.clone();
+            p0.setProjectionLongitudeDegrees(0);
+            p0.initialize();
+            this.projection = p0;
+            this.fingerprint = p0.getFingerprint();
+        }
+    }
+
+    private final long maxBytes;
+
+    /**
+     * The centered copies of compiled projections, which cannot change.
+     */
+    private final WeakHashMap<Projection, Centered> centered = new WeakHashMap<>();
+
+    /**
+     * The entries in order of access, the least recently used first.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public GraticuleCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache.
+     * @param maxBytes The maximum memory used by the cached lines in bytes.
+     */
+    public GraticuleCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("negative cache size");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds the projected graticule to a list of lines. The lines are the same
+     * as the lines constructed by LineProjector.constructGraticule().
+     * @param projector The projector constructing missing lines.
+     * @param projection The initialized projection.
+     * @param projectedLines Receives the shared graticule lines.
+     */
+    public void addGraticule(LineProjector projector, Projection projection,
+            ArrayList<MapLine> projectedLines) {
+
+        final Centered c = centered(projection);
+        final Projection p0 = c.projection;
+        final String fingerprint = c.fingerprint;
+        if (fingerprint == null) {
+            projector.constructGraticule(projectedLines, projection);
+            return;
+        }
+        final String settings = settings(projector);
+
+        for (double lon : projector.getGraticuleMeridians(projection)) {
+            String key = fingerprint + "|meridian|" + lon + settings;
+            Entry entry = get(key);
+            if (entry == null) {
+                ArrayList<MapLine> lines = new ArrayList<>();
+                projector.constructMeridian(lon, lines, p0);
+                entry = put(key, lines);
+            }
+            add(entry, projectedLines);
+        }
+
+        String key = fingerprint + "|parallels|" + projector.getGraticuleDensity() + settings;
+        Entry entry = get(key);
+        if (entry == null) {
+            ArrayList<MapLine> lines = new ArrayList<>();
+            projector.constructParallels(lines, p0);
+            entry = put(key, lines);
+        }
+        add(entry, projectedLines);
+    }
+
+    /**
+     * Adds the projected outline of the valid area of a projection to a list
+     * of lines. The lines are the same as the lines constructed by
+     * LineProjector.constructOutline().
+     * @param projector The projector constructing missing lines.
+     * @param projection The initialized projection.
+     * @param projectedLines Receives the shared outline lines.
+     */
+    public void addOutline(LineProjector projector, Projection projection,
+            ArrayList<MapLine> projectedLines) {
+
+        final Centered c = centered(projection);
+        final Projection p0 = c.projection;
+        final String fingerprint = c.fingerprint;
+        if (fingerprint == null) {
+            projector.constructOutline(projection, projectedLines);
+            return;
+        }
+        String key = fingerprint + "|outline" + settings(projector);
+        Entry entry = get(key);
+        if (entry == null) {
+            ArrayList<MapLine> lines = new ArrayList<>();
+            projector.constructOutline(p0, lines);
+            entry = put(key, lines);
+        }
+        add(entry, projectedLines);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        centered.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the estimated memory used by the cached lines in bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of requested entries that were cached.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of requested entries that had to be projected.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns a copy of a projection with a central meridian of 0. The copy of
+     * a compiled projection is computed once; a projection that is not
+     * compiled may have changed since the last call and is copied again.
+     */
+    private Centered centered(Projection projection) {
+        if (!projection.isFrozen()) {
+            return new Centered(projection);
+        }
+        synchronized (this) {
+            Centered c = centered.get(projection);
+            if (c != null) {
+                return c;
+            }
+        }
+        Centered c = new Centered(projection);
+        synchronized (this) {
+            centered.put(projection, c);
+        }
+        return c;
+    }
+
+    private static String settings(LineProjector projector) {
+        return "|" + projector.getCurveTolerance()
+                + "|" + projector.getMaxCurveDepth()
+                + "|" + projector.getMaxCurvePoints();
+    }
+
+    private static void add(Entry entry, List<MapLine> projectedLines) {
+        for (MapLine line : entry.lines) {
+            projectedLines.add(line);
+        }
+    }
+
+    private synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entry;
+    }
+
+    /**
+     * Adds an entry and removes the least recently used entries until the
+     * cache is small enough. Lines are projected without holding the lock, so
+     * two threads may construct the same entry; the last one is kept.
+     */
+    private synchronized Entry put(String key, ArrayList<MapLine> lines) {
+        Entry entry = new Entry(lines);
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+        bytes += entry.bytes;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Entry e = it.next().getValue();
+            bytes -= e.bytes;
+            it.remove();
+        }
+        return entry;
+    }
+}
@@ -4,45 +4,206 @@
  */
 package ch.ethz.karto.gui;
 
+import ch.ethz.karto.stream.CurveDensifier;
 import com.jhlabs.map.MapMath;
+import com.jhlabs.map.proj.InverseGrid;
 import com.jhlabs.map.proj.Projection;
 import com.jhlabs.map.proj.ProjectionException;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Projects open lines.
  *
+ * A LineProjector has no state that changes while lines are projected: the
+ * state of a projection run is kept in a Context, so a single instance can be
+ * used by multiple threads concurrently. The projection must not be modified
+ * while lines are projected.
+ *
  * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
  */
 public class LineProjector {
 
+    /**
+     * Minimum number of points projected by a single task of the parallel
+     * projectLines.
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Number of points below which the parallel projectLines projects the
+     * lines on the calling thread.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 16384;
+
     private int graticuleDensity = 15; // FIXME
-    private double curveTolerance = 500; // FIXME
-    private boolean addIntermediatePointsAlongCurves = true; // FIXME
-    private boolean prevPointOutOfRange = false;
 
-    private void projectMoveTo(double x, double y, MapLine projectedLine, Projection projection) {
+    /**
+     * The maximum distance between a curved projected line and the
+     * straight segments approximating it, in projected units.
+     */
+    private double curveTolerance = 500;
+
+    /**
+     * The maximum number of times a segment is halved along curves.
+     */
+    private int maxCurveDepth = 16;
+
+    /**
+     * The maximum number of points added along a single segment.
+     */
+    private int maxCurvePoints = 4096;
+
+    /**
+     * The state of projecting a series of lines. A context is used by a
+     * single thread.
+     */
+    private static final class Context {
+
+        final Projection projection;
+
+        /**
+         * Receives the projected lines.
+         */
+        final ArrayList<MapLine> lines;
+
+        /**
+         * The central longitude of the projection in degrees.
+         */
+        final double lon0;
+
+        /**
+         * The point projected last by projectPoint().
+         */
+        final Point2D.Double xy = new Point2D.Double();
+
+        boolean prevPointOutOfRange = false;
+
+        /**
+         * Adds intermediate points along projected segments that are curved
+         * to path, or null.
+         */
+        final CurveDensifier densifier;
+
+        /**
+         * The path receiving the points added by the densifier.
+         */
+        MapLine path;
+
+        Context(Projection projection, ArrayList<MapLine> lines) {
+            this.projection = projection;
+            this.lines = lines;
+            this.lon0 = projection.getProjectionLongitudeDegrees();
+            this.densifier = null;
+        }
+
+        Context(Projection projection, ArrayList<MapLine> lines,
+                double curveTolerance, int maxCurveDepth, int maxCurvePoints) {
+            this.projection = projection;
+            this.lines = lines;
+            this.lon0 = projection.getProjectionLongitudeDegrees();
+            this.densifier = new CurveDensifier(curveTolerance, maxCurveDepth, maxCurvePoints) {
+
+                protected boolean project(double lon, double lat, double[] dst) {
+                    if (!projectPoint(lon, lat, Context.this)) {
+                        return false;
+                    }
+                    dst[0] = Context.this.xy.x;
+                    dst[1] = Context.this.xy.y;
+                    return true;
+                }
+
+                protected void addPoint(double x, double y) {
+                    path.addPoint(x, y);
+                }
+
+                protected double meanLongitude(double lon1, double lon2) {
+                    return (normalizeLongitude(lon1, Context.this.projection)
+                            + normalizeLongitude(lon2, Context.this.projection)) * 0.5 + lon0;
+                }
+            };
+        }
+    }
+
+    /**
+     * Set the maximum distance between a curved projected line and the
+     * straight segments approximating it. Must not be called while lines are
+     * projected.
+     *
+     * @param tolerance The tolerance in projected units.
+     */
+    public void setCurveTolerance(double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("tolerance must be positive");
+        }
+        this.curveTolerance = tolerance;
+    }
+
+    /**
+     * Set the maximum distance between a curved projected line and the
+     * straight segments approximating it in output units, for example in
+     * pixels.
+     *
+     * @param tolerance The tolerance in output units.
+     * @param scale The number of output units per projected unit.
+     */
+    public void setCurveTolerance(double tolerance, double scale) {
+        setCurveTolerance(tolerance / scale);
+    }
+
+    /**
+     * Returns the curve tolerance in projected units.
+     */
+    public double getCurveTolerance() {
+        return curveTolerance;
+    }
+
+    /**
+     * Set the maximum number of times a segment is halved to add intermediate
+     * points along curves.
+     */
+    public void setMaxCurveDepth(int maxCurveDepth) {
+        if (maxCurveDepth < 0) {
+            throw new IllegalArgumentException("negative depth");
+        }
+        this.maxCurveDepth = maxCurveDepth;
+    }
+
+    public int getMaxCurveDepth() {
+        return maxCurveDepth;
+    }
+
+    /**
+     * Set the maximum number of points added along a single segment.
+     */
+    public void setMaxCurvePoints(int maxCurvePoints) {
+        if (maxCurvePoints < 1) {
+            throw new IllegalArgumentException("at least one point is needed");
+        }
+        this.maxCurvePoints = maxCurvePoints;
+    }
+
+    public int getMaxCurvePoints() {
+        return maxCurvePoints;
+    }
+
+    private void projectMoveTo(double x, double y, MapLine projectedLine, Context ctx) {
 
         // test if the point is outside of lon0 +/- 180deg
-        final double lon0 = projection.getProjectionLongitudeDegrees();
-        final double xlon0 = x - lon0;
+        final double xlon0 = x - ctx.lon0;
         final boolean pointOutOfRange = xlon0 < -180 || xlon0 > 180;
 
         // project the point
-        if (projection.inside(x, y)) {
-            Point2D.Double dst = new Point2D.Double();
-            try {
-                projection.transform(x, y, dst);
-            } catch (ProjectionException exc) {
-                return;
-            }
-            if (Double.isNaN(dst.x) || Double.isNaN(dst.y)) {
-                return;
-            }
-            projectedLine.addPoint(dst.x, dst.y);
+        if (projectPoint(x, y, ctx)) {
+            projectedLine.addPoint(ctx.xy.x, ctx.xy.y);
         }
-        prevPointOutOfRange = pointOutOfRange;
+        ctx.prevPointOutOfRange = pointOutOfRange;
 
     }
 
@@ -64,21 +225,18 @@ public class LineProjector {
     private MapLine projectLineTo(double lonEnd, double latEnd,
             double lonStart, double latStart,
             MapLine projPath,
-            ArrayList<MapLine> lines,
-            Projection projection) {
+            Context ctx) {
 
         // test if the point is outside of lon0 +/- 180deg
-        final double lon0 = projection.getProjectionLongitudeDegrees();
-        final double xlon0 = lonEnd - lon0;
+        final double xlon0 = lonEnd - ctx.lon0;
         final boolean pointOutOfRange = xlon0 < -180 || xlon0 > 180;
 
-        if (prevPointOutOfRange != pointOutOfRange) {
-            prevPointOutOfRange = pointOutOfRange;
+        if (ctx.prevPointOutOfRange != pointOutOfRange) {
+            ctx.prevPointOutOfRange = pointOutOfRange;
             projPath = projectIntersectingLineTo(lonEnd, latEnd,
-                    lonStart, latStart,
-                    projPath, lines, projection);
+                    lonStart, latStart, projPath, ctx);
         } else {
-            lineTo(lonStart, latStart, lonEnd, latEnd, projPath, projection);
+            lineTo(lonStart, latStart, lonEnd, latEnd, projPath, ctx);
         }
 
         return projPath;
@@ -99,14 +257,13 @@ public class LineProjector {
     private MapLine projectIntersectingLineTo(double lonEnd, double latEnd,
             double lonStart, double latStart,
             MapLine projPath,
-            ArrayList<MapLine> lines,
-            Projection projection) {
+            Context ctx) {
 
         final double dLon = lonEnd - lonStart;
         final double dLat = latEnd - latStart;
 
         // compute intersection point in geographic coordinates
-        final double lon0 = projection.getProjectionLongitudeDegrees();
+        final double lon0 = ctx.lon0;
         final double maxLon = 180 + lon0;
         final double minLon = -180 + lon0;
 
@@ -137,20 +294,19 @@ public class LineProjector {
         }
 
         // add line from start of line to intersection
-        lineTo(lonStart, latStart, lon1, lat, projPath, projection);
+        lineTo(lonStart, latStart, lon1, lat, projPath, ctx);
 
         // store the line and create a new one
-        lines.add(projPath);
+        ctx.lines.add(projPath);
         projPath = new MapLine();
 
         // add start point to new line, which is the intersection point
-        MapPoint xy = projectPoint(lon2, lat, projection);
-        if (xy != null) {
-            projPath.addPoint(xy);
+        if (projectPoint(lon2, lat, ctx)) {
+            projPath.addPoint(ctx.xy.x, ctx.xy.y);
         }
 
         // add line to end of line
-        lineTo(lon2, lat, lonEnd, latEnd, projPath, projection);
+        lineTo(lon2, lat, lonEnd, latEnd, projPath, ctx);
 
         return projPath;
     }
@@ -158,134 +314,88 @@ public class LineProjector {
     private void lineTo(double lonStart, double latStart,
             double lonEnd, double latEnd,
             MapLine projPath,
-            Projection projection) {
+            Context ctx) {
 
         if (lonStart == lonEnd && latStart == latEnd) {
             return;
         }
 
-        if (addIntermediatePointsAlongCurves) {
-            curvedLineTo(lonStart, latStart, lonEnd, latEnd, projPath, projection);
+        if (ctx.densifier != null) {
+            curvedLineTo(lonStart, latStart, lonEnd, latEnd, projPath, ctx);
         } else {
-            straightLineTo(lonEnd, latEnd, projPath, projection);
+            straightLineTo(lonEnd, latEnd, projPath, ctx);
         }
 
     }
 
     private void straightLineTo(double lonEnd, double latEnd,
             MapLine projPath,
-            Projection projection) {
+            Context ctx) {
 
-        MapPoint xy = projectPoint(lonEnd, latEnd, projection);
-        if (xy == null) {
+        if (!projectPoint(lonEnd, latEnd, ctx)) {
             return;
         }
+        final double x = ctx.xy.x;
+        final double y = ctx.xy.y;
 
         // don't add the same coordinates twice
-        if (projPath.size() > 0) {
-            MapPoint endPoint = projPath.getPoint(projPath.size() - 1);
-            if (endPoint != null && endPoint.equals(xy)) {
-                return;
-            }
+        final int n = projPath.size();
+        if (n > 0 && projPath.getX(n - 1) == x && projPath.getY(n - 1) == y) {
+            return;
         }
 
-        projPath.addPoint(xy);
+        projPath.addPoint(x, y);
     }
 
     /**
      * Normalizes a longitude in degrees.
      */
-    private double normalizeLongitude(double lon, Projection projection) {
+    private static double normalizeLongitude(double lon, Projection projection) {
         lon *= MapMath.DTR;
         final double lon0Rad = projection.getProjectionLongitude();
         return MapMath.normalizeLongitude(lon - lon0Rad) * MapMath.RTD;
     }
 
-    private void curvedLineTo(double lonStart, double latStart, double lonEnd, double latEnd, MapLine projPath, Projection projection) {
-        MapPoint xyEnd = projectPoint(lonEnd, latEnd, projection);
-        if (xyEnd == null) {
-            return;
-        }
-        double lonStartNorm = normalizeLongitude(lonStart, projection);
-        double lonEndNorm = normalizeLongitude(lonEnd, projection);
-        final double lon0Deg = projection.getProjectionLongitudeDegrees();
-
-        // project the intermediate point between the start and the end point
-        double lonMean = (lonStartNorm + lonEndNorm) * 0.5 + lon0Deg;
-        double latMean = (latStart + latEnd) * 0.5;
-        MapPoint xyMean = projectPoint(lonMean, latMean, projection);
-        if (xyMean == null) {
-            return;
-        }
-
-        if (projPath.size() == 0) {
+    /**
+     * Adds intermediate points along a segment that is curved after
+     * projection, and the end point. The start point is the last point of
+     * projPath. Nothing is added if the end point or the middle of the
+     * segment cannot be projected.
+     */
+    private void curvedLineTo(double lonStart, double latStart, double lonEnd, double latEnd, MapLine projPath, Context ctx) {
+        if (projPath.size() == 0 || !projectPoint(lonEnd, latEnd, ctx)) {
             return;
         }
-        final MapPoint xyStart = projPath.getPoint(projPath.size() - 1);
-
-        // compute the orthogonal distance of the mean point to the line
-        // between the start and the end point
-        double dsq = pointLineDistanceSquare(xyMean, xyStart, xyEnd);
-        if (dsq > curveTolerance * curveTolerance) {
-            curvedLineTo(lonStart, latStart, lonMean, latMean, projPath, projection);
-            projPath.addPoint(xyMean);
-            curvedLineTo(lonMean, latMean, lonEnd, latEnd, projPath, projection);
+        final double xEnd = ctx.xy.x;
+        final double yEnd = ctx.xy.y;
+        final int last = projPath.size() - 1;
+        ctx.path = projPath;
+        if (ctx.densifier.densify(lonStart, latStart,
+                projPath.getX(last), projPath.getY(last),
+                lonEnd, latEnd, xEnd, yEnd)) {
+            projPath.addPoint(xEnd, yEnd);
         }
-        projPath.addPoint(xyEnd);
-    }
-
-    /**
-     * Square distance between a point and a line defined by two other points.
-     * See http://mathworld.wolfram.com/Point-LineDistance2-Dimensional.html
-     *
-     * @param x0 The point not on the line.
-     * @param y0 The point not on the line.
-     * @param x1 A point on the line.
-     * @param y1 A point on the line.
-     * @param x2 Another point on the line.
-     * @param y2 Another point on the line.
-     */
-    private static double pointLineDistanceSquare(
-            double x0, double y0,
-            double x1, double y1,
-            double x2, double y2) {
-
-        final double x2_x1 = x2 - x1;
-        final double y2_y1 = y2 - y1;
-
-        final double d = (x2_x1) * (y1 - y0) - (x1 - x0) * (y2_y1);
-        final double denominator = x2_x1 * x2_x1 + y2_y1 * y2_y1;
-        return d * d / denominator;
+        ctx.path = null;
     }
 
     /**
-     * Square distance between a point and a line defined by two other points.
-     * See http://mathworld.wolfram.com/Point-LineDistance2-Dimensional.html
+     * Projects a point to ctx.xy.
      *
-     * @param p0 The point not on the line.
-     * @param p1 A point on the line.
-     * @param p2 Another point on the line.
+     * @return False if the point cannot be projected.
      */
-    private static double pointLineDistanceSquare(MapPoint p0, MapPoint p1, MapPoint p2) {
-        return pointLineDistanceSquare(p0.x, p0.y, p1.x, p1.y, p2.x, p2.y);
-    }
-
-    private MapPoint projectPoint(double lon, double lat, Projection projection) {
-        if (!projection.inside(lon, lat)) {
-            return null;
+    private static boolean projectPoint(double lon, double lat, Context ctx) {
+        if (!ctx.projection.inside(lon, lat)) {
+            return false;
         }
 
         // project the point
-        Point2D.Double dst = new Point2D.Double();
+        final Point2D.Double dst = ctx.xy;
         try {
-            projection.transform(lon, lat, dst);
+            ctx.projection.transform(lon, lat, dst);
         } catch (ProjectionException exc) {
-            return null;
-        }
-        if (Double.isNaN(dst.x) || Double.isNaN(dst.y)) {
-            return null;
+            return false;
         }
-        return new MapPoint(dst.x, dst.y);
+        return !Double.isNaN(dst.x) && !Double.isNaN(dst.y);
     }
 
     public ArrayList<MapLine> inverse(ArrayList<MapLine> lines, Projection projection) {
@@ -297,15 +407,26 @@ public class LineProjector {
         // create a new array to store the new lines.
         ArrayList<MapLine> projectedLines = new ArrayList<MapLine>();
 
+        // use an inverse grid for projections without inverse equations
+        InverseGrid grid = projection.hasInverse() ? null : InverseGrid.getInverseGrid(projection);
+
+        Point2D.Double point = new Point2D.Double();
+
         // loop over all lines to inverse-project
         for (MapLine line : lines) {
-            MapLine projectedLine = new MapLine();
+            final int nbrPoints = line.size();
+            MapLine projectedLine = new MapLine(nbrPoints);
 
             // loop over all points of the line
-            for (MapPoint p : line.getPoints()) {
-                Point2D.Double point = new Point2D.Double(p.x, p.y);
-                projection.inverseTransform(point, point);
-                projectedLine.addPoint(new MapPoint(point.x, point.y));
+            for (int i = 0; i < nbrPoints; i++) {
+                point.x = line.getX(i);
+                point.y = line.getY(i);
+                if (grid == null) {
+                    projection.inverseTransform(point, point);
+                } else {
+                    grid.inverseTransform(point, point);
+                }
+                projectedLine.addPoint(point.x, point.y);
             }
 
             // add the projected line to the array of projected lines
@@ -319,7 +440,20 @@ public class LineProjector {
 
     }
 
+    /**
+     * Projects a line. Intermediate points are added along curved segments.
+     * The line is split where it crosses the bounding meridian.
+     *
+     * @param line The line to project.
+     * @param projection The projection.
+     * @param projectedLines Receives the projected lines.
+     */
     public void project(MapLine line, Projection projection, ArrayList<MapLine> projectedLines) {
+        project(line, new Context(projection, projectedLines,
+                curveTolerance, maxCurveDepth, maxCurvePoints));
+    }
+
+    private void project(MapLine line, Context ctx) {
 
         if (line.size() < 1) {
             return;
@@ -331,50 +465,160 @@ public class LineProjector {
         // loop over all points of the line
         int nbrPoints = line.size();
 
-        prevPointOutOfRange = false;
-        MapPoint point = line.getPoint(0);
-        double prevLon = point.x;
-        double prevLat = point.y;
-        projectMoveTo(point.x, point.y, projectedLine, projection);
+        ctx.prevPointOutOfRange = false;
+        double prevLon = line.getX(0);
+        double prevLat = line.getY(0);
+        projectMoveTo(prevLon, prevLat, projectedLine, ctx);
 
         for (int pointID = 1; pointID < nbrPoints; pointID++) {
-            point = line.getPoint(pointID);
-            final double lon = point.x;
-            final double lat = point.y;
+            final double lon = line.getX(pointID);
+            final double lat = line.getY(pointID);
             projectedLine = projectLineTo(lon, lat, prevLon, prevLat,
-                    projectedLine, projectedLines, projection);
+                    projectedLine, ctx);
             prevLon = lon;
             prevLat = lat;
         }
 
         // add the projected line to the array of projected lines
         if (projectedLine.size() > 1) {
-            projectedLines.add(projectedLine);
+            ctx.lines.add(projectedLine);
         }
 
     }
 
     /**
-     * Projects a vector of lines.
+     * Projects a vector of lines. No intermediate points are added.
      *
-     * @param lines The lines to project.
-     * @return A vector with the projected lines.
+     * @param src The lines to project.
+     * @param dst Receives the projected lines.
+     * @param projection The projection.
      */
     public void projectLines(ArrayList<MapLine> src, ArrayList<MapLine> dst, Projection projection) {
 
         if (src == null || dst == null) {
             return;
         }
-        
-        this.addIntermediatePointsAlongCurves = false;
 
-        // loop over all lines to project
-        int nbrLines = src.size();
-        for (int lineID = 0; lineID < nbrLines; lineID++) {
-            MapLine line = (MapLine) src.get(lineID);
-            project(line, projection, dst);
+        projectLines(src, 0, src.size(), new Context(projection, dst));
+
+    }
+
+    /**
+     * Projects a vector of lines in parallel. The lines are split into groups
+     * of consecutive lines that are projected by separate tasks, and the
+     * projected lines are added to dst in the same order as by the sequential
+     * projectLines. Small vectors of lines are projected on the calling
+     * thread.
+     *
+     * @param src The lines to project.
+     * @param dst Receives the projected lines.
+     * @param projection The initialized projection. The tasks share a
+     * compiled copy unless it is compiled. It is not changed.
+     * @param executor The executor running the tasks.
+     */
+    public void projectLines(final ArrayList<MapLine> src, ArrayList<MapLine> dst,
+            Projection projection, ExecutorService executor) {
+
+        if (src == null || dst == null) {
+            return;
+        }
+
+        int nbrPoints = 0;
+        for (MapLine line : src) {
+            nbrPoints += line.size();
+        }
+        if (nbrPoints < SEQUENTIAL_THRESHOLD) {
+            projectLines(src, dst, projection);
+            return;
         }
 
+        final Projection shared = projection.isFrozen() ? projection : projection.compile();
+
+        // group consecutive lines with at least CHUNK_SIZE points
+        List<Callable<ArrayList<MapLine>>> tasks = new ArrayList<>();
+        final int nbrLines = src.size();
+        int first = 0;
+        while (first < nbrLines) {
+            int end = first;
+            int chunkPoints = 0;
+            while (end < nbrLines && chunkPoints < CHUNK_SIZE) {
+                chunkPoints += src.get(end++).size();
+            }
+            final int start = first;
+            final int stop = end;
+            tasks.add(new Callable<ArrayList<MapLine>>() {
+                public ArrayList<MapLine> call() {
+                    ArrayList<MapLine> lines = new ArrayList<>();
+                    projectLines(src, start, stop, new Context(shared, lines));
+                    return lines;
+                }
+            });
+            first = end;
+        }
+
+        try {
+            for (Future<ArrayList<MapLine>> future : executor.invokeAll(tasks)) {
+                dst.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProjectionException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ProjectionException(String.valueOf(cause));
+        }
+    }
+
+    private void projectLines(ArrayList<MapLine> src, int first, int end, Context ctx) {
+        for (int lineID = first; lineID < end; lineID++) {
+            project(src.get(lineID), ctx);
+        }
+    }
+
+    /**
+     * Set the spacing between the lines of the graticule.
+     * @param graticuleDensity The spacing in degrees.
+     */
+    public void setGraticuleDensity(int graticuleDensity) {
+        if (graticuleDensity <= 0) {
+            throw new IllegalArgumentException("graticule density must be positive");
+        }
+        this.graticuleDensity = graticuleDensity;
+    }
+
+    public int getGraticuleDensity() {
+        return graticuleDensity;
+    }
+
+    /**
+     * Returns the longitudes of the meridians of the graticule relative to the
+     * central meridian of a projection, in degrees between -180 and +180. The
+     * meridians are regularly spaced relative to Greenwich. If a meridian
+     * falls on the antimeridian, both -180 and +180 are returned, so that it
+     * is drawn along both edges of the map.
+     */
+    public double[] getGraticuleMeridians(Projection projection) {
+        final double lon0 = projection.getProjectionLongitudeDegrees();
+        final int linesPerHemisphere = 180 / graticuleDensity;
+        double[] meridians = new double[linesPerHemisphere * 2 + 1];
+        int n = 0;
+        for (int i = -linesPerHemisphere; i < linesPerHemisphere; i++) {
+            double lon = i * graticuleDensity - lon0;
+            // remove the error of converting the central meridian from radians
+            lon = Math.rint(lon * 1e9) / 1e9;
+            lon -= 360 * Math.ceil((lon - 180) / 360);
+            meridians[n++] = lon;
+            if (lon == 180) {
+                meridians[n++] = -180;
+            }
+        }
+        return Arrays.copyOf(meridians, n);
     }
 
     /**
@@ -382,8 +626,48 @@ public class LineProjector {
      * lines). The graticule is projected.
      */
     public void constructGraticule(ArrayList<MapLine> projectedLines, Projection projection) {
+        for (double lon : getGraticuleMeridians(projection)) {
+            constructMeridian(lon, projectedLines, projection);
+        }
+        constructParallels(projectedLines, projection);
+    }
+
+    /**
+     * Construct a meridian of the graticule. The meridian is projected.
+     * @param lon The longitude of the meridian relative to the central
+     * meridian of the projection, in degrees.
+     */
+    public void constructMeridian(double lon, ArrayList<MapLine> projectedLines,
+            Projection projection) {
+
+        final double minLat = projection.getMinLatitudeDegrees();
+        final double maxLat = projection.getMaxLatitudeDegrees();
+        lon += projection.getProjectionLongitudeDegrees();
+
+        MapLine line = new MapLine();
+        line.addPoint(lon, maxLat);
+        // Add an intermediat point at the equator. Othewrwise the projected
+        // graticule will be a wrong straight line for pseudocylindrical
+        // projections that have a pole line with the same length as the
+        // equator. This is caused by the way intermediate points are added
+        // by the LineProjector. It tests the middle point for each line
+        // segment. If its distance from the line connecting the start and
+        // the end line is large enough, an intermediate point is recursevly
+        // added. Problems arise when this intermediate point is on this line,
+        // as in the case above.
+        if (!projection.isRectilinear()) {
+            line.addPoint(lon, 0);
+        }
+        line.addPoint(lon, minLat);
 
-        this.addIntermediatePointsAlongCurves = true;
+        project(line, projection, projectedLines);
+    }
+
+    /**
+     * Construct the parallels of the graticule. The parallels are projected.
+     * They do not depend on the central meridian of the projection.
+     */
+    public void constructParallels(ArrayList<MapLine> projectedLines, Projection projection) {
 
         final double minLon = projection.getMinLongitudeDegrees();
         final double maxLon = projection.getMaxLongitudeDegrees();
@@ -391,33 +675,9 @@ public class LineProjector {
         final double maxLat = projection.getMaxLatitudeDegrees();
 
         projection = (Projection) projection.clone();
-
-        final int linesPerHemisphere = (int) (180 / graticuleDensity);
-
-        // vertical meridian lines
-        for (int i = -linesPerHemisphere; i <= linesPerHemisphere; i++) {
-            final double lon = i * graticuleDensity;
-            MapLine line = new MapLine();
-            line.addPoint(lon, maxLat);
-            // Add an intermediat point at the equator. Othewrwise the projected
-            // graticule will be a wrong straight line for pseudocylindrical
-            // projections that have a pole line with the same length as the
-            // equator. This is caused by the way intermediate points are added
-            // by the LineProjector. It tests the middle point for each line
-            // segment. If its distance from the line connecting the start and
-            // the end line is large enough, an intermediate point is recursevly
-            // added. Problems arise when this intermediate point is on this line,
-            // as in the case above.
-            if (!projection.isRectilinear()) {
-                line.addPoint(lon, 0);
-            }
-            line.addPoint(lon, minLat);
-
-            project(line, projection, projectedLines);
-        }
-
-        // horizontal parallels
         projection.setProjectionLongitudeDegrees(0);
+
+        final int linesPerHemisphere = 180 / graticuleDensity;
         for (int j = -linesPerHemisphere / 2; j <= linesPerHemisphere / 2; j++) {
             MapLine line = new MapLine();
             final double lat = j * graticuleDensity;
@@ -437,8 +697,6 @@ public class LineProjector {
     public MapLine constructOutline(Projection projection,
             ArrayList<MapLine> projectedLines) {
 
-        this.addIntermediatePointsAlongCurves = true;
-
         projection = (Projection) projection.clone();
         projection.setProjectionLongitudeDegrees(0);
         projection.initialize();
@@ -11,14 +11,21 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
-import java.awt.geom.GeneralPath;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import javax.swing.JComponent;
 
 /**
  * Map is a JComponent that draws a set of MapLine objects.
+ *
+ * The lines are drawn into an offscreen image, which is redrawn only when the
+ * lines, the size of the map, or the visible area change. Lines outside the
+ * visible area are skipped, and points closer than half a pixel are not
+ * drawn.
  * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
  */
 public class MapComponent extends JComponent {
@@ -27,6 +34,29 @@ public class MapComponent extends JComponent {
      * lines on this map
      */
     private ArrayList<MapLine> lines = new ArrayList<>();
+
+    /**
+     * The bounding box of all lines, or null if there are no lines.
+     */
+    private Rectangle2D extension = null;
+
+    /**
+     * The lines drawn for the visible area, or null if the lines have to be
+     * drawn again.
+     */
+    private BufferedImage image = null;
+
+    /**
+     * The area of this component covered by the image.
+     */
+    private final Rectangle imageBounds = new Rectangle();
+
+    /**
+     * The size of this component when the image was drawn. The lines are
+     * scaled to the size of the component, not to the visible area.
+     */
+    private final Dimension imageComponentSize = new Dimension();
+
     /**
      * The percentage of space that is added around the lines when drawing them.
      */
@@ -37,15 +67,14 @@ public class MapComponent extends JComponent {
     }
 
     /**
-     * Replaces the current lines by the passed lines.
+     * Replaces the current lines by the passed lines. The lines must not be
+     * changed after they have been passed to the map.
      * @param lines A vector holding MapLine objects.
      */
     public void setLines(ArrayList<MapLine> lines) {
-        if (lines == null) {
-            this.lines.clear();
-        } else {
-            this.lines = lines;
-        }
+        this.lines = lines == null ? new ArrayList<MapLine>() : lines;
+        extension = getMapExtension();
+        image = null;
         repaint();
     }
 
@@ -90,7 +119,7 @@ public class MapComponent extends JComponent {
      * @return The scale to apply to the lines to make them all visible.
      */
     private double getScaleToShowAll() {
-        Rectangle2D ext = getMapExtension();
+        Rectangle2D ext = extension;
         Dimension dim = getSize();
         double horScale = dim.getWidth() / ext.getWidth();
         double verScale = dim.getHeight() / ext.getHeight();
@@ -105,11 +134,52 @@ public class MapComponent extends JComponent {
     @Override
     public void paintComponent(Graphics g) {
 
+        Rectangle visible = getVisibleRect();
+        if (visible.isEmpty()) {
+            return;
+        }
+
+        // the image has one pixel per device pixel
         Graphics2D g2d = (Graphics2D) g.create();
+        AffineTransform deviceTransform = g2d.getTransform();
+        double deviceScaleX = Math.abs(deviceTransform.getScaleX());
+        double deviceScaleY = Math.abs(deviceTransform.getScaleY());
+        int imageWidth = (int) Math.ceil(visible.width * deviceScaleX);
+        int imageHeight = (int) Math.ceil(visible.height * deviceScaleY);
+
+        if (image == null || !visible.equals(imageBounds)
+                || getWidth() != imageComponentSize.width
+                || getHeight() != imageComponentSize.height
+                || image.getWidth() != imageWidth || image.getHeight() != imageHeight) {
+            if (image == null || image.getWidth() != imageWidth
+                    || image.getHeight() != imageHeight) {
+                image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+            }
+            imageBounds.setBounds(visible);
+            imageComponentSize.setSize(getWidth(), getHeight());
+            Graphics2D imageG2d = image.createGraphics();
+            imageG2d.scale(imageWidth / (double) visible.width,
+                    imageHeight / (double) visible.height);
+            imageG2d.translate(-visible.x, -visible.y);
+            drawLines(imageG2d, visible, deviceScaleX);
+            imageG2d.dispose();
+        }
+
+        g2d.drawImage(image, visible.x, visible.y, visible.width, visible.height, null);
+        g2d.dispose();
+    }
+
+    /**
+     * Draw the lines intersecting an area of this component.
+     * @param g2d The Graphics canvas to draw to.
+     * @param area The area to draw in the coordinates of this component.
+     * @param deviceScale Device pixels per unit of this component.
+     */
+    private void drawLines(Graphics2D g2d, Rectangle area, double deviceScale) {
 
         // erase everything previously drawn
         g2d.setBackground(Color.white);
-        g2d.clearRect(0, 0, getWidth(), getHeight());
+        g2d.clearRect(area.x, area.y, area.width, area.height);
 
         // enable antialiasing
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
@@ -119,7 +189,7 @@ public class MapComponent extends JComponent {
         g2d.setRenderingHint(RenderingHints.KEY_RENDERING,
                 RenderingHints.VALUE_RENDER_QUALITY);
         
-        Rectangle2D ext = getMapExtension();
+        Rectangle2D ext = extension;
         if (ext == null) {
             return;
         }
@@ -135,20 +205,33 @@ public class MapComponent extends JComponent {
         // add a border so that the drawing is centered.
         double border_x = (this.getWidth() / scale - ext.getWidth()) / 2;
         double border_y = (this.getHeight() / scale - ext.getHeight()) / 2;
-        g2d.translate(-ext.getMinX() + border_x, -ext.getMaxY() - border_y);
+        double west = ext.getMinX() - border_x;
+        double north = ext.getMaxY() + border_y;
+        g2d.translate(-west, -north);
 
         // draw lines with a thin black stroke
         g2d.setStroke(new BasicStroke((float)(1d/scale), BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND));
         g2d.setColor(Color.BLACK);
 
+        // the drawn area in map coordinates, enlarged by the line width
+        double areaX = west + (area.x - 1) / scale;
+        double areaY = north - (area.y + area.height + 1) / scale;
+        double areaW = (area.width + 2) / scale;
+        double areaH = (area.height + 2) / scale;
+
+        // points closer than half a device pixel are not drawn. The tolerance
+        // is a power of 2, so that paths are reused when the size changes a
+        // little.
+        double tolerance = 0.5 / (scale * deviceScale);
+        tolerance = Math.pow(2, Math.floor(Math.log(tolerance) / Math.log(2)));
+
         // draw each line
         int nbrLines = lines.size();
         for (int lineID = 0; lineID < nbrLines; lineID++) {
             MapLine line = (MapLine) lines.get(lineID);
-            GeneralPath path = line.getPath();
-            g2d.draw(path);
+            if (line.intersects(areaX, areaY, areaW, areaH)) {
+                g2d.draw(line.getPath(tolerance));
+            }
         }
-
-        g2d.dispose();
     }
 }
@@ -7,176 +7,471 @@
 
 package ch.ethz.karto.gui;
 
+import ch.ethz.karto.stream.GeometryStream;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
 
 /**
- * MapLine stores a series of 2D points in a vector that form a simple line.
+ * MapLine stores a series of 2D points that form a simple line. The
+ * coordinates are packed in a growable array of alternating x and y values,
+ * so that large data sets do not need an object per point. Points can be
+ * accessed with getX() and getY() without allocating objects; MapPoint objects
+ * are only created by getPoint() and getPoints().
  * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
  */
 public class MapLine {
 
+    private static final double[] EMPTY = new double[0];
+
     /**
-     * A vector that holds all points of this line.
+     * The coordinates of all points of this line: x0, y0, x1, y1, ...
      */
-    private ArrayList<MapPoint> points = new ArrayList<MapPoint>();
-    
+    private double[] coords = EMPTY;
+
     /**
-     * The bounding box of this line.
+     * The number of points of this line.
      */
-    private Rectangle2D extension = null;
-    
+    private int size = 0;
+
+    /**
+     * The bounding box of this line, updated when points are added.
+     */
+    private double xMin = Double.MAX_VALUE;
+    private double xMax = -Double.MAX_VALUE;
+    private double yMin = Double.MAX_VALUE;
+    private double yMax = -Double.MAX_VALUE;
+
     /**
      * The path that can be used to draw this line.
      */
     private GeneralPath path = null;
 
+    /**
+     * The path with fewer points returned by getPath(tolerance), and its
+     * tolerance.
+     */
+    private GeneralPath lodPath = null;
+    private double lodTolerance = 0;
+
     /** Creates a new instance of MapLine */
     public MapLine() {
     }
-    
+
+    /**
+     * Creates an empty line with space for a number of points.
+     * @param capacity The number of points that can be added before the
+     * storage has to grow.
+     */
+    public MapLine(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("negative capacity");
+        }
+        coords = capacity == 0 ? EMPTY : new double[capacity * 2];
+    }
+
+    /**
+     * Creates a copy of a line.
+     * @param line The line to copy.
+     */
+    public MapLine(MapLine line) {
+        coords = Arrays.copyOf(line.coords, line.size * 2);
+        size = line.size;
+        xMin = line.xMin;
+        xMax = line.xMax;
+        yMin = line.yMin;
+        yMax = line.yMax;
+    }
+
+    /**
+     * Creates a line from packed coordinates. Points with NaN coordinates are
+     * skipped.
+     * @param coords The coordinates: x0, y0, x1, y1, ...
+     * @param offset The index of the first x coordinate in coords.
+     * @param nbrPoints The number of points to copy.
+     */
+    public MapLine(double[] coords, int offset, int nbrPoints) {
+        this(nbrPoints);
+        addPoints(coords, offset, nbrPoints);
+    }
+
     /**
      * Return the number of points of this line.
      */
     public int size() {
-        return points.size();
+        return size;
     }
-    
+
+    /**
+     * Return the horizontal coordinate of a point.
+     * @param pointID The index of the point (zero-based).
+     */
+    public double getX(int pointID) {
+        checkIndex(pointID);
+        return coords[pointID * 2];
+    }
+
+    /**
+     * Return the vertical coordinate of a point.
+     * @param pointID The index of the point (zero-based).
+     */
+    public double getY(int pointID) {
+        checkIndex(pointID);
+        return coords[pointID * 2 + 1];
+    }
+
     /**
      * Return a copy of a point.
      * @param pointID The index of the point to return (zero-based).
-     * @return A reference to the point at position pointID.
+     * @return A new point with the coordinates of the point at position pointID.
      */
     public MapPoint getPoint (int pointID) {
-        return points.get(pointID);
+        checkIndex(pointID);
+        return new MapPoint(coords[pointID * 2], coords[pointID * 2 + 1]);
     }
 
+    /**
+     * Return copies of all points. Changing the returned list does not change
+     * this line.
+     */
     public ArrayList<MapPoint> getPoints() {
+        ArrayList<MapPoint> points = new ArrayList<MapPoint>(size);
+        for (int i = 0; i < size; i++) {
+            points.add(new MapPoint(coords[i * 2], coords[i * 2 + 1]));
+        }
         return points;
     }
-    
+
+    /**
+     * Copy the coordinates of points to an array.
+     * @param pointID The index of the first point to copy (zero-based).
+     * @param dst The destination array for the coordinates: x0, y0, x1, y1, ...
+     * @param dstOffset The index in dst for the first x coordinate.
+     * @param nbrPoints The number of points to copy.
+     */
+    public void getCoordinates(int pointID, double[] dst, int dstOffset, int nbrPoints) {
+        if (pointID < 0 || nbrPoints < 0 || pointID + nbrPoints > size) {
+            throw new IndexOutOfBoundsException(pointID + "+" + nbrPoints);
+        }
+        System.arraycopy(coords, pointID * 2, dst, dstOffset, nbrPoints * 2);
+    }
+
+    /**
+     * Return a copy of the coordinates of all points: x0, y0, x1, y1, ...
+     */
+    public double[] getCoordinates() {
+        return Arrays.copyOf(coords, size * 2);
+    }
+
+    /**
+     * Pass the points of this line to a geometry stream as a line.
+     * @param stream The stream receiving the line.
+     */
+    public void stream(GeometryStream stream) {
+        stream.lineStart();
+        for (int i = 0; i < size; i++) {
+            stream.point(coords[i * 2], coords[i * 2 + 1]);
+        }
+        stream.lineEnd();
+    }
+
     /**
      * Add a point at the end of the line.
      * @mapPoint The point to add.
      */
     public void addPoint(MapPoint mapPoint) {
-        if (Double.isNaN(mapPoint.x) || Double.isNaN(mapPoint.y)) {
-            return;
-        }
-        points.add(mapPoint);
-        pointChanged();
+        addPoint(mapPoint.x, mapPoint.y);
     }
-    
+
     /**
-     * Add a point at the end of the line.
+     * Add a point at the end of the line. Points with NaN coordinates are
+     * ignored.
      * @param x The horizontal coordinate of the point.
      * @param y The vertical coordinate of the point.
      */
     public void addPoint(double x, double y) {
-        addPoint(new MapPoint(x, y));
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+            return;
+        }
+        ensureCapacity(size + 1);
+        coords[size * 2] = x;
+        coords[size * 2 + 1] = y;
+        size++;
+        extend(x, y);
+        path = null;
+        lodPath = null;
+    }
+
+    /**
+     * Add points at the end of the line. Points with NaN coordinates are
+     * ignored.
+     * @param src The coordinates of the points: x0, y0, x1, y1, ...
+     * @param offset The index of the first x coordinate in src.
+     * @param nbrPoints The number of points to add.
+     */
+    public void addPoints(double[] src, int offset, int nbrPoints) {
+        if (nbrPoints <= 0) {
+            return;
+        }
+        ensureCapacity(size + nbrPoints);
+        int d = size * 2;
+        final int end = offset + nbrPoints * 2;
+        for (int s = offset; s < end; s += 2) {
+            final double x = src[s];
+            final double y = src[s + 1];
+            if (Double.isNaN(x) || Double.isNaN(y)) {
+                continue;
+            }
+            coords[d++] = x;
+            coords[d++] = y;
+            extend(x, y);
+        }
+        size = d / 2;
+        path = null;
+        lodPath = null;
+    }
+
+    /**
+     * Add all points of another line at the end of this line.
+     * @param line The line with the points to add.
+     */
+    public void addPoints(MapLine line) {
+        if (line.size == 0) {
+            return;
+        }
+        ensureCapacity(size + line.size);
+        System.arraycopy(line.coords, 0, coords, size * 2, line.size * 2);
+        size += line.size;
+        xMin = Math.min(xMin, line.xMin);
+        xMax = Math.max(xMax, line.xMax);
+        yMin = Math.min(yMin, line.yMin);
+        yMax = Math.max(yMax, line.yMax);
+        path = null;
+        lodPath = null;
     }
-    
+
     /**
      * Remove a point from the line.
      * @param mapPoint The point to remove.
      */
     public void removePoint(MapPoint mapPoint) {
-        points.remove(mapPoint);
-        pointChanged();
+        for (int i = 0; i < size; i++) {
+            if (coords[i * 2] == mapPoint.x && coords[i * 2 + 1] == mapPoint.y) {
+                removePoint(i);
+                return;
+            }
+        }
     }
-    
+
     /**
      * Remove a point from the line.
      * @param pointID The index of the point to remove (zero-based).
      */
     public void removePoint(int pointID) {
-        points.remove(pointID);
-        pointChanged();
+        checkIndex(pointID);
+        System.arraycopy(coords, pointID * 2 + 2, coords, pointID * 2,
+                (size - pointID - 1) * 2);
+        size--;
+        // the bounding box cannot shrink incrementally
+        xMin = yMin = Double.MAX_VALUE;
+        xMax = yMax = -Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            extend(coords[i * 2], coords[i * 2 + 1]);
+        }
+        path = null;
+        lodPath = null;
     }
-    
+
+    /**
+     * Remove all points.
+     */
+    public void clear() {
+        size = 0;
+        xMin = yMin = Double.MAX_VALUE;
+        xMax = yMax = -Double.MAX_VALUE;
+        path = null;
+        lodPath = null;
+    }
+
+    /**
+     * Reduce the storage to the number of points of this line.
+     */
+    public void trimToSize() {
+        if (coords.length > size * 2) {
+            coords = size == 0 ? EMPTY : Arrays.copyOf(coords, size * 2);
+        }
+    }
+
     /**
      * Return the bounding box of this line.
-     * @return The bounding box.
+     * @return A new rectangle with the bounding box, or null if the line has
+     * no points.
      */
     public java.awt.geom.Rectangle2D getExtension() {
-        
-        if (points.isEmpty()) {
+        if (size == 0) {
             return null;
         }
-        
-        // If a bounding box has been computed before, return it.
-        // This is probably faster than looping throuh all points.
-        if (extension != null) {
-            return extension;
-        }
-        
-        // search the smallest and largest coordinates in x and y direction.
-        double xMin = Double.MAX_VALUE;
-        double xMax = -Double.MAX_VALUE;
-        double yMin = Double.MAX_VALUE;
-        double yMax = -Double.MAX_VALUE;
-        
-        for (MapPoint p : points) {
-            if (p.x < xMin) {
-                xMin = p.x;
-            }
-            if (p.x > xMax) {
-                xMax = p.x;
-            }
-            if (p.y < yMin) {
-                yMin = p.y;
-            }
-            if (p.y > yMax) {
-                yMax = p.y;
-            }
-        }
-        
-        // store the found bounding values
-        extension = new java.awt.geom.Rectangle2D.Double(xMin, yMin,
-                xMax - xMin, yMax - yMin);
-        return extension;
+        return new Rectangle2D.Double(xMin, yMin, xMax - xMin, yMax - yMin);
+    }
 
+    /**
+     * Return true if the bounding box of this line intersects a rectangle.
+     * @param x The left side of the rectangle.
+     * @param y The top side of the rectangle.
+     * @param w The width of the rectangle.
+     * @param h The height of the rectangle.
+     */
+    public boolean intersects(double x, double y, double w, double h) {
+        return size > 0 && xMax >= x && xMin <= x + w && yMax >= y && yMin <= y + h;
     }
-    
+
     /**
      * Return a GeneralPath that can be drawn.
      * @return The GeneralPath.
      */
     public GeneralPath getPath() {
-        
+
         // if the path has been constructed before, return it.
         if (path != null) {
             return path;
         }
-        
-        path = new GeneralPath();
-        int nbrPoints = size();
-        
+
         // a line must have at least 2 points
-        if (nbrPoints < 2) {
+        if (size < 2) {
+            path = new GeneralPath();
             return path;
         }
-        
-        // add first point
-        path.moveTo(points.get(0).x, points.get(0).y);
-        
-        // add all following points
-        for (int pointID = 1; pointID < nbrPoints; pointID++) {
-            MapPoint p = points.get(pointID);
-            path.lineTo(p.x, p.y);
-        }
-        
+
+        path = new GeneralPath(GeneralPath.WIND_NON_ZERO, size);
+        path.append(getPathIterator(null), false);
         return path;
     }
-    
+
+    /**
+     * Return a GeneralPath for drawing at a scale where points closer than a
+     * tolerance cannot be distinguished. A point is skipped if it is closer
+     * to the previous point of the path than the tolerance; the first and the
+     * last point are always kept. The path for the last tolerance is cached.
+     * @param tolerance The tolerance in the units of the line.
+     * @return The GeneralPath.
+     */
+    public GeneralPath getPath(double tolerance) {
+        if (!(tolerance > 0) || size < 3) {
+            return getPath();
+        }
+        if (lodPath != null && lodTolerance == tolerance) {
+            return lodPath;
+        }
+
+        final double toleranceSq = tolerance * tolerance;
+        double px = coords[0];
+        double py = coords[1];
+        GeneralPath p = new GeneralPath(GeneralPath.WIND_NON_ZERO,
+                (int) Math.min(size, 16 + 4 * (xMax - xMin + yMax - yMin) / tolerance));
+        p.moveTo(px, py);
+        final int last = size - 1;
+        for (int i = 1; i < last; i++) {
+            final double x = coords[i * 2];
+            final double y = coords[i * 2 + 1];
+            final double dx = x - px;
+            final double dy = y - py;
+            if (dx * dx + dy * dy >= toleranceSq) {
+                p.lineTo(x, y);
+                px = x;
+                py = y;
+            }
+        }
+        p.lineTo(coords[last * 2], coords[last * 2 + 1]);
+
+        lodPath = p;
+        lodTolerance = tolerance;
+        return lodPath;
+    }
+
     /**
-     * Private helper method that must be called whenever a point changes.
+     * Return an iterator over the points of this line that does not allocate
+     * objects per point. The iterator is not affected by points added later.
+     * @param at A transformation applied to the points, or null.
+     * @return The iterator with a SEG_MOVETO for the first point and a
+     * SEG_LINETO for each following point.
      */
-    private void pointChanged() {
-        path = null;
-        extension = null;
+    public PathIterator getPathIterator(final AffineTransform at) {
+        final double[] c = coords;
+        final int n = size;
+        return new PathIterator() {
+
+            private int i = 0;
+
+            public int getWindingRule() {
+                return WIND_NON_ZERO;
+            }
+
+            public boolean isDone() {
+                return i >= n;
+            }
+
+            public void next() {
+                i++;
+            }
+
+            public int currentSegment(float[] pt) {
+                checkDone();
+                pt[0] = (float) c[i * 2];
+                pt[1] = (float) c[i * 2 + 1];
+                if (at != null) {
+                    at.transform(pt, 0, pt, 0, 1);
+                }
+                return i == 0 ? SEG_MOVETO : SEG_LINETO;
+            }
+
+            public int currentSegment(double[] pt) {
+                checkDone();
+                pt[0] = c[i * 2];
+                pt[1] = c[i * 2 + 1];
+                if (at != null) {
+                    at.transform(pt, 0, pt, 0, 1);
+                }
+                return i == 0 ? SEG_MOVETO : SEG_LINETO;
+            }
+
+            private void checkDone() {
+                if (i >= n) {
+                    throw new NoSuchElementException("line iterator out of bounds");
+                }
+            }
+        };
+    }
+
+    private void checkIndex(int pointID) {
+        if (pointID < 0 || pointID >= size) {
+            throw new IndexOutOfBoundsException("point " + pointID + " of " + size);
+        }
     }
 
+    private void ensureCapacity(int nbrPoints) {
+        if (nbrPoints * 2 > coords.length) {
+            int capacity = Math.max(nbrPoints, Math.max(8, size + (size >> 1)));
+            coords = Arrays.copyOf(coords, capacity * 2);
+        }
+    }
+
+    private void extend(double x, double y) {
+        if (x < xMin) {
+            xMin = x;
+        }
+        if (x > xMax) {
+            xMax = x;
+        }
+        if (y < yMin) {
+            yMin = y;
+        }
+        if (y > yMax) {
+            yMax = y;
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -5,15 +5,27 @@
  */
 package ch.ethz.karto.gui;
 
+import ch.ethz.karto.stream.DouglasPeuckerSimplifier;
+import ch.ethz.karto.stream.MapLineCollector;
+import ch.ethz.karto.stream.Simplifier;
 import com.jhlabs.map.Ellipsoid;
 import com.jhlabs.map.proj.Projection;
 import com.jhlabs.map.proj.ProjectionFactory;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JOptionPane;
 import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * ProjectionSelectionPanel lets the user select a projection, applies the
@@ -24,12 +36,119 @@ import javax.swing.JSlider;
  */
 public class ProjectionSelectionPanel extends javax.swing.JPanel {
 
+    /**
+     * Changes of the GUI within this delay in milliseconds are combined into a
+     * single projection.
+     */
+    private static final int PROJECTION_DELAY = 15;
+
+    /**
+     * Tolerance for simplifying the preview lines in degrees.
+     */
+    private static final double PREVIEW_TOLERANCE = 0.2;
+
     /**
      * The lines that are displayed. Must be in geographic coordinates
      * (degrees).
      */
     private ArrayList<MapLine> lines = null;
 
+    /**
+     * Projected graticule lines, which are reused when the central meridian
+     * changes.
+     */
+    private final GraticuleCache graticuleCache = new GraticuleCache();
+
+    /**
+     * Coarse copy of the lines that is projected for a preview.
+     */
+    private ArrayList<MapLine> previewLines = null;
+
+    /**
+     * Projects the lines on a background thread, so that the event dispatch
+     * thread is not blocked.
+     */
+    private final ExecutorService projectionExecutor
+            = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Projection");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Starts the projection PROJECTION_DELAY after the first change of the
+     * GUI. The timer is not restarted by later changes, so that lines are
+     * projected while the slider is dragged; the projection uses the
+     * settings of the GUI when the timer fires.
+     */
+    private final Timer projectionTimer = new Timer(PROJECTION_DELAY, new ActionListener() {
+        public void actionPerformed(ActionEvent e) {
+            startProjection();
+        }
+    });
+
+    /**
+     * The settings of the GUI for a projection.
+     */
+    private static final class ProjectionRequest {
+
+        final int generation;
+
+        /**
+         * The compiled projection.
+         */
+        final Projection projection;
+        final ArrayList<MapLine> lines;
+        final ArrayList<MapLine> previewLines;
+        final boolean inverse;
+        final int mapWidth;
+
+        /**
+         * The time of the first GUI change collected by this request, in
+         * nanoseconds.
+         */
+        final long requestTime;
+
+        ProjectionRequest(int generation, Projection projection,
+                ArrayList<MapLine> lines, ArrayList<MapLine> previewLines,
+                boolean inverse, int mapWidth, long requestTime) {
+            this.generation = generation;
+            this.projection = projection;
+            this.lines = lines;
+            this.previewLines = previewLines;
+            this.inverse = inverse;
+            this.mapWidth = mapWidth;
+            this.requestTime = requestTime;
+        }
+    }
+
+    /**
+     * The request that has not been started by the background thread yet, or
+     * null.
+     */
+    private final AtomicReference<ProjectionRequest> pendingRequest = new AtomicReference<>();
+
+    /**
+     * Counts the requests. A request is superseded when a request with a
+     * larger generation has been made; superseded requests are cancelled
+     * after their preview.
+     */
+    private volatile int projectionGeneration = 0;
+
+    /**
+     * The generation of the lines displayed by the map. Only accessed by the
+     * event dispatch thread.
+     */
+    private int publishedGeneration = 0;
+
+    /**
+     * The time of the first GUI change that has not been projected yet, in
+     * nanoseconds. Only accessed by the event dispatch thread.
+     */
+    private long projectionRequestTime = 0;
+
     /**
      * Creates new form ProjectionSelectionPanel
      */
@@ -38,45 +157,203 @@ public class ProjectionSelectionPanel extends javax.swing.JPanel {
 
         Object[] projNames = ProjectionFactory.getOrderedProjectionNames();
         projectionComboBox.setModel(new DefaultComboBoxModel(projNames));
+        projectionTimer.setRepeats(false);
     }
 
+    /**
+     * Projects the lines with the current settings of the GUI. The lines are
+     * projected on a background thread after a short delay, which collects
+     * series of changes, for example while the slider is dragged. Must be
+     * called on the event dispatch thread.
+     */
     private void project() {
+        if (!projectionTimer.isRunning()) {
+            projectionRequestTime = System.nanoTime();
+            projectionTimer.start();
+        }
+    }
+
+    /**
+     * Passes the current settings of the GUI to the background thread, which
+     * first displays a coarse preview, and then the lines at full resolution.
+     * Requests that are superseded before they are started are skipped.
+     */
+    private void startProjection() {
+        final int generation = ++projectionGeneration;
+
+        // find the selected name, create the corresponding projection.
+        String projName = (String) projectionComboBox.getSelectedItem();
+        Projection projection = ProjectionFactory.getNamedProjection(projName);
+        if (projection == null || lines == null) {
+            publishedGeneration = generation;
+            map.setLines(null);
+            updateProjectionInfo(projection);
+            return;
+        }
+        projection.setProjectionLongitudeDegrees(lon0Slider.getValue());
+        projection.setEllipsoid(Ellipsoid.SPHERE);
+
+        // the background thread receives an initialized copy that cannot be
+        // changed, so that it shares no state with this thread
+        final Projection compiledProjection;
+        try {
+            compiledProjection = projection.compile();
+        } catch (RuntimeException exc) {
+            updateProjectionInfo(projection);
+            showError(exc);
+            return;
+        }
+
+        ProjectionRequest request = new ProjectionRequest(generation, compiledProjection,
+                lines, previewLines, inverseCheckBox.isSelected(), map.getWidth(),
+                projectionRequestTime);
+        if (pendingRequest.getAndSet(request) == null) {
+            projectionExecutor.execute(new Runnable() {
+                public void run() {
+                    ProjectionRequest request = pendingRequest.getAndSet(null);
+                    if (request != null) {
+                        project(request);
+                    }
+                }
+            });
+        }
+
+        // write some descriptive information about the selected projection.
+        updateProjectionInfo(projection);
+    }
 
-        boolean inverse = inverseCheckBox.isSelected();
+    /**
+     * Projects the lines of a request on the background thread.
+     */
+    private void project(ProjectionRequest request) {
+        final int generation = request.generation;
         try {
-            // find the selected name, create the corresponding projection.
-            String projName = (String) projectionComboBox.getSelectedItem();
-            Projection projection = ProjectionFactory.getNamedProjection(projName);
-
-            // use the selected projection to project the lines,
-            // and pass the projected lines to the map to display.
-            if (projection != null) {
-                projection.setProjectionLongitudeDegrees(lon0Slider.getValue());
-                projection.setEllipsoid(Ellipsoid.SPHERE);
-                projection.initialize();
-
-                LineProjector projector = new LineProjector();
-                ArrayList<MapLine> projectedLines = new ArrayList<>();
-                projector.constructGraticule(projectedLines, projection);
-                projector.projectLines(lines, projectedLines, projection);
-                if (inverse && projection.hasInverse()) {
-                    projectedLines = projector.inverse(projectedLines, projection);
+            Projection projection = request.projection;
+            // pixels per projected unit, assuming the map shows the equator
+            double worldWidth = 2 * Math.PI * projection.getEquatorRadius();
+            double scale = request.mapWidth / worldWidth;
+
+            // the preview is not cancelled, so that something is displayed
+            // while the slider is dragged
+            if (request.previewLines != null) {
+                ArrayList<MapLine> projectedLines = project(request.previewLines,
+                        projection, scale, 2, request.inverse, 0);
+                publish(generation, projectedLines, request.requestTime, true);
+            }
+            ArrayList<MapLine> projectedLines = project(request.lines,
+                    projection, scale, 0.25, request.inverse, generation);
+            if (projectedLines != null) {
+                publish(generation, projectedLines, request.requestTime, false);
+            }
+        } catch (final RuntimeException exc) {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    if (generation == projectionGeneration) {
+                        showError(exc);
+                    }
                 }
+            });
+        }
+    }
+
+    /**
+     * Returns true if a request has been superseded by a newer request.
+     * @param generation The generation of the request, or 0 for a request
+     * that is never cancelled.
+     */
+    private boolean isCancelled(int generation) {
+        return generation != 0 && generation != projectionGeneration;
+    }
+
+    /**
+     * Projects lines and the graticule, simplifies the projected lines, and
+     * optionally applies the inverse projection.
+     *
+     * @param src The lines in geographic coordinates (degrees).
+     * @param projection The initialized projection.
+     * @param scale Pixels per projected unit, or 0.
+     * @param tolerance Tolerance for adding points along curves and for
+     * simplifying lines, in pixels.
+     * @param inverse If true, the inverse projection is applied.
+     * @param generation The generation of the request, or 0.
+     * @return The projected lines, or null if the request has been
+     * superseded.
+     */
+    private ArrayList<MapLine> project(ArrayList<MapLine> src, Projection projection,
+            double scale, double tolerance, boolean inverse, int generation) {
+
+        if (isCancelled(generation)) {
+            return null;
+        }
+        LineProjector projector = new LineProjector();
+        if (scale > 0) {
+            projector.setCurveTolerance(tolerance, scale);
+        }
+        ArrayList<MapLine> projectedLines = new ArrayList<>();
+        graticuleCache.addGraticule(projector, projection, projectedLines);
+        projector.projectLines(src, projectedLines, projection,
+                ForkJoinPool.commonPool());
+        if (isCancelled(generation)) {
+            return null;
+        }
+        if (scale > 0) {
+            // remove details smaller than two times the tolerance
+            projectedLines = simplify(projectedLines, tolerance * 2 / scale);
+        }
+        if (inverse) {
+            if (isCancelled(generation)) {
+                return null;
+            }
+            projectedLines = projector.inverse(projectedLines, projection);
+        }
+        return isCancelled(generation) ? null : projectedLines;
+    }
 
+    /**
+     * Passes projected lines to the map on the event dispatch thread, unless
+     * the map displays lines of a newer request. A superseded preview is
+     * displayed, as it is closer to the current settings than the displayed
+     * lines.
+     */
+    private void publish(final int generation, final ArrayList<MapLine> projectedLines,
+            final long requestTime, final boolean preview) {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                if (generation < publishedGeneration
+                        || (generation == publishedGeneration && preview)) {
+                    return;
+                }
+                publishedGeneration = generation;
                 map.setLines(projectedLines);
-            } else {
-                map.setLines(null);
+                Logger logger = Logger.getLogger(ProjectionSelectionPanel.class.getName());
+                if (logger.isLoggable(Level.FINE)) {
+                    long ms = (System.nanoTime() - requestTime) / 1000000;
+                    logger.fine((preview ? "Preview" : "Lines") + " displayed after " + ms + " ms");
+                }
             }
+        });
+    }
 
-            // write some descriptive information about the selected projection.
-            updateProjectionInfo(projection);
+    private void showError(Exception exc) {
+        String msg = exc.getMessage();
+        String title = "Error";
+        JOptionPane.showMessageDialog(selectionPanel, msg, title, JOptionPane.ERROR_MESSAGE);
+        Logger.getLogger(ProjectionSelectionPanel.class.getName()).log(Level.SEVERE, null, exc);
+    }
 
-        } catch (Exception exc) {
-            String msg = exc.getMessage();
-            String title = "Error";
-            JOptionPane.showMessageDialog(selectionPanel, msg, title, JOptionPane.ERROR_MESSAGE);
-            Logger.getLogger(ProjectionSelectionPanel.class.getName()).log(Level.SEVERE, null, exc);
+    /**
+     * Simplifies projected lines with the Douglas-Peucker algorithm, keeping
+     * the points where lines meet.
+     */
+    private static ArrayList<MapLine> simplify(ArrayList<MapLine> lines, double tolerance) {
+        MapLineCollector collector = new MapLineCollector();
+        Simplifier simplifier = new DouglasPeuckerSimplifier(tolerance, collector);
+        simplifier.setSharedVertices(Simplifier.findSharedVertices(lines));
+        for (MapLine line : lines) {
+            line.stream(simplifier);
         }
+        simplifier.end();
+        return collector.getLines();
     }
 
     /**
@@ -86,8 +363,9 @@ public class ProjectionSelectionPanel extends javax.swing.JPanel {
      * (degrees).
      */
     public void setLines(ArrayList<MapLine> lines) {
-        // store the passed lines
+        // store the passed lines, and a coarse copy for previews
         this.lines = lines;
+        this.previewLines = lines == null ? null : simplify(lines, PREVIEW_TOLERANCE);
 
         // pass the new lines to the map that displays the lines.
         map.setLines(lines);
@@ -111,7 +389,8 @@ public class ProjectionSelectionPanel extends javax.swing.JPanel {
             if (projection.hasInverse()) {
                 System.out.println("Found inverse equation for " + projection.getName() + ".");
             } else {
-                System.out.println("No inverse equation for " + projection.getName() + ".");
+                System.out.println("No inverse equation for " + projection.getName()
+                        + ", using an inverse grid.");
             }
         }
     }
@@ -6,86 +6,546 @@
 
 package ch.ethz.karto.gui;
 
-import java.io.BufferedReader;
+import ch.ethz.karto.stream.GeometryStream;
+import ch.ethz.karto.stream.MapLineCollector;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.NoSuchElementException;
-import java.util.StringTokenizer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 /**
  * An importer for the ESRI Ungenerate file format.
+ *
+ * Files are parsed byte by byte without creating strings, and numbers are
+ * converted with a parser that is exact for up to 15 significant digits and
+ * falls back to Double.parseDouble() otherwise. Files are memory-mapped, and
+ * can be split into chunks at END lines that are parsed in parallel.
  * @author Bernhard Jenny, Institute of Cartography, ETH Zurich.
  */
 public class UngenerateImporter {
 
+    /**
+     * Size of the blocks read from an InputStream.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Maximum size of a memory-mapped part of a file.
+     */
+    private static final int MAX_MAPPED_SIZE = 1 << 30;
+
+    /**
+     * Approximate size of the chunks of a file that are parsed in parallel.
+     */
+    private static final int CHUNK_SIZE = 8 << 20;
+
+    /**
+     * Size of the memory-mapped windows used to search for END lines.
+     */
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    /**
+     * Exact powers of ten.
+     */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
     private UngenerateImporter() {
     }
-    
+
     /**
      * Reads an Ungenerate file and returns the found lines in a Vector.
      * @param filePath The file to import.
      * @return A Vector containing all read MapLines.
      */
     public static ArrayList<MapLine> importData(String filePath) throws IOException {
-        return importData (new FileInputStream(filePath));
+        MapLineCollector collector = new MapLineCollector();
+        importData(new File(filePath), collector);
+        return collector.getLines();
     }
-    
+
     public static ArrayList<MapLine> importData(InputStream inputStream) throws IOException {
-        // store the read lines in this vector.
-        ArrayList<MapLine> lines = new ArrayList<MapLine>();
-        
-        // open the file
-        BufferedReader in = new BufferedReader(new InputStreamReader(inputStream));
-        
-        // read lines until we reach the end of the file
+        // store the read lines in a vector.
+        MapLineCollector collector = new MapLineCollector();
+        importData(inputStream, collector);
+        return collector.getLines();
+    }
+
+    /**
+     * Reads an Ungenerate file and passes the lines to a geometry stream,
+     * without storing them. end() is called on the stream after the last
+     * line.
+     * @param inputStream The data to read. It is closed when all data has
+     * been read.
+     * @param stream Receives the read lines.
+     */
+    public static void importData(InputStream inputStream, GeometryStream stream)
+            throws IOException {
+
+        Parser parser = new Parser(stream);
         try {
-            String idStr;
-            while ((idStr = in.readLine()) != null) {
-                MapLine line = readLine(in);
-                if (line != null) {
-                    lines.add(line);
-                }
+            byte[] block = new byte[BLOCK_SIZE];
+            int n;
+            while ((n = inputStream.read(block)) >= 0) {
+                parser.parse(ByteBuffer.wrap(block, 0, n), false);
             }
+            parser.parse(ByteBuffer.wrap(block, 0, 0), true);
         } finally {
-            in.close();
+            inputStream.close();
         }
-        
-        // return the read lines
-        return lines;
+        stream.end();
     }
-    
+
     /**
-     * Reads a MapLine from the current file position.
-     * @param in The reader that provides the data to read.
-     * @return MapLine The read line.
+     * Reads a memory-mapped Ungenerate file and passes the lines to a
+     * geometry stream. end() is called on the stream after the last line.
+     * @param file The file to read.
+     * @param stream Receives the read lines.
      */
-    private static MapLine readLine(BufferedReader in) throws java.io.IOException {
-        String str;
-        MapLine line = new MapLine();
-        
-        while (true) {
-            str = in.readLine();
-            if (str == null || str.length() == 0) {
-                break;
-            }
-            str = str.trim().toLowerCase();
-            if (str.startsWith("end") ) {
-                break;
+    public static void importData(File file, GeometryStream stream) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            Parser parser = new Parser(stream);
+            // the parser keeps incomplete lines at the end of a mapped part
+            for (long start = 0; start < size; start += MAX_MAPPED_SIZE) {
+                long length = Math.min(MAX_MAPPED_SIZE, size - start);
+                parser.parse(channel.map(FileChannel.MapMode.READ_ONLY, start, length), false);
             }
+            parser.parse(ByteBuffer.allocate(0), true);
+        }
+        stream.end();
+    }
+
+    /**
+     * Reads an Ungenerate file in parallel. The file is split into chunks
+     * after END lines, and the chunks are parsed by the executor. The lines
+     * are passed to the geometry stream in the order of the file by the
+     * calling thread. end() is called on the stream after the last line.
+     * @param file The file to read.
+     * @param stream Receives the read lines.
+     * @param executor The executor parsing the chunks.
+     */
+    public static void importData(File file, GeometryStream stream,
+            ExecutorService executor) throws IOException {
+
+        try (FileInputStream in = new FileInputStream(file)) {
+            final FileChannel channel = in.getChannel();
+            final long size = channel.size();
+            final int maxPending = Runtime.getRuntime().availableProcessors() * 2;
+            ArrayDeque<Future<LineBuffer>> pending = new ArrayDeque<>();
             try {
-                StringTokenizer tokenizer = new StringTokenizer(str, " \t,");
-                double x = Double.parseDouble((String)tokenizer.nextToken());
-                double y = Double.parseDouble((String)tokenizer.nextToken());
-                line.addPoint(x, y);
-            } catch (NoSuchElementException e) {
-                // found a line without any readable data. Just read the next line
+                long start = 0;
+                while (start < size || !pending.isEmpty()) {
+                    // keep a limited number of chunks in memory
+                    while (start < size && pending.size() < maxPending) {
+                        final long chunkStart = start;
+                        final long chunkEnd = findChunkEnd(channel, start + CHUNK_SIZE, size);
+                        if (chunkEnd - chunkStart > Integer.MAX_VALUE) {
+                            throw new IOException("line too long at byte " + chunkStart);
+                        }
+                        pending.add(executor.submit(new Callable<LineBuffer>() {
+                            public LineBuffer call() throws IOException {
+                                LineBuffer lines = new LineBuffer();
+                                new Parser(lines).parse(channel.map(FileChannel.MapMode.READ_ONLY,
+                                        chunkStart, chunkEnd - chunkStart), true);
+                                return lines;
+                            }
+                        }));
+                        start = chunkEnd;
+                    }
+                    pending.poll().get().replay(stream);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(String.valueOf(cause));
+            } finally {
+                for (Future<LineBuffer> future : pending) {
+                    future.cancel(true);
+                }
+            }
+        }
+        stream.end();
+    }
+
+    /**
+     * Reads an Ungenerate file in parallel and returns the found lines.
+     * @param file The file to read.
+     * @param executor The executor parsing the chunks of the file.
+     * @return The lines in the order of the file.
+     */
+    public static ArrayList<MapLine> importData(File file, ExecutorService executor)
+            throws IOException {
+        MapLineCollector collector = new MapLineCollector();
+        importData(file, collector, executor);
+        return collector.getLines();
+    }
+
+    /**
+     * Returns the position after the first END line that ends at or after a
+     * position, or the size of the file if there is no such line. The line
+     * containing the position is not tested, as its start is not known.
+     */
+    private static long findChunkEnd(FileChannel channel, long from, long size)
+            throws IOException {
+        Window window = new Window(channel, size);
+        // the number of characters of END found at the start of the current
+        // line, or -1 if the line does not start with END
+        int matched = -1;
+        for (long pos = from; pos < size; pos++) {
+            final byte b = window.get(pos);
+            if (b == '\n' || b == '\r') {
+                long next = pos + 1;
+                if (b == '\r' && next < size && window.get(next) == '\n') {
+                    next++;
+                }
+                if (matched == 3) {
+                    return next;
+                }
+                matched = 0;
+                pos = next - 1;
+            } else if (matched >= 0 && matched < 3) {
+                if (matched == 0 && (b & 0xff) <= ' ') {
+                    continue;
+                }
+                matched = (b | 0x20) == "end".charAt(matched) ? matched + 1 : -1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Reads single bytes of a file through a memory-mapped window.
+     */
+    private static final class Window {
+
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer buffer = null;
+        private long start = 0;
+
+        Window(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        byte get(long pos) throws IOException {
+            if (buffer == null || pos < start || pos >= start + buffer.limit()) {
+                start = pos;
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+                        Math.min(WINDOW_SIZE, size - pos));
+            }
+            return buffer.get((int) (pos - start));
+        }
+    }
+
+    /**
+     * Stores lines in packed arrays until they are passed to a stream.
+     */
+    private static final class LineBuffer implements GeometryStream {
+
+        private double[] coords = new double[1024];
+        private int nbrPoints = 0;
+
+        /**
+         * The index of the first point of each line.
+         */
+        private int[] lineStarts = new int[64];
+        private int nbrLines = 0;
+
+        public void polygonStart() {
+        }
+
+        public void polygonEnd() {
+        }
+
+        public void lineStart() {
+            if (nbrLines == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, nbrLines * 2);
+            }
+            lineStarts[nbrLines++] = nbrPoints;
+        }
+
+        public void point(double x, double y) {
+            if (coords.length < nbrPoints * 2 + 2) {
+                coords = Arrays.copyOf(coords, coords.length * 2);
+            }
+            coords[nbrPoints * 2] = x;
+            coords[nbrPoints * 2 + 1] = y;
+            nbrPoints++;
+        }
+
+        public void lineEnd() {
+        }
+
+        public void end() {
+        }
+
+        /**
+         * Passes the stored lines to a stream, without calling end().
+         */
+        void replay(GeometryStream stream) {
+            for (int i = 0; i < nbrLines; i++) {
+                final int end = i + 1 < nbrLines ? lineStarts[i + 1] : nbrPoints;
+                stream.lineStart();
+                for (int p = lineStarts[i]; p < end; p++) {
+                    stream.point(coords[p * 2], coords[p * 2 + 1]);
+                }
+                stream.lineEnd();
             }
         }
-        return line;
     }
 
+    /**
+     * Parses Ungenerate data and passes the lines to a stream. Each line
+     * starts with a line containing its ID, which is ignored, followed by one
+     * point per line with x and y separated by spaces, tabs or commas, and
+     * ends with END or an empty line. Lines of text with a single value are
+     * ignored.
+     */
+    private static final class Parser {
+
+        private final GeometryStream stream;
+
+        /**
+         * True after the ID of a line has been read, until the line ends.
+         */
+        private boolean inLine = false;
+
+        /**
+         * Data copied from buffers, starting with an incomplete line of text
+         * left by the previous call to parse().
+         */
+        private byte[] block = new byte[BLOCK_SIZE];
+        private int blockSize = 0;
+
+        Parser(GeometryStream stream) {
+            this.stream = stream;
+        }
+
+        /**
+         * Parses the data between the position and the limit of a buffer. An
+         * incomplete last line of text is kept until the next call.
+         * @param buffer The data. Its position is moved to its limit.
+         * @param endOfInput If true, the data ends at the limit of the buffer,
+         * and the last line of text is parsed even if it does not end with a
+         * line break.
+         */
+        void parse(ByteBuffer buffer, boolean endOfInput) {
+            do {
+                final int n = Math.min(buffer.remaining(), block.length - blockSize);
+                buffer.get(block, blockSize, n);
+                blockSize += n;
+                final int parsed = parse(block, blockSize,
+                        endOfInput && !buffer.hasRemaining());
+                System.arraycopy(block, parsed, block, 0, blockSize - parsed);
+                blockSize -= parsed;
+                if (blockSize == block.length) {
+                    // a line of text longer than the block
+                    block = Arrays.copyOf(block, block.length * 2);
+                }
+            } while (buffer.hasRemaining());
+        }
+
+        /**
+         * Parses the complete lines of text at the start of an array.
+         * @return The number of parsed bytes.
+         */
+        private int parse(byte[] b, int end, boolean endOfInput) {
+            int pos = 0;
+            while (pos < end) {
+                int eol = pos;
+                while (eol < end && b[eol] != '\n' && b[eol] != '\r') {
+                    eol++;
+                }
+                int next;
+                if (eol == end) {
+                    if (!endOfInput) {
+                        break;
+                    }
+                    next = end;
+                } else if (b[eol] == '\n') {
+                    next = eol + 1;
+                } else if (eol + 1 < end) {
+                    next = b[eol + 1] == '\n' ? eol + 2 : eol + 1;
+                } else if (endOfInput) {
+                    next = end;
+                } else {
+                    // a CR at the end of the data may be followed by a LF
+                    break;
+                }
+                parseLine(b, pos, eol);
+                pos = next;
+            }
+            if (endOfInput && inLine) {
+                stream.lineEnd();
+                inLine = false;
+            }
+            return pos;
+        }
+
+        private void parseLine(byte[] b, int start, int end) {
+            if (!inLine) {
+                // the ID of a new line
+                stream.lineStart();
+                inLine = true;
+                return;
+            }
+            if (start == end) {
+                stream.lineEnd();
+                inLine = false;
+                return;
+            }
+
+            // ignore leading and trailing white space
+            while (start < end && (b[start] & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (b[end - 1] & 0xff) <= ' ') {
+                end--;
+            }
+            if (end - start >= 3 && (b[start] | 0x20) == 'e'
+                    && (b[start + 1] | 0x20) == 'n' && (b[start + 2] | 0x20) == 'd') {
+                stream.lineEnd();
+                inLine = false;
+                return;
+            }
+
+            int xStart = skipSeparators(b, start, end);
+            int xEnd = skipToken(b, xStart, end);
+            if (xStart == xEnd) {
+                return;
+            }
+            final double x = parseNumber(b, xStart, xEnd);
+            int yStart = skipSeparators(b, xEnd, end);
+            int yEnd = skipToken(b, yStart, end);
+            if (yStart == yEnd) {
+                return;
+            }
+            final double y = parseNumber(b, yStart, yEnd);
+            stream.point(x, y);
+        }
+
+        private static boolean isSeparator(byte b) {
+            return b == ' ' || b == '\t' || b == ',';
+        }
+
+        private static int skipSeparators(byte[] b, int pos, int end) {
+            while (pos < end && isSeparator(b[pos])) {
+                pos++;
+            }
+            return pos;
+        }
+
+        private static int skipToken(byte[] b, int pos, int end) {
+            while (pos < end && !isSeparator(b[pos])) {
+                pos++;
+            }
+            return pos;
+        }
+
+        /**
+         * Converts a decimal number. If the mantissa is at most 2^53 and the
+         * exponent is at most 22, the mantissa and the power of ten are exact
+         * doubles and a single multiplication or division rounds correctly.
+         * All other numbers are converted by Double.parseDouble().
+         */
+        private static double parseNumber(byte[] b, int start, int end) {
+            int pos = start;
+            final boolean negative = b[pos] == '-';
+            if (b[pos] == '-' || b[pos] == '+') {
+                pos++;
+            }
+
+            // up to 18 significant digits fit into a long
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean found = false;
+            byte c;
+            while (pos < end && (c = b[pos]) >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                } else {
+                    exponent++;
+                }
+                if (mantissa > 0) {
+                    digits++;
+                }
+                found = true;
+                pos++;
+            }
+            if (pos < end && b[pos] == '.') {
+                pos++;
+                while (pos < end && (c = b[pos]) >= '0' && c <= '9') {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (c - '0');
+                        exponent--;
+                    }
+                    if (mantissa > 0) {
+                        digits++;
+                    }
+                    found = true;
+                    pos++;
+                }
+            }
+            if (found && pos < end && (b[pos] | 0x20) == 'e') {
+                pos++;
+                final boolean negativeExponent = pos < end && b[pos] == '-';
+                if (pos < end && (b[pos] == '-' || b[pos] == '+')) {
+                    pos++;
+                }
+                int e = 0;
+                found = false;
+                while (pos < end && (c = b[pos]) >= '0' && c <= '9' && e < 10000) {
+                    e = e * 10 + (c - '0');
+                    found = true;
+                    pos++;
+                }
+                exponent += negativeExponent ? -e : e;
+            }
+
+            if (found && pos == end && digits <= 18 && mantissa <= (1L << 53)) {
+                if (mantissa == 0) {
+                    return negative ? -0d : 0d;
+                }
+                if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+                    final double value = mantissa * POWERS_OF_TEN[exponent];
+                    return negative ? -value : value;
+                }
+                if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+                    final double value = mantissa / POWERS_OF_TEN[-exponent];
+                    return negative ? -value : value;
+                }
+            }
+            return Double.parseDouble(new String(b, start, end - start, StandardCharsets.ISO_8859_1));
+        }
+    }
 }
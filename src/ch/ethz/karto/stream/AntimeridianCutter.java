@@ -0,0 +1,293 @@
+package ch.ethz.karto.stream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * AntimeridianCutter cuts lines and polygons in geographic coordinates
+ * (degrees) along the meridian opposite to a central meridian lon0. The
+ * longitudes passed on are between lon0 - 180 and lon0 + 180. A segment
+ * crossing the antimeridian is split at lon0 + 180 and lon0 - 180, with the
+ * latitude of the intersection interpolated linearly in longitude and
+ * latitude, as LineProjector does.
+ *
+ * Lines are split into separate lines. Rings of polygons are cut into pieces
+ * that are joined along the antimeridian and the poles to form closed rings
+ * again. The interior of a ring must be on its right side, that is, exterior
+ * rings are clockwise and holes are counterclockwise, as in shapefiles. A
+ * ring around a pole crosses the antimeridian once and encloses the pole on
+ * its right side. The rings of a polygon that crosses the antimeridian are
+ * buffered until polygonEnd(), all other geometry is passed on point by
+ * point.
+ */
+public class AntimeridianCutter extends StreamFilter {
+
+    /**
+     * The length of the boundary of the rectangle between -180 and +180
+     * degrees relative to lon0 and -90 and +90 degrees latitude. The boundary
+     * is walked clockwise, starting at the north-east corner.
+     */
+    private static final double BOUNDARY_LENGTH = 1080;
+
+    /**
+     * The positions of the north-east, south-east, south-west and north-west
+     * corners along the boundary.
+     */
+    private static final double[] CORNERS = {0, 180, 540, 720};
+    private static final double[] CORNER_X = {180, 180, -180, -180};
+    private static final double[] CORNER_Y = {90, -90, -90, 90};
+
+    private final double lon0;
+
+    /**
+     * The previous point of the current line, with the longitude relative to
+     * lon0.
+     */
+    private boolean hasPrevious = false;
+    private double prevX;
+    private double prevY;
+
+    /**
+     * The points of the current ring with longitudes relative to lon0.
+     */
+    private double[] ring = new double[64];
+    private int ringSize = 0;
+
+    /**
+     * The pieces of the cut rings of the current polygon.
+     */
+    private final ArrayList<Piece> pieces = new ArrayList<>();
+
+    /**
+     * Creates a cutter.
+     * @param lon0 The central meridian in degrees.
+     * @param out The next stage.
+     */
+    public AntimeridianCutter(double lon0, GeometryStream out) {
+        super(out);
+        this.lon0 = lon0;
+    }
+
+    @Override
+    public void polygonEnd() {
+        rejoin();
+        super.polygonEnd();
+    }
+
+    @Override
+    public void lineStart() {
+        hasPrevious = false;
+        if (inPolygon) {
+            ringSize = 0;
+        } else {
+            out.lineStart();
+        }
+    }
+
+    @Override
+    public void point(double lon, double lat) {
+        double x = lon - lon0;
+        x -= 360 * Math.floor((x + 180) / 360);
+        if (x == -180 && hasPrevious && prevX > 0) {
+            // keep points on the antimeridian on the side of the previous point
+            x = 180;
+        }
+        if (inPolygon) {
+            if (ring.length < ringSize * 2 + 2) {
+                ring = Arrays.copyOf(ring, ring.length * 2);
+            }
+            ring[ringSize * 2] = x;
+            ring[ringSize * 2 + 1] = lat;
+            ringSize++;
+        } else {
+            if (hasPrevious && Math.abs(x - prevX) > 180) {
+                final double side = prevX > 0 ? 180 : -180;
+                final double t = (side - prevX) / (x + 2 * side - prevX);
+                final double latCut = prevY + t * (lat - prevY);
+                if (t > 0) {
+                    out.point(lon0 + side, latCut);
+                }
+                out.lineEnd();
+                out.lineStart();
+                out.point(lon0 - side, latCut);
+            }
+            out.point(lon0 + x, lat);
+        }
+        hasPrevious = true;
+        prevX = x;
+        prevY = lat;
+    }
+
+    @Override
+    public void lineEnd() {
+        if (inPolygon) {
+            ringEnd();
+        } else {
+            out.lineEnd();
+        }
+    }
+
+    /**
+     * Cuts the current ring. A ring that does not cross the antimeridian is
+     * passed on, the pieces of other rings are stored.
+     */
+    private void ringEnd() {
+        if (ringSize == 0) {
+            return;
+        }
+        final int firstPiece = pieces.size();
+        Piece piece = new Piece();
+        piece.add(ring[0], ring[1]);
+        for (int i = 1; i < ringSize; i++) {
+            final double x0 = ring[i * 2 - 2];
+            final double y0 = ring[i * 2 - 1];
+            final double x = ring[i * 2];
+            final double y = ring[i * 2 + 1];
+            if (Math.abs(x - x0) > 180) {
+                final double side = x0 > 0 ? 180 : -180;
+                final double t = (side - x0) / (x + 2 * side - x0);
+                final double yCut = y0 + t * (y - y0);
+                if (t > 0) {
+                    piece.add(side, yCut);
+                }
+                pieces.add(piece);
+                piece = new Piece();
+                piece.add(-side, yCut);
+            }
+            piece.add(x, y);
+        }
+
+        if (pieces.size() == firstPiece) {
+            out.lineStart();
+            for (int i = 0; i < ringSize; i++) {
+                out.point(lon0 + ring[i * 2], ring[i * 2 + 1]);
+            }
+            out.lineEnd();
+            return;
+        }
+
+        // the ring is closed, so the last piece continues with the first
+        Piece first = pieces.get(firstPiece);
+        final boolean closed = piece.x(piece.size - 1) == first.x(0)
+                && piece.y(piece.size - 1) == first.y(0);
+        piece.append(first, closed ? 1 : 0);
+        pieces.set(firstPiece, piece);
+    }
+
+    /**
+     * Joins the pieces of the cut rings along the boundary and passes the
+     * resulting rings on. From the end of a piece, the boundary is followed
+     * clockwise to the closest start of a piece.
+     */
+    private void rejoin() {
+        final int nbrPieces = pieces.size();
+        final boolean[] used = new boolean[nbrPieces];
+        for (int first = 0; first < nbrPieces; first++) {
+            if (used[first]) {
+                continue;
+            }
+            used[first] = true;
+            Piece piece = pieces.get(first);
+            out.lineStart();
+            while (true) {
+                for (int i = 0; i < piece.size; i++) {
+                    out.point(lon0 + piece.x(i), piece.y(i));
+                }
+
+                // find the closest piece start clockwise along the boundary
+                final double end = piece.endPosition();
+                int next = first;
+                double nextDist = distance(end, pieces.get(first).startPosition());
+                for (int j = 0; j < nbrPieces; j++) {
+                    if (!used[j]) {
+                        final double d = distance(end, pieces.get(j).startPosition());
+                        if (d < nextDist) {
+                            next = j;
+                            nextDist = d;
+                        }
+                    }
+                }
+
+                // add the corners passed on the way, which are in clockwise
+                // order starting after the corner preceding the end point
+                final int c0 = end >= 720 ? 3 : end >= 540 ? 2 : end >= 180 ? 1 : 0;
+                for (int i = 1; i <= CORNERS.length; i++) {
+                    final int c = (c0 + i) % CORNERS.length;
+                    final double d = distance(end, CORNERS[c]);
+                    if (d == 0 || d >= nextDist) {
+                        break;
+                    }
+                    out.point(lon0 + CORNER_X[c], CORNER_Y[c]);
+                }
+
+                if (next == first) {
+                    // close the ring
+                    final Piece start = pieces.get(first);
+                    out.point(lon0 + start.x(0), start.y(0));
+                    break;
+                }
+                used[next] = true;
+                piece = pieces.get(next);
+            }
+            out.lineEnd();
+        }
+        pieces.clear();
+    }
+
+    /**
+     * Returns the distance along the boundary from position t0 clockwise to
+     * position t1.
+     */
+    private static double distance(double t0, double t1) {
+        final double d = t1 - t0;
+        return d - BOUNDARY_LENGTH * Math.floor(d / BOUNDARY_LENGTH);
+    }
+
+    /**
+     * Returns the position of a point on the antimeridian along the boundary.
+     */
+    private static double position(double x, double y) {
+        return x > 0 ? 90 - y : 630 + y;
+    }
+
+    /**
+     * A piece of a ring starting and ending on the antimeridian, with
+     * longitudes relative to lon0.
+     */
+    private static final class Piece {
+
+        private double[] coords = new double[16];
+        private int size = 0;
+
+        void add(double x, double y) {
+            if (coords.length < size * 2 + 2) {
+                coords = Arrays.copyOf(coords, coords.length * 2);
+            }
+            coords[size * 2] = x;
+            coords[size * 2 + 1] = y;
+            size++;
+        }
+
+        void append(Piece piece, int from) {
+            for (int i = from; i < piece.size; i++) {
+                add(piece.x(i), piece.y(i));
+            }
+        }
+
+        double x(int i) {
+            return coords[i * 2];
+        }
+
+        double y(int i) {
+            return coords[i * 2 + 1];
+        }
+
+        double startPosition() {
+            return position(coords[0], coords[1]);
+        }
+
+        double endPosition() {
+            return position(coords[size * 2 - 2], coords[size * 2 - 1]);
+        }
+    }
+}
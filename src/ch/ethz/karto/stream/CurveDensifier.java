@@ -0,0 +1,174 @@
+package ch.ethz.karto.stream;
+
+/**
+ * CurveDensifier adds intermediate points along a segment that is curved
+ * after projection. The middle point of the segment in geographic coordinates
+ * is projected; if its distance to the straight line between the projected end
+ * points is larger than the curve tolerance, both halves are refined in the
+ * same way. The halves are kept on an explicit stack instead of recursing, and
+ * every point is projected once. Refinement stops at the maximum depth and
+ * when the maximum number of points for the segment has been added.
+ *
+ * Derived classes project points and receive the added points. A densifier is
+ * used by a single thread.
+ */
+public abstract class CurveDensifier {
+
+    /**
+     * The default maximum number of times a segment is halved.
+     */
+    public static final int DEFAULT_MAX_DEPTH = 16;
+
+    /**
+     * The default maximum number of points added along a single segment.
+     */
+    public static final int DEFAULT_MAX_POINTS = 4096;
+
+    /**
+     * The square of the curve tolerance in projected units.
+     */
+    private final double toleranceSq;
+
+    private final int maxDepth;
+
+    private final int maxPoints;
+
+    /**
+     * The end points of the pending sub-segments: lon, lat, x, y.
+     */
+    private final double[] stack;
+    private final int[] depths;
+
+    /**
+     * The projected middle point.
+     */
+    private final double[] xy = new double[2];
+
+    /**
+     * Creates a densifier with the default maximum depth and number of points.
+     * @param curveTolerance The maximum distance between a curved projected
+     * line and the straight segments approximating it, in projected units.
+     */
+    protected CurveDensifier(double curveTolerance) {
+        this(curveTolerance, DEFAULT_MAX_DEPTH, DEFAULT_MAX_POINTS);
+    }
+
+    /**
+     * Creates a densifier.
+     * @param curveTolerance The maximum distance between a curved projected
+     * line and the straight segments approximating it, in projected units.
+     * @param maxDepth The maximum number of times a segment is halved.
+     * @param maxPoints The maximum number of points added along a single
+     * segment.
+     */
+    protected CurveDensifier(double curveTolerance, int maxDepth, int maxPoints) {
+        if (!(curveTolerance >= 0)) {
+            throw new IllegalArgumentException("negative tolerance");
+        }
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("negative depth");
+        }
+        this.toleranceSq = curveTolerance * curveTolerance;
+        this.maxDepth = maxDepth;
+        this.maxPoints = maxPoints;
+        stack = new double[(maxDepth + 1) * 4];
+        depths = new int[maxDepth + 1];
+    }
+
+    /**
+     * Projects a point.
+     * @param lon The longitude in degrees.
+     * @param lat The latitude in degrees.
+     * @param xy Receives the projected point.
+     * @return False if the point cannot be projected.
+     */
+    protected abstract boolean project(double lon, double lat, double[] xy);
+
+    /**
+     * Receives an intermediate point.
+     */
+    protected abstract void addPoint(double x, double y);
+
+    /**
+     * Returns the longitude of the middle point of a segment.
+     */
+    protected double meanLongitude(double lon1, double lon2) {
+        return (lon1 + lon2) * 0.5;
+    }
+
+    /**
+     * Passes intermediate points between a start point and an end point to
+     * addPoint(), not including the start and the end point.
+     * @return False if the middle point of the segment cannot be projected,
+     * in which case no points are added.
+     */
+    public final boolean densify(double lonStart, double latStart,
+            double xStart, double yStart,
+            double lonEnd, double latEnd, double xEnd, double yEnd) {
+        int top = 0;
+        stack[0] = lonEnd;
+        stack[1] = latEnd;
+        stack[2] = xEnd;
+        stack[3] = yEnd;
+        depths[0] = 0;
+
+        // the start point of the sub-segment on top of the stack
+        double lon = lonStart;
+        double lat = latStart;
+        double x = xStart;
+        double y = yStart;
+
+        int remainingPoints = maxPoints;
+        while (top >= 0) {
+            final int i = top * 4;
+            final double lonE = stack[i];
+            final double latE = stack[i + 1];
+            final double xE = stack[i + 2];
+            final double yE = stack[i + 3];
+            if (depths[top] < maxDepth && remainingPoints > 0) {
+                final double lonMean = meanLongitude(lon, lonE);
+                final double latMean = (lat + latE) * 0.5;
+                if (project(lonMean, latMean, xy)) {
+                    if (distanceSquare(xy[0], xy[1], x, y, xE, yE) > toleranceSq) {
+                        // refine the first half next, then the second half
+                        final int depth = ++depths[top];
+                        top++;
+                        stack[i + 4] = lonMean;
+                        stack[i + 5] = latMean;
+                        stack[i + 6] = xy[0];
+                        stack[i + 7] = xy[1];
+                        depths[top] = depth;
+                        continue;
+                    }
+                } else if (top == 0 && depths[0] == 0) {
+                    // the middle of the segment cannot be projected
+                    return false;
+                }
+            }
+            // the end point of the whole segment is not added
+            if (top > 0) {
+                addPoint(xE, yE);
+                remainingPoints--;
+            }
+            top--;
+            lon = lonE;
+            lat = latE;
+            x = xE;
+            y = yE;
+        }
+        return true;
+    }
+
+    /**
+     * Square distance between the point (x0, y0) and the line through
+     * (x1, y1) and (x2, y2).
+     * See http://mathworld.wolfram.com/Point-LineDistance2-Dimensional.html
+     */
+    private static double distanceSquare(double x0, double y0,
+            double x1, double y1, double x2, double y2) {
+        final double dx = x2 - x1;
+        final double dy = y2 - y1;
+        final double d = dx * (y1 - y0) - (x1 - x0) * dy;
+        return d * d / (dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,376 @@
+package ch.ethz.karto.stream;
+
+/**
+ * DouglasPeuckerSimplifier simplifies lines with the Douglas-Peucker
+ * algorithm: a section of a line is replaced by the segment between its end
+ * points if no point of the section is farther from the line through the end
+ * points than the tolerance, otherwise the section is split at the farthest
+ * point. Sections are kept on an explicit stack. The sections between shared
+ * vertices are simplified independently.
+ *
+ * The farthest point of a section is first found by searching all its
+ * points. This takes O(n log n) time if the farthest points split the
+ * sections evenly, which is typical for cartographic lines, but O(n^2) time
+ * if they are close to the ends of the sections. When the searched points
+ * exceed SCAN_FACTOR * n * log2(n), the remaining sections are simplified
+ * with the path hull of Hershberger and Snoeyink: the convex hulls of the
+ * points from a tag point in the middle of a section to either end, which
+ * are searched in O(log n) time. When a section is split, the part
+ * containing the tag keeps its hulls by undoing the points of the other
+ * part, which is built anew and has at most half the size of the section.
+ * The time needed is therefore O(n log n) in the worst case.
+ *
+ * The hulls are built with Melkman's algorithm, which is only exact for
+ * lines that do not intersect themselves. A section is therefore only
+ * accepted after all its points have been searched. Accepted sections do not
+ * overlap, so this takes O(n) time in total, and self-intersecting lines are
+ * simplified correctly, but possibly more slowly.
+ */
+public class DouglasPeuckerSimplifier extends Simplifier {
+
+    /**
+     * The limit of searched points, per point and per binary digit of the
+     * number of points, after which the path hull is used. Typical lines
+     * need less than 1.5.
+     */
+    private static final int SCAN_FACTOR = 3;
+
+    /**
+     * The limit used by this simplifier. Tests set it to 0 to always use the
+     * path hull.
+     */
+    int scanFactor = SCAN_FACTOR;
+
+    private int[] stack = new int[64];
+    private final double[] distance = new double[1];
+
+    /**
+     * The path hull of the current section: the hull of the points from the
+     * tag to the start of the section, and from the tag to the end.
+     */
+    private final Hull left = new Hull();
+    private final Hull right = new Hull();
+
+    /**
+     * Creates a simplifier.
+     * @param tolerance The maximum distance between a removed point and the
+     * simplified line, in projected units.
+     * @param out The next stage.
+     */
+    public DouglasPeuckerSimplifier(double tolerance, GeometryStream out) {
+        super(tolerance, out);
+    }
+
+    @Override
+    protected void simplify(double[] coords, int n, boolean[] keep, boolean ring) {
+        if (ring) {
+            // a closed line is split at the point farthest from its start,
+            // and at the point farthest from the resulting diameter, so
+            // that at least a triangle remains
+            final int i = farthestPoint(coords, 0, n - 1, distance);
+            keep[i] = true;
+            final int i0 = farthestPoint(coords, 0, i, distance);
+            final double d0 = distance[0];
+            final int i1 = farthestPoint(coords, i, n - 1, distance);
+            keep[i1 < 0 || (i0 >= 0 && d0 >= distance[0]) ? i0 : i1] = true;
+        }
+
+        final double toleranceSq = tolerance * tolerance;
+        if (stack.length < n * 2) {
+            stack = new int[n * 2];
+        }
+        // push the sections between points that are kept
+        int top = 0;
+        int start = 0;
+        for (int i = 1; i < n; i++) {
+            if (keep[i]) {
+                stack[top++] = start;
+                stack[top++] = i;
+                start = i;
+            }
+        }
+
+        // search all points until the work exceeds the limit
+        final long maxScanWork = (long) scanFactor * n * (32 - Integer.numberOfLeadingZeros(n));
+        long scanWork = 0;
+        while (top > 0 && scanWork <= maxScanWork) {
+            final int i1 = stack[--top];
+            final int i0 = stack[--top];
+            if (i1 - i0 < 2) {
+                continue;
+            }
+            final int i = farthestPoint(coords, i0, i1);
+            scanWork += i1 - i0;
+            if (distance[0] > toleranceSq) {
+                keep[i] = true;
+                stack[top++] = i0;
+                stack[top++] = i;
+                stack[top++] = i;
+                stack[top++] = i1;
+            }
+        }
+
+        // the remaining sections on the stack have no hulls yet
+        if (top > 0) {
+            left.ensureCapacity(n);
+            right.ensureCapacity(n);
+        }
+        while (top > 0) {
+            int i1 = stack[--top];
+            int i0 = stack[--top];
+            if (i1 - i0 < 2) {
+                continue;
+            }
+            final int tag = (i0 + i1) >>> 1;
+            left.build(coords, tag, i0);
+            right.build(coords, tag, i1);
+
+            while (i1 - i0 > 1) {
+                int i = farthestHullPoint(coords, i0, i1);
+                if (distance[0] <= toleranceSq) {
+                    // search all points before accepting the section, as the
+                    // hulls of self-intersecting lines can be wrong
+                    i = farthestPoint(coords, i0, i1);
+                    if (distance[0] <= toleranceSq) {
+                        break;
+                    }
+                }
+                keep[i] = true;
+                if (i < tag) {
+                    stack[top++] = i0;
+                    stack[top++] = i;
+                    left.undo(i - i0);
+                    i0 = i;
+                } else if (i > tag) {
+                    stack[top++] = i;
+                    stack[top++] = i1;
+                    right.undo(i1 - i);
+                    i1 = i;
+                } else {
+                    stack[top++] = i0;
+                    stack[top++] = i;
+                    stack[top++] = i;
+                    stack[top++] = i1;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the point between i0 and i1 farthest from the line through them,
+     * or from the point i0 if i0 and i1 are equal, and stores the square of
+     * the distance in distance[0]. All points are searched.
+     */
+    private int farthestPoint(double[] coords, int i0, int i1) {
+        final double x0 = coords[i0 * 2];
+        final double y0 = coords[i0 * 2 + 1];
+        final double dx = coords[i1 * 2] - x0;
+        final double dy = coords[i1 * 2 + 1] - y0;
+        final double lengthSq = dx * dx + dy * dy;
+        if (lengthSq == 0) {
+            return farthestPoint(coords, i0, i1, distance);
+        }
+        int farthest = -1;
+        double maxCross = -1;
+        for (int i = i0 + 1; i < i1; i++) {
+            final double cross = Math.abs(dx * (coords[i * 2 + 1] - y0)
+                    - dy * (coords[i * 2] - x0));
+            if (cross > maxCross) {
+                maxCross = cross;
+                farthest = i;
+            }
+        }
+        distance[0] = maxCross * maxCross / lengthSq;
+        return farthest;
+    }
+
+    /**
+     * Returns the vertex of the path hull farthest from the line through the
+     * points i0 and i1, and stores the square of the distance in distance[0].
+     * The distance is 0 if the points i0 and i1 are equal.
+     */
+    private int farthestHullPoint(double[] coords, int i0, int i1) {
+        final double x0 = coords[i0 * 2];
+        final double y0 = coords[i0 * 2 + 1];
+        final double dx = coords[i1 * 2] - x0;
+        final double dy = coords[i1 * 2 + 1] - y0;
+        final double lengthSq = dx * dx + dy * dy;
+
+        // the extreme vertices of both hulls on both sides of the line
+        int farthest = i0;
+        double maxCross = 0;
+        for (int j = 0; j < 4; j++) {
+            Hull hull = j < 2 ? left : right;
+            final int i = (j & 1) == 0 ? hull.extreme(-dy, dx)
+                    : hull.extreme(dy, -dx);
+            final double cross = Math.abs(dx * (coords[i * 2 + 1] - y0)
+                    - dy * (coords[i * 2] - x0));
+            if (cross > maxCross) {
+                maxCross = cross;
+                farthest = i;
+            }
+        }
+        distance[0] = lengthSq == 0 ? 0 : maxCross * maxCross / lengthSq;
+        return farthest;
+    }
+
+    /**
+     * The convex hull of consecutive points of a line, built from a tag point
+     * towards one end with Melkman's algorithm. The vertices are in a deque in
+     * counterclockwise order, with the last added point at both ends. Every
+     * change to the deque is recorded, so that the last added points can be
+     * removed again.
+     */
+    private static final class Hull {
+
+        private static final int SKIP = 0;
+        private static final int PUSH = 1;
+        private static final int POP_TOP = 2;
+        private static final int POP_BOTTOM = 3;
+
+        /**
+         * The deque of point indices, from bottom to top.
+         */
+        private int[] deque = new int[0];
+        private int bottom;
+        private int top;
+
+        /**
+         * The changes to the deque: a point index shifted by 2 bits and one
+         * of SKIP, PUSH, POP_TOP or POP_BOTTOM. Points are limited to 2^30,
+         * so the unsigned value fits an int.
+         */
+        private int[] history = new int[0];
+        private int historySize;
+
+        private double[] coords;
+
+        /**
+         * Allocates space for hulls of up to n points.
+         */
+        void ensureCapacity(int n) {
+            if (deque.length < n * 2 + 4) {
+                deque = new int[n * 2 + 4];
+                history = new int[n * 3 + 3];
+            }
+        }
+
+        /**
+         * Builds the hull of the points from tag to end, which must be
+         * different.
+         */
+        void build(double[] coords, int tag, int end) {
+            this.coords = coords;
+            final int step = end > tag ? 1 : -1;
+            final int center = (deque.length - 3) / 2;
+            bottom = center;
+            top = center + 2;
+            deque[bottom] = tag + step;
+            deque[bottom + 1] = tag;
+            deque[top] = tag + step;
+            historySize = 0;
+            for (int i = tag + step * 2; i != end + step; i += step) {
+                add(i);
+            }
+        }
+
+        private void add(int p) {
+            if (!isRightOrOn(deque[top - 1], deque[top], p)
+                    && !isRightOrOn(deque[bottom], deque[bottom + 1], p)) {
+                // inside the hull
+                history[historySize++] = p << 2 | SKIP;
+                return;
+            }
+            while (top - bottom >= 2 && isRightOrOn(deque[top - 1], deque[top], p)) {
+                history[historySize++] = deque[top--] << 2 | POP_TOP;
+            }
+            while (top - bottom >= 2 && isRightOrOn(deque[bottom], deque[bottom + 1], p)) {
+                history[historySize++] = deque[bottom++] << 2 | POP_BOTTOM;
+            }
+            deque[++top] = p;
+            deque[--bottom] = p;
+            history[historySize++] = p << 2 | PUSH;
+        }
+
+        /**
+         * Removes the last added points.
+         * @param count The number of points to remove.
+         */
+        void undo(int count) {
+            while (count-- > 0) {
+                if ((history[--historySize] & 3) == SKIP) {
+                    continue;
+                }
+                top--;
+                bottom++;
+                while (historySize > 0 && (history[historySize - 1] & 3) >= POP_TOP) {
+                    final int h = history[--historySize];
+                    if ((h & 3) == POP_TOP) {
+                        deque[++top] = h >>> 2;
+                    } else {
+                        deque[--bottom] = h >>> 2;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the vertex with the largest projection on a direction. The
+         * directions of the edges increase counterclockwise from bottom to
+         * top; the vertex is where they turn away from the direction, which
+         * is found with a binary search.
+         */
+        int extreme(double nx, double ny) {
+            final double rx = x(deque[bottom + 1]) - x(deque[bottom]);
+            final double ry = y(deque[bottom + 1]) - y(deque[bottom]);
+            // direction of the edges at the extreme vertex
+            final double tx = -ny;
+            final double ty = nx;
+            final int tHalf = half(rx, ry, tx, ty);
+            int lo = bottom;
+            int hi = top;
+            while (lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                final double ex = x(deque[mid + 1]) - x(deque[mid]);
+                final double ey = y(deque[mid + 1]) - y(deque[mid]);
+                final int eHalf = half(rx, ry, ex, ey);
+                if (eHalf < tHalf || (eHalf == tHalf && ex * ty - ey * tx > 0)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            // the directions start at the bottom vertex, which can also be
+            // the extreme vertex
+            final int i = deque[lo];
+            final int b = deque[bottom];
+            return x(i) * nx + y(i) * ny >= x(b) * nx + y(b) * ny ? i : b;
+        }
+
+        /**
+         * Returns 0 if the angle from r to e is in [0, pi), and 1 otherwise.
+         */
+        private static int half(double rx, double ry, double ex, double ey) {
+            final double cross = rx * ey - ry * ex;
+            return cross > 0 || (cross == 0 && rx * ex + ry * ey > 0) ? 0 : 1;
+        }
+
+        /**
+         * Returns true if point p is not to the left of the line from a to b.
+         */
+        private boolean isRightOrOn(int a, int b, int p) {
+            final double ax = x(a);
+            final double ay = y(a);
+            return (x(b) - ax) * (y(p) - ay) - (y(b) - ay) * (x(p) - ax) <= 0;
+        }
+
+        private double x(int i) {
+            return coords[i * 2];
+        }
+
+        private double y(int i) {
+            return coords[i * 2 + 1];
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package ch.ethz.karto.stream;
+
+import ch.ethz.karto.gui.MapLine;
+import com.jhlabs.map.CoordinateBuffer;
+import java.awt.geom.Rectangle2D;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * GeometryFile reads lines from a binary file written by GeometryFileWriter.
+ * The file is memory-mapped and not parsed, so opening a file takes the same
+ * time for any number of lines, and the coordinates of a line are copied
+ * directly from the file to the arrays passed to the batch transformations of
+ * Projection.
+ *
+ * The file is little-endian and has four parts:
+ * <ul>
+ * <li>A header of 96 bytes: the int MAGIC, the int VERSION, the int type of
+ * coordinates FLOAT64 or INT32, an unused int, the long number of lines, the
+ * long number of points, the double resolution, the doubles x and y of the
+ * origin, the bounding box of all lines as the doubles xMin, yMin, xMax and
+ * yMax, and the long position of the index in the file.</li>
+ * <li>The coordinates of all points as x0, y0, x1, y1, ... Coordinates of
+ * type FLOAT64 are doubles. Coordinates of type INT32 are ints that are
+ * multiplied by the resolution and added to the origin.</li>
+ * <li>The index: for each line the long index of its first point, followed by
+ * the total number of points.</li>
+ * <li>The bounding box of each line as the doubles xMin, yMin, xMax and
+ * yMax.</li>
+ * </ul>
+ *
+ * A GeometryFile can be read by multiple threads.
+ */
+public class GeometryFile implements Closeable {
+
+    /**
+     * Coordinates stored as doubles.
+     */
+    public static final int FLOAT64 = 0;
+
+    /**
+     * Coordinates stored as ints on a regular grid.
+     */
+    public static final int INT32 = 1;
+
+    static final int MAGIC = 0x4B47454F;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 96;
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final RandomAccessFile file;
+    private final int coordinateType;
+    private final int nbrLines;
+    private final long nbrPoints;
+    private final double resolution;
+    private final double originX;
+    private final double originY;
+    private final Rectangle2D extension;
+
+    /**
+     * The coordinates, in segments of whole points, as DoubleBuffers or
+     * IntBuffers.
+     */
+    private final java.nio.Buffer[] segments;
+
+    /**
+     * The number of points per segment.
+     */
+    private final int segmentPoints;
+
+    private final LongBuffer index;
+    private final DoubleBuffer bounds;
+
+    private GeometryFile(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = this.file.getChannel();
+            final long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException(file + " is not a geometry file");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(BYTE_ORDER);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a geometry file");
+            }
+            if (header.getInt() != VERSION) {
+                throw new IOException(file + " has an unsupported version");
+            }
+            coordinateType = header.getInt();
+            if (coordinateType != FLOAT64 && coordinateType != INT32) {
+                throw new IOException(file + " has an unknown type of coordinates");
+            }
+            header.getInt();
+            final long lines = header.getLong();
+            nbrPoints = header.getLong();
+            resolution = header.getDouble();
+            originX = header.getDouble();
+            originY = header.getDouble();
+            final double xMin = header.getDouble();
+            final double yMin = header.getDouble();
+            final double xMax = header.getDouble();
+            final double yMax = header.getDouble();
+            final long indexOffset = header.getLong();
+
+            final int pointSize = coordinateType == FLOAT64 ? 16 : 8;
+            // compare the counts with the file length first, so that the
+            // sizes computed from them do not overflow
+            if (lines < 0 || lines > length || nbrPoints < 0 || nbrPoints > length) {
+                throw new IOException(file + " is truncated or damaged");
+            }
+            final long indexSize = (lines + 1) * 8;
+            final long boundsSize = lines * 32;
+            if (indexOffset != HEADER_SIZE + nbrPoints * pointSize
+                    || indexOffset + indexSize + boundsSize > length) {
+                throw new IOException(file + " is truncated or damaged");
+            }
+            if (boundsSize > Integer.MAX_VALUE) {
+                throw new IOException(file + " has too many lines");
+            }
+            nbrLines = (int) lines;
+            extension = nbrLines == 0 ? null
+                    : new Rectangle2D.Double(xMin, yMin, xMax - xMin, yMax - yMin);
+
+            segmentPoints = Integer.MAX_VALUE / pointSize;
+            segments = new java.nio.Buffer[(int) ((nbrPoints + segmentPoints - 1) / segmentPoints)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = HEADER_SIZE + (long) i * segmentPoints * pointSize;
+                long size = Math.min((long) segmentPoints * pointSize, indexOffset - start);
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                buffer.order(BYTE_ORDER);
+                if (coordinateType == FLOAT64) {
+                    segments[i] = buffer.asDoubleBuffer();
+                } else {
+                    segments[i] = buffer.asIntBuffer();
+                }
+            }
+            index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexSize)
+                    .order(BYTE_ORDER).asLongBuffer();
+            checkIndex(file);
+            bounds = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset + indexSize, boundsSize)
+                    .order(BYTE_ORDER).asDoubleBuffer();
+        } catch (IOException | RuntimeException exc) {
+            this.file.close();
+            throw exc;
+        }
+    }
+
+    /**
+     * Opens a file for reading.
+     * @param file The file written by GeometryFileWriter.
+     * @return The geometry file, which has to be closed.
+     */
+    public static GeometryFile open(File file) throws IOException {
+        return new GeometryFile(file);
+    }
+
+    /**
+     * Returns the type of the stored coordinates, FLOAT64 or INT32.
+     */
+    public int getCoordinateType() {
+        return coordinateType;
+    }
+
+    /**
+     * Returns the distance between grid points of coordinates of type INT32.
+     */
+    public double getResolution() {
+        return resolution;
+    }
+
+    public int getLineCount() {
+        return nbrLines;
+    }
+
+    /**
+     * Returns the number of points of all lines.
+     */
+    public long getPointCount() {
+        return nbrPoints;
+    }
+
+    /**
+     * Returns the number of points of a line.
+     * @param line The index of the line.
+     */
+    public int getPointCount(int line) {
+        checkLine(line);
+        return (int) (index.get(line + 1) - index.get(line));
+    }
+
+    /**
+     * Returns the bounding box of all lines, or null if there are no lines.
+     */
+    public Rectangle2D getExtension() {
+        return extension == null ? null : (Rectangle2D) extension.clone();
+    }
+
+    /**
+     * Returns the bounding box of a line.
+     * @param line The index of the line.
+     */
+    public Rectangle2D getBounds(int line) {
+        checkLine(line);
+        final double xMin = bounds.get(line * 4);
+        final double yMin = bounds.get(line * 4 + 1);
+        return new Rectangle2D.Double(xMin, yMin,
+                bounds.get(line * 4 + 2) - xMin, bounds.get(line * 4 + 3) - yMin);
+    }
+
+    /**
+     * Returns whether the bounding box of a line intersects a rectangle,
+     * without creating any objects.
+     * @param line The index of the line.
+     */
+    public boolean intersects(int line, double x, double y, double w, double h) {
+        checkLine(line);
+        return bounds.get(line * 4) <= x + w && bounds.get(line * 4 + 2) >= x
+                && bounds.get(line * 4 + 1) <= y + h && bounds.get(line * 4 + 3) >= y;
+    }
+
+    /**
+     * Copies the coordinates of a line to an array. The coordinates can be
+     * projected in place with Projection.transform(dst, dstOffset, dst,
+     * dstOffset, getPointCount(line)).
+     * @param line The index of the line.
+     * @param dst The destination array for the coordinates: x0, y0, x1, y1, ...
+     * @param dstOffset The index in dst for the first x coordinate.
+     * @return The number of copied points.
+     */
+    public int getCoordinates(int line, double[] dst, int dstOffset) {
+        checkLine(line);
+        final long first = index.get(line);
+        final int n = (int) (index.get(line + 1) - first);
+        if (dstOffset < 0 || dstOffset + n * 2 > dst.length) {
+            throw new IndexOutOfBoundsException("destination array too small");
+        }
+        getCoordinates(first, n, dst, dstOffset);
+        return n;
+    }
+
+    /**
+     * Appends the coordinates of a line to a CoordinateBuffer, which can be
+     * projected in place with Projection.transform(CoordinateBuffer).
+     * @param line The index of the line.
+     * @param dst The buffer receiving the points.
+     * @return The number of added points.
+     */
+    public int getCoordinates(int line, CoordinateBuffer dst) {
+        checkLine(line);
+        long p = index.get(line);
+        final int n = (int) (index.get(line + 1) - p);
+        dst.ensureCapacity(dst.size() + n);
+        for (int i = 0; i < n; i++, p++) {
+            final int segment = (int) (p / segmentPoints);
+            final int j = (int) (p % segmentPoints) * 2;
+            if (coordinateType == FLOAT64) {
+                DoubleBuffer buffer = (DoubleBuffer) segments[segment];
+                dst.add(buffer.get(j), buffer.get(j + 1));
+            } else {
+                IntBuffer buffer = (IntBuffer) segments[segment];
+                dst.add(originX + buffer.get(j) * resolution,
+                        originY + buffer.get(j + 1) * resolution);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns a new MapLine with the points of a line.
+     * @param line The index of the line.
+     */
+    public MapLine getLine(int line) {
+        double[] coords = new double[getPointCount(line) * 2];
+        final int n = getCoordinates(line, coords, 0);
+        return new MapLine(coords, 0, n);
+    }
+
+    /**
+     * Returns new MapLines with the points of all lines.
+     */
+    public ArrayList<MapLine> getLines() {
+        ArrayList<MapLine> lines = new ArrayList<>(nbrLines);
+        for (int i = 0; i < nbrLines; i++) {
+            lines.add(getLine(i));
+        }
+        return lines;
+    }
+
+    /**
+     * Passes all lines to a geometry stream and calls end() on the stream.
+     * @param stream The stream receiving the lines.
+     */
+    public void stream(GeometryStream stream) {
+        double[] coords = new double[1024];
+        for (int i = 0; i < nbrLines; i++) {
+            final int n = getPointCount(i);
+            if (coords.length < n * 2) {
+                coords = new double[n * 2];
+            }
+            getCoordinates(i, coords, 0);
+            stream.lineStart();
+            for (int j = 0; j < n; j++) {
+                stream.point(coords[j * 2], coords[j * 2 + 1]);
+            }
+            stream.lineEnd();
+        }
+        stream.end();
+    }
+
+    /**
+     * Closes the file. The mapped memory is released when this object is
+     * garbage collected.
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    public String toString() {
+        return "GeometryFile[" + nbrLines + " lines, " + nbrPoints + " points]";
+    }
+
+    /**
+     * Checks that the index starts at 0, does not decrease, ends with the
+     * number of points, and that the coordinates of each line fit in an
+     * array. The lines can then be read without further checks.
+     */
+    private void checkIndex(File file) throws IOException {
+        long previous = index.get(0);
+        boolean valid = previous == 0 && index.get(nbrLines) == nbrPoints;
+        for (int i = 1; valid && i <= nbrLines; i++) {
+            final long start = index.get(i);
+            valid = start >= previous && start - previous <= Integer.MAX_VALUE / 2;
+            previous = start;
+        }
+        if (!valid) {
+            throw new IOException(file + " is truncated or damaged");
+        }
+    }
+
+    private void checkLine(int line) {
+        if (line < 0 || line >= nbrLines) {
+            throw new IndexOutOfBoundsException("line " + line);
+        }
+    }
+
+    /**
+     * Copies points, which may be stored in consecutive segments.
+     */
+    private void getCoordinates(long point, int n, double[] dst, int dstOffset) {
+        while (n > 0) {
+            final int segment = (int) (point / segmentPoints);
+            final int first = (int) (point % segmentPoints);
+            final int count = Math.min(n, segmentPoints - first);
+            if (coordinateType == FLOAT64) {
+                // duplicate, so that threads do not share the position
+                DoubleBuffer buffer = ((DoubleBuffer) segments[segment]).duplicate();
+                buffer.position(first * 2);
+                buffer.get(dst, dstOffset, count * 2);
+            } else {
+                IntBuffer buffer = (IntBuffer) segments[segment];
+                for (int i = 0, j = first * 2; i < count; i++, j += 2) {
+                    dst[dstOffset + i * 2] = originX + buffer.get(j) * resolution;
+                    dst[dstOffset + i * 2 + 1] = originY + buffer.get(j + 1) * resolution;
+                }
+            }
+            point += count;
+            n -= count;
+            dstOffset += count * 2;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package ch.ethz.karto.stream;
+
+import ch.ethz.karto.gui.MapLine;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * GeometryFileWriter is the last stage of a pipeline that writes lines and the
+ * rings of polygons to a binary file read by GeometryFile. Coordinates are
+ * written as doubles, or as ints on a regular grid with a given resolution,
+ * which halves the size of the file. Lines with less than two points are not
+ * written. The file is complete and closed after end().
+ *
+ * GeometryStream methods cannot throw IOException, so write errors are thrown
+ * as UncheckedIOException.
+ */
+public class GeometryFileWriter implements GeometryStream {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    private final int coordinateType;
+    private final double resolution;
+    private final double originX;
+    private final double originY;
+
+    /**
+     * The index of the first point of each line, followed by the number of
+     * points.
+     */
+    private long[] lineStarts = new long[64];
+
+    /**
+     * The bounding box of each line: xMin, yMin, xMax, yMax.
+     */
+    private double[] bounds = new double[256];
+
+    private int nbrLines = 0;
+    private long nbrPoints = 0;
+
+    /**
+     * The points of the current line, which are only written if there are
+     * at least two.
+     */
+    private double[] line = new double[256];
+    private int lineSize = 0;
+
+    private double xMin = Double.MAX_VALUE;
+    private double yMin = Double.MAX_VALUE;
+    private double xMax = -Double.MAX_VALUE;
+    private double yMax = -Double.MAX_VALUE;
+
+    /**
+     * Creates a writer for coordinates stored as doubles. An existing file is
+     * overwritten.
+     * @param file The file to write.
+     */
+    public GeometryFileWriter(File file) throws IOException {
+        this(file, GeometryFile.FLOAT64, 1, 0, 0);
+    }
+
+    /**
+     * Creates a writer for coordinates rounded to a regular grid and stored
+     * as ints. An existing file is overwritten. The coordinates must be
+     * within the resolution times 2^31 of the origin.
+     * @param file The file to write.
+     * @param resolution The distance between grid points.
+     * @param originX The horizontal coordinate of the grid origin.
+     * @param originY The vertical coordinate of the grid origin.
+     */
+    public GeometryFileWriter(File file, double resolution, double originX,
+            double originY) throws IOException {
+        this(file, GeometryFile.INT32, resolution, originX, originY);
+    }
+
+    private GeometryFileWriter(File file, int coordinateType, double resolution,
+            double originX, double originY) throws IOException {
+        if (!(resolution > 0) || Double.isInfinite(resolution)) {
+            throw new IllegalArgumentException("resolution must be positive");
+        }
+        this.coordinateType = coordinateType;
+        this.resolution = resolution;
+        this.originX = originX;
+        this.originY = originY;
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.channel.position(GeometryFile.HEADER_SIZE);
+        this.buffer = ByteBuffer.allocateDirect(1 << 20).order(GeometryFile.BYTE_ORDER);
+    }
+
+    /**
+     * Writes lines to a file with coordinates stored as doubles.
+     * @param file The file to write.
+     * @param lines The lines to write.
+     */
+    public static void write(File file, List<MapLine> lines) throws IOException {
+        GeometryFileWriter writer = new GeometryFileWriter(file);
+        try {
+            for (MapLine line : lines) {
+                line.stream(writer);
+            }
+            writer.end();
+        } catch (UncheckedIOException exc) {
+            writer.file.close();
+            throw exc.getCause();
+        }
+    }
+
+    public void polygonStart() {
+    }
+
+    public void polygonEnd() {
+    }
+
+    public void lineStart() {
+        lineSize = 0;
+    }
+
+    public void point(double x, double y) {
+        if (coordinateType == GeometryFile.INT32) {
+            // store the coordinates that are read back
+            x = originX + quantize(x, originX) * resolution;
+            y = originY + quantize(y, originY) * resolution;
+        }
+        if (line.length < lineSize * 2 + 2) {
+            line = Arrays.copyOf(line, line.length * 2);
+        }
+        line[lineSize * 2] = x;
+        line[lineSize * 2 + 1] = y;
+        lineSize++;
+    }
+
+    public void lineEnd() {
+        if (lineSize < 2) {
+            return;
+        }
+        if (nbrLines + 1 == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+            bounds = Arrays.copyOf(bounds, lineStarts.length * 4);
+        }
+        lineStarts[nbrLines] = nbrPoints;
+
+        double lxMin = Double.MAX_VALUE;
+        double lyMin = Double.MAX_VALUE;
+        double lxMax = -Double.MAX_VALUE;
+        double lyMax = -Double.MAX_VALUE;
+        for (int i = 0; i < lineSize; i++) {
+            final double x = line[i * 2];
+            final double y = line[i * 2 + 1];
+            lxMin = Math.min(lxMin, x);
+            lyMin = Math.min(lyMin, y);
+            lxMax = Math.max(lxMax, x);
+            lyMax = Math.max(lyMax, y);
+            if (coordinateType == GeometryFile.INT32) {
+                ensureSpace(8);
+                buffer.putInt(quantize(x, originX));
+                buffer.putInt(quantize(y, originY));
+            } else {
+                ensureSpace(16);
+                buffer.putDouble(x);
+                buffer.putDouble(y);
+            }
+        }
+        bounds[nbrLines * 4] = lxMin;
+        bounds[nbrLines * 4 + 1] = lyMin;
+        bounds[nbrLines * 4 + 2] = lxMax;
+        bounds[nbrLines * 4 + 3] = lyMax;
+        xMin = Math.min(xMin, lxMin);
+        yMin = Math.min(yMin, lyMin);
+        xMax = Math.max(xMax, lxMax);
+        yMax = Math.max(yMax, lyMax);
+
+        nbrLines++;
+        nbrPoints += lineSize;
+        if (nbrLines == Integer.MAX_VALUE) {
+            throw new IllegalStateException("too many lines");
+        }
+    }
+
+    /**
+     * Writes the index and the header, and closes the file.
+     */
+    public void end() {
+        try {
+            try {
+                final long indexOffset = channel.position() + buffer.position();
+                lineStarts[nbrLines] = nbrPoints;
+                for (int i = 0; i <= nbrLines; i++) {
+                    ensureSpace(8);
+                    buffer.putLong(lineStarts[i]);
+                }
+                for (int i = 0; i < nbrLines * 4; i++) {
+                    ensureSpace(8);
+                    buffer.putDouble(bounds[i]);
+                }
+                flush();
+
+                ByteBuffer header = ByteBuffer.allocate(GeometryFile.HEADER_SIZE);
+                header.order(GeometryFile.BYTE_ORDER);
+                header.putInt(GeometryFile.MAGIC);
+                header.putInt(GeometryFile.VERSION);
+                header.putInt(coordinateType);
+                header.putInt(0);
+                header.putLong(nbrLines);
+                header.putLong(nbrPoints);
+                header.putDouble(resolution);
+                header.putDouble(originX);
+                header.putDouble(originY);
+                header.putDouble(xMin);
+                header.putDouble(yMin);
+                header.putDouble(xMax);
+                header.putDouble(yMax);
+                header.putLong(indexOffset);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            } finally {
+                file.close();
+            }
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    private int quantize(double v, double origin) {
+        final double q = Math.rint((v - origin) / resolution);
+        if (!(Math.abs(q) <= Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException(v + " cannot be stored with resolution "
+                    + resolution + " and origin " + origin);
+        }
+        return (int) q;
+    }
+
+    private void ensureSpace(int bytes) {
+        if (buffer.remaining() < bytes) {
+            try {
+                flush();
+            } catch (IOException exc) {
+                throw new UncheckedIOException(exc);
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,49 @@
+package ch.ethz.karto.stream;
+
+/**
+ * GeometryStream receives geometry as a sequence of events, in the style of
+ * d3-geo streams. A line is a call to lineStart(), one call to point() per
+ * point, and a call to lineEnd(). A polygon is a call to polygonStart(), its
+ * rings passed as lines, and a call to polygonEnd(). The last point of a ring
+ * equals its first point. end() is called after the last geometry.
+ *
+ * Stages of a pipeline implement GeometryStream and pass transformed events
+ * to the next stage, which allows processing data sets that do not fit into
+ * memory in a single pass.
+ */
+public interface GeometryStream {
+
+    /**
+     * Starts a polygon. The following lines are rings of the polygon until
+     * polygonEnd() is called.
+     */
+    void polygonStart();
+
+    /**
+     * Ends a polygon.
+     */
+    void polygonEnd();
+
+    /**
+     * Starts a line or a ring of a polygon.
+     */
+    void lineStart();
+
+    /**
+     * Adds a point to the current line.
+     * @param x The horizontal coordinate, or the longitude in degrees.
+     * @param y The vertical coordinate, or the latitude in degrees.
+     */
+    void point(double x, double y);
+
+    /**
+     * Ends the current line.
+     */
+    void lineEnd();
+
+    /**
+     * Called after the last geometry. Stages buffering points pass them on,
+     * and writers flush their output.
+     */
+    void end();
+}
@@ -0,0 +1,91 @@
+package ch.ethz.karto.stream;
+
+import com.jhlabs.map.MapMath;
+
+/**
+ * GreatCircleDensifier adds points along the great circles connecting
+ * consecutive points in geographic coordinates (degrees), so that the angle
+ * between two points passed on does not exceed a maximum. Segments between
+ * antipodal points, for which the great circle is undefined, are not
+ * densified. The longitudes of added points differ by less than 180 degrees
+ * from the start point of their segment, so that AntimeridianCutter detects
+ * crossings of the antimeridian.
+ *
+ * Only the current point is stored, so the memory used does not depend on the
+ * number of points.
+ */
+public class GreatCircleDensifier extends StreamFilter {
+
+    /**
+     * The maximum angle between two points in radians.
+     */
+    private final double maxAngle;
+
+    /**
+     * The previous point as a unit vector, and its longitude in degrees.
+     */
+    private boolean hasPrevious = false;
+    private double prevLon;
+    private double px, py, pz;
+
+    /**
+     * Creates a densifier.
+     * @param maxAngle The maximum angle between two points in degrees.
+     * @param out The next stage.
+     */
+    public GreatCircleDensifier(double maxAngle, GeometryStream out) {
+        super(out);
+        if (!(maxAngle > 0)) {
+            throw new IllegalArgumentException("angle must be positive");
+        }
+        this.maxAngle = maxAngle * MapMath.DTR;
+    }
+
+    @Override
+    public void lineStart() {
+        hasPrevious = false;
+        out.lineStart();
+    }
+
+    @Override
+    public void point(double lon, double lat) {
+        final double lam = lon * MapMath.DTR;
+        final double phi = lat * MapMath.DTR;
+        final double cosPhi = Math.cos(phi);
+        final double x = cosPhi * Math.cos(lam);
+        final double y = cosPhi * Math.sin(lam);
+        final double z = Math.sin(phi);
+
+        if (hasPrevious) {
+            // the angle between the two points
+            final double cx = py * z - pz * y;
+            final double cy = pz * x - px * z;
+            final double cz = px * y - py * x;
+            final double sinAngle = Math.sqrt(cx * cx + cy * cy + cz * cz);
+            final double angle = Math.atan2(sinAngle, px * x + py * y + pz * z);
+            final int n = (int) Math.ceil(angle / maxAngle);
+            if (n > 1 && sinAngle > 1e-12) {
+                for (int i = 1; i < n; i++) {
+                    // spherical linear interpolation of the unit vectors
+                    final double a = angle * i / n;
+                    final double s0 = Math.sin(angle - a) / sinAngle;
+                    final double s1 = Math.sin(a) / sinAngle;
+                    final double ix = s0 * px + s1 * x;
+                    final double iy = s0 * py + s1 * y;
+                    final double iz = s0 * pz + s1 * z;
+                    double iLon = Math.atan2(iy, ix) * MapMath.RTD;
+                    final double iLat = Math.atan2(iz, Math.sqrt(ix * ix + iy * iy)) * MapMath.RTD;
+                    iLon += 360 * Math.rint((prevLon - iLon) / 360);
+                    out.point(iLon, iLat);
+                }
+            }
+        }
+        out.point(lon, lat);
+
+        hasPrevious = true;
+        prevLon = lon;
+        px = x;
+        py = y;
+        pz = z;
+    }
+}
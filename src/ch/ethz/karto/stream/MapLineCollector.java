@@ -0,0 +1,60 @@
+package ch.ethz.karto.stream;
+
+import ch.ethz.karto.gui.MapLine;
+import java.util.ArrayList;
+
+/**
+ * MapLineCollector is the last stage of a pipeline that stores lines and the
+ * rings of polygons as MapLine objects. All lines are stored, including lines
+ * with fewer than two points.
+ */
+public class MapLineCollector implements GeometryStream {
+
+    private final ArrayList<MapLine> lines;
+    private MapLine line = null;
+
+    /**
+     * Creates a collector with a new list of lines.
+     */
+    public MapLineCollector() {
+        this(new ArrayList<MapLine>());
+    }
+
+    /**
+     * Creates a collector adding lines to an existing list.
+     * @param lines Receives the lines.
+     */
+    public MapLineCollector(ArrayList<MapLine> lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Returns the collected lines.
+     */
+    public ArrayList<MapLine> getLines() {
+        return lines;
+    }
+
+    public void polygonStart() {
+    }
+
+    public void polygonEnd() {
+    }
+
+    public void lineStart() {
+        line = new MapLine();
+    }
+
+    public void point(double x, double y) {
+        line.addPoint(x, y);
+    }
+
+    public void lineEnd() {
+        line.trimToSize();
+        lines.add(line);
+        line = null;
+    }
+
+    public void end() {
+    }
+}
@@ -0,0 +1,160 @@
+package ch.ethz.karto.stream;
+
+import com.jhlabs.map.proj.Projection;
+import com.jhlabs.map.proj.ProjectionException;
+import java.awt.geom.Point2D;
+
+/**
+ * ProjectionStream projects geographic coordinates (degrees) and passes the
+ * projected coordinates on. If a curve tolerance is set, a CurveDensifier
+ * adds intermediate points where a projected segment is curved, as in
+ * LineProjector.
+ *
+ * Lines are split at points that cannot be projected; such points are skipped
+ * in rings of polygons. The longitudes must be within 180 degrees of the
+ * central meridian, which is the case for the output of an
+ * AntimeridianCutter. A stream is used by a single thread, but several
+ * streams can share a projection that is not modified.
+ */
+public class ProjectionStream extends StreamFilter {
+
+    private final Projection projection;
+
+    /**
+     * Adds intermediate points along curves, or null.
+     */
+    private final CurveDensifier densifier;
+
+    /**
+     * The projected point.
+     */
+    private final Point2D.Double xy = new Point2D.Double();
+
+    /**
+     * The previous projected point of the current line.
+     */
+    private boolean hasPrevious = false;
+    private double prevLon, prevLat, prevX, prevY;
+
+    /**
+     * True if lineStart() has been passed on for the current line.
+     */
+    private boolean lineStarted = false;
+
+    /**
+     * Creates a stream that does not add intermediate points.
+     * @param projection The initialized projection.
+     * @param out The next stage.
+     */
+    public ProjectionStream(Projection projection, GeometryStream out) {
+        this(projection, 0, out);
+    }
+
+    /**
+     * Creates a stream.
+     * @param projection The initialized projection.
+     * @param curveTolerance The maximum distance between a curved projected
+     * line and the straight segments approximating it, in projected units. No
+     * points are added if 0.
+     * @param out The next stage.
+     */
+    public ProjectionStream(Projection projection, double curveTolerance,
+            GeometryStream out) {
+        super(out);
+        if (!(curveTolerance >= 0)) {
+            throw new IllegalArgumentException("negative tolerance");
+        }
+        this.projection = projection;
+        if (curveTolerance > 0) {
+            densifier = new CurveDensifier(curveTolerance) {
+
+                protected boolean project(double lon, double lat, double[] dst) {
+                    if (!ProjectionStream.this.project(lon, lat)) {
+                        return false;
+                    }
+                    dst[0] = ProjectionStream.this.xy.x;
+                    dst[1] = ProjectionStream.this.xy.y;
+                    return true;
+                }
+
+                protected void addPoint(double x, double y) {
+                    ProjectionStream.this.out.point(x, y);
+                }
+            };
+        } else {
+            densifier = null;
+        }
+    }
+
+    /**
+     * Creates a pipeline that cuts geometry along the antimeridian of a
+     * projection and projects it.
+     * @param projection The initialized projection.
+     * @param curveTolerance The curve tolerance in projected units, or 0.
+     * @param out Receives the projected geometry.
+     * @return The first stage of the pipeline.
+     */
+    public static GeometryStream project(Projection projection,
+            double curveTolerance, GeometryStream out) {
+        return new AntimeridianCutter(projection.getProjectionLongitudeDegrees(),
+                new ProjectionStream(projection, curveTolerance, out));
+    }
+
+    @Override
+    public void lineStart() {
+        hasPrevious = false;
+        lineStarted = false;
+    }
+
+    @Override
+    public void point(double lon, double lat) {
+        if (!project(lon, lat)) {
+            if (!inPolygon) {
+                // split the line
+                lineEnd();
+                hasPrevious = false;
+            }
+            return;
+        }
+        final double x = xy.x;
+        final double y = xy.y;
+        if (!lineStarted) {
+            out.lineStart();
+            lineStarted = true;
+        }
+        if (hasPrevious && densifier != null) {
+            densifier.densify(prevLon, prevLat, prevX, prevY, lon, lat, x, y);
+        }
+        out.point(x, y);
+        hasPrevious = true;
+        prevLon = lon;
+        prevLat = lat;
+        prevX = x;
+        prevY = y;
+    }
+
+    @Override
+    public void lineEnd() {
+        if (lineStarted) {
+            out.lineEnd();
+            lineStarted = false;
+        }
+    }
+
+    /**
+     * Projects a point to xy.
+     * @return False if the point cannot be projected.
+     */
+    private boolean project(double lon, double lat) {
+        if (!projection.inside(lon, lat)) {
+            return false;
+        }
+        try {
+            projection.transform(lon, lat, xy);
+        } catch (ProjectionException exc) {
+            return false;
+        }
+        return !Double.isNaN(xy.x) && !Double.isNaN(xy.y)
+                && !Double.isInfinite(xy.x) && !Double.isInfinite(xy.y);
+    }
+}
@@ -0,0 +1,538 @@
+package ch.ethz.karto.stream;
+
+import ch.ethz.karto.gui.MapLine;
+import java.awt.geom.Rectangle2D;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * ShapefileReader reads polylines and polygons from an ESRI shapefile. The
+ * .shp file is memory-mapped, and records are located with the .shx index
+ * file, so any record can be read without reading the records before it. If
+ * there is no .shx file, the record headers of the .shp file are scanned when
+ * the file is opened.
+ *
+ * The coordinates of a record are copied directly from the file to the
+ * arrays passed to the batch transformations of Projection, without creating
+ * objects for points. Z and M values of PolylineZ, PolygonZ, PolylineM and
+ * PolygonM records are ignored.
+ *
+ * Attributes are read from the .dbf file as strings if it exists.
+ *
+ * A ShapefileReader can be read by multiple threads.
+ */
+public class ShapefileReader implements Closeable {
+
+    public static final int NULL = 0;
+    public static final int POLYLINE = 3;
+    public static final int POLYGON = 5;
+    public static final int POLYLINE_Z = 13;
+    public static final int POLYGON_Z = 15;
+    public static final int POLYLINE_M = 23;
+    public static final int POLYGON_M = 25;
+
+    static final int FILE_CODE = 9994;
+    static final int VERSION = 1000;
+    static final int HEADER_SIZE = 100;
+
+    /**
+     * The size of the shape type, the bounding box and the number of parts
+     * and points at the start of the content of a record.
+     */
+    static final int RECORD_HEADER_SIZE = 44;
+
+    private final RandomAccessFile shp;
+    private final RandomAccessFile dbf;
+    private final int shapeType;
+    private final Rectangle2D extension;
+
+    /**
+     * The .shp file, little-endian.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The position of the content of each record in the .shp file.
+     */
+    private final int[] offsets;
+
+    /**
+     * The .dbf file, or null.
+     */
+    private final ByteBuffer attributes;
+    private final String[] fieldNames;
+    private final int[] fieldOffsets;
+    private final int[] fieldLengths;
+    private int dbfHeaderSize;
+    private int dbfRecordSize;
+
+    private ShapefileReader(File file) throws IOException {
+        shp = new RandomAccessFile(file, "r");
+        RandomAccessFile dbfFile = null;
+        try {
+            FileChannel channel = shp.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2 GB");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE
+                    || buffer.order(ByteOrder.BIG_ENDIAN).getInt(0) != FILE_CODE
+                    || buffer.order(ByteOrder.LITTLE_ENDIAN).getInt(28) != VERSION) {
+                throw new IOException(file + " is not a shapefile");
+            }
+            shapeType = buffer.getInt(32);
+            if (shapeType != NULL && !isPolyline(shapeType) && !isPolygon(shapeType)) {
+                throw new IOException(file + " has unsupported shape type " + shapeType);
+            }
+            final double xMin = buffer.getDouble(36);
+            final double yMin = buffer.getDouble(44);
+            final double xMax = buffer.getDouble(52);
+            final double yMax = buffer.getDouble(60);
+            extension = new Rectangle2D.Double(xMin, yMin, xMax - xMin, yMax - yMin);
+
+            File shx = sibling(file, "shx");
+            offsets = shx == null ? scanRecords() : readIndex(shx);
+            for (int offset : offsets) {
+                checkRecord(offset);
+            }
+
+            File dbfPath = sibling(file, "dbf");
+            if (dbfPath != null) {
+                dbfFile = new RandomAccessFile(dbfPath, "r");
+                FileChannel dbfChannel = dbfFile.getChannel();
+                if (dbfChannel.size() > Integer.MAX_VALUE) {
+                    throw new IOException(dbfPath + " is larger than 2 GB");
+                }
+                attributes = dbfChannel.map(FileChannel.MapMode.READ_ONLY, 0, dbfChannel.size());
+                attributes.order(ByteOrder.LITTLE_ENDIAN);
+                final int nbrFields = readDbfHeader(dbfPath);
+                fieldNames = new String[nbrFields];
+                fieldOffsets = new int[nbrFields];
+                fieldLengths = new int[nbrFields];
+                int fieldOffset = 1; // the deletion flag
+                for (int i = 0; i < nbrFields; i++) {
+                    final int pos = 32 + i * 32;
+                    fieldNames[i] = ascii(attributes, pos, 11);
+                    fieldOffsets[i] = fieldOffset;
+                    fieldLengths[i] = attributes.get(pos + 16) & 0xFF;
+                    fieldOffset += fieldLengths[i];
+                }
+                if (fieldOffset > dbfRecordSize) {
+                    throw new IOException(dbfPath + " is damaged");
+                }
+            } else {
+                attributes = null;
+                fieldNames = new String[0];
+                fieldOffsets = new int[0];
+                fieldLengths = new int[0];
+            }
+        } catch (IOException | RuntimeException exc) {
+            shp.close();
+            if (dbfFile != null) {
+                dbfFile.close();
+            }
+            throw exc;
+        }
+        dbf = dbfFile;
+    }
+
+    /**
+     * Opens a shapefile for reading.
+     * @param file The .shp file. The .shx and .dbf files are expected in the
+     * same directory with the same name.
+     * @return The reader, which has to be closed.
+     */
+    public static ShapefileReader open(File file) throws IOException {
+        return new ShapefileReader(file);
+    }
+
+    /**
+     * Returns whether a shape type is POLYLINE, POLYLINE_Z or POLYLINE_M.
+     */
+    public static boolean isPolyline(int shapeType) {
+        return shapeType == POLYLINE || shapeType == POLYLINE_Z || shapeType == POLYLINE_M;
+    }
+
+    /**
+     * Returns whether a shape type is POLYGON, POLYGON_Z or POLYGON_M.
+     */
+    public static boolean isPolygon(int shapeType) {
+        return shapeType == POLYGON || shapeType == POLYGON_Z || shapeType == POLYGON_M;
+    }
+
+    /**
+     * Returns the shape type of the file.
+     */
+    public int getShapeType() {
+        return shapeType;
+    }
+
+    public int getRecordCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns the bounding box of all records stored in the file header.
+     */
+    public Rectangle2D getExtension() {
+        return (Rectangle2D) extension.clone();
+    }
+
+    /**
+     * Returns the number of parts of a record, which are lines or rings.
+     * @param record The index of the record (zero-based).
+     */
+    public int getPartCount(int record) {
+        final int offset = offset(record);
+        return isNull(offset) ? 0 : buffer.getInt(offset + 36);
+    }
+
+    /**
+     * Returns the number of points of all parts of a record.
+     * @param record The index of the record (zero-based).
+     */
+    public int getPointCount(int record) {
+        final int offset = offset(record);
+        return isNull(offset) ? 0 : buffer.getInt(offset + 40);
+    }
+
+    /**
+     * Returns the bounding box of a record, or null for a null record.
+     * @param record The index of the record (zero-based).
+     */
+    public Rectangle2D getBounds(int record) {
+        final int offset = offset(record);
+        if (isNull(offset)) {
+            return null;
+        }
+        final double xMin = buffer.getDouble(offset + 4);
+        final double yMin = buffer.getDouble(offset + 12);
+        return new Rectangle2D.Double(xMin, yMin,
+                buffer.getDouble(offset + 20) - xMin, buffer.getDouble(offset + 28) - yMin);
+    }
+
+    /**
+     * Returns whether the bounding box of a record intersects a rectangle,
+     * without creating any objects.
+     * @param record The index of the record (zero-based).
+     */
+    public boolean intersects(int record, double x, double y, double w, double h) {
+        final int offset = offset(record);
+        return !isNull(offset)
+                && buffer.getDouble(offset + 4) <= x + w && buffer.getDouble(offset + 20) >= x
+                && buffer.getDouble(offset + 12) <= y + h && buffer.getDouble(offset + 28) >= y;
+    }
+
+    /**
+     * Copies the index of the first point of each part of a record to an
+     * array.
+     * @param record The index of the record (zero-based).
+     * @param dst The destination array.
+     * @param dstOffset The index in dst for the first part.
+     * @return The number of parts.
+     */
+    public int getParts(int record, int[] dst, int dstOffset) {
+        final int offset = offset(record);
+        final int nbrParts = getPartCount(record);
+        if (dstOffset < 0 || dstOffset + nbrParts > dst.length) {
+            throw new IndexOutOfBoundsException("destination array too small");
+        }
+        if (nbrParts > 0) {
+            ByteBuffer b = buffer.duplicate();
+            b.position(offset + RECORD_HEADER_SIZE);
+            b.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(dst, dstOffset, nbrParts);
+        }
+        return nbrParts;
+    }
+
+    /**
+     * Copies the coordinates of all points of a record to an array. The
+     * coordinates can be projected in place with Projection.transform(dst,
+     * dstOffset, dst, dstOffset, getPointCount(record)).
+     * @param record The index of the record (zero-based).
+     * @param dst The destination array for the coordinates: x0, y0, x1, y1, ...
+     * @param dstOffset The index in dst for the first x coordinate.
+     * @return The number of points.
+     */
+    public int getCoordinates(int record, double[] dst, int dstOffset) {
+        final int offset = offset(record);
+        final int nbrPoints = getPointCount(record);
+        if (dstOffset < 0 || dstOffset + nbrPoints * 2 > dst.length) {
+            throw new IndexOutOfBoundsException("destination array too small");
+        }
+        if (nbrPoints > 0) {
+            // duplicate, so that threads do not share the position
+            ByteBuffer b = buffer.duplicate();
+            b.position(offset + RECORD_HEADER_SIZE + getPartCount(record) * 4);
+            DoubleBuffer points = b.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            points.get(dst, dstOffset, nbrPoints * 2);
+        }
+        return nbrPoints;
+    }
+
+    /**
+     * Passes the parts of a record to a geometry stream, as lines for
+     * polylines and as the rings of a polygon for polygons.
+     * @param record The index of the record (zero-based).
+     * @param stream The stream receiving the parts.
+     */
+    public void stream(int record, GeometryStream stream) {
+        stream(record, stream, new int[16], new double[1024]);
+    }
+
+    /**
+     * Passes all records to a geometry stream and calls end() on the stream.
+     * @param stream The stream receiving the records.
+     */
+    public void stream(GeometryStream stream) {
+        int[] parts = new int[16];
+        double[] coords = new double[1024];
+        for (int i = 0; i < offsets.length; i++) {
+            if (parts.length < getPartCount(i)) {
+                parts = new int[getPartCount(i)];
+            }
+            if (coords.length < getPointCount(i) * 2) {
+                coords = new double[getPointCount(i) * 2];
+            }
+            stream(i, stream, parts, coords);
+        }
+        stream.end();
+    }
+
+    /**
+     * Returns new MapLines with the parts of all records.
+     */
+    public ArrayList<MapLine> getLines() {
+        ArrayList<MapLine> lines = new ArrayList<>(offsets.length);
+        int[] parts = new int[16];
+        for (int i = 0; i < offsets.length; i++) {
+            final int nbrParts = getPartCount(i);
+            if (parts.length < nbrParts) {
+                parts = new int[nbrParts];
+            }
+            getParts(i, parts, 0);
+            double[] coords = new double[getPointCount(i) * 2];
+            final int nbrPoints = getCoordinates(i, coords, 0);
+            for (int p = 0; p < nbrParts; p++) {
+                final int end = p + 1 < nbrParts ? parts[p + 1] : nbrPoints;
+                lines.add(new MapLine(coords, parts[p] * 2, end - parts[p]));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the names of the attributes in the .dbf file.
+     */
+    public String[] getFieldNames() {
+        return fieldNames.clone();
+    }
+
+    /**
+     * Returns an attribute of a record as a string without leading and
+     * trailing spaces.
+     * @param record The index of the record (zero-based).
+     * @param field The index of the field in getFieldNames().
+     */
+    public String getAttribute(int record, int field) {
+        if (attributes == null || record < 0 || record >= offsets.length) {
+            throw new IndexOutOfBoundsException("record " + record);
+        }
+        if (field < 0 || field >= fieldNames.length) {
+            throw new IndexOutOfBoundsException("field " + field);
+        }
+        final int pos = dbfHeaderSize + record * dbfRecordSize + fieldOffsets[field];
+        byte[] bytes = new byte[fieldLengths[field]];
+        ByteBuffer b = attributes.duplicate();
+        b.position(pos);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1).trim();
+    }
+
+    /**
+     * Closes the files. The mapped memory is released when this reader is
+     * garbage collected.
+     */
+    public void close() throws IOException {
+        try {
+            shp.close();
+        } finally {
+            if (dbf != null) {
+                dbf.close();
+            }
+        }
+    }
+
+    public String toString() {
+        return "ShapefileReader[type " + shapeType + ", " + offsets.length + " records]";
+    }
+
+    private void stream(int record, GeometryStream stream, int[] parts, double[] coords) {
+        final int nbrParts = getParts(record, parts, 0);
+        final int nbrPoints = getCoordinates(record, coords, 0);
+        final boolean polygon = isPolygon(shapeType);
+        if (polygon && nbrParts > 0) {
+            stream.polygonStart();
+        }
+        for (int p = 0; p < nbrParts; p++) {
+            final int end = p + 1 < nbrParts ? parts[p + 1] : nbrPoints;
+            stream.lineStart();
+            for (int i = parts[p]; i < end; i++) {
+                stream.point(coords[i * 2], coords[i * 2 + 1]);
+            }
+            stream.lineEnd();
+        }
+        if (polygon && nbrParts > 0) {
+            stream.polygonEnd();
+        }
+    }
+
+    private int offset(int record) {
+        if (record < 0 || record >= offsets.length) {
+            throw new IndexOutOfBoundsException("record " + record);
+        }
+        return offsets[record];
+    }
+
+    private boolean isNull(int offset) {
+        return buffer.getInt(offset) == NULL;
+    }
+
+    /**
+     * Reads the positions of the records from the .shx file.
+     */
+    private int[] readIndex(File shx) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(shx, "r")) {
+            FileChannel channel = file.getChannel();
+            final long length = channel.size();
+            if (length < HEADER_SIZE || (length - HEADER_SIZE) % 8 != 0) {
+                throw new IOException(shx + " is not a shapefile index");
+            }
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            index.order(ByteOrder.BIG_ENDIAN);
+            int[] result = new int[(int) ((length - HEADER_SIZE) / 8)];
+            for (int i = 0; i < result.length; i++) {
+                // offsets are in 16-bit words and point to the record header
+                result[i] = index.getInt(HEADER_SIZE + i * 8) * 2 + 8;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Finds the positions of the records by scanning the record headers of
+     * the .shp file.
+     */
+    private int[] scanRecords() throws IOException {
+        int[] result = new int[1024];
+        int n = 0;
+        int pos = HEADER_SIZE;
+        final int end = Math.min(buffer.capacity(),
+                buffer.order(ByteOrder.BIG_ENDIAN).getInt(24) * 2);
+        try {
+            while (pos + 8 <= end) {
+                final int contentLength = buffer.getInt(pos + 4) * 2;
+                if (contentLength < 4) {
+                    throw new IOException("damaged shapefile record " + (n + 1));
+                }
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, n * 2);
+                }
+                result[n++] = pos + 8;
+                pos += 8 + contentLength;
+            }
+        } finally {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Checks that a record is within the file and of the type of the file,
+     * so that it can be read without further checks.
+     */
+    private void checkRecord(int offset) throws IOException {
+        if (offset < HEADER_SIZE || offset + 4 > buffer.capacity()) {
+            throw new IOException("shapefile record outside of the file");
+        }
+        final int type = buffer.getInt(offset);
+        if (type == NULL) {
+            return;
+        }
+        if (type != shapeType || offset + RECORD_HEADER_SIZE > buffer.capacity()) {
+            throw new IOException("damaged shapefile record of type " + type);
+        }
+        final long nbrParts = buffer.getInt(offset + 36);
+        final long nbrPoints = buffer.getInt(offset + 40);
+        if (nbrParts < 0 || nbrPoints < 0
+                || offset + RECORD_HEADER_SIZE + nbrParts * 4 + nbrPoints * 16 > buffer.capacity()) {
+            throw new IOException("damaged shapefile record");
+        }
+        int previous = 0;
+        for (int i = 0; i < nbrParts; i++) {
+            final int start = buffer.getInt(offset + RECORD_HEADER_SIZE + i * 4);
+            if (start < previous || start > nbrPoints || (i == 0 && start != 0)) {
+                throw new IOException("damaged parts of a shapefile record");
+            }
+            previous = start;
+        }
+    }
+
+    /**
+     * Reads the header of the .dbf file and returns the number of fields.
+     */
+    private int readDbfHeader(File file) throws IOException {
+        if (attributes.capacity() < 33) {
+            throw new IOException(file + " is not a dBASE file");
+        }
+        final int nbrRecords = attributes.getInt(4);
+        dbfHeaderSize = attributes.getShort(8) & 0xFFFF;
+        dbfRecordSize = attributes.getShort(10) & 0xFFFF;
+        if (nbrRecords != offsets.length) {
+            throw new IOException(file + " has " + nbrRecords + " records instead of "
+                    + offsets.length);
+        }
+        if (dbfHeaderSize < 33 || dbfRecordSize < 1
+                || dbfHeaderSize + (long) nbrRecords * dbfRecordSize > attributes.capacity()) {
+            throw new IOException(file + " is damaged");
+        }
+        return (dbfHeaderSize - 33) / 32;
+    }
+
+    /**
+     * Reads a zero-terminated ASCII string.
+     */
+    private static String ascii(ByteBuffer b, int pos, int maxLength) {
+        StringBuilder sb = new StringBuilder(maxLength);
+        for (int i = 0; i < maxLength && b.get(pos + i) != 0; i++) {
+            sb.append((char) (b.get(pos + i) & 0xFF));
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Returns the file with the same name and another extension, in lower or
+     * upper case, or null if it does not exist.
+     */
+    private static File sibling(File file, String extension) {
+        String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        for (String ext : new String[]{extension, extension.toUpperCase()}) {
+            File f = new File(file.getParentFile(), base + "." + ext);
+            if (f.isFile()) {
+                return f;
+            }
+        }
+        return null;
+    }
+}
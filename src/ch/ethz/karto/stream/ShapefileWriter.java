@@ -0,0 +1,365 @@
+package ch.ethz.karto.stream;
+
+import ch.ethz.karto.gui.MapLine;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * ShapefileWriter is the last stage of a pipeline that writes lines and
+ * polygons to an ESRI shapefile of type POLYLINE or POLYGON, for example to
+ * store projected data. The .shp file, the .shx index file and a .dbf file
+ * with a numeric ID attribute (starting with 1) are written.
+ *
+ * A polygon is written as one record with its rings as parts. A line that is
+ * not part of a polygon is written as a record with one part. Rings of
+ * POLYGON files are closed if their last point differs from their first
+ * point, and are written in the order of the stream, so exterior rings have
+ * to be clockwise and holes counterclockwise. Lines with less than two points
+ * and rings with less than four points are not written. The files are
+ * complete and closed after end().
+ *
+ * GeometryStream methods cannot throw IOException, so write errors are thrown
+ * as UncheckedIOException.
+ */
+public class ShapefileWriter implements GeometryStream {
+
+    /**
+     * The width of the ID attribute in the .dbf file.
+     */
+    private static final int ID_LENGTH = 10;
+
+    private final int shapeType;
+    private final RandomAccessFile shpFile;
+    private final RandomAccessFile shxFile;
+    private final RandomAccessFile dbfFile;
+    private final FileChannel shp;
+    private final FileChannel dbf;
+    private final ByteBuffer shpBuffer;
+    private final ByteBuffer dbfBuffer;
+
+    /**
+     * The position in 16-bit words and the length of the content of each
+     * record, as stored in the .shx file.
+     */
+    private int[] index = new int[256];
+    private int nbrRecords = 0;
+
+    /**
+     * The position of the next record in the .shp file in bytes.
+     */
+    private long position = ShapefileReader.HEADER_SIZE;
+
+    /**
+     * The parts and points of the current record.
+     */
+    private int[] parts = new int[16];
+    private int nbrParts = 0;
+    private double[] coords = new double[1024];
+    private int nbrPoints = 0;
+    private boolean inPolygon = false;
+
+    private double xMin = Double.MAX_VALUE;
+    private double yMin = Double.MAX_VALUE;
+    private double xMax = -Double.MAX_VALUE;
+    private double yMax = -Double.MAX_VALUE;
+
+    /**
+     * Creates a writer. Existing files are overwritten.
+     * @param file The .shp file. The .shx and .dbf files are written to the
+     * same directory with the same name.
+     * @param shapeType ShapefileReader.POLYLINE or ShapefileReader.POLYGON.
+     */
+    public ShapefileWriter(File file, int shapeType) throws IOException {
+        if (shapeType != ShapefileReader.POLYLINE && shapeType != ShapefileReader.POLYGON) {
+            throw new IllegalArgumentException("unsupported shape type " + shapeType);
+        }
+        this.shapeType = shapeType;
+        String path = file.getPath();
+        final int dot = file.getName().lastIndexOf('.');
+        String base = dot < 0 ? path : path.substring(0, path.length() - file.getName().length() + dot);
+        shpFile = new RandomAccessFile(file, "rw");
+        RandomAccessFile shx = null;
+        RandomAccessFile dbfRaf = null;
+        try {
+            shx = new RandomAccessFile(base + ".shx", "rw");
+            dbfRaf = new RandomAccessFile(base + ".dbf", "rw");
+            shpFile.setLength(0);
+            shx.setLength(0);
+            dbfRaf.setLength(0);
+        } catch (IOException exc) {
+            shpFile.close();
+            if (shx != null) {
+                shx.close();
+            }
+            if (dbfRaf != null) {
+                dbfRaf.close();
+            }
+            throw exc;
+        }
+        shxFile = shx;
+        dbfFile = dbfRaf;
+        shp = shpFile.getChannel();
+        dbf = dbfFile.getChannel();
+        shp.position(ShapefileReader.HEADER_SIZE);
+        dbf.position(65);
+        shpBuffer = ByteBuffer.allocateDirect(1 << 20);
+        dbfBuffer = ByteBuffer.allocateDirect(1 << 16);
+    }
+
+    /**
+     * Writes lines to a shapefile of type POLYLINE.
+     * @param file The .shp file.
+     * @param lines The lines to write.
+     */
+    public static void write(File file, List<MapLine> lines) throws IOException {
+        ShapefileWriter writer = new ShapefileWriter(file, ShapefileReader.POLYLINE);
+        try {
+            for (MapLine line : lines) {
+                line.stream(writer);
+            }
+            writer.end();
+        } catch (UncheckedIOException exc) {
+            writer.close();
+            throw exc.getCause();
+        }
+    }
+
+    public void polygonStart() {
+        inPolygon = true;
+        nbrParts = 0;
+        nbrPoints = 0;
+    }
+
+    public void polygonEnd() {
+        inPolygon = false;
+        writeRecord();
+    }
+
+    public void lineStart() {
+        if (!inPolygon) {
+            nbrParts = 0;
+            nbrPoints = 0;
+        }
+        if (nbrParts == parts.length) {
+            parts = Arrays.copyOf(parts, nbrParts * 2);
+        }
+        parts[nbrParts++] = nbrPoints;
+    }
+
+    public void point(double x, double y) {
+        if (coords.length < nbrPoints * 2 + 2) {
+            coords = Arrays.copyOf(coords, coords.length * 2);
+        }
+        coords[nbrPoints * 2] = x;
+        coords[nbrPoints * 2 + 1] = y;
+        nbrPoints++;
+    }
+
+    public void lineEnd() {
+        final int start = parts[nbrParts - 1];
+        if (shapeType == ShapefileReader.POLYGON && nbrPoints - start > 0
+                && (coords[start * 2] != coords[nbrPoints * 2 - 2]
+                || coords[start * 2 + 1] != coords[nbrPoints * 2 - 1])) {
+            point(coords[start * 2], coords[start * 2 + 1]);
+        }
+        final int minPoints = shapeType == ShapefileReader.POLYGON ? 4 : 2;
+        if (nbrPoints - start < minPoints) {
+            nbrPoints = start;
+            nbrParts--;
+        }
+        if (!inPolygon) {
+            writeRecord();
+        }
+    }
+
+    /**
+     * Writes the headers and the .shx file, and closes the files.
+     */
+    public void end() {
+        try {
+            try {
+                flush(shp, shpBuffer);
+                writeHeader(shp, position);
+
+                ensureSpace(dbf, dbfBuffer, 1);
+                dbfBuffer.put((byte) 0x1A);
+                flush(dbf, dbfBuffer);
+                writeDbfHeader();
+
+                FileChannel shx = shxFile.getChannel();
+                writeHeader(shx, ShapefileReader.HEADER_SIZE + nbrRecords * 8L);
+                shx.position(ShapefileReader.HEADER_SIZE);
+                ByteBuffer buffer = shpBuffer;
+                buffer.order(ByteOrder.BIG_ENDIAN);
+                for (int i = 0; i < nbrRecords * 2; i++) {
+                    if (buffer.remaining() < 4) {
+                        flush(shx, buffer);
+                    }
+                    buffer.putInt(index[i]);
+                }
+                flush(shx, buffer);
+            } finally {
+                close();
+            }
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    private void close() throws IOException {
+        try {
+            shpFile.close();
+            shxFile.close();
+        } finally {
+            dbfFile.close();
+        }
+    }
+
+    private void writeRecord() {
+        if (nbrParts == 0) {
+            return;
+        }
+        final int contentLength = ShapefileReader.RECORD_HEADER_SIZE + nbrParts * 4 + nbrPoints * 16;
+        if (position + 8 + contentLength > Integer.MAX_VALUE) {
+            throw new IllegalStateException("shapefiles are limited to 2 GB");
+        }
+        double rxMin = Double.MAX_VALUE;
+        double ryMin = Double.MAX_VALUE;
+        double rxMax = -Double.MAX_VALUE;
+        double ryMax = -Double.MAX_VALUE;
+        for (int i = 0; i < nbrPoints; i++) {
+            rxMin = Math.min(rxMin, coords[i * 2]);
+            ryMin = Math.min(ryMin, coords[i * 2 + 1]);
+            rxMax = Math.max(rxMax, coords[i * 2]);
+            ryMax = Math.max(ryMax, coords[i * 2 + 1]);
+        }
+        xMin = Math.min(xMin, rxMin);
+        yMin = Math.min(yMin, ryMin);
+        xMax = Math.max(xMax, rxMax);
+        yMax = Math.max(yMax, ryMax);
+
+        if (nbrRecords * 2 == index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[nbrRecords * 2] = (int) (position / 2);
+        index[nbrRecords * 2 + 1] = contentLength / 2;
+        nbrRecords++;
+        position += 8 + contentLength;
+
+        try {
+            ensureSpace(shp, shpBuffer, 8 + ShapefileReader.RECORD_HEADER_SIZE);
+            shpBuffer.order(ByteOrder.BIG_ENDIAN);
+            shpBuffer.putInt(nbrRecords);
+            shpBuffer.putInt(contentLength / 2);
+            shpBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            shpBuffer.putInt(shapeType);
+            shpBuffer.putDouble(rxMin);
+            shpBuffer.putDouble(ryMin);
+            shpBuffer.putDouble(rxMax);
+            shpBuffer.putDouble(ryMax);
+            shpBuffer.putInt(nbrParts);
+            shpBuffer.putInt(nbrPoints);
+            for (int i = 0; i < nbrParts; i++) {
+                ensureSpace(shp, shpBuffer, 4);
+                shpBuffer.putInt(parts[i]);
+            }
+            for (int i = 0; i < nbrPoints * 2; i++) {
+                ensureSpace(shp, shpBuffer, 8);
+                shpBuffer.putDouble(coords[i]);
+            }
+
+            ensureSpace(dbf, dbfBuffer, 1 + ID_LENGTH);
+            String id = Integer.toString(nbrRecords);
+            dbfBuffer.put((byte) ' ');
+            for (int i = id.length(); i < ID_LENGTH; i++) {
+                dbfBuffer.put((byte) ' ');
+            }
+            for (int i = 0; i < id.length(); i++) {
+                dbfBuffer.put((byte) id.charAt(i));
+            }
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+        nbrParts = 0;
+        nbrPoints = 0;
+    }
+
+    /**
+     * Writes the header of the .shp or .shx file.
+     * @param channel The file.
+     * @param length The length of the file in bytes.
+     */
+    private void writeHeader(FileChannel channel, long length) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(ShapefileReader.HEADER_SIZE);
+        header.order(ByteOrder.BIG_ENDIAN);
+        header.putInt(ShapefileReader.FILE_CODE);
+        header.position(24);
+        header.putInt((int) (length / 2));
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(ShapefileReader.VERSION);
+        header.putInt(shapeType);
+        final boolean empty = nbrRecords == 0;
+        header.putDouble(empty ? 0 : xMin);
+        header.putDouble(empty ? 0 : yMin);
+        header.putDouble(empty ? 0 : xMax);
+        header.putDouble(empty ? 0 : yMax);
+        header.position(ShapefileReader.HEADER_SIZE);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * Writes the header of the .dbf file with the field descriptor of the ID
+     * attribute.
+     */
+    private void writeDbfHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(65);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        Calendar now = Calendar.getInstance();
+        header.put((byte) 3);
+        header.put((byte) (now.get(Calendar.YEAR) - 1900));
+        header.put((byte) (now.get(Calendar.MONTH) + 1));
+        header.put((byte) now.get(Calendar.DAY_OF_MONTH));
+        header.putInt(nbrRecords);
+        header.putShort((short) 65);
+        header.putShort((short) (1 + ID_LENGTH));
+        header.position(32);
+        header.put(new byte[]{'I', 'D'});
+        header.position(32 + 11);
+        header.put((byte) 'N');
+        header.position(32 + 16);
+        header.put((byte) ID_LENGTH);
+        header.put((byte) 0);
+        header.position(64);
+        header.put((byte) 0x0D);
+        header.flip();
+        while (header.hasRemaining()) {
+            dbf.write(header, header.position());
+        }
+    }
+
+    private static void ensureSpace(FileChannel channel, ByteBuffer buffer, int bytes)
+            throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,186 @@
+package ch.ethz.karto.stream;
+
+import ch.ethz.karto.gui.MapLine;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Simplifier is a stage of a pipeline that removes points of projected lines
+ * that are not needed at the output resolution. For a tolerance in pixels,
+ * pass the number of pixels divided by the number of pixels per projected
+ * unit.
+ *
+ * Each line is buffered until lineEnd(). The first and last point of a line
+ * are always kept, and so are shared vertices, which are points where lines
+ * meet; lines that meet at shared vertices still meet after simplification.
+ * Closed lines and the rings of polygons keep at least three distinct points.
+ */
+public abstract class Simplifier extends StreamFilter {
+
+    /**
+     * The tolerance in projected units.
+     */
+    protected final double tolerance;
+
+    /**
+     * Points that are always kept, or null.
+     */
+    private VertexSet sharedVertices = null;
+
+    /**
+     * The points of the current line: x0, y0, x1, y1, ...
+     */
+    private double[] coords = new double[256];
+    private int size = 0;
+    private boolean[] keep = new boolean[128];
+
+    /**
+     * Creates a simplifier.
+     * @param tolerance The tolerance in projected units.
+     * @param out The next stage.
+     */
+    protected Simplifier(double tolerance, GeometryStream out) {
+        super(out);
+        if (!(tolerance >= 0)) {
+            throw new IllegalArgumentException("negative tolerance");
+        }
+        this.tolerance = tolerance;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Set the points that are never removed.
+     * @param sharedVertices The points, or null.
+     */
+    public void setSharedVertices(VertexSet sharedVertices) {
+        this.sharedVertices = sharedVertices;
+    }
+
+    public VertexSet getSharedVertices() {
+        return sharedVertices;
+    }
+
+    /**
+     * Returns the points that are used by more than one line, or more than
+     * once by the same line.
+     * @param lines The lines.
+     * @return The shared points.
+     */
+    public static VertexSet findSharedVertices(List<MapLine> lines) {
+        VertexSet seen = new VertexSet();
+        VertexSet shared = new VertexSet();
+        for (MapLine line : lines) {
+            int n = line.size();
+            // the last point of a closed line is not shared with the first
+            if (n > 1 && line.getX(0) == line.getX(n - 1)
+                    && line.getY(0) == line.getY(n - 1)) {
+                n--;
+            }
+            for (int i = 0; i < n; i++) {
+                final double x = line.getX(i);
+                final double y = line.getY(i);
+                if (i > 0 && x == line.getX(i - 1) && y == line.getY(i - 1)) {
+                    continue;
+                }
+                if (!seen.add(x, y)) {
+                    shared.add(x, y);
+                }
+            }
+        }
+        return shared;
+    }
+
+    @Override
+    public void lineStart() {
+        size = 0;
+    }
+
+    @Override
+    public void point(double x, double y) {
+        if (coords.length < size * 2 + 2) {
+            coords = Arrays.copyOf(coords, coords.length * 2);
+        }
+        coords[size * 2] = x;
+        coords[size * 2 + 1] = y;
+        size++;
+    }
+
+    @Override
+    public void lineEnd() {
+        final int n = size;
+        if (keep.length < n) {
+            keep = new boolean[coords.length / 2];
+        }
+        Arrays.fill(keep, 0, n, false);
+        if (n > 0) {
+            keep[0] = true;
+            keep[n - 1] = true;
+        }
+        if (sharedVertices != null) {
+            for (int i = 1; i < n - 1; i++) {
+                keep[i] = sharedVertices.contains(coords[i * 2], coords[i * 2 + 1]);
+            }
+        }
+        final boolean ring = n > 3 && coords[0] == coords[n * 2 - 2]
+                && coords[1] == coords[n * 2 - 1];
+        if (n > 2 && tolerance > 0) {
+            simplify(coords, n, keep, ring);
+        } else {
+            Arrays.fill(keep, 0, n, true);
+        }
+
+        out.lineStart();
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                out.point(coords[i * 2], coords[i * 2 + 1]);
+            }
+        }
+        out.lineEnd();
+    }
+
+    /**
+     * Selects the points of a line that are kept.
+     * @param coords The points: x0, y0, x1, y1, ...
+     * @param n The number of points, at least 3.
+     * @param keep The points that must be kept are true, all others are
+     * false. Set the points to keep to true.
+     * @param ring True if the line is closed.
+     */
+    protected abstract void simplify(double[] coords, int n, boolean[] keep, boolean ring);
+
+    /**
+     * Returns the index of the point farthest from the segment between the
+     * points i0 and i1, or -1 if there are no points between them.
+     * @param distance Receives the square of the distance.
+     */
+    static int farthestPoint(double[] coords, int i0, int i1, double[] distance) {
+        final double x1 = coords[i0 * 2];
+        final double y1 = coords[i0 * 2 + 1];
+        final double dx = coords[i1 * 2] - x1;
+        final double dy = coords[i1 * 2 + 1] - y1;
+        final double lengthSq = dx * dx + dy * dy;
+        int farthest = -1;
+        double maxDist = -1;
+        for (int i = i0 + 1; i < i1; i++) {
+            double px = coords[i * 2] - x1;
+            double py = coords[i * 2 + 1] - y1;
+            if (lengthSq > 0) {
+                // distance to the closest point on the segment
+                double t = (px * dx + py * dy) / lengthSq;
+                t = t < 0 ? 0 : t > 1 ? 1 : t;
+                px -= t * dx;
+                py -= t * dy;
+            }
+            final double d = px * px + py * py;
+            if (d > maxDist) {
+                maxDist = d;
+                farthest = i;
+            }
+        }
+        distance[0] = maxDist;
+        return farthest;
+    }
+}
@@ -0,0 +1,51 @@
+package ch.ethz.karto.stream;
+
+/**
+ * StreamFilter is a stage of a pipeline that passes all events unchanged to
+ * the next stage. Derived classes override the events they transform.
+ */
+public abstract class StreamFilter implements GeometryStream {
+
+    /**
+     * The next stage of the pipeline.
+     */
+    protected final GeometryStream out;
+
+    /**
+     * True between polygonStart() and polygonEnd().
+     */
+    protected boolean inPolygon = false;
+
+    protected StreamFilter(GeometryStream out) {
+        if (out == null) {
+            throw new IllegalArgumentException("no output stream");
+        }
+        this.out = out;
+    }
+
+    public void polygonStart() {
+        inPolygon = true;
+        out.polygonStart();
+    }
+
+    public void polygonEnd() {
+        inPolygon = false;
+        out.polygonEnd();
+    }
+
+    public void lineStart() {
+        out.lineStart();
+    }
+
+    public void point(double x, double y) {
+        out.point(x, y);
+    }
+
+    public void lineEnd() {
+        out.lineEnd();
+    }
+
+    public void end() {
+        out.end();
+    }
+}
@@ -0,0 +1,66 @@
+package ch.ethz.karto.stream;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * UngenerateWriter is the last stage of a pipeline that writes lines and the
+ * rings of polygons in the ESRI Ungenerate format read by UngenerateImporter.
+ * Lines are numbered consecutively, starting with 1. The writer is flushed
+ * by end(), but not closed.
+ *
+ * GeometryStream methods cannot throw IOException, so write errors are thrown
+ * as UncheckedIOException.
+ */
+public class UngenerateWriter implements GeometryStream {
+
+    private final Writer writer;
+    private int lineID = 0;
+
+    /**
+     * Creates a writer.
+     * @param writer The destination. It is buffered if it is not a
+     * BufferedWriter.
+     */
+    public UngenerateWriter(Writer writer) {
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+    }
+
+    public void polygonStart() {
+    }
+
+    public void polygonEnd() {
+    }
+
+    public void lineStart() {
+        write(Integer.toString(++lineID));
+    }
+
+    public void point(double x, double y) {
+        write(x + "," + y);
+    }
+
+    public void lineEnd() {
+        write("END");
+    }
+
+    public void end() {
+        write("END");
+        try {
+            writer.flush();
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    private void write(String str) {
+        try {
+            writer.write(str);
+            writer.write('\n');
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+}
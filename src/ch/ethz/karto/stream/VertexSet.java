@@ -0,0 +1,108 @@
+package ch.ethz.karto.stream;
+
+import java.util.Arrays;
+
+/**
+ * VertexSet is a hash set of points that stores the coordinates in arrays
+ * instead of point objects. Points are equal if their coordinates are
+ * identical.
+ */
+public class VertexSet {
+
+    private double[] xs;
+    private double[] ys;
+    private boolean[] used;
+    private int size = 0;
+
+    public VertexSet() {
+        this(16);
+    }
+
+    /**
+     * Creates a set.
+     * @param capacity The number of points that can be added before the set
+     * has to grow.
+     */
+    public VertexSet(int capacity) {
+        int length = 16;
+        while (length < capacity * 2) {
+            length *= 2;
+        }
+        xs = new double[length];
+        ys = new double[length];
+        used = new boolean[length];
+    }
+
+    /**
+     * Returns the number of points in this set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a point.
+     * @return True if the point was not in this set.
+     */
+    public boolean add(double x, double y) {
+        if ((size + 1) * 2 > used.length) {
+            grow();
+        }
+        int i = slot(x, y);
+        if (used[i]) {
+            return false;
+        }
+        used[i] = true;
+        xs[i] = x;
+        ys[i] = y;
+        size++;
+        return true;
+    }
+
+    /**
+     * Returns true if a point is in this set.
+     */
+    public boolean contains(double x, double y) {
+        return used[slot(x, y)];
+    }
+
+    /**
+     * Removes all points.
+     */
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * Returns the slot containing a point, or the empty slot where it is
+     * added.
+     */
+    private int slot(double x, double y) {
+        // 0.0 and -0.0 are equal and must have the same hash code
+        long bits = Double.doubleToLongBits(x + 0.0) * 31 + Double.doubleToLongBits(y + 0.0);
+        bits ^= bits >>> 32;
+        int h = (int) bits * 0x9E3779B9;
+        final int mask = used.length - 1;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (used[i] && (xs[i] != x || ys[i] != y)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        final double[] oldX = xs;
+        final double[] oldY = ys;
+        final boolean[] oldUsed = used;
+        xs = new double[oldX.length * 2];
+        ys = new double[oldY.length * 2];
+        used = new boolean[oldUsed.length * 2];
+        size = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                add(oldX[i], oldY[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ch.ethz.karto.stream;
+
+/**
+ * VisvalingamSimplifier simplifies lines with the Visvalingam-Whyatt
+ * algorithm: the point forming the triangle with the smallest area with its
+ * two neighbours is removed repeatedly, until all triangles are at least as
+ * large as the square of the tolerance. The area of a triangle is not smaller
+ * than the area of a triangle removed before, so that points are removed in
+ * order of their significance. The triangles are kept in a binary heap, so
+ * the time needed is O(n log n).
+ */
+public class VisvalingamSimplifier extends Simplifier {
+
+    private int[] prev = new int[0];
+    private int[] next = new int[0];
+    private double[] area = new double[0];
+
+    /**
+     * The heap of points ordered by area, and the position of each point in
+     * the heap or -1.
+     */
+    private int[] heap = new int[0];
+    private int[] position = new int[0];
+    private int heapSize;
+
+    /**
+     * Creates a simplifier.
+     * @param tolerance Triangles with an area smaller than the square of the
+     * tolerance are removed. In projected units.
+     * @param out The next stage.
+     */
+    public VisvalingamSimplifier(double tolerance, GeometryStream out) {
+        super(tolerance, out);
+    }
+
+    @Override
+    protected void simplify(double[] coords, int n, boolean[] keep, boolean ring) {
+        if (prev.length < n) {
+            prev = new int[n];
+            next = new int[n];
+            area = new double[n];
+            heap = new int[n];
+            position = new int[n];
+        }
+        heapSize = 0;
+        for (int i = 0; i < n; i++) {
+            prev[i] = i - 1;
+            next[i] = i + 1;
+            position[i] = -1;
+        }
+        for (int i = 1; i < n - 1; i++) {
+            if (!keep[i]) {
+                area[i] = triangleArea(coords, i - 1, i, i + 1);
+                position[i] = heapSize;
+                heap[heapSize++] = i;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+
+        final double minArea = tolerance * tolerance;
+        // a closed line keeps three distinct points and the closing point
+        final int minPoints = ring ? 4 : 2;
+        int remaining = n;
+        while (heapSize > 0 && remaining > minPoints) {
+            final int i = heap[0];
+            final double a = area[i];
+            if (a >= minArea) {
+                break;
+            }
+            removeTop();
+            remaining--;
+
+            final int p = prev[i];
+            final int q = next[i];
+            next[p] = q;
+            prev[q] = p;
+            update(p, a, coords);
+            update(q, a, coords);
+        }
+
+        for (int i = 0; i < n; i++) {
+            keep[i] = keep[i] || (position[i] >= 0);
+        }
+    }
+
+    /**
+     * Recomputes the area of point i after a neighbour with area a has been
+     * removed.
+     */
+    private void update(int i, double a, double[] coords) {
+        final int pos = position[i];
+        if (pos < 0) {
+            return;
+        }
+        final double old = area[i];
+        area[i] = Math.max(a, triangleArea(coords, prev[i], i, next[i]));
+        if (area[i] < old) {
+            siftUp(pos);
+        } else {
+            siftDown(pos);
+        }
+    }
+
+    private static double triangleArea(double[] coords, int a, int b, int c) {
+        final double ax = coords[a * 2];
+        final double ay = coords[a * 2 + 1];
+        return Math.abs((coords[b * 2] - ax) * (coords[c * 2 + 1] - ay)
+                - (coords[c * 2] - ax) * (coords[b * 2 + 1] - ay)) * 0.5;
+    }
+
+    private void removeTop() {
+        position[heap[0]] = -1;
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int pos) {
+        final int i = heap[pos];
+        while (pos > 0) {
+            final int parent = (pos - 1) >>> 1;
+            if (area[heap[parent]] <= area[i]) {
+                break;
+            }
+            heap[pos] = heap[parent];
+            position[heap[pos]] = pos;
+            pos = parent;
+        }
+        heap[pos] = i;
+        position[i] = pos;
+    }
+
+    private void siftDown(int pos) {
+        final int i = heap[pos];
+        while (true) {
+            int child = pos * 2 + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && area[heap[child + 1]] < area[heap[child]]) {
+                child++;
+            }
+            if (area[heap[child]] >= area[i]) {
+                break;
+            }
+            heap[pos] = heap[child];
+            position[heap[pos]] = pos;
+            pos = child;
+        }
+        heap[pos] = i;
+        position[i] = pos;
+    }
+}
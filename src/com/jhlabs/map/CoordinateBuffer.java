@@ -0,0 +1,317 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map;
+
+import java.util.Arrays;
+
+/**
+ * A growable buffer of coordinates stored in separate primitive columns: one
+ * array for x (longitude or easting), one for y (latitude or northing), and an
+ * optional one for heights. Projections and datums transform the coordinates
+ * of a buffer in place, so a single buffer can be reused for many batches.
+ *
+ * A view returned by view() shares the arrays of its parent buffer and covers
+ * a fixed sub-range of it. Views cannot grow. A view becomes stale if its
+ * parent has to reallocate its arrays to grow.
+ */
+public class CoordinateBuffer {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private double[] x;
+    private double[] y;
+    private double[] h;
+    /**
+     * Index of the first coordinate in the arrays. Only views have an offset.
+     */
+    private final int offset;
+    /**
+     * Number of coordinates in this buffer.
+     */
+    private int size;
+    /**
+     * True if this buffer is a view on another buffer.
+     */
+    private final boolean view;
+
+    /**
+     * Creates an empty buffer without heights.
+     */
+    public CoordinateBuffer() {
+        this(DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param capacity The initial number of coordinates that can be stored
+     * without growing.
+     * @param withHeights If true, a column for heights is allocated.
+     */
+    public CoordinateBuffer(int capacity, boolean withHeights) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("negative capacity");
+        }
+        x = new double[capacity];
+        y = new double[capacity];
+        h = withHeights ? new double[capacity] : null;
+        offset = 0;
+        size = 0;
+        view = false;
+    }
+
+    /**
+     * Creates a buffer that wraps existing arrays without copying them. The
+     * arrays may have different lengths; the buffer grows when the shortest
+     * array is full.
+     *
+     * @param x The x coordinates.
+     * @param y The y coordinates.
+     * @param h The heights, or null.
+     * @param size The number of valid coordinates in the arrays.
+     */
+    public CoordinateBuffer(double[] x, double[] y, double[] h, int size) {
+        if (size > x.length || size > y.length || (h != null && size > h.length)) {
+            throw new IllegalArgumentException("arrays are too short");
+        }
+        this.x = x;
+        this.y = y;
+        this.h = h;
+        this.offset = 0;
+        this.size = size;
+        this.view = false;
+    }
+
+    private CoordinateBuffer(CoordinateBuffer parent, int from, int to) {
+        this.x = parent.x;
+        this.y = parent.y;
+        this.h = parent.h;
+        this.offset = parent.offset + from;
+        this.size = to - from;
+        this.view = true;
+    }
+
+    /**
+     * Returns a view on a sub-range of this buffer. The view shares the
+     * coordinate arrays with this buffer; no coordinates are copied.
+     *
+     * @param from Index of the first coordinate of the view (inclusive).
+     * @param to Index of the last coordinate of the view (exclusive).
+     * @return The view.
+     */
+    public CoordinateBuffer view(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("view " + from + "-" + to + " of " + size);
+        }
+        return new CoordinateBuffer(this, from, to);
+    }
+
+    /**
+     * Returns true if this buffer is a view on another buffer.
+     */
+    public boolean isView() {
+        return view;
+    }
+
+    /**
+     * Returns the number of coordinates in this buffer.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if this buffer stores heights.
+     */
+    public boolean hasHeights() {
+        return h != null;
+    }
+
+    /**
+     * Removes all coordinates. The arrays are kept for reuse.
+     */
+    public void clear() {
+        checkNotView();
+        size = 0;
+    }
+
+    /**
+     * Makes sure that at least the passed number of coordinates can be stored
+     * without growing the arrays.
+     */
+    public void ensureCapacity(int capacity) {
+        final int oldCapacity = capacity();
+        if (capacity <= oldCapacity) {
+            return;
+        }
+        checkNotView();
+        int newCapacity = Math.max(capacity, oldCapacity + (oldCapacity >> 1));
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        if (h != null) {
+            h = Arrays.copyOf(h, newCapacity);
+        }
+    }
+
+    /**
+     * Appends a coordinate. The height is set to 0 if this buffer stores
+     * heights.
+     */
+    public void add(double x, double y) {
+        checkNotView();
+        ensureCapacity(size + 1);
+        this.x[size] = x;
+        this.y[size] = y;
+        if (h != null) {
+            h[size] = 0;
+        }
+        size++;
+    }
+
+    /**
+     * Appends a coordinate with a height. A column for heights is allocated if
+     * this buffer does not store heights yet.
+     */
+    public void add(double x, double y, double height) {
+        checkNotView();
+        if (h == null) {
+            h = new double[capacity()];
+        }
+        ensureCapacity(size + 1);
+        this.x[size] = x;
+        this.y[size] = y;
+        h[size] = height;
+        size++;
+    }
+
+    /**
+     * Appends coordinates from interleaved x/y pairs.
+     *
+     * @param xy The interleaved coordinates.
+     * @param xyOffset Index of the first x coordinate in xy.
+     * @param count The number of coordinates to append.
+     */
+    public void addInterleaved(double[] xy, int xyOffset, int count) {
+        checkNotView();
+        ensureCapacity(size + count);
+        for (int i = 0; i < count; i++) {
+            x[size + i] = xy[xyOffset++];
+            y[size + i] = xy[xyOffset++];
+        }
+        if (h != null) {
+            Arrays.fill(h, size, size + count, 0);
+        }
+        size += count;
+    }
+
+    /**
+     * Writes the coordinates to an array of interleaved x/y pairs.
+     *
+     * @param xy The destination array.
+     * @param xyOffset Index of the first x coordinate in xy.
+     */
+    public void toInterleaved(double[] xy, int xyOffset) {
+        for (int i = 0; i < size; i++) {
+            xy[xyOffset++] = x[offset + i];
+            xy[xyOffset++] = y[offset + i];
+        }
+    }
+
+    public double getX(int i) {
+        return x[index(i)];
+    }
+
+    public double getY(int i) {
+        return y[index(i)];
+    }
+
+    /**
+     * Returns the height of a coordinate, or 0 if this buffer does not store
+     * heights.
+     */
+    public double getHeight(int i) {
+        return h == null ? 0 : h[index(i)];
+    }
+
+    public void set(int i, double x, double y) {
+        i = index(i);
+        this.x[i] = x;
+        this.y[i] = y;
+    }
+
+    public void setHeight(int i, double height) {
+        if (h == null) {
+            throw new IllegalStateException("buffer does not store heights");
+        }
+        h[index(i)] = height;
+    }
+
+    /**
+     * Returns the array holding the x coordinates. The coordinates of this
+     * buffer start at getOffset(). The array is replaced when the buffer grows.
+     */
+    public double[] getXArray() {
+        return x;
+    }
+
+    /**
+     * Returns the array holding the y coordinates. The coordinates of this
+     * buffer start at getOffset(). The array is replaced when the buffer grows.
+     */
+    public double[] getYArray() {
+        return y;
+    }
+
+    /**
+     * Returns the array holding the heights, or null if this buffer does not
+     * store heights. The heights of this buffer start at getOffset().
+     */
+    public double[] getHeightArray() {
+        return h;
+    }
+
+    /**
+     * Returns the index of the first coordinate of this buffer in the arrays
+     * returned by getXArray(), getYArray() and getHeightArray().
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the number of coordinates that fit into all arrays, which may
+     * have different lengths if they were passed to the constructor.
+     */
+    private int capacity() {
+        int capacity = Math.min(x.length, y.length);
+        return h == null ? capacity : Math.min(capacity, h.length);
+    }
+
+    private int index(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException(i + " of " + size);
+        }
+        return offset + i;
+    }
+
+    private void checkNotView() {
+        if (view) {
+            throw new UnsupportedOperationException("cannot resize a view");
+        }
+    }
+
+    public String toString() {
+        return "CoordinateBuffer[" + size + (h != null ? ", with heights]" : "]");
+    }
+}
@@ -202,6 +202,26 @@ public class Datum {
         return registry.get(name);
     }
 
+    public String getName() {
+        return name;
+    }
+
+    public Ellipsoid getEllipsoid() {
+        return ellipsoid;
+    }
+
+    public double getDeltaX() {
+        return deltaX;
+    }
+
+    public double getDeltaY() {
+        return deltaY;
+    }
+
+    public double getDeltaZ() {
+        return deltaZ;
+    }
+
     public String toString() {
         return name;
     }
@@ -234,57 +254,100 @@ public class Datum {
     public static final GeodeticPosition transform(GeodeticPosition from, double Sa,
             double Sf, double Da, double Df, double dx,
             double dy, double dz) {
-        double frlat;
-        double frlon;
-        double esq;
-        double bda;
-        double da;
-        double df;
-        double N;
-        double M;
-        double tmp;
-        double tmp2;
-        double dlambda;
-        double dheight;
-        double phis;
-        double phic;
-        double lams;
-        double lamc;
+        final double[] lon = {Math.toRadians(from.lon)};
+        final double[] lat = {Math.toRadians(from.lat)};
+        final double[] h = {from.h};
+        transformRadians(lon, lat, h, 0, 1, Sa, Sf, Da, Df, dx, dy, dz);
 
         GeodeticPosition to = new GeodeticPosition();
+        to.lat = Math.toDegrees(lat[0]);
+        to.lon = Math.toDegrees(lon[0]);
+        to.h = h[0];
+        return to;
+    }
 
-        esq = 2.0 * Sf - Math.pow(Sf, 2.0);
-        bda = 1.0 - Sf;
-        frlat = Math.toRadians(from.lat);
-        frlon = Math.toRadians(from.lon);
-
-        da = Da - Sa;
-        df = Df - Sf;
-
-        phis = Math.sin(frlat);
-        phic = Math.cos(frlat);
-        lams = Math.sin(frlon);
-        lamc = Math.cos(frlon);
+    /**
+     * Transforms the lon/lat coordinates (in degrees) of a coordinate buffer
+     * in place from one datum to another, using the same Molodensky algorithm
+     * as transform(GeodeticPosition, Datum, Datum). Heights are also updated
+     * if the buffer stores heights; otherwise heights are assumed to be 0.
+     *
+     * @param positions The coordinates to transform.
+     * @param fromDatum The source datum.
+     * @param toDatum The destination datum.
+     */
+    public static final void transform(CoordinateBuffer positions, Datum fromDatum, Datum toDatum) {
+        final double[] lons = positions.getXArray();
+        final double[] lats = positions.getYArray();
+        final int offset = positions.getOffset();
+        final int n = positions.size();
+        for (int i = offset; i < offset + n; i++) {
+            lons[i] = Math.toRadians(lons[i]);
+            lats[i] = Math.toRadians(lats[i]);
+        }
+        transformRadians(lons, lats, positions.getHeightArray(), offset, n,
+                fromDatum.ellipsoid.equatorRadius, fromDatum.ellipsoid.flattening,
+                toDatum.ellipsoid.equatorRadius, toDatum.ellipsoid.flattening,
+                fromDatum.deltaX, fromDatum.deltaY, fromDatum.deltaZ);
+        for (int i = offset; i < offset + n; i++) {
+            lons[i] = Math.toDegrees(lons[i]);
+            lats[i] = Math.toDegrees(lats[i]);
+        }
+    }
 
-        N = Sa / Math.sqrt(1.0 - esq * Math.pow(phis, 2.0));
+    /**
+     * Transforms lon/lat coordinates in radians in place using the Molodensky
+     * algorithm. This is the implementation used by all transform methods.
+     *
+     * @param lons The longitudes in radians.
+     * @param lats The latitudes in radians.
+     * @param heights The heights in meters, or null if all heights are 0. The
+     * heights are updated if not null.
+     * @param offset Index of the first coordinate in the arrays.
+     * @param n The number of coordinates to transform.
+     * @param Sa source semi-major axis (meters)
+     * @param Sf source flattening
+     * @param Da destination semi-major axis (meters)
+     * @param Df destination flattening
+     * @param dx delta x
+     * @param dy delta y
+     * @param dz delta z
+     */
+    public static final void transformRadians(double[] lons, double[] lats,
+            double[] heights, int offset, int n, double Sa, double Sf,
+            double Da, double Df, double dx, double dy, double dz) {
+        final double esq = 2.0 * Sf - Math.pow(Sf, 2.0);
+        final double bda = 1.0 - Sf;
+        final double da = Da - Sa;
+        final double df = Df - Sf;
 
-        tmp = (1.0 - esq) / Math.pow((1.0 - esq * Math.pow(phis, 2.0)), 1.5);
-        M = Sa * tmp;
+        for (int i = offset; i < offset + n; i++) {
+            final double h = heights == null ? 0 : heights[i];
+            final double frlat = lats[i];
+            final double frlon = lons[i];
 
-        tmp = df * ((M / bda) + N * bda) * phis * phic;
-        tmp2 = da * N * esq * phis * phic / Sa;
-        tmp2 += ((-dx * phis * lamc - dy * phis * lams) + dz * phic);
-        to.lat = (tmp2 + tmp) / (M + from.h);
+            final double phis = Math.sin(frlat);
+            final double phic = Math.cos(frlat);
+            final double lams = Math.sin(frlon);
+            final double lamc = Math.cos(frlon);
 
-        dlambda = (-dx * lams + dy * lamc) / ((N + from.h) * phic);
+            final double N = Sa / Math.sqrt(1.0 - esq * Math.pow(phis, 2.0));
+            final double M = Sa * ((1.0 - esq) / Math.pow((1.0 - esq * Math.pow(phis, 2.0)), 1.5));
 
-        dheight = dx * phic * lamc + dy * phic * lams + dz * phis - da * (Sa / N)
-                + df * bda * N * phis * phis;
+            final double tmp = df * ((M / bda) + N * bda) * phis * phic;
+            double tmp2 = da * N * esq * phis * phic / Sa;
+            tmp2 += ((-dx * phis * lamc - dy * phis * lams) + dz * phic);
+            final double dphi = (tmp2 + tmp) / (M + h);
 
-        to.lat = Math.toDegrees(frlat + to.lat);
-        to.lon = Math.toDegrees(frlon + dlambda);
-        to.h = from.h + dheight;
+            final double dlambda = (-dx * lams + dy * lamc) / ((N + h) * phic);
 
-        return to;
+            lats[i] = frlat + dphi;
+            lons[i] = frlon + dlambda;
+            if (heights != null) {
+                final double dheight = dx * phic * lamc + dy * phic * lams + dz * phis - da * (Sa / N)
+                        + df * bda * N * phis * phis;
+                heights[i] = h + dheight;
+            }
+        }
     }
 }
@@ -52,10 +52,34 @@ public class Apian1Projection extends Projection {
 
     @Override
     public Point2D.Double projectInverse(double x, double y, Point2D.Double out) {
-        binarySearchInverse(x, y, out);
+        final double ax = globularLongitude(Math.abs(x), y);
+        out.x = x < 0 ? -ax : ax;
+        out.y = y;
         return out;
     }
 
+    /**
+     * Inverts x = ax - f + sqrt(f * f - v * v) with f = (PI^2/4 / ax + ax) / 2,
+     * the horizontal coordinate of the globular projections by Apian, Bacon
+     * and Ortelius. Squaring gives the quadratic equation
+     * x * ax^2 - (x^2 - PI^2/4 + v^2) * ax - PI^2/4 * x = 0, which has a single
+     * positive root.
+     *
+     * @param x The absolute value of the x coordinate.
+     * @param v The vertical parameter: the latitude for Apian and Ortelius, the
+     * y coordinate for Bacon.
+     * @return The absolute value of the longitude.
+     */
+    static double globularLongitude(double x, double v) {
+        if (x == 0) {
+            return 0;
+        }
+        final double b = x * x - HLFPI2 + v * v;
+        final double d = Math.sqrt(b * b + 4 * x * x * HLFPI2);
+        // avoid cancellation in the numerator
+        return b >= 0 ? (b + d) / (2 * x) : 2 * x * HLFPI2 / (d - b);
+    }
+
     @Override
     public boolean hasInverse() {
         return true;
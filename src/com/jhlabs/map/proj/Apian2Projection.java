@@ -42,7 +42,10 @@ public class Apian2Projection extends Projection {
 
     @Override
     public Point2D.Double projectInverse(double x, double y, Point2D.Double out) {
-        binarySearchInverse(x, y, out);
+        out.y = y;
+        final double s = RHALFPI * Math.sqrt(Math.abs(HLFPI2 - y * y));
+        // all longitudes meet at the poles
+        out.x = s == 0 ? 0 : x / s;
         return out;
     }
 
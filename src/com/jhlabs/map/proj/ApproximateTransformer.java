@@ -0,0 +1,284 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map.proj;
+
+import com.jhlabs.map.MapMath;
+import java.awt.geom.Point2D;
+
+/**
+ * Projects rows of points approximately, for example the pixel centres of the
+ * scanlines of a raster. A row is evaluated exactly at its end points, its
+ * middle point and its quarter points. If linear interpolation between the end
+ * points is within the tolerance at these points, the other points are
+ * interpolated; otherwise the row is split in two halves that are approximated
+ * separately.
+ * Segments containing points that cannot be projected, and segments of two
+ * points, are evaluated exactly, so rows crossing singularities, the edge of
+ * the graticule or the antimeridian are subdivided down to exact evaluation.
+ *
+ * The points of a row must lie on a straight line in source coordinates, but
+ * do not need to be evenly spaced. The error is only checked at three points
+ * of a segment, so the tolerance is not a strict bound for projections whose
+ * derivatives change abruptly.
+ *
+ * A transformer uses a compiled copy of its projection and can be used by
+ * multiple threads concurrently.
+ */
+public class ApproximateTransformer {
+
+    private final Projection projection;
+    /**
+     * The inverse grid for inverse transformations by projections without
+     * inverse equations, or null.
+     */
+    private final InverseGrid grid;
+    private final boolean inverse;
+    /**
+     * The tolerance in the units of the destination coordinates.
+     */
+    private final double tolerance;
+
+    /**
+     * Creates a transformer projecting lon/lat points in degrees to metres.
+     *
+     * @param projection The projection. It is not changed.
+     * @param tolerance The maximum interpolation error in metres.
+     */
+    public ApproximateTransformer(Projection projection, double tolerance) {
+        this(projection, false, tolerance);
+    }
+
+    /**
+     * Creates a transformer.
+     *
+     * @param projection The projection. It is not changed.
+     * @param inverse If true, points in metres are inverse-projected to
+     * lon/lat in degrees. An InverseGrid is used if the projection has no
+     * inverse equations. If false, lon/lat points in degrees are projected to
+     * metres.
+     * @param tolerance The maximum interpolation error in metres. For inverse
+     * transformations, the tolerance is converted to degrees of latitude on
+     * the equator of the ellipsoid.
+     */
+    public ApproximateTransformer(Projection projection, boolean inverse, double tolerance) {
+        if (!(tolerance >= 0)) {
+            throw new IllegalArgumentException("negative tolerance");
+        }
+        this.projection = projection.isFrozen() ? projection : projection.compile();
+        this.inverse = inverse;
+        this.grid = inverse && !projection.hasInverse()
+                ? InverseGrid.getInverseGrid(this.projection) : null;
+        this.tolerance = inverse
+                ? tolerance / (this.projection.getEquatorRadius() * MapMath.DTR)
+                : tolerance;
+    }
+
+    /**
+     * Returns the compiled copy of the projection used by this transformer.
+     */
+    public Projection getProjection() {
+        return projection;
+    }
+
+    public boolean isInverse() {
+        return inverse;
+    }
+
+    /**
+     * Transforms a row of interleaved points lying on a straight line. Points
+     * that cannot be transformed are set to NaN.
+     *
+     * @param srcPoints The source points.
+     * @param srcOffset Index of the first x coordinate in srcPoints.
+     * @param dstPoints The destination points. Can be the same array as
+     * srcPoints.
+     * @param dstOffset Index of the first x coordinate in dstPoints.
+     * @param numPoints The number of points.
+     */
+    public void transformRow(double[] srcPoints, int srcOffset,
+            double[] dstPoints, int dstOffset, int numPoints) {
+        if (numPoints <= 0) {
+            return;
+        }
+        Row row = new Row(srcPoints, srcOffset, dstPoints, dstOffset);
+        if (srcPoints == dstPoints) {
+            // keep the source coordinates, which are needed for interpolation
+            row.src = new double[numPoints * 2];
+            row.srcOffset = 0;
+            System.arraycopy(srcPoints, srcOffset, row.src, 0, numPoints * 2);
+        }
+        row.exact(0);
+        if (numPoints > 1) {
+            row.exact(numPoints - 1);
+            row.approximate(0, numPoints - 1, false);
+        }
+    }
+
+    /**
+     * Transforms a regular grid of points, for example the pixel centres of a
+     * raster, row by row. The point in column c and row r is
+     * (x0 + c * dx, y0 + r * dy).
+     *
+     * @param x0 The x coordinate of the first point.
+     * @param y0 The y coordinate of the first point.
+     * @param dx The distance between columns.
+     * @param dy The distance between rows.
+     * @param columns The number of columns.
+     * @param rows The number of rows.
+     * @param dstPoints The destination points, row by row, interleaved.
+     * @param dstOffset Index of the first x coordinate in dstPoints.
+     */
+    public void transformGrid(double x0, double y0, double dx, double dy,
+            int columns, int rows, double[] dstPoints, int dstOffset) {
+        double[] src = new double[columns * 2];
+        for (int c = 0; c < columns; c++) {
+            src[c * 2] = x0 + c * dx;
+        }
+        for (int r = 0; r < rows; r++) {
+            final double y = y0 + r * dy;
+            for (int c = 0; c < columns; c++) {
+                src[c * 2 + 1] = y;
+            }
+            transformRow(src, 0, dstPoints, dstOffset + r * columns * 2, columns);
+        }
+    }
+
+    /**
+     * A row of points that is transformed.
+     */
+    private class Row {
+
+        private double[] src;
+        private int srcOffset;
+        private final double[] dst;
+        private final int dstOffset;
+        private final Point2D.Double p = new Point2D.Double();
+        /**
+         * The segment set by segment(): the axis and the start and extent of
+         * the source coordinates, and the start and extent of the
+         * transformed coordinates.
+         */
+        private int axis;
+        private double s0, ds, x0, y0, dx, dy;
+
+        Row(double[] src, int srcOffset, double[] dst, int dstOffset) {
+            this.src = src;
+            this.srcOffset = srcOffset;
+            this.dst = dst;
+            this.dstOffset = dstOffset;
+        }
+
+        /**
+         * Transforms the points between the exactly transformed points i0 and
+         * i1. The middle point is transformed exactly unless midKnown is true.
+         * The error of the interpolation is checked at the middle point and
+         * at the quarter points. A single check is not sufficient for rows
+         * that leave the graticule, where projections may clamp coordinates
+         * and the middle point can fit by chance.
+         */
+        void approximate(int i0, int i1, boolean midKnown) {
+            if (i1 - i0 < 2) {
+                return;
+            }
+            final int im = (i0 + i1) >>> 1;
+            if (!midKnown) {
+                exact(im);
+            }
+            if (i1 - i0 < 4) {
+                // too few points to check the error
+                for (int i = i0 + 1; i < i1; i++) {
+                    if (i != im) {
+                        exact(i);
+                    }
+                }
+                return;
+            }
+            // the quarter points are the middle points of the halves
+            final int iq0 = (i0 + im) >>> 1;
+            final int iq1 = (im + i1) >>> 1;
+            exact(iq0);
+            exact(iq1);
+            segment(i0, i1);
+            if (fits(im) && fits(iq0) && fits(iq1)) {
+                final double[] src = this.src;
+                final double[] dst = this.dst;
+                final double rds = ds == 0 ? 0 : 1 / ds;
+                final double t0 = ds == 0 ? 0.5 : 0;
+                int si = srcOffset + (i0 + 1) * 2 + axis;
+                int d = dstOffset + (i0 + 1) * 2;
+                for (int i = i0 + 1; i < i1; i++, si += 2, d += 2) {
+                    if (i != im && i != iq0 && i != iq1) {
+                        final double t = t0 + (src[si] - s0) * rds;
+                        dst[d] = x0 + t * dx;
+                        dst[d + 1] = y0 + t * dy;
+                    }
+                }
+            } else {
+                approximate(i0, im, true);
+                approximate(im, i1, true);
+            }
+        }
+
+        /**
+         * Sets the segment used by fits() and for interpolation.
+         */
+        private void segment(int i0, int i1) {
+            // interpolate along the source coordinate that changes most
+            axis = Math.abs(src(i1, 0) - src(i0, 0))
+                    >= Math.abs(src(i1, 1) - src(i0, 1)) ? 0 : 1;
+            s0 = src(i0, axis);
+            ds = src(i1, axis) - s0;
+            x0 = dst[dstOffset + i0 * 2];
+            y0 = dst[dstOffset + i0 * 2 + 1];
+            dx = dst[dstOffset + i1 * 2] - x0;
+            dy = dst[dstOffset + i1 * 2 + 1] - y0;
+        }
+
+        /**
+         * Returns true if the exactly transformed point i is within the
+         * tolerance of the interpolation. Returns false if a point is NaN.
+         */
+        private boolean fits(int i) {
+            final double t = ds == 0 ? 0.5 : (src(i, axis) - s0) / ds;
+            final int d = dstOffset + i * 2;
+            return Math.abs(x0 + t * dx - dst[d]) <= tolerance
+                    && Math.abs(y0 + t * dy - dst[d + 1]) <= tolerance;
+        }
+
+        private double src(int i, int axis) {
+            return src[srcOffset + i * 2 + axis];
+        }
+
+        /**
+         * Transforms point i exactly.
+         */
+        void exact(int i) {
+            p.x = src(i, 0);
+            p.y = src(i, 1);
+            try {
+                if (!inverse) {
+                    projection.transform(p, p);
+                } else if (grid != null) {
+                    grid.inverseTransform(p, p);
+                } else {
+                    projection.inverseTransform(p, p);
+                }
+            } catch (ProjectionException exc) {
+                p.x = p.y = Double.NaN;
+            }
+            dst[dstOffset + i * 2] = p.x;
+            dst[dstOffset + i * 2 + 1] = p.y;
+        }
+    }
+}
@@ -61,6 +61,7 @@ public class AspectAdaptiveProjection extends CylindricalProjection {
     }
 
     public void setAspectRatio(double aspect) {
+        checkNotFrozen();
         aspectRatio = Math.max(Math.min(aspect, 1.), 0.3);
 
         double PI_HALF = Math.PI / 2.;
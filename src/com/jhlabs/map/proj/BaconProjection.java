@@ -55,7 +55,9 @@ public class BaconProjection extends Projection {
 
     @Override
     public Point2D.Double projectInverse(double x, double y, Point2D.Double out) {
-        binarySearchInverse(x, y, out);
+        final double ax = Apian1Projection.globularLongitude(Math.abs(x), y);
+        out.x = x < 0 ? -ax : ax;
+        out.y = Math.asin(y / MapMath.HALFPI);
         return out;
     }
 
@@ -28,15 +28,6 @@ import java.time.Year;
 public class CassiniProjection extends CylindricalProjection {
 
     private double m0;
-    private double n;
-    private double t;
-    private double a1;
-    private double c;
-    private double r;
-    private double dd;
-    private double d2;
-    private double a2;
-    private double tn;
     private double[] en;
     private final static double EPS10 = 1e-10;
     private final static double C1 = .16666666666666666666;
@@ -59,13 +50,14 @@ public class CassiniProjection extends CylindricalProjection {
             xy.x = Math.asin(Math.cos(lpphi) * Math.sin(lplam));
             xy.y = Math.atan2(Math.tan(lpphi), Math.cos(lplam)) - projectionLatitude;
         } else {
+            double n, c;
             xy.y = MapMath.mlfn(lpphi, n = Math.sin(lpphi), c = Math.cos(lpphi), en);
             n = 1. / Math.sqrt(1. - es * n * n);
-            tn = Math.tan(lpphi);
-            t = tn * tn;
-            a1 = lplam * c;
+            final double tn = Math.tan(lpphi);
+            final double t = tn * tn;
+            final double a1 = lplam * c;
             c *= es * c / (1 - es);
-            a2 = a1 * a1;
+            final double a2 = a1 * a1;
             xy.x = n * a1 * (1. - a2 * t
                     * (C1 - (8. - t + 8. * c) * a2 * C2));
             xy.y -= m0 - n * tn * a2
@@ -77,20 +69,21 @@ public class CassiniProjection extends CylindricalProjection {
     @Override
     public Point2D.Double projectInverse(double xyx, double xyy, Point2D.Double out) {
         if (spherical) {
-            out.y = Math.asin(Math.sin(dd = xyy + projectionLatitude) * Math.cos(xyx));
+            final double dd = xyy + projectionLatitude;
+            out.y = Math.asin(Math.sin(dd) * Math.cos(xyx));
             out.x = Math.atan2(Math.tan(xyx), Math.cos(dd));
         } else {
-            double ph1;
+            double ph1, n, r;
 
             ph1 = MapMath.inv_mlfn(m0 + xyy, es, en);
-            tn = Math.tan(ph1);
-            t = tn * tn;
+            final double tn = Math.tan(ph1);
+            final double t = tn * tn;
             n = Math.sin(ph1);
             r = 1. / (1. - es * n * n);
             n = Math.sqrt(r);
             r *= (1. - es) * n;
-            dd = xyx / n;
-            d2 = dd * dd;
+            final double dd = xyx / n;
+            final double d2 = dd * dd;
             out.y = ph1 - (n * tn / r) * d2
                     * (.5 - (1. + 3. * t) * d2 * C3);
             out.x = dd * (1. + t * d2
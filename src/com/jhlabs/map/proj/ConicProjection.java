@@ -41,6 +41,7 @@ public class ConicProjection extends Projection {
     }
 
     public void setProjectionLatitude1(double projectionLatitude1) {
+        checkNotFrozen();
         this.projectionLatitude1 = projectionLatitude1;
     }
 
@@ -57,6 +58,7 @@ public class ConicProjection extends Projection {
     }
 
     public void setProjectionLatitude2(double projectionLatitude2) {
+        checkNotFrozen();
         this.projectionLatitude2 = projectionLatitude2;
     }
 
@@ -0,0 +1,664 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map.proj;
+
+import com.jhlabs.map.MapMath;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StreamTokenizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the coordinate systems defined in the files in the coordsys
+ * resource folder. The definitions of all files are kept in memory as sorted
+ * codes and indices into a table of shared parameter strings. A coordinate
+ * system is looked up with a binary search, and its PROJ.4 parameters are
+ * only assembled when they are requested.
+ *
+ * The catalog is generated at build time by main() and stored in the binary
+ * resource coordsys/catalog.bin, which is loaded with a single read. If this
+ * resource does not exist, the text files are parsed once instead.
+ */
+public class CoordinateSystemCatalog {
+
+    /**
+     * The files in the coordsys folder, in the order in which they are
+     * searched for codes without a file name.
+     */
+    static final String[] FILES = {"world", "nad83", "nad27", "esri", "epsg"};
+
+    private static final String CATALOG_RESOURCE = "/coordsys/catalog.bin";
+    private static final int MAGIC = 0x4A4D5043;
+    private static final int VERSION = 1;
+
+    /**
+     * The parameter strings shared by all definitions.
+     */
+    private final String[] strings;
+    /**
+     * The file names.
+     */
+    private final String[] files;
+    /**
+     * Index of the first entry of each file, plus the number of entries.
+     * Entries are sorted by file, then by code.
+     */
+    private final int[] fileStart;
+    /**
+     * The codes of all entries.
+     */
+    private final String[] codes;
+    /**
+     * Index of the first parameter of each entry in params, plus the number
+     * of parameters.
+     */
+    private final int[] paramStart;
+    /**
+     * Indices into strings.
+     */
+    private final int[] params;
+
+    /**
+     * Maps the projection type and the bucket of the central meridian to the
+     * fingerprints of entries, created when first needed.
+     */
+    private volatile Map<String, Fingerprint[]> reverseIndex;
+
+    private CoordinateSystemCatalog(String[] strings, String[] files, int[] fileStart,
+            String[] codes, int[] paramStart, int[] params) {
+        this.strings = strings;
+        this.files = files;
+        this.fileStart = fileStart;
+        this.codes = codes;
+        this.paramStart = paramStart;
+        this.params = params;
+    }
+
+    /**
+     * Returns the catalog of the coordsys resource folder. It is loaded when
+     * this method is first called.
+     */
+    public static CoordinateSystemCatalog getDefault() {
+        return Holder.catalog;
+    }
+
+    private static class Holder {
+
+        static final CoordinateSystemCatalog catalog = load();
+    }
+
+    private static CoordinateSystemCatalog load() {
+        try {
+            InputStream is = CoordinateSystemCatalog.class.getResourceAsStream(CATALOG_RESOURCE);
+            if (is != null) {
+                try {
+                    return read(is);
+                } finally {
+                    is.close();
+                }
+            }
+            return parseResources();
+        } catch (IOException e) {
+            throw new ProjectionException("Cannot read coordinate system catalog: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the PROJ.4 parameters of a coordinate system.
+     *
+     * @param name A code qualified by a file name, such as "epsg:4326", or a
+     * code without a file name, which is searched in all files in the order
+     * world, nad83, nad27, esri and epsg.
+     * @return The parameters, or null if there is no coordinate system with
+     * this name.
+     */
+    public String[] getParameters(String name) {
+        int p = name.indexOf(':');
+        if (p >= 0) {
+            return getParameters(name.substring(0, p), name.substring(p + 1));
+        }
+        for (int i = 0; i < files.length; i++) {
+            int entry = find(i, name);
+            if (entry >= 0) {
+                return parameters(entry);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the PROJ.4 parameters of a coordinate system in a file.
+     *
+     * @param file The name of the file, such as "epsg".
+     * @param code The code of the coordinate system in the file.
+     * @return The parameters, or null if there is no such coordinate system.
+     */
+    public String[] getParameters(String file, String code) {
+        int fileIndex = Arrays.asList(files).indexOf(file);
+        if (fileIndex < 0) {
+            return null;
+        }
+        int entry = find(fileIndex, code);
+        return entry < 0 ? null : parameters(entry);
+    }
+
+    /**
+     * Returns true if the catalog contains a file.
+     */
+    public boolean containsFile(String file) {
+        return Arrays.asList(files).contains(file);
+    }
+
+    /**
+     * Returns the codes of all coordinate systems in a file, in sorted order.
+     */
+    public String[] getCodes(String file) {
+        int fileIndex = Arrays.asList(files).indexOf(file);
+        if (fileIndex < 0) {
+            return new String[0];
+        }
+        return Arrays.copyOfRange(codes, fileStart[fileIndex], fileStart[fileIndex + 1]);
+    }
+
+    /**
+     * Returns the number of coordinate systems in the catalog.
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /**
+     * Returns the codes of the coordinate systems whose projection has the same
+     * parameters as a projection: type, ellipsoid, latitude and longitude of
+     * origin, latitude of true scale, standard parallels of conic projections,
+     * scale factor, false easting and northing, and units. Angles are compared
+     * to 1e-7 degrees, lengths to 1 mm, and other numbers to 1e-9. Datums and
+     * parameters specific to a projection type are not compared, so a
+     * projection can match several codes.
+     *
+     * The index of all coordinate systems is built when this method is first
+     * called; after that, a lookup compares the projection with the few
+     * coordinate systems of the same type and a similar central meridian.
+     *
+     * @param projection The projection.
+     * @return The matching codes qualified by file names, such as
+     * "epsg:4326", in the order world, nad83, nad27, esri and epsg. Empty if
+     * no coordinate system matches.
+     */
+    public String[] findCodes(Projection projection) {
+        int[] entries = findEntries(projection);
+        String[] names = new String[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            names[i] = files[fileOf(entries[i])] + ":" + codes[entries[i]];
+        }
+        return names;
+    }
+
+    /**
+     * Returns the first code in a file of a coordinate system whose projection
+     * matches a projection. See findCodes().
+     *
+     * @param projection The projection.
+     * @param file The name of the file, such as "epsg".
+     * @return The code without file name, or null if there is no match.
+     */
+    public String findCode(Projection projection, String file) {
+        for (int entry : findEntries(projection)) {
+            if (files[fileOf(entry)].equals(file)) {
+                return codes[entry];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the entries whose projection matches a projection, in
+     * ascending order. A value within the tolerance of the central meridian
+     * is in the same bucket or in one of the two neighbouring buckets.
+     */
+    private int[] findEntries(Projection projection) {
+        Fingerprint fingerprint = new Fingerprint(projection, -1);
+        Map<String, Fingerprint[]> index = reverseIndex();
+        final long bucket = fingerprint.bucket();
+        int[] entries = new int[0];
+        for (long b = bucket - 1; b <= bucket + 1; b++) {
+            Fingerprint[] candidates = index.get(fingerprint.key(b));
+            if (candidates == null) {
+                continue;
+            }
+            for (Fingerprint candidate : candidates) {
+                if (fingerprint.matches(candidate)) {
+                    entries = Arrays.copyOf(entries, entries.length + 1);
+                    entries[entries.length - 1] = candidate.entry;
+                }
+            }
+        }
+        Arrays.sort(entries);
+        return entries;
+    }
+
+    private Map<String, Fingerprint[]> reverseIndex() {
+        Map<String, Fingerprint[]> index = reverseIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = reverseIndex;
+                if (index == null) {
+                    index = createReverseIndex();
+                    reverseIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Creates the projections of all coordinate systems and groups their
+     * fingerprints by type and bucket of the central meridian. Definitions
+     * that cannot be parsed are ignored.
+     */
+    private Map<String, Fingerprint[]> createReverseIndex() {
+        Map<String, Fingerprint[]> index = new HashMap<>();
+        for (int entry = 0; entry < codes.length; entry++) {
+            Projection projection;
+            try {
+                projection = ProjectionFactory.fromPROJ4Specification(parameters(entry));
+            } catch (RuntimeException e) {
+                continue;
+            }
+            Fingerprint fingerprint = new Fingerprint(projection, entry);
+            String key = fingerprint.key(fingerprint.bucket());
+            Fingerprint[] fingerprints = index.get(key);
+            if (fingerprints == null) {
+                fingerprints = new Fingerprint[]{fingerprint};
+            } else {
+                fingerprints = Arrays.copyOf(fingerprints, fingerprints.length + 1);
+                fingerprints[fingerprints.length - 1] = fingerprint;
+            }
+            index.put(key, fingerprints);
+        }
+        return index;
+    }
+
+    private int fileOf(int entry) {
+        int f = 0;
+        while (entry >= fileStart[f + 1]) {
+            f++;
+        }
+        return f;
+    }
+
+    private int find(int fileIndex, String code) {
+        int from = fileStart[fileIndex];
+        int to = fileStart[fileIndex + 1];
+        int i = Arrays.binarySearch(codes, from, to, code);
+        return i < 0 ? -1 : i;
+    }
+
+    private String[] parameters(int entry) {
+        int first = paramStart[entry];
+        String[] args = new String[paramStart[entry + 1] - first];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = strings[params[first + i]];
+        }
+        return args;
+    }
+
+    /**
+     * Reads coordinate system definitions in the PROJ.4 init file format:
+     * <code>&lt;code&gt; +key=value ... &lt;&gt;</code>, with comments starting
+     * with '#'. Parameters without a value are ignored. Definitions are added
+     * to the map in file order; if a code appears more than once, the first
+     * definition is kept.
+     */
+    static void readDefinitions(Reader reader, Map<String, String[]> definitions) throws IOException {
+        StreamTokenizer t = new StreamTokenizer(reader);
+        t.commentChar('#');
+        t.ordinaryChars('0', '9');
+        t.ordinaryChars('.', '.');
+        t.ordinaryChars('-', '-');
+        t.ordinaryChars('+', '+');
+        t.wordChars('0', '9');
+        t.wordChars('\'', '\'');
+        t.wordChars('"', '"');
+        t.wordChars('_', '_');
+        t.wordChars('.', '.');
+        t.wordChars('-', '-');
+        t.wordChars('+', '+');
+        t.wordChars(',', ',');
+        t.nextToken();
+
+        while (t.ttype == '<') {
+            t.nextToken();
+            if (t.ttype != StreamTokenizer.TT_WORD) {
+                throw new IOException(t.lineno() + ": Word expected after '<'");
+            }
+
+            String cname = t.sval;
+            t.nextToken();
+            if (t.ttype != '>') {
+                throw new IOException(t.lineno() + ": '>' expected");
+            }
+            t.nextToken();
+            List<String> v = new ArrayList<>();
+            while (t.ttype != '<') {
+                if (t.ttype == '+') {
+                    t.nextToken();
+                }
+                if (t.ttype != StreamTokenizer.TT_WORD) {
+                    throw new IOException(t.lineno() + ": Word expected after '+'");
+                }
+                String key = t.sval;
+                t.nextToken();
+                if (t.ttype == '=') {
+                    t.nextToken();
+                    // no check for a word, to allow for the proj4 hack +nadgrids=@null
+                    String value = t.sval;
+                    t.nextToken();
+                    if (key.startsWith("+")) {
+                        v.add(key + "=" + value);
+                    } else {
+                        v.add("+" + key + "=" + value);
+                    }
+                }
+            }
+            t.nextToken();
+            if (t.ttype != '>') {
+                throw new IOException(t.lineno() + ": '<>' expected");
+            }
+            t.nextToken();
+            if (!definitions.containsKey(cname)) {
+                definitions.put(cname, v.toArray(new String[v.size()]));
+            }
+        }
+    }
+
+    /**
+     * Parses the text files in the coordsys resource folder.
+     */
+    private static CoordinateSystemCatalog parseResources() throws IOException {
+        List<Map<String, String[]>> definitions = new ArrayList<>();
+        for (String file : FILES) {
+            Map<String, String[]> map = new LinkedHashMap<>();
+            InputStream is = CoordinateSystemCatalog.class.getResourceAsStream("/coordsys/" + file);
+            if (is != null) {
+                Reader reader = new BufferedReader(new InputStreamReader(is, "ISO-8859-1"));
+                try {
+                    readDefinitions(reader, map);
+                } finally {
+                    reader.close();
+                }
+            }
+            definitions.add(map);
+        }
+        return create(FILES, definitions);
+    }
+
+    /**
+     * Parses the text files in a folder.
+     */
+    private static CoordinateSystemCatalog parseFolder(File folder) throws IOException {
+        List<Map<String, String[]>> definitions = new ArrayList<>();
+        for (String file : FILES) {
+            Map<String, String[]> map = new LinkedHashMap<>();
+            Reader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(new File(folder, file)), "ISO-8859-1"));
+            try {
+                readDefinitions(reader, map);
+            } finally {
+                reader.close();
+            }
+            definitions.add(map);
+        }
+        return create(FILES, definitions);
+    }
+
+    /**
+     * Creates a catalog from the definitions of a number of files. Parameter
+     * strings that are used more than once are stored once.
+     */
+    private static CoordinateSystemCatalog create(String[] files, List<Map<String, String[]>> definitions) {
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        List<String> codes = new ArrayList<>();
+        int[] fileStart = new int[files.length + 1];
+        List<int[]> entries = new ArrayList<>();
+        int paramCount = 0;
+        for (int f = 0; f < files.length; f++) {
+            fileStart[f] = codes.size();
+            String[] sorted = definitions.get(f).keySet().toArray(new String[0]);
+            Arrays.sort(sorted);
+            for (String code : sorted) {
+                String[] args = definitions.get(f).get(code);
+                int[] indices = new int[args.length];
+                for (int i = 0; i < args.length; i++) {
+                    Integer index = stringIndex.get(args[i]);
+                    if (index == null) {
+                        index = strings.size();
+                        stringIndex.put(args[i], index);
+                        strings.add(args[i]);
+                    }
+                    indices[i] = index;
+                }
+                codes.add(code);
+                entries.add(indices);
+                paramCount += indices.length;
+            }
+        }
+        fileStart[files.length] = codes.size();
+
+        int[] paramStart = new int[entries.size() + 1];
+        int[] params = new int[paramCount];
+        int p = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            paramStart[i] = p;
+            int[] indices = entries.get(i);
+            System.arraycopy(indices, 0, params, p, indices.length);
+            p += indices.length;
+        }
+        paramStart[entries.size()] = p;
+        return new CoordinateSystemCatalog(strings.toArray(new String[strings.size()]),
+                files.clone(), fileStart, codes.toArray(new String[codes.size()]),
+                paramStart, params);
+    }
+
+    /**
+     * Reads a catalog in the binary format written by write().
+     */
+    static CoordinateSystemCatalog read(InputStream in) throws IOException {
+        DataInputStream is = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+            throw new IOException("Not a coordinate system catalog");
+        }
+        String[] strings = new String[is.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = is.readUTF();
+        }
+        String[] files = new String[is.readInt()];
+        int[] fileStart = new int[files.length + 1];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = is.readUTF();
+            fileStart[i] = is.readInt();
+        }
+        fileStart[files.length] = is.readInt();
+        String[] codes = new String[fileStart[files.length]];
+        int[] paramStart = new int[codes.length + 1];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = is.readUTF();
+            paramStart[i] = is.readInt();
+        }
+        paramStart[codes.length] = is.readInt();
+        int[] params = new int[paramStart[codes.length]];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = is.readInt();
+        }
+        return new CoordinateSystemCatalog(strings, files, fileStart, codes, paramStart, params);
+    }
+
+    /**
+     * Writes this catalog in a binary format.
+     */
+    void write(OutputStream out) throws IOException {
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(out));
+        os.writeInt(MAGIC);
+        os.writeInt(VERSION);
+        os.writeInt(strings.length);
+        for (String s : strings) {
+            os.writeUTF(s);
+        }
+        os.writeInt(files.length);
+        for (int i = 0; i < files.length; i++) {
+            os.writeUTF(files[i]);
+            os.writeInt(fileStart[i]);
+        }
+        os.writeInt(fileStart[files.length]);
+        for (int i = 0; i < codes.length; i++) {
+            os.writeUTF(codes[i]);
+            os.writeInt(paramStart[i]);
+        }
+        os.writeInt(paramStart[codes.length]);
+        for (int param : params) {
+            os.writeInt(param);
+        }
+        os.flush();
+    }
+
+    /**
+     * Generates the binary catalog. Called by the build.
+     *
+     * @param args The folder with the coordinate system files, and the
+     * catalog file to write.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CoordinateSystemCatalog coordsysFolder catalogFile");
+            System.exit(1);
+        }
+        CoordinateSystemCatalog catalog = parseFolder(new File(args[0]));
+        File file = new File(args[1]);
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            catalog.write(os);
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * The parameters of a projection that identify a coordinate system, and
+     * the tolerances used to compare them.
+     */
+    private static final class Fingerprint {
+
+        private static final double ANGLE_TOLERANCE = 1e-7 * MapMath.DTR;
+        private static final double LENGTH_TOLERANCE = 1e-3;
+        private static final double TOLERANCE = 1e-9;
+
+        private static final double[] TOLERANCES = {
+            LENGTH_TOLERANCE, TOLERANCE, ANGLE_TOLERANCE, ANGLE_TOLERANCE,
+            ANGLE_TOLERANCE, ANGLE_TOLERANCE, ANGLE_TOLERANCE, TOLERANCE,
+            LENGTH_TOLERANCE, LENGTH_TOLERANCE, TOLERANCE
+        };
+
+        /**
+         * The index of the central meridian in values.
+         */
+        private static final int LONGITUDE = 3;
+
+        private final String type;
+        private final double[] values;
+
+        /**
+         * The catalog entry, or -1.
+         */
+        final int entry;
+
+        Fingerprint(Projection p, int entry) {
+            Class<?> cls = p.getClass();
+            // a UTM zone is a transverse Mercator projection
+            if (p instanceof UniversalTransverseMercatorProjection) {
+                cls = TransverseMercatorProjection.class;
+            }
+            type = cls.getName();
+            double lat1 = 0, lat2 = 0;
+            if (p instanceof ConicProjection) {
+                lat1 = ((ConicProjection) p).getProjectionLatitude1();
+                lat2 = ((ConicProjection) p).getProjectionLatitude2();
+            }
+            values = new double[]{
+                p.getEquatorRadius(),
+                p.getEllipsoid().getEccentricitySquared(),
+                p.getProjectionLatitude(),
+                MapMath.normalizeLongitude(p.getProjectionLongitude()),
+                p.getTrueScaleLatitude(),
+                lat1,
+                lat2,
+                p.getScaleFactor(),
+                p.getFalseEasting(),
+                p.getFalseNorthing(),
+                p.getFromMetres()
+            };
+            this.entry = entry;
+        }
+
+        /**
+         * Returns the bucket of the central meridian. Buckets are as wide as
+         * the tolerance, so a matching fingerprint is at most one bucket
+         * away.
+         */
+        long bucket() {
+            return (long) Math.floor(values[LONGITUDE] / ANGLE_TOLERANCE);
+        }
+
+        /**
+         * Returns the key of the fingerprints of the same type in a bucket.
+         */
+        String key(long bucket) {
+            return type + ' ' + bucket;
+        }
+
+        /**
+         * Returns whether the projections have the same type and all values
+         * are within their tolerances.
+         */
+        boolean matches(Fingerprint f) {
+            if (!type.equals(f.type)) {
+                return false;
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != f.values[i]
+                        && !(Math.abs(values[i] - f.values[i]) <= TOLERANCES[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
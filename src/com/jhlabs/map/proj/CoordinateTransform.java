@@ -0,0 +1,433 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map.proj;
+
+import com.jhlabs.map.CoordinateBuffer;
+import com.jhlabs.map.Datum;
+import com.jhlabs.map.Ellipsoid;
+import com.jhlabs.map.MapMath;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Transforms coordinates from one coordinate reference system to another. A
+ * transformation consists of up to three stages: the inverse of the source
+ * projection, a datum shift, and the target projection. The stages are applied
+ * to chunks of points held in primitive arrays, so that no objects are
+ * allocated per point. Stages that do nothing are skipped: there is no inverse
+ * projection for a longlat source, no projection for a longlat target, and no
+ * datum shift if both datums are equal or one of them is unknown. If source
+ * and target have the same definition, coordinates are not changed at all.
+ * A source projection without inverse equations is inverted with the
+ * InverseGrid returned by InverseGrid.getInverseGrid().
+ *
+ * Coordinates of a longlat coordinate system are in degrees; all other
+ * coordinates are in the units of the projection, as defined by
+ * Projection.setFromMetres().
+ *
+ * Datum shifts use the Molodensky algorithm of Datum. The source and target
+ * datums are combined into a single three-parameter shift via WGS84.
+ *
+ * The projections are compiled when the transformation is created, so a
+ * CoordinateTransform can be used by multiple threads concurrently.
+ */
+public class CoordinateTransform {
+
+    /**
+     * The source projection, or null for a longlat source.
+     */
+    private final Projection source;
+    /**
+     * The target projection, or null for a longlat target.
+     */
+    private final Projection target;
+    /**
+     * The inverse grid of a source projection without inverse, or null.
+     */
+    private final InverseGrid sourceGrid;
+    private final Shift sourceShift;
+    private final Shift targetShift;
+    /**
+     * True if a datum shift is applied.
+     */
+    private final boolean shiftDatum;
+
+    /**
+     * Creates a transformation between two projections.
+     *
+     * @param source The source projection. A LinearProjection is treated as a
+     * longlat coordinate system in degrees.
+     * @param sourceDatum The datum of the source, or null if unknown.
+     * @param target The target projection. A LinearProjection is treated as a
+     * longlat coordinate system in degrees.
+     * @param targetDatum The datum of the target, or null if unknown.
+     */
+    public CoordinateTransform(Projection source, Datum sourceDatum,
+            Projection target, Datum targetDatum) {
+        this(compile(source), Shift.fromDatum(sourceDatum),
+                compile(target), Shift.fromDatum(targetDatum));
+    }
+
+    private CoordinateTransform(Projection source, Shift sourceShift,
+            Projection target, Shift targetShift) {
+        this.source = source;
+        this.sourceGrid = source != null && !source.hasInverse()
+                ? InverseGrid.getInverseGrid(source) : null;
+        this.target = target;
+        this.sourceShift = sourceShift;
+        this.targetShift = targetShift;
+        this.shiftDatum = sourceShift != null && targetShift != null
+                && !sourceShift.equals(targetShift);
+    }
+
+    /**
+     * Creates a transformation from two PROJ.4 definitions, for example
+     * "+proj=longlat +datum=WGS84" and "+proj=utm +zone=32 +ellps=intl09
+     * +towgs84=-87,-98,-121". The datum of a definition is taken from the
+     * +datum or +towgs84 parameter. Only three-parameter +towgs84 shifts are
+     * supported.
+     *
+     * @param sourceDefinition The PROJ.4 definition of the source.
+     * @param targetDefinition The PROJ.4 definition of the target.
+     * @return The transformation.
+     */
+    public static CoordinateTransform fromPROJ4Specifications(
+            String sourceDefinition, String targetDefinition) {
+        return fromPROJ4Specifications(split(sourceDefinition), split(targetDefinition));
+    }
+
+    /**
+     * Creates a transformation from two PROJ.4 argument lists.
+     *
+     * @param sourceArgs The PROJ.4 arguments of the source.
+     * @param targetArgs The PROJ.4 arguments of the target.
+     * @return The transformation.
+     */
+    public static CoordinateTransform fromPROJ4Specifications(
+            String[] sourceArgs, String[] targetArgs) {
+        if (sameDefinition(sourceArgs, targetArgs)) {
+            return new CoordinateTransform(null, (Shift) null, null, (Shift) null);
+        }
+        Projection source = fromPROJ4Specification(sourceArgs);
+        Projection target = fromPROJ4Specification(targetArgs);
+        return new CoordinateTransform(compile(source), shift(source, sourceArgs),
+                compile(target), shift(target, targetArgs));
+    }
+
+    /**
+     * Returns the inverse transformation from the target to the source.
+     */
+    public CoordinateTransform inverse() {
+        return new CoordinateTransform(target, targetShift, source, sourceShift);
+    }
+
+    /**
+     * Returns the compiled source projection, or null if the source is longlat
+     * or the inverse projection is skipped.
+     */
+    public Projection getSourceProjection() {
+        return source;
+    }
+
+    /**
+     * Returns the compiled target projection, or null if the target is longlat
+     * or the projection is skipped.
+     */
+    public Projection getTargetProjection() {
+        return target;
+    }
+
+    /**
+     * Returns true if this transformation applies a datum shift.
+     */
+    public boolean isDatumShift() {
+        return shiftDatum;
+    }
+
+    /**
+     * Returns true if this transformation does not change coordinates.
+     */
+    public boolean isIdentity() {
+        return source == null && target == null && !shiftDatum;
+    }
+
+    /**
+     * Transforms a single point.
+     *
+     * @param src The source point.
+     * @param dst The destination point, can be src.
+     * @return dst
+     */
+    public Point2D.Double transform(Point2D.Double src, Point2D.Double dst) {
+        double[] x = {src.x};
+        double[] y = {src.y};
+        transformChunk(x, y, null, 1);
+        dst.x = x[0];
+        dst.y = y[0];
+        return dst;
+    }
+
+    /**
+     * Transforms a number of interleaved x/y points.
+     *
+     * @param srcPoints The source points.
+     * @param srcOffset Index of the first x coordinate in srcPoints.
+     * @param dstPoints The destination points, can be srcPoints.
+     * @param dstOffset Index of the first x coordinate in dstPoints.
+     * @param numPoints The number of points to transform.
+     */
+    public void transform(double[] srcPoints, int srcOffset,
+            double[] dstPoints, int dstOffset, int numPoints) {
+        final int chunkSize = Math.min(numPoints, Projection.BATCH_SIZE);
+        final double[] x = new double[chunkSize];
+        final double[] y = new double[chunkSize];
+        while (numPoints > 0) {
+            final int n = Math.min(numPoints, chunkSize);
+            for (int i = 0; i < n; i++) {
+                x[i] = srcPoints[srcOffset++];
+                y[i] = srcPoints[srcOffset++];
+            }
+            transformChunk(x, y, null, n);
+            for (int i = 0; i < n; i++) {
+                dstPoints[dstOffset++] = x[i];
+                dstPoints[dstOffset++] = y[i];
+            }
+            numPoints -= n;
+        }
+    }
+
+    /**
+     * Transforms the points of a coordinate buffer in place. Heights are
+     * changed by the datum shift if the buffer stores heights; otherwise the
+     * heights are assumed to be 0.
+     *
+     * @param points The points to transform.
+     */
+    public void transform(CoordinateBuffer points) {
+        final double[] xs = points.getXArray();
+        final double[] ys = points.getYArray();
+        final double[] hs = points.getHeightArray();
+        int offset = points.getOffset();
+        int numPoints = points.size();
+        final int chunkSize = Math.min(numPoints, Projection.BATCH_SIZE);
+        final double[] x = new double[chunkSize];
+        final double[] y = new double[chunkSize];
+        final double[] h = hs != null && shiftDatum ? new double[chunkSize] : null;
+        while (numPoints > 0) {
+            final int n = Math.min(numPoints, chunkSize);
+            System.arraycopy(xs, offset, x, 0, n);
+            System.arraycopy(ys, offset, y, 0, n);
+            if (h != null) {
+                System.arraycopy(hs, offset, h, 0, n);
+            }
+            transformChunk(x, y, h, n);
+            System.arraycopy(x, 0, xs, offset, n);
+            System.arraycopy(y, 0, ys, offset, n);
+            if (h != null) {
+                System.arraycopy(h, 0, hs, offset, n);
+            }
+            offset += n;
+            numPoints -= n;
+        }
+    }
+
+    /**
+     * Applies all stages to a chunk of points in place.
+     *
+     * @param x The x coordinates, starting at index 0.
+     * @param y The y coordinates, starting at index 0.
+     * @param h The heights, or null.
+     * @param n The number of points.
+     */
+    private void transformChunk(double[] x, double[] y, double[] h, int n) {
+        if (isIdentity()) {
+            return;
+        }
+        if (source == null) {
+            for (int i = 0; i < n; i++) {
+                x[i] *= MapMath.DTR;
+                y[i] *= MapMath.DTR;
+            }
+        } else if (sourceGrid != null) {
+            sourceGrid.inverseChunk(x, y, n);
+        } else {
+            source.projectInverseChunk(x, y, n);
+        }
+        if (shiftDatum) {
+            Datum.transformRadians(x, y, h, 0, n,
+                    sourceShift.a, sourceShift.f, targetShift.a, targetShift.f,
+                    sourceShift.dx - targetShift.dx,
+                    sourceShift.dy - targetShift.dy,
+                    sourceShift.dz - targetShift.dz);
+        }
+        if (target == null) {
+            for (int i = 0; i < n; i++) {
+                x[i] *= MapMath.RTD;
+                y[i] *= MapMath.RTD;
+            }
+        } else {
+            target.projectChunk(x, y, n);
+        }
+    }
+
+    /**
+     * Returns a compiled copy of a projection, or null for a longlat
+     * projection.
+     */
+    private static Projection compile(Projection projection) {
+        if (projection == null) {
+            throw new IllegalArgumentException("projection is null");
+        }
+        if (projection instanceof LinearProjection) {
+            return null;
+        }
+        return projection.isFrozen() ? projection : projection.compile();
+    }
+
+    /**
+     * Creates a projection from PROJ.4 arguments with ProjectionFactory. The
+     * +towgs84 parameter is removed. If there is no ellipsoid parameter, a
+     * +datum parameter is replaced by the ellipsoid of the datum, so that
+     * ProjectionFactory finds the ellipsoid.
+     */
+    private static Projection fromPROJ4Specification(String[] projArgs) {
+        Datum datum = findDatum(projArgs);
+        boolean hasEllipsoid = findParameter(projArgs, "ellps") != null
+                || findParameter(projArgs, "a") != null
+                || findParameter(projArgs, "R") != null;
+        List<String> args = new ArrayList<>();
+        for (String arg : projArgs) {
+            if (arg.startsWith("+datum=") && !hasEllipsoid) {
+                args.add("+ellps=" + datum.getEllipsoid().getShortName());
+            } else if (!arg.startsWith("+towgs84=")) {
+                args.add(arg);
+            }
+        }
+        return ProjectionFactory.fromPROJ4Specification(args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Returns the shift to WGS84 defined by the +towgs84 or the +datum
+     * parameter, or null if there is none.
+     */
+    private static Shift shift(Projection projection, String[] projArgs) {
+        String[] toWGS84 = findParameter(projArgs, "towgs84");
+        if (toWGS84 != null) {
+            return Shift.fromToWGS84(projection.getEllipsoid(), toWGS84);
+        }
+        return Shift.fromDatum(findDatum(projArgs));
+    }
+
+    /**
+     * Returns the datum named by a +datum parameter, or null if there is none.
+     */
+    private static Datum findDatum(String[] projArgs) {
+        String[] datumName = findParameter(projArgs, "datum");
+        if (datumName == null) {
+            return null;
+        }
+        Datum datum = Datum.get(datumName[0]);
+        if (datum == null) {
+            throw new ProjectionException("Unknown datum: " + datumName[0]);
+        }
+        return datum;
+    }
+
+    /**
+     * Returns true if two PROJ.4 argument lists contain the same arguments,
+     * possibly in a different order.
+     */
+    private static boolean sameDefinition(String[] args1, String[] args2) {
+        String[] sorted1 = args1.clone();
+        String[] sorted2 = args2.clone();
+        Arrays.sort(sorted1);
+        Arrays.sort(sorted2);
+        return Arrays.equals(sorted1, sorted2);
+    }
+
+    /**
+     * Returns the comma-separated values of a PROJ.4 parameter, or null if
+     * the parameter does not exist.
+     */
+    private static String[] findParameter(String[] args, String key) {
+        String prefix = "+" + key + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length()).split(",");
+            }
+        }
+        return null;
+    }
+
+    private static String[] split(String definition) {
+        return definition.trim().split("\\s+");
+    }
+
+    /**
+     * A three-parameter shift from an ellipsoid to WGS84.
+     */
+    private static final class Shift {
+
+        final double a, f, dx, dy, dz;
+
+        Shift(double a, double f, double dx, double dy, double dz) {
+            this.a = a;
+            this.f = f;
+            this.dx = dx;
+            this.dy = dy;
+            this.dz = dz;
+        }
+
+        static Shift fromDatum(Datum datum) {
+            if (datum == null) {
+                return null;
+            }
+            Ellipsoid e = datum.getEllipsoid();
+            return new Shift(e.equatorRadius, e.flattening,
+                    datum.getDeltaX(), datum.getDeltaY(), datum.getDeltaZ());
+        }
+
+        static Shift fromToWGS84(Ellipsoid e, String[] params) {
+            if (params.length != 3 && params.length != 7) {
+                throw new ProjectionException("Invalid towgs84 parameters");
+            }
+            for (int i = 3; i < params.length; i++) {
+                if (Double.parseDouble(params[i]) != 0) {
+                    throw new ProjectionException("Only three-parameter datum shifts are supported");
+                }
+            }
+            return new Shift(e.equatorRadius, e.flattening,
+                    Double.parseDouble(params[0]),
+                    Double.parseDouble(params[1]),
+                    Double.parseDouble(params[2]));
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Shift)) {
+                return false;
+            }
+            Shift s = (Shift) o;
+            return a == s.a && f == s.f && dx == s.dx && dy == s.dy && dz == s.dz;
+        }
+
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(a) ^ 31 * Double.doubleToLongBits(f)
+                    ^ 37 * Double.doubleToLongBits(dx) ^ 41 * Double.doubleToLongBits(dy)
+                    ^ 43 * Double.doubleToLongBits(dz);
+            return (int) (bits ^ (bits >>> 32));
+        }
+    }
+}
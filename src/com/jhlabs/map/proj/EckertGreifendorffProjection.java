@@ -64,6 +64,7 @@ public class EckertGreifendorffProjection extends Projection {
     }
 
     public void setM(double m) {
+        checkNotFrozen();
         this.m = m;
     }
 
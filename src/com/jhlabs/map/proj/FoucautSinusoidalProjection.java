@@ -97,6 +97,7 @@ public class FoucautSinusoidalProjection extends PseudoCylindricalProjection {
     }
 
     public void setN(double n) {
+        checkNotFrozen();
         if (n < 0 || n > 1) {
             throw new IllegalArgumentException();
         }
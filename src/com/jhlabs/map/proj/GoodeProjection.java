@@ -32,6 +32,13 @@ public class GoodeProjection extends PseudoCylindricalProjection {
     private SinusoidalProjection sinu = new SinusoidalProjection();
     private MollweideProjection moll = new MollweideProjection();
 
+    public Object clone() {
+        GoodeProjection p = (GoodeProjection) super.clone();
+        p.sinu = (SinusoidalProjection) sinu.clone();
+        p.moll = (MollweideProjection) moll.clone();
+        return p;
+    }
+
     public Point2D.Double project(double lplam, double lpphi, Point2D.Double out) {
         if (Math.abs(lpphi) <= PHI_LIM) {
             out = sinu.project(lplam, lpphi, out);
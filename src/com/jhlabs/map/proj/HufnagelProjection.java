@@ -64,6 +64,7 @@ public class HufnagelProjection extends PseudoCylindricalProjection {
     }
 
     public void initializeLookUpTables() {
+        checkNotFrozen();
         latLUT = new double[LUT_SIZE];
         yLUT = new double[LUT_SIZE];
         psiLUT = new double[LUT_SIZE];
@@ -243,6 +244,7 @@ public class HufnagelProjection extends PseudoCylindricalProjection {
     }
 
     public void setA(double A) {
+        checkNotFrozen();
         this.A = A;
         initializeHufnagel();
     }
@@ -252,6 +254,7 @@ public class HufnagelProjection extends PseudoCylindricalProjection {
     }
 
     public void setB(double B) {
+        checkNotFrozen();
         this.B = B;
         initializeHufnagel();
     }
@@ -261,6 +264,7 @@ public class HufnagelProjection extends PseudoCylindricalProjection {
     }
 
     public void setPsiMAX(double psiMAX) {
+        checkNotFrozen();
         this.psiMax = psiMAX;
         initializeHufnagel();
     }
@@ -270,6 +274,7 @@ public class HufnagelProjection extends PseudoCylindricalProjection {
     }
 
     public void setAspectRatio(double aspectRatio) {
+        checkNotFrozen();
         this.aspectRatio = aspectRatio;
         initializeHufnagel();
     }
@@ -0,0 +1,659 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map.proj;
+
+import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An inverse for projections that only have a forward projection. The
+ * graticule between minLongitude and maxLongitude and between minLatitude and
+ * maxLatitude is divided into cells, which are subdivided until the projected
+ * cells are close to quadrilaterals. The projected cells are indexed by a
+ * regular grid of buckets. A point is inverse-projected by finding the cell
+ * containing it, interpolating longitude and latitude inside the cell, and
+ * refining this approximation with Projection.newtonInverse().
+ *
+ * Grids are expensive to build. getInverseGrid() returns a grid from a cache
+ * shared by all projections with the same parameters, and stores grids in a
+ * directory if setCacheDirectory() has been called. An InverseGrid uses a
+ * compiled copy of its projection and can be used by multiple threads
+ * concurrently.
+ */
+public class InverseGrid {
+
+    /**
+     * Default number of cells between minLatitude and maxLatitude before
+     * subdivision. The number of cells between minLongitude and maxLongitude
+     * is chosen to make the cells square.
+     */
+    public static final int DEFAULT_DIVISIONS = 18;
+
+    /**
+     * Default number of times a cell can be subdivided.
+     */
+    public static final int DEFAULT_MAX_DEPTH = 4;
+
+    /**
+     * Default maximum distance on the unary sphere between a projected cell
+     * and the quadrilateral formed by its corners.
+     */
+    public static final double DEFAULT_TOLERANCE = 1e-3;
+
+    /**
+     * Maximum number of grids kept in memory by getInverseGrid().
+     */
+    private static final int MAX_CACHED_GRIDS = 16;
+
+    private static final int MAGIC = 0x4A4D4947;
+    private static final int VERSION = 1;
+
+    /**
+     * Number of doubles describing a cell: the longitude and latitude of the
+     * lower left and upper right corners, followed by the projected x and y
+     * of the lower left, lower right, upper right and upper left corners.
+     */
+    private static final int CELL = 12;
+
+    /**
+     * Cells can be slightly curved, so a point slightly outside the
+     * quadrilateral of a cell may still be inside the cell. The bilinear
+     * coordinates of a point are accepted up to this distance outside of
+     * [0, 1].
+     */
+    private static final double MAX_OUTSIDE = 0.5;
+
+    private static final Map<String, InverseGrid> cache
+            = new LinkedHashMap<String, InverseGrid>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, InverseGrid> eldest) {
+            return size() > MAX_CACHED_GRIDS;
+        }
+    };
+
+    private static volatile File cacheDirectory;
+
+    private final Projection projection;
+    private final String fingerprint;
+
+    /**
+     * The cells, CELL doubles each.
+     */
+    private final double[] cells;
+    private final int cellCount;
+
+    /**
+     * The bucket index: buckets of size bucketWidth by bucketHeight, starting
+     * at minX/minY. The cells overlapping bucket i are
+     * bucketCells[bucketStart[i]] to bucketCells[bucketStart[i + 1] - 1].
+     */
+    private double minX, minY, bucketWidth, bucketHeight;
+    private int columns, rows;
+    private int[] bucketStart;
+    private int[] bucketCells;
+
+    /**
+     * Builds a grid with the default resolution.
+     *
+     * @param projection The projection. It is not changed.
+     */
+    public InverseGrid(Projection projection) {
+        this(projection, DEFAULT_DIVISIONS, DEFAULT_MAX_DEPTH, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Builds a grid.
+     *
+     * @param projection The projection. It is not changed.
+     * @param divisions The number of cells between minLatitude and
+     * maxLatitude before subdivision.
+     * @param maxDepth The number of times a cell can be subdivided.
+     * @param tolerance The maximum distance on the unary sphere between a
+     * projected cell and the quadrilateral formed by its corners.
+     */
+    public InverseGrid(Projection projection, int divisions, int maxDepth, double tolerance) {
+        this(compiled(projection), null, divisions, maxDepth, tolerance);
+    }
+
+    private InverseGrid(Projection projection, String fingerprint,
+            int divisions, int maxDepth, double tolerance) {
+        if (divisions < 1 || maxDepth < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.projection = projection;
+        this.fingerprint = fingerprint;
+
+        Builder builder = new Builder(maxDepth, tolerance);
+        final double lon0 = projection.getMinLongitude();
+        final double lon1 = projection.getMaxLongitude();
+        final double lat0 = projection.getMinLatitude();
+        final double lat1 = projection.getMaxLatitude();
+        final double size = (lat1 - lat0) / divisions;
+        final int lonDivisions = Math.max(1, (int) Math.round((lon1 - lon0) / size));
+        for (int r = 0; r < divisions; r++) {
+            double cellLat0 = lat0 + (lat1 - lat0) * r / divisions;
+            double cellLat1 = lat0 + (lat1 - lat0) * (r + 1) / divisions;
+            for (int c = 0; c < lonDivisions; c++) {
+                double cellLon0 = lon0 + (lon1 - lon0) * c / lonDivisions;
+                double cellLon1 = lon0 + (lon1 - lon0) * (c + 1) / lonDivisions;
+                builder.subdivide(cellLon0, cellLat0, cellLon1, cellLat1, 0);
+            }
+        }
+        cells = Arrays.copyOf(builder.cells, builder.cellCount * CELL);
+        cellCount = builder.cellCount;
+        buildIndex();
+    }
+
+    private InverseGrid(Projection projection, String fingerprint, double[] cells) {
+        this.projection = projection;
+        this.fingerprint = fingerprint;
+        this.cells = cells;
+        this.cellCount = cells.length / CELL;
+        buildIndex();
+    }
+
+    /**
+     * Returns a grid with the default resolution for a projection, from the
+     * cache if a grid for a projection with the same parameters has been built
+     * before, or from the cache directory. A grid that is built is stored in
+     * the cache directory if one has been set. Errors reading or writing the
+     * cache directory are ignored.
+     *
+     * @param projection The projection. It is not changed.
+     * @return The grid.
+     */
+    public static InverseGrid getInverseGrid(Projection projection) {
+        Projection p = compiled(projection);
+        String fingerprint = p.getFingerprint();
+        if (fingerprint == null) {
+            return new InverseGrid(p, null,
+                    DEFAULT_DIVISIONS, DEFAULT_MAX_DEPTH, DEFAULT_TOLERANCE);
+        }
+        synchronized (cache) {
+            InverseGrid grid = cache.get(fingerprint);
+            if (grid != null) {
+                return grid;
+            }
+        }
+
+        InverseGrid grid = null;
+        File dir = cacheDirectory;
+        File file = dir == null ? null : new File(dir, fingerprint + ".grid");
+        if (file != null && file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                grid = read(in, p, file.length());
+            } catch (IOException exc) {
+                grid = null;
+            }
+        }
+        if (grid == null) {
+            grid = new InverseGrid(p, fingerprint,
+                    DEFAULT_DIVISIONS, DEFAULT_MAX_DEPTH, DEFAULT_TOLERANCE);
+            if (file != null) {
+                // write to a temporary file first, so that other processes
+                // never read a partial grid
+                File tmp = new File(dir, fingerprint + ".tmp" + System.nanoTime());
+                try {
+                    try (OutputStream out = new FileOutputStream(tmp)) {
+                        grid.write(out);
+                    }
+                    if (!tmp.renameTo(file)) {
+                        tmp.delete();
+                    }
+                } catch (IOException exc) {
+                    tmp.delete();
+                }
+            }
+        }
+        synchronized (cache) {
+            InverseGrid cached = cache.get(fingerprint);
+            if (cached != null) {
+                return cached;
+            }
+            cache.put(fingerprint, grid);
+        }
+        return grid;
+    }
+
+    /**
+     * Sets the directory where getInverseGrid() stores grids, or null to not
+     * store grids.
+     */
+    public static void setCacheDirectory(File directory) {
+        cacheDirectory = directory;
+    }
+
+    public static File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Removes all grids from the memory cache. The cache directory is not
+     * changed.
+     */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns a compiled copy of a projection, or the projection itself if it
+     * is compiled.
+     */
+    private static Projection compiled(Projection projection) {
+        return projection.isFrozen() ? projection : projection.compile();
+    }
+
+    /**
+     * Returns the compiled copy of the projection used by this grid.
+     */
+    public Projection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Returns the number of cells after subdivision.
+     */
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Inverse-project a point on the unary sphere, as
+     * Projection.projectInverse() does.
+     *
+     * @param x The projected x coordinate relative to the unary sphere.
+     * @param y The projected y coordinate relative to the unary sphere.
+     * @param dst A point that receives the longitude relative to the central
+     * meridian and the latitude in radians, or NaN if x/y is outside of the
+     * graticule.
+     * @return dst
+     */
+    public Point2D.Double projectInverse(double x, double y, Point2D.Double dst) {
+        int col = (int) Math.floor((x - minX) / bucketWidth);
+        int row = (int) Math.floor((y - minY) / bucketHeight);
+        if (cellCount == 0 || !(col >= 0 && col < columns && row >= 0 && row < rows)) {
+            dst.x = dst.y = Double.NaN;
+            return dst;
+        }
+
+        // find the cell that contains x/y, or the cell closest to x/y
+        final int bucket = row * columns + col;
+        double bestOutside = MAX_OUTSIDE;
+        double bestLon = Double.NaN, bestLat = Double.NaN;
+        for (int i = bucketStart[bucket]; i < bucketStart[bucket + 1]; i++) {
+            final int c = bucketCells[i] * CELL;
+            if (!uv(c, x, y, dst)) {
+                continue;
+            }
+            final double u = dst.x;
+            final double v = dst.y;
+            final double outside = Math.max(Math.max(-u, u - 1), Math.max(-v, v - 1));
+            if (outside <= MAX_OUTSIDE && (outside < bestOutside || Double.isNaN(bestLon))) {
+                final double cu = Math.max(0, Math.min(1, u));
+                final double cv = Math.max(0, Math.min(1, v));
+                bestLon = cells[c] + cu * (cells[c + 2] - cells[c]);
+                bestLat = cells[c + 1] + cv * (cells[c + 3] - cells[c + 1]);
+                bestOutside = outside;
+                if (outside <= 0) {
+                    break;
+                }
+            }
+        }
+        if (Double.isNaN(bestLon)) {
+            dst.x = dst.y = Double.NaN;
+            return dst;
+        }
+        projection.newtonInverse(x, y, bestLon, bestLat, dst);
+        return dst;
+    }
+
+    /**
+     * Inverse-project a point (in metres), producing a lat/long result in
+     * degrees, as Projection.inverseTransform() does.
+     */
+    public Point2D.Double inverseTransform(Point2D.Double src, Point2D.Double dst) {
+        inverseTransformRadians(src, dst);
+        dst.x = Math.toDegrees(dst.x);
+        dst.y = Math.toDegrees(dst.y);
+        return dst;
+    }
+
+    /**
+     * Inverse-project a point (in metres), producing a lat/long result in
+     * radians, as Projection.inverseTransformRadians() does.
+     */
+    public Point2D.Double inverseTransformRadians(Point2D.Double src, Point2D.Double dst) {
+        projection.toUnarySphere(src, dst);
+        projectInverse(dst.x, dst.y, dst);
+        dst.x = projection.inverseLongitude(dst.x);
+        return dst;
+    }
+
+    /**
+     * Inverse-projects points in place, as Projection.projectInverseChunk()
+     * does.
+     *
+     * @param x The x coordinates in metres, replaced by the longitudes.
+     * @param y The y coordinates in metres, replaced by the latitudes.
+     * @param n The number of points, starting at index 0.
+     */
+    void inverseChunk(double[] x, double[] y, int n) {
+        Point2D.Double p = new Point2D.Double();
+        for (int i = 0; i < n; i++) {
+            p.x = x[i];
+            p.y = y[i];
+            inverseTransformRadians(p, p);
+            x[i] = p.x;
+            y[i] = p.y;
+        }
+    }
+
+    /**
+     * Computes the bilinear coordinates u/v of x/y in the quadrilateral of a
+     * cell with a few Newton steps. u and v are between 0 and 1 if x/y is
+     * inside the quadrilateral.
+     *
+     * @return False if the coordinates cannot be computed.
+     */
+    private boolean uv(int c, double x, double y, Point2D.Double uv) {
+        // p(u, v) = p00 + b * u + e * v + d * u * v
+        final double ax = cells[c + 4], ay = cells[c + 5];
+        final double bx = cells[c + 6] - ax, by = cells[c + 7] - ay;
+        final double ex = cells[c + 10] - ax, ey = cells[c + 11] - ay;
+        final double dx = cells[c + 8] - cells[c + 6] - cells[c + 10] + ax;
+        final double dy = cells[c + 9] - cells[c + 7] - cells[c + 11] + ay;
+        double u = 0.5, v = 0.5;
+        for (int i = 0; i < 6; i++) {
+            final double fx = ax + bx * u + ex * v + dx * u * v - x;
+            final double fy = ay + by * u + ey * v + dy * u * v - y;
+            final double j00 = bx + dx * v, j01 = ex + dx * u;
+            final double j10 = by + dy * v, j11 = ey + dy * u;
+            final double det = j00 * j11 - j01 * j10;
+            if (det == 0 || Double.isNaN(det)) {
+                return false;
+            }
+            u -= (j11 * fx - j01 * fy) / det;
+            v -= (j00 * fy - j10 * fx) / det;
+        }
+        uv.x = u;
+        uv.y = v;
+        return !Double.isNaN(u) && !Double.isNaN(v);
+    }
+
+    /**
+     * Builds the bucket index over the bounding boxes of the projected cells.
+     */
+    private void buildIndex() {
+        double maxX, maxY;
+        minX = minY = Double.POSITIVE_INFINITY;
+        maxX = maxY = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < cellCount * CELL; c += CELL) {
+            for (int i = 4; i < CELL; i += 2) {
+                minX = Math.min(minX, cells[c + i]);
+                maxX = Math.max(maxX, cells[c + i]);
+                minY = Math.min(minY, cells[c + i + 1]);
+                maxY = Math.max(maxY, cells[c + i + 1]);
+            }
+        }
+        if (cellCount == 0) {
+            minX = minY = 0;
+            maxX = maxY = 1;
+        }
+        // about one cell per bucket
+        final double w = Math.max(maxX - minX, 1e-12);
+        final double h = Math.max(maxY - minY, 1e-12);
+        columns = Math.max(1, (int) Math.ceil(Math.sqrt(cellCount * w / h)));
+        rows = Math.max(1, (int) Math.ceil((double) Math.max(cellCount, 1) / columns));
+        bucketWidth = w / columns;
+        bucketHeight = h / rows;
+        // extend the last buckets to include maxX and maxY
+        bucketWidth *= 1 + 1e-9;
+        bucketHeight *= 1 + 1e-9;
+
+        // count the cells per bucket, then fill the buckets
+        bucketStart = new int[columns * rows + 1];
+        int[] range = new int[4];
+        for (int c = 0; c < cellCount; c++) {
+            bucketRange(c, range);
+            for (int r = range[1]; r <= range[3]; r++) {
+                for (int col = range[0]; col <= range[2]; col++) {
+                    bucketStart[r * columns + col + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < columns * rows; i++) {
+            bucketStart[i + 1] += bucketStart[i];
+        }
+        bucketCells = new int[bucketStart[columns * rows]];
+        int[] next = Arrays.copyOf(bucketStart, columns * rows);
+        for (int c = 0; c < cellCount; c++) {
+            bucketRange(c, range);
+            for (int r = range[1]; r <= range[3]; r++) {
+                for (int col = range[0]; col <= range[2]; col++) {
+                    bucketCells[next[r * columns + col]++] = c;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the first and last column and row of the buckets overlapping
+     * the bounding box of a cell. The box is enlarged by a quarter, because
+     * the edges of the projected cell may be curved.
+     */
+    private void bucketRange(int cell, int[] range) {
+        final int c = cell * CELL;
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        for (int i = 4; i < CELL; i += 2) {
+            x0 = Math.min(x0, cells[c + i]);
+            x1 = Math.max(x1, cells[c + i]);
+            y0 = Math.min(y0, cells[c + i + 1]);
+            y1 = Math.max(y1, cells[c + i + 1]);
+        }
+        final double mx = (x1 - x0) * 0.25;
+        final double my = (y1 - y0) * 0.25;
+        range[0] = Math.max(0, (int) Math.floor((x0 - mx - minX) / bucketWidth));
+        range[1] = Math.max(0, (int) Math.floor((y0 - my - minY) / bucketHeight));
+        range[2] = Math.min(columns - 1, (int) Math.floor((x1 + mx - minX) / bucketWidth));
+        range[3] = Math.min(rows - 1, (int) Math.floor((y1 + my - minY) / bucketHeight));
+    }
+
+    /**
+     * Writes this grid to a stream. The stream is not closed.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(fingerprint == null ? "" : fingerprint);
+        data.writeInt(cellCount);
+        for (int i = 0; i < cellCount * CELL; i++) {
+            data.writeDouble(cells[i]);
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a grid written by write(). The stream is not closed.
+     *
+     * @param in The stream.
+     * @param projection The projection the grid has been built for.
+     * @return The grid.
+     * @throws IOException If the stream cannot be read, if it does not
+     * contain a valid grid, or if the grid has been built for a projection
+     * with different parameters.
+     */
+    public static InverseGrid read(InputStream in, Projection projection) throws IOException {
+        return read(in, projection, -1);
+    }
+
+    /**
+     * Reads a grid written by write().
+     *
+     * @param length The number of bytes in the stream, or -1 if unknown. If
+     * unknown, the cells are allocated as they are read, so that a damaged
+     * cell count does not allocate a large array.
+     */
+    private static InverseGrid read(InputStream in, Projection projection, long length)
+            throws IOException {
+        Projection p = compiled(projection);
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("not an inverse grid");
+        }
+        String fingerprint = p.getFingerprint();
+        if (!data.readUTF().equals(fingerprint)) {
+            throw new IOException("inverse grid of a different projection");
+        }
+        int n = data.readInt();
+        if (n < 0 || n > Integer.MAX_VALUE / CELL) {
+            throw new IOException("invalid inverse grid");
+        }
+        if (length >= 0) {
+            // magic, version, the fingerprint in hexadecimal ASCII with its
+            // length, and the cell count
+            final long header = 4 + 4 + 2 + fingerprint.length() + 4;
+            if (length - header != (long) n * CELL * 8) {
+                throw new IOException("invalid inverse grid");
+            }
+        }
+        final int size = n * CELL;
+        double[] cells = new double[length >= 0 ? size : Math.min(size, 1024 * CELL)];
+        for (int i = 0; i < size; i++) {
+            if (i == cells.length) {
+                cells = Arrays.copyOf(cells, (int) Math.min(size, 2L * cells.length));
+            }
+            final double v = data.readDouble();
+            if (Double.isNaN(v) || Double.isInfinite(v)) {
+                throw new IOException("invalid inverse grid");
+            }
+            cells[i] = v;
+        }
+        return new InverseGrid(p, fingerprint, cells);
+    }
+
+    public String toString() {
+        return "InverseGrid[" + projection + ", " + cellCount + " cells]";
+    }
+
+    /**
+     * Subdivides the graticule into cells.
+     */
+    private class Builder {
+
+        private final int maxDepth;
+        private final double tolerance;
+        private double[] cells = new double[1024 * CELL];
+        private int cellCount;
+        private final Point2D.Double p = new Point2D.Double();
+        private final double[] corners = new double[8];
+
+        Builder(int maxDepth, double tolerance) {
+            this.maxDepth = maxDepth;
+            this.tolerance = tolerance;
+        }
+
+        void subdivide(double lon0, double lat0, double lon1, double lat1, int depth) {
+            boolean valid = project(lon0, lat0, 0)
+                    && project(lon1, lat0, 2)
+                    && project(lon1, lat1, 4)
+                    && project(lon0, lat1, 6);
+            if (valid) {
+                // compare the centre and the midpoints of the edges with the
+                // quadrilateral
+                valid = isFlat(lon0, lat0, lon1, lat1, 0.5, 0.5)
+                        && isFlat(lon0, lat0, lon1, lat1, 0.5, 0)
+                        && isFlat(lon0, lat0, lon1, lat1, 1, 0.5)
+                        && isFlat(lon0, lat0, lon1, lat1, 0.5, 1)
+                        && isFlat(lon0, lat0, lon1, lat1, 0, 0.5);
+                if (valid || depth == maxDepth) {
+                    add(lon0, lat0, lon1, lat1);
+                    return;
+                }
+            }
+            if (depth < maxDepth) {
+                final double lon = (lon0 + lon1) / 2;
+                final double lat = (lat0 + lat1) / 2;
+                subdivide(lon0, lat0, lon, lat, depth + 1);
+                subdivide(lon, lat0, lon1, lat, depth + 1);
+                subdivide(lon0, lat, lon, lat1, depth + 1);
+                subdivide(lon, lat, lon1, lat1, depth + 1);
+            }
+            // cells with corners that cannot be projected are dropped
+        }
+
+        private boolean project(double lon, double lat, int corner) {
+            if (!projectPoint(lon, lat)) {
+                return false;
+            }
+            corners[corner] = p.x;
+            corners[corner + 1] = p.y;
+            return true;
+        }
+
+        private boolean projectPoint(double lon, double lat) {
+            try {
+                projection.project(lon, lat, p);
+            } catch (ProjectionException exc) {
+                return false;
+            }
+            return !Double.isNaN(p.x) && !Double.isNaN(p.y)
+                    && !Double.isInfinite(p.x) && !Double.isInfinite(p.y);
+        }
+
+        /**
+         * Returns true if the point at u/v of the cell projects close to the
+         * bilinear interpolation of the projected corners.
+         */
+        private boolean isFlat(double lon0, double lat0, double lon1, double lat1,
+                double u, double v) {
+            if (!projectPoint(lon0 + u * (lon1 - lon0), lat0 + v * (lat1 - lat0))) {
+                return false;
+            }
+            final double w00 = (1 - u) * (1 - v), w10 = u * (1 - v);
+            final double w11 = u * v, w01 = (1 - u) * v;
+            final double x = w00 * corners[0] + w10 * corners[2]
+                    + w11 * corners[4] + w01 * corners[6];
+            final double y = w00 * corners[1] + w10 * corners[3]
+                    + w11 * corners[5] + w01 * corners[7];
+            return Math.abs(x - p.x) <= tolerance && Math.abs(y - p.y) <= tolerance;
+        }
+
+        private void add(double lon0, double lat0, double lon1, double lat1) {
+            if ((cellCount + 1) * CELL > cells.length) {
+                cells = Arrays.copyOf(cells, cells.length * 2);
+            }
+            final int c = cellCount++ * CELL;
+            cells[c] = lon0;
+            cells[c + 1] = lat0;
+            cells[c + 2] = lon1;
+            cells[c + 3] = lat1;
+            System.arraycopy(corners, 0, cells, c + 4, 8);
+        }
+    }
+}
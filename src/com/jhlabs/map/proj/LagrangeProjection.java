@@ -30,7 +30,8 @@ public class LagrangeProjection extends Projection {
 
     // Parameters
     private double hrw;
-    private double rw = 1.4;
+    private double w = 1.4;
+    private double rw;
     private double a1;
     private double phi1;
 
@@ -55,19 +56,21 @@ public class LagrangeProjection extends Projection {
     }
 
     public void setW(double w) {
-        this.rw = w;
+        checkNotFrozen();
+        this.w = w;
     }
 
     public double getW() {
-        return rw;
+        return w;
     }
 
     public void initialize() {
         super.initialize();
-        if (rw <= 0) {
+        if (w <= 0) {
             throw new ProjectionException("-27");
         }
-        hrw = 0.5 * (rw = 1. / rw);
+        // rw is derived from w, so that initialize() can be called again
+        hrw = 0.5 * (rw = 1. / w);
         phi1 = 0; // projectionLatitude1; FIXME
         if (Math.abs(Math.abs(phi1 = Math.sin(phi1)) - 1.) < TOL) {
             throw new ProjectionException("-22");
@@ -64,6 +64,7 @@ public class MollweideProjection extends PseudoCylindricalProjection {
     }
 
     public void init(double p) {
+        checkNotFrozen();
         double r, sp, p2 = p + p;
 
         sp = Math.sin(p);
@@ -32,6 +32,13 @@ public class NicolosiProjection extends Projection {
 
     private final static double EPS = 1e-10;
 
+    /**
+     * The inverse stops when the distance to the projected point is smaller
+     * than TOL, and fails if it is larger than MAX_TOL.
+     */
+    private final static double TOL = 1e-15;
+    private final static double MAX_TOL = 1e-9;
+
     public NicolosiProjection() {
         minLongitude = Math.toRadians(-90);
         maxLongitude = Math.toRadians(90);
@@ -63,8 +70,9 @@ public class NicolosiProjection extends Projection {
             double x = Math.cos(lpphi);
             x = Math.sqrt(m * m + x * x / (1. + r2));
             out.x = MapMath.HALFPI * (m + (lplam < 0. ? -x : x));
-            double y = Math.sqrt(n * n - (sp * sp / r2 + d * sp - 1.)
-                    / (1. + 1. / r2));
+            // near the poles, cancellation can make the radicand negative
+            double y = Math.sqrt(Math.max(0, n * n - (sp * sp / r2 + d * sp - 1.)
+                    / (1. + 1. / r2)));
             out.y = MapMath.HALFPI * (n + (lpphi < 0. ? y : -y));
         }
         return out;
@@ -72,10 +80,83 @@ public class NicolosiProjection extends Projection {
 
     @Override
     public Point2D.Double projectInverse(double x, double y, Point2D.Double out) {
-        binarySearchInverse(x, y, out);
+        // the projection is symmetric to both axes
+        final double ax = Math.abs(x);
+        final double ay = Math.abs(y);
+        if (ax * ax + ay * ay > MapMath.HALFPI * MapMath.HALFPI * (1 + MAX_TOL)) {
+            // outside of the bounding circle
+            out.x = out.y = Double.NaN;
+            return out;
+        }
+
+        // the meridians are the circular arcs of Apian's first globular
+        // projection, which gives the longitude
+        final double lon = Math.min(MapMath.HALFPI,
+                Apian1Projection.globularLongitude(ax, ay));
+        double lat;
+        if (lon > MapMath.HALFPI - EPS) {
+            // the bounding circle, where project() uses y = HALFPI * sin(phi)
+            lat = MapMath.asin(ay / MapMath.HALFPI);
+        } else {
+            lat = meridianLatitude(lon, ax, ay);
+        }
+        out.x = x < 0 ? -lon : lon;
+        out.y = y < 0 ? -lat : lat;
         return out;
     }
 
+    /**
+     * Finds the latitude of a point on a meridian with the Gauss-Newton
+     * method. The distance between projected points on a meridian changes with
+     * the latitude everywhere, including at the poles, where all meridians
+     * meet and the longitude cannot be found with derivatives.
+     *
+     * @param lam The longitude of the meridian in radians, between 0 and
+     * HALFPI.
+     * @param x The x coordinate of a point on the meridian, positive.
+     * @param y The y coordinate of a point on the meridian, positive.
+     * @return The latitude in radians, or NaN if the point is not on the
+     * meridian.
+     */
+    private double meridianLatitude(double lam, double x, double y) {
+        final double H = 1e-7;
+        final int MAX_ITERATIONS = 50;
+        Point2D.Double p = new Point2D.Double();
+        Point2D.Double q = new Point2D.Double();
+        // y is the latitude on the central meridian and HALFPI * sin(phi) on
+        // the bounding circle
+        final double t = lam / MapMath.HALFPI;
+        double phi = (1 - t) * Math.min(y, MapMath.HALFPI)
+                + t * MapMath.asin(y / MapMath.HALFPI);
+        project(lam, phi, p);
+        double d = Math.hypot(x - p.x, y - p.y);
+        int iteration = 0;
+        while (d > TOL && iteration++ < MAX_ITERATIONS) {
+            final double h = phi + H > MapMath.HALFPI ? -H : H;
+            project(lam, phi + h, q);
+            final double tx = (q.x - p.x) / h;
+            final double ty = (q.y - p.y) / h;
+            double dphi = ((x - p.x) * tx + (y - p.y) * ty) / (tx * tx + ty * ty);
+
+            // halve the step until it gets closer to x/y
+            double phi1, d1;
+            int halvings = 0;
+            do {
+                phi1 = Math.max(0, Math.min(MapMath.HALFPI, phi + dphi));
+                project(lam, phi1, q);
+                d1 = Math.hypot(x - q.x, y - q.y);
+                dphi *= 0.5;
+            } while (!(d1 < d) && ++halvings < 30);
+            if (!(d1 < d)) {
+                break;
+            }
+            phi = phi1;
+            d = d1;
+            p.setLocation(q);
+        }
+        return d <= MAX_TOL ? phi : Double.NaN;
+    }
+
     @Override
     public boolean hasInverse() {
         return true;
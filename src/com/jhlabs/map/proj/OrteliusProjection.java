@@ -56,7 +56,16 @@ public class OrteliusProjection extends Projection {
 
     @Override
     public Point2D.Double projectInverse(double x, double y, Point2D.Double out) {
-        binarySearchInverse(x, y, out);
+        final double absX = Math.abs(x);
+        double ax;
+        if (absX < Math.sqrt(HLFPI2 - y * y)) {
+            // inside the circle of the central hemisphere
+            ax = Apian1Projection.globularLongitude(absX, y);
+        } else {
+            ax = absX - Math.sqrt(HLFPI2 - y * y + EPS) + MapMath.HALFPI;
+        }
+        out.x = x < 0 ? -ax : ax;
+        out.y = y;
         return out;
     }
 
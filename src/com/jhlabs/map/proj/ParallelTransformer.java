@@ -0,0 +1,266 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map.proj;
+
+import com.jhlabs.map.CoordinateBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Projects large arrays of points in parallel. The points are split into
+ * chunks that are transformed concurrently by the batch methods of a single
+ * shared projection. Each point is projected with the same code as in the
+ * sequential batch methods of Projection, so the results are identical.
+ *
+ * The projection must be initialized before it is passed to a
+ * ParallelTransformer. The chunks share a compiled copy of the projection,
+ * which cannot be changed.
+ */
+public class ParallelTransformer {
+
+    /**
+     * Default number of points per chunk. 8192 points use 128 KB for the
+     * source and destination coordinates, which fits into the L2 cache.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /**
+     * Default number of points below which points are projected sequentially
+     * on the calling thread.
+     */
+    public static final int DEFAULT_SEQUENTIAL_THRESHOLD = 32768;
+
+    private final Projection projection;
+    private final ExecutorService executor;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int sequentialThreshold = DEFAULT_SEQUENTIAL_THRESHOLD;
+
+    /**
+     * Creates a transformer that uses the common fork/join pool.
+     *
+     * @param projection An initialized projection. It is not changed.
+     */
+    public ParallelTransformer(Projection projection) {
+        this(projection, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a transformer that runs the chunks on an executor.
+     *
+     * @param projection An initialized projection. It is not changed.
+     * @param executor The executor running the chunks.
+     */
+    public ParallelTransformer(Projection projection, ExecutorService executor) {
+        if (projection == null || executor == null) {
+            throw new IllegalArgumentException();
+        }
+        this.projection = projection.isFrozen() ? projection : projection.compile();
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the compiled copy of the projection used by this transformer.
+     */
+    public Projection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Set the number of points transformed by a single task.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Set the number of points below which points are transformed
+     * sequentially on the calling thread.
+     */
+    public void setSequentialThreshold(int sequentialThreshold) {
+        this.sequentialThreshold = sequentialThreshold;
+    }
+
+    public int getSequentialThreshold() {
+        return sequentialThreshold;
+    }
+
+    /**
+     * Project a number of interleaved lon/lat points (in degrees), producing
+     * a result in metres. See Projection.transform(double[], int, double[],
+     * int, int).
+     */
+    public void transform(final double[] srcPoints, final int srcOffset,
+            final double[] dstPoints, final int dstOffset, int numPoints) {
+        run(numPoints, new Chunk() {
+            public void run(int first, int n) {
+                projection.transform(srcPoints, srcOffset + 2 * first,
+                        dstPoints, dstOffset + 2 * first, n);
+            }
+        });
+    }
+
+    /**
+     * Project a number of interleaved lon/lat points (in radians), producing
+     * a result in metres.
+     */
+    public void transformRadians(final double[] srcPoints, final int srcOffset,
+            final double[] dstPoints, final int dstOffset, int numPoints) {
+        run(numPoints, new Chunk() {
+            public void run(int first, int n) {
+                projection.transformRadians(srcPoints, srcOffset + 2 * first,
+                        dstPoints, dstOffset + 2 * first, n);
+            }
+        });
+    }
+
+    /**
+     * Inverse-project a number of interleaved points (in metres), producing a
+     * lon/lat result in degrees.
+     */
+    public void inverseTransform(final double[] srcPoints, final int srcOffset,
+            final double[] dstPoints, final int dstOffset, int numPoints) {
+        run(numPoints, new Chunk() {
+            public void run(int first, int n) {
+                projection.inverseTransform(srcPoints, srcOffset + 2 * first,
+                        dstPoints, dstOffset + 2 * first, n);
+            }
+        });
+    }
+
+    /**
+     * Inverse-project a number of interleaved points (in metres), producing a
+     * lon/lat result in radians.
+     */
+    public void inverseTransformRadians(final double[] srcPoints, final int srcOffset,
+            final double[] dstPoints, final int dstOffset, int numPoints) {
+        run(numPoints, new Chunk() {
+            public void run(int first, int n) {
+                projection.inverseTransformRadians(srcPoints, srcOffset + 2 * first,
+                        dstPoints, dstOffset + 2 * first, n);
+            }
+        });
+    }
+
+    /**
+     * Project the lon/lat points (in degrees) of a coordinate buffer in place.
+     */
+    public void transform(final CoordinateBuffer points) {
+        run(points.size(), new Chunk() {
+            public void run(int first, int n) {
+                projection.transform(points.view(first, first + n));
+            }
+        });
+    }
+
+    /**
+     * Project the lon/lat points (in radians) of a coordinate buffer in place.
+     */
+    public void transformRadians(final CoordinateBuffer points) {
+        run(points.size(), new Chunk() {
+            public void run(int first, int n) {
+                projection.transformRadians(points.view(first, first + n));
+            }
+        });
+    }
+
+    /**
+     * Inverse-project the points of a coordinate buffer in place, producing
+     * lon/lat in degrees.
+     */
+    public void inverseTransform(final CoordinateBuffer points) {
+        run(points.size(), new Chunk() {
+            public void run(int first, int n) {
+                projection.inverseTransform(points.view(first, first + n));
+            }
+        });
+    }
+
+    /**
+     * Inverse-project the points of a coordinate buffer in place, producing
+     * lon/lat in radians.
+     */
+    public void inverseTransformRadians(final CoordinateBuffer points) {
+        run(points.size(), new Chunk() {
+            public void run(int first, int n) {
+                projection.inverseTransformRadians(points.view(first, first + n));
+            }
+        });
+    }
+
+    /**
+     * A range of points that is transformed by a single task.
+     */
+    private interface Chunk {
+
+        void run(int first, int n);
+    }
+
+    /**
+     * Splits numPoints points into chunks and runs them on the executor, or
+     * runs them on the calling thread if there are few points. Waits until
+     * all chunks are done. A ProjectionException thrown by a chunk is
+     * rethrown.
+     */
+    private void run(int numPoints, final Chunk chunk) {
+        if (numPoints <= 0) {
+            return;
+        }
+        if (numPoints < sequentialThreshold || numPoints <= chunkSize) {
+            chunk.run(0, numPoints);
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int first = 0; first < numPoints; first += chunkSize) {
+            final int start = first;
+            final int n = Math.min(chunkSize, numPoints - first);
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    chunk.run(start, n);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProjectionException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ProjectionException(String.valueOf(cause));
+        }
+    }
+}
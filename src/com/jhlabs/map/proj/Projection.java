@@ -16,12 +16,19 @@ limitations under the License.
 package com.jhlabs.map.proj;
 
 import com.jhlabs.map.AngleFormat;
+import com.jhlabs.map.CoordinateBuffer;
 import com.jhlabs.map.Ellipsoid;
 import com.jhlabs.map.MapMath;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Year;
+import java.util.HashMap;
 
 /**
  * The superclass for all map projections
@@ -135,24 +142,158 @@ public abstract class Projection implements Cloneable, Serializable {
      * falseNorthing, adjusted to the appropriate units using fromMetres
      */
     private double totalFalseNorthing = 0;
+    /**
+     * True if this projection has been returned by compile() and must not be
+     * changed anymore.
+     */
+    private transient boolean frozen = false;
     // Some useful constants
     protected final static double EPS10 = 1e-10;
     protected final static double RTD = 180.0 / Math.PI;
     protected final static double DTR = Math.PI / 180.0;
+    /**
+     * Number of points passed to projectBatch at a time by the batch transform
+     * methods.
+     */
+    protected final static int BATCH_SIZE = 512;
+    /**
+     * Flags for the per-point transform methods that a class overrides. The
+     * batch transform methods call an overridden method for each point
+     * instead of projectBatch(), so that they give the same results.
+     */
+    private final static int TRANSFORM = 1;
+    private final static int TRANSFORM_RADIANS = 2;
+    private final static int INVERSE_TRANSFORM = 4;
+    private final static int INVERSE_TRANSFORM_RADIANS = 8;
+    private final static ClassValue<Integer> OVERRIDES = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            int flags = 0;
+            if (overrides(type, "transform")) {
+                flags |= TRANSFORM;
+            }
+            if (overrides(type, "transformRadians")) {
+                flags |= TRANSFORM_RADIANS;
+            }
+            if (overrides(type, "inverseTransform")) {
+                flags |= INVERSE_TRANSFORM;
+            }
+            if (overrides(type, "inverseTransformRadians")) {
+                flags |= INVERSE_TRANSFORM_RADIANS;
+            }
+            return flags;
+        }
+    };
 
     protected Projection() {
         setEllipsoid(Ellipsoid.SPHERE);
     }
 
+    /**
+     * Returns a shallow copy of this projection. The copy of a frozen
+     * projection is not frozen and can be modified.
+     */
     public Object clone() {
         try {
             Projection e = (Projection) super.clone();
+            e.frozen = false;
             return e;
         } catch (CloneNotSupportedException e) {
             throw new InternalError();
         }
     }
 
+    /**
+     * Returns an initialized copy of this projection that cannot be changed
+     * anymore. The copy does not share the ellipsoid or any other mutable
+     * state with this projection, and setters and initialize() throw an
+     * UnsupportedOperationException. A compiled projection can therefore be
+     * used by any number of threads concurrently, provided it is safely
+     * published to them, for example through a final field, a concurrent
+     * collection or an ExecutorService. This projection is not changed.
+     *
+     * @return A frozen and initialized copy of this projection.
+     */
+    public Projection compile() {
+        Projection p = (Projection) clone();
+        if (ellipsoid != null) {
+            p.ellipsoid = (Ellipsoid) ellipsoid.clone();
+        }
+        p.initialize();
+        p.frozen = true;
+        return p;
+    }
+
+    /**
+     * Returns a hash of the serialized form of this projection, which includes
+     * all parameters, or null if the projection cannot be serialized.
+     * Initialized projections with equal fingerprints project all points
+     * identically. State that is not a parameter, such as whether the
+     * projection is compiled, is transient and not included, so a compiled
+     * projection has the fingerprint of an initialized copy. Equal ellipsoids
+     * are written as one object, so the fingerprint does not depend on
+     * whether ellipsoids are shared, for example with the projections of a
+     * composite projection.
+     */
+    public String getFingerprint() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes) {
+
+                private final HashMap<String, Ellipsoid> ellipsoids = new HashMap<>();
+
+                {
+                    enableReplaceObject(true);
+                }
+
+                protected Object replaceObject(Object obj) {
+                    if (obj instanceof Ellipsoid) {
+                        Ellipsoid e = (Ellipsoid) obj;
+                        String key = e.name + '|' + e.shortName + '|' + e.equatorRadius
+                                + '|' + e.poleRadius + '|' + e.eccentricity
+                                + '|' + e.eccentricity2 + '|' + e.flattening;
+                        Ellipsoid shared = ellipsoids.get(key);
+                        if (shared == null) {
+                            ellipsoids.put(key, e);
+                            shared = e;
+                        }
+                        return shared;
+                    }
+                    return obj;
+                }
+            }) {
+                out.writeObject(this);
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest(bytes.toByteArray())) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (IOException | NoSuchAlgorithmException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if this projection has been created by compile() and
+     * cannot be changed.
+     */
+    public final boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Throws an exception if this projection is frozen. Must be called by all
+     * methods changing the parameters of a projection.
+     */
+    protected final void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("A compiled projection cannot be changed.");
+        }
+    }
+
     /**
      * Project a lat/long point (in degrees), producing a result in metres
      */
@@ -226,20 +367,35 @@ public abstract class Projection implements Cloneable, Serializable {
         return dst;
     }
 
+    /**
+     * Project a batch of lon/lat points. This should be overridden by
+     * projections that can do better than calling project() for each point,
+     * typically by hoisting tests on the projection parameters out of the
+     * loop. Overriding implementations must produce the same values as
+     * project() and must read lam[i] and phi[i] before writing x[i] and y[i],
+     * because x and y may be the same arrays as lam and phi.
+     *
+     * @param lam Longitudes in radians, relative to the central meridian.
+     * @param phi Latitudes in radians.
+     * @param x Receives the projected x coordinates on the unary sphere.
+     * @param y Receives the projected y coordinates on the unary sphere.
+     * @param n The number of points to project.
+     */
+    protected void projectBatch(double[] lam, double[] phi, double[] x, double[] y, int n) {
+        Point2D.Double out = new Point2D.Double();
+        for (int i = 0; i < n; i++) {
+            project(lam[i], phi[i], out);
+            x[i] = out.x;
+            y[i] = out.y;
+        }
+    }
+
     /**
      * Project a number of lat/long points (in degrees), producing a result in
      * metres
      */
     public void transform(double[] srcPoints, int srcOffset, double[] dstPoints, int dstOffset, int numPoints) {
-        Point2D.Double in = new Point2D.Double();
-        Point2D.Double out = new Point2D.Double();
-        for (int i = 0; i < numPoints; i++) {
-            in.x = srcPoints[srcOffset++];
-            in.y = srcPoints[srcOffset++];
-            transform(in, out);
-            dstPoints[dstOffset++] = out.x;
-            dstPoints[dstOffset++] = out.y;
-        }
+        transformInterleaved(srcPoints, srcOffset, dstPoints, dstOffset, numPoints, DTR);
     }
 
     /**
@@ -247,14 +403,93 @@ public abstract class Projection implements Cloneable, Serializable {
      * metres
      */
     public void transformRadians(double[] srcPoints, int srcOffset, double[] dstPoints, int dstOffset, int numPoints) {
-        Point2D.Double in = new Point2D.Double();
-        Point2D.Double out = new Point2D.Double();
-        for (int i = 0; i < numPoints; i++) {
-            in.x = srcPoints[srcOffset++];
-            in.y = srcPoints[srcOffset++];
-            transform(in, out);
-            dstPoints[dstOffset++] = out.x;
-            dstPoints[dstOffset++] = out.y;
+        transformInterleaved(srcPoints, srcOffset, dstPoints, dstOffset, numPoints, 1);
+    }
+
+    /**
+     * Project a number of interleaved lon/lat points in chunks of BATCH_SIZE
+     * points using projectBatch. Gives the same results as calling
+     * transform(Point2D.Double, Point2D.Double) for each point.
+     *
+     * @param toRadians Conversion factor from source units to radians.
+     */
+    private void transformInterleaved(double[] srcPoints, int srcOffset,
+            double[] dstPoints, int dstOffset, int numPoints, double toRadians) {
+        final int method = toRadians == 1 ? TRANSFORM_RADIANS : TRANSFORM;
+        if (isOverridden(method)) {
+            Point2D.Double in = new Point2D.Double();
+            Point2D.Double out = new Point2D.Double();
+            for (int i = 0; i < numPoints; i++) {
+                in.x = srcPoints[srcOffset++];
+                in.y = srcPoints[srcOffset++];
+                transformPoint(method, in, out);
+                dstPoints[dstOffset++] = out.x;
+                dstPoints[dstOffset++] = out.y;
+            }
+            return;
+        }
+        final int chunkSize = Math.min(numPoints, BATCH_SIZE);
+        final double[] lam = new double[chunkSize];
+        final double[] phi = new double[chunkSize];
+        while (numPoints > 0) {
+            final int n = Math.min(numPoints, chunkSize);
+            for (int i = 0; i < n; i++) {
+                lam[i] = srcPoints[srcOffset++] * toRadians;
+                phi[i] = srcPoints[srcOffset++] * toRadians;
+            }
+            projectChunk(lam, phi, n);
+            for (int i = 0; i < n; i++) {
+                dstPoints[dstOffset++] = lam[i];
+                dstPoints[dstOffset++] = phi[i];
+            }
+            numPoints -= n;
+        }
+    }
+
+    /**
+     * Project the lon/lat points (in degrees) of a coordinate buffer in place,
+     * producing a result in metres. Heights are not changed.
+     */
+    public void transform(CoordinateBuffer points) {
+        transformColumns(points.getXArray(), points.getYArray(),
+                points.getOffset(), points.size(), DTR);
+    }
+
+    /**
+     * Project the lon/lat points (in radians) of a coordinate buffer in place,
+     * producing a result in metres. Heights are not changed.
+     */
+    public void transformRadians(CoordinateBuffer points) {
+        transformColumns(points.getXArray(), points.getYArray(),
+                points.getOffset(), points.size(), 1);
+    }
+
+    /**
+     * Project lon/lat points stored in two separate arrays in place.
+     *
+     * @param toRadians Conversion factor from source units to radians.
+     */
+    private void transformColumns(double[] xs, double[] ys, int offset,
+            int numPoints, double toRadians) {
+        final int method = toRadians == 1 ? TRANSFORM_RADIANS : TRANSFORM;
+        if (isOverridden(method)) {
+            transformPoints(method, xs, ys, offset, numPoints);
+            return;
+        }
+        final int chunkSize = Math.min(numPoints, BATCH_SIZE);
+        final double[] lam = new double[chunkSize];
+        final double[] phi = new double[chunkSize];
+        while (numPoints > 0) {
+            final int n = Math.min(numPoints, chunkSize);
+            for (int i = 0; i < n; i++) {
+                lam[i] = xs[offset + i] * toRadians;
+                phi[i] = ys[offset + i] * toRadians;
+            }
+            projectChunk(lam, phi, n);
+            System.arraycopy(lam, 0, xs, offset, n);
+            System.arraycopy(phi, 0, ys, offset, n);
+            offset += n;
+            numPoints -= n;
         }
     }
 
@@ -326,20 +561,34 @@ public abstract class Projection implements Cloneable, Serializable {
         return dst;
     }
 
+    /**
+     * Inverse-project a batch of points. This can be overridden by projections
+     * that can do better than calling projectInverse() for each point. The
+     * same rules as for projectBatch() apply: lam and phi may be the same
+     * arrays as x and y.
+     *
+     * @param x The projected x coordinates on the unary sphere.
+     * @param y The projected y coordinates on the unary sphere.
+     * @param lam Receives the longitudes in radians, relative to the central
+     * meridian.
+     * @param phi Receives the latitudes in radians.
+     * @param n The number of points to inverse-project.
+     */
+    protected void projectInverseBatch(double[] x, double[] y, double[] lam, double[] phi, int n) {
+        Point2D.Double out = new Point2D.Double();
+        for (int i = 0; i < n; i++) {
+            projectInverse(x[i], y[i], out);
+            lam[i] = out.x;
+            phi[i] = out.y;
+        }
+    }
+
     /**
      * Inverse-project a number of points (in metres), producing a lat/long
      * result in degrees
      */
     public void inverseTransform(double[] srcPoints, int srcOffset, double[] dstPoints, int dstOffset, int numPoints) {
-        Point2D.Double in = new Point2D.Double();
-        Point2D.Double out = new Point2D.Double();
-        for (int i = 0; i < numPoints; i++) {
-            in.x = srcPoints[srcOffset++];
-            in.y = srcPoints[srcOffset++];
-            inverseTransform(in, out);
-            dstPoints[dstOffset++] = out.x;
-            dstPoints[dstOffset++] = out.y;
-        }
+        inverseTransformInterleaved(srcPoints, srcOffset, dstPoints, dstOffset, numPoints, RTD);
     }
 
     /**
@@ -347,17 +596,229 @@ public abstract class Projection implements Cloneable, Serializable {
      * result in radians
      */
     public void inverseTransformRadians(double[] srcPoints, int srcOffset, double[] dstPoints, int dstOffset, int numPoints) {
+        inverseTransformInterleaved(srcPoints, srcOffset, dstPoints, dstOffset, numPoints, 1);
+    }
+
+    /**
+     * Inverse-project a number of interleaved points in chunks of BATCH_SIZE
+     * points using projectInverseBatch. Gives the same results as calling
+     * inverseTransform(Point2D.Double, Point2D.Double) for each point.
+     *
+     * @param fromRadians Conversion factor from radians to destination units.
+     */
+    private void inverseTransformInterleaved(double[] srcPoints, int srcOffset,
+            double[] dstPoints, int dstOffset, int numPoints, double fromRadians) {
+        final int method = fromRadians == 1 ? INVERSE_TRANSFORM_RADIANS : INVERSE_TRANSFORM;
+        if (isOverridden(method)) {
+            Point2D.Double in = new Point2D.Double();
+            Point2D.Double out = new Point2D.Double();
+            for (int i = 0; i < numPoints; i++) {
+                in.x = srcPoints[srcOffset++];
+                in.y = srcPoints[srcOffset++];
+                transformPoint(method, in, out);
+                dstPoints[dstOffset++] = out.x;
+                dstPoints[dstOffset++] = out.y;
+            }
+            return;
+        }
+        final int chunkSize = Math.min(numPoints, BATCH_SIZE);
+        final double[] x = new double[chunkSize];
+        final double[] y = new double[chunkSize];
+        while (numPoints > 0) {
+            final int n = Math.min(numPoints, chunkSize);
+            for (int i = 0; i < n; i++) {
+                x[i] = srcPoints[srcOffset++];
+                y[i] = srcPoints[srcOffset++];
+            }
+            projectInverseChunk(x, y, n);
+            for (int i = 0; i < n; i++) {
+                dstPoints[dstOffset++] = x[i] * fromRadians;
+                dstPoints[dstOffset++] = y[i] * fromRadians;
+            }
+            numPoints -= n;
+        }
+    }
+
+    /**
+     * Inverse-project the points (in metres) of a coordinate buffer in place,
+     * producing a lon/lat result in degrees. Heights are not changed.
+     */
+    public void inverseTransform(CoordinateBuffer points) {
+        inverseTransformColumns(points.getXArray(), points.getYArray(),
+                points.getOffset(), points.size(), RTD);
+    }
+
+    /**
+     * Inverse-project the points (in metres) of a coordinate buffer in place,
+     * producing a lon/lat result in radians. Heights are not changed.
+     */
+    public void inverseTransformRadians(CoordinateBuffer points) {
+        inverseTransformColumns(points.getXArray(), points.getYArray(),
+                points.getOffset(), points.size(), 1);
+    }
+
+    /**
+     * Inverse-project points stored in two separate arrays in place.
+     *
+     * @param fromRadians Conversion factor from radians to destination units.
+     */
+    private void inverseTransformColumns(double[] xs, double[] ys, int offset,
+            int numPoints, double fromRadians) {
+        final int method = fromRadians == 1 ? INVERSE_TRANSFORM_RADIANS : INVERSE_TRANSFORM;
+        if (isOverridden(method)) {
+            transformPoints(method, xs, ys, offset, numPoints);
+            return;
+        }
+        final int chunkSize = Math.min(numPoints, BATCH_SIZE);
+        final double[] x = new double[chunkSize];
+        final double[] y = new double[chunkSize];
+        while (numPoints > 0) {
+            final int n = Math.min(numPoints, chunkSize);
+            System.arraycopy(xs, offset, x, 0, n);
+            System.arraycopy(ys, offset, y, 0, n);
+            projectInverseChunk(x, y, n);
+            for (int i = 0; i < n; i++) {
+                xs[offset + i] = x[i] * fromRadians;
+                ys[offset + i] = y[i] * fromRadians;
+            }
+            offset += n;
+            numPoints -= n;
+        }
+    }
+
+    /**
+     * Projects a chunk of lon/lat points (in radians) in place, producing a
+     * result in metres. This is the part of the batch transform methods that
+     * follows the conversion to radians.
+     *
+     * @param lam Longitudes in radians, replaced by the x coordinates.
+     * @param phi Latitudes in radians, replaced by the y coordinates.
+     * @param n The number of points, starting at index 0.
+     */
+    void projectChunk(double[] lam, double[] phi, int n) {
+        if (isOverridden(TRANSFORM_RADIANS)) {
+            transformPoints(TRANSFORM_RADIANS, lam, phi, 0, n);
+            return;
+        }
+        if (projectionLongitude != 0) {
+            for (int i = 0; i < n; i++) {
+                lam[i] = MapMath.normalizeLongitude(lam[i] - projectionLongitude);
+            }
+        }
+        projectBatch(lam, phi, lam, phi, n);
+        for (int i = 0; i < n; i++) {
+            lam[i] = totalScale * lam[i] + totalFalseEasting;
+            phi[i] = totalScale * phi[i] + totalFalseNorthing;
+        }
+    }
+
+    /**
+     * Inverse-projects a chunk of points (in metres) in place, producing a
+     * lon/lat result in radians.
+     *
+     * @param x The x coordinates, replaced by the longitudes.
+     * @param y The y coordinates, replaced by the latitudes.
+     * @param n The number of points, starting at index 0.
+     */
+    void projectInverseChunk(double[] x, double[] y, int n) {
+        if (isOverridden(INVERSE_TRANSFORM_RADIANS)) {
+            transformPoints(INVERSE_TRANSFORM_RADIANS, x, y, 0, n);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            x[i] = (x[i] - totalFalseEasting) / totalScale;
+            y[i] = (y[i] - totalFalseNorthing) / totalScale;
+        }
+        projectInverseBatch(x, y, x, y, n);
+        for (int i = 0; i < n; i++) {
+            x[i] = inverseLongitude(x[i]);
+        }
+    }
+
+    /**
+     * Returns true if the class of this projection overrides a per-point
+     * transform method.
+     *
+     * @param method TRANSFORM, TRANSFORM_RADIANS, INVERSE_TRANSFORM or
+     * INVERSE_TRANSFORM_RADIANS.
+     */
+    private boolean isOverridden(int method) {
+        return (OVERRIDES.get(getClass()) & method) != 0;
+    }
+
+    private static boolean overrides(Class<?> type, String name) {
+        try {
+            return type.getMethod(name, Point2D.Double.class, Point2D.Double.class)
+                    .getDeclaringClass() != Projection.class;
+        } catch (NoSuchMethodException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    /**
+     * Calls a per-point transform method.
+     *
+     * @param method TRANSFORM, TRANSFORM_RADIANS, INVERSE_TRANSFORM or
+     * INVERSE_TRANSFORM_RADIANS.
+     */
+    private void transformPoint(int method, Point2D.Double in, Point2D.Double out) {
+        switch (method) {
+            case TRANSFORM:
+                transform(in, out);
+                break;
+            case TRANSFORM_RADIANS:
+                transformRadians(in, out);
+                break;
+            case INVERSE_TRANSFORM:
+                inverseTransform(in, out);
+                break;
+            default:
+                inverseTransformRadians(in, out);
+        }
+    }
+
+    /**
+     * Transforms points stored in two separate arrays in place with a
+     * per-point transform method.
+     */
+    private void transformPoints(int method, double[] xs, double[] ys, int offset, int numPoints) {
         Point2D.Double in = new Point2D.Double();
         Point2D.Double out = new Point2D.Double();
-        for (int i = 0; i < numPoints; i++) {
-            in.x = srcPoints[srcOffset++];
-            in.y = srcPoints[srcOffset++];
-            inverseTransformRadians(in, out);
-            dstPoints[dstOffset++] = out.x;
-            dstPoints[dstOffset++] = out.y;
+        for (int i = offset; i < offset + numPoints; i++) {
+            in.x = xs[i];
+            in.y = ys[i];
+            transformPoint(method, in, out);
+            xs[i] = out.x;
+            ys[i] = out.y;
         }
     }
 
+    /**
+     * Converts a point in metres to the unary sphere, as done by
+     * inverseTransform(Point2D.Double, Point2D.Double) before calling
+     * projectInverse().
+     */
+    void toUnarySphere(Point2D.Double src, Point2D.Double dst) {
+        dst.x = (src.x - totalFalseEasting) / totalScale;
+        dst.y = (src.y - totalFalseNorthing) / totalScale;
+    }
+
+    /**
+     * Clamps an inverse-projected longitude to +/-PI and adds the central
+     * meridian, as done by inverseTransform(Point2D.Double, Point2D.Double).
+     */
+    double inverseLongitude(double lon) {
+        if (lon < -Math.PI) {
+            lon = -Math.PI;
+        } else if (lon > Math.PI) {
+            lon = Math.PI;
+        }
+        if (projectionLongitude != 0) {
+            lon = MapMath.normalizeLongitude(lon + projectionLongitude);
+        }
+        return lon;
+    }
+
     /**
      * Finds the smallest lat/long rectangle wholly inside the given view
      * rectangle. This is only a rough estimate.
@@ -444,8 +905,8 @@ public abstract class Projection implements Cloneable, Serializable {
     /**
      * Compute the inverse projection by a binary search. Use this method
      * carefully! It is slow and only an approximation for projections that do
-     * not provide their own projectInverse method. Added by Bernhard Jenny, 18
-     * May 2010.
+     * not provide their own projectInverse method. newtonInverse converges
+     * much faster. Added by Bernhard Jenny, 18 May 2010.
      *
      * @param x The projected x coordinate relative to the unary sphere.
      * @param y The projected y coordinate relative to the unary sphere.
@@ -500,6 +961,114 @@ public abstract class Projection implements Cloneable, Serializable {
         lp.y = lat;
     }
 
+    /**
+     * Computes the partial derivatives of the forward projection at a point:
+     * jacobian[0] = dx/dlam, jacobian[1] = dx/dphi, jacobian[2] = dy/dlam and
+     * jacobian[3] = dy/dphi, with x and y on the unary sphere. This is used by
+     * newtonInverse. The default implementation uses finite differences and
+     * calls project() twice; projections with an analytic derivative can
+     * override it.
+     *
+     * @param lam The longitude in radians, relative to the central meridian.
+     * @param phi The latitude in radians.
+     * @param x The projected x coordinate of lam/phi.
+     * @param y The projected y coordinate of lam/phi.
+     * @param jacobian An array of four values that receives the derivatives.
+     * @param scratch A point that can be used for intermediate results, so
+     * that no point is allocated. Its values are undefined afterwards.
+     */
+    protected void projectJacobian(double lam, double phi, double x, double y,
+            double[] jacobian, Point2D.Double scratch) {
+        // the step is about the square root of the machine precision, and
+        // points away from the edge of the graticule
+        final double H = 1e-7;
+        final double hlam = lam + H > maxLongitude ? -H : H;
+        final double hphi = phi + H > MapMath.HALFPI ? -H : H;
+        Point2D.Double p = scratch;
+        project(lam + hlam, phi, p);
+        jacobian[0] = (p.x - x) / hlam;
+        jacobian[2] = (p.y - y) / hlam;
+        project(lam, phi + hphi, p);
+        jacobian[1] = (p.x - x) / hphi;
+        jacobian[3] = (p.y - y) / hphi;
+    }
+
+    /**
+     * Compute the inverse projection with Newton's method, using the
+     * derivatives computed by projectJacobian. A step is halved until it
+     * reduces the distance to x/y, and longitude is kept between minLongitude
+     * and maxLongitude and latitude within +/-PI/2. Where the Jacobian is
+     * singular, half of the remaining distance is added to lon/lat, as in
+     * binarySearchInverse. Usually converges in less than ten iterations.
+     *
+     * @param x The projected x coordinate relative to the unary sphere.
+     * @param y The projected y coordinate relative to the unary sphere.
+     * @param lon An approximation of the longitude in radians.
+     * @param lat An approximation of the latitude in radians.
+     * @param lp A point that will receive the result, or NaN if the iteration
+     * does not converge.
+     */
+    protected void newtonInverse(double x, double y, double lon, double lat,
+            Point2D.Double lp) {
+        // the iteration stops when the distance is smaller than TOL
+        final double TOL = 1e-12;
+        // a result is accepted if the distance is smaller than MAX_TOL
+        final double MAX_TOL = 1e-9;
+        final int MAX_ITERATIONS = 50;
+        final int MAX_HALVINGS = 30;
+
+        final double[] jacobian = new double[4];
+        project(lon, lat, lp);
+        double dx = x - lp.x;
+        double dy = y - lp.y;
+        double d = Math.hypot(dx, dy);
+        int iteration = 0;
+        while (d > TOL && iteration++ < MAX_ITERATIONS) {
+            // lp is projected again below, so it can hold intermediate results
+            projectJacobian(lon, lat, lp.x, lp.y, jacobian, lp);
+            final double det = jacobian[0] * jacobian[3] - jacobian[1] * jacobian[2];
+            double dlon, dlat;
+            if (det != 0 && !Double.isNaN(det) && !Double.isInfinite(det)) {
+                dlon = (jacobian[3] * dx - jacobian[1] * dy) / det;
+                dlat = (jacobian[0] * dy - jacobian[2] * dx) / det;
+            } else {
+                dlon = dx * 0.5;
+                dlat = dy * 0.5;
+            }
+
+            // halve the step until it gets closer to x/y
+            int halvings = 0;
+            double lon1, lat1, dx1, dy1, d1;
+            do {
+                lon1 = Math.max(minLongitude, Math.min(maxLongitude, lon + dlon));
+                lat1 = Math.max(-MapMath.HALFPI, Math.min(MapMath.HALFPI, lat + dlat));
+                project(lon1, lat1, lp);
+                dx1 = x - lp.x;
+                dy1 = y - lp.y;
+                d1 = Math.hypot(dx1, dy1);
+                dlon *= 0.5;
+                dlat *= 0.5;
+            } while (!(d1 < d) && ++halvings < MAX_HALVINGS);
+            if (!(d1 < d)) {
+                // no step reduces the distance
+                project(lon, lat, lp);
+                break;
+            }
+            lon = lon1;
+            lat = lat1;
+            dx = dx1;
+            dy = dy1;
+            d = d1;
+        }
+
+        if (d > MAX_TOL || Double.isNaN(d)) {
+            lon = Double.NaN;
+            lat = Double.NaN;
+        }
+        lp.x = lon;
+        lp.y = lat;
+    }
+
     /**
      * Transform a bounding box. This is only a rough estimate.
      */
@@ -745,6 +1314,7 @@ public abstract class Projection implements Cloneable, Serializable {
      * doesn't affect projection.
      */
     public void setMinLatitude(double minLatitude) {
+        checkNotFrozen();
         this.minLatitude = minLatitude;
     }
 
@@ -757,6 +1327,7 @@ public abstract class Projection implements Cloneable, Serializable {
      * doesn't affect projection.
      */
     public void setMaxLatitude(double maxLatitude) {
+        checkNotFrozen();
         this.maxLatitude = maxLatitude;
     }
 
@@ -773,6 +1344,7 @@ public abstract class Projection implements Cloneable, Serializable {
     }
 
     public void setMinLongitude(double minLongitude) {
+        checkNotFrozen();
         this.minLongitude = minLongitude;
     }
 
@@ -789,6 +1361,7 @@ public abstract class Projection implements Cloneable, Serializable {
     }
 
     public void setMaxLongitude(double maxLongitude) {
+        checkNotFrozen();
         this.maxLongitude = maxLongitude;
     }
 
@@ -808,6 +1381,7 @@ public abstract class Projection implements Cloneable, Serializable {
      * Set the projection latitude in radians.
      */
     public void setProjectionLatitude(double projectionLatitude) {
+        checkNotFrozen();
         this.projectionLatitude = projectionLatitude;
     }
 
@@ -830,6 +1404,7 @@ public abstract class Projection implements Cloneable, Serializable {
      * Set the projection longitude in radians.
      */
     public void setProjectionLongitude(double projectionLongitude) {
+        checkNotFrozen();
         this.projectionLongitude = MapMath.normalizeLongitude(projectionLongitude);
     }
 
@@ -853,6 +1428,7 @@ public abstract class Projection implements Cloneable, Serializable {
      * projections.
      */
     public void setTrueScaleLatitude(double trueScaleLatitude) {
+        checkNotFrozen();
         this.trueScaleLatitude = trueScaleLatitude;
     }
 
@@ -876,6 +1452,7 @@ public abstract class Projection implements Cloneable, Serializable {
      * Set the false Northing in projected units.
      */
     public void setFalseNorthing(double falseNorthing) {
+        checkNotFrozen();
         this.falseNorthing = falseNorthing;
     }
 
@@ -887,6 +1464,7 @@ public abstract class Projection implements Cloneable, Serializable {
      * Set the false Easting in projected units.
      */
     public void setFalseEasting(double falseEasting) {
+        checkNotFrozen();
         this.falseEasting = falseEasting;
     }
 
@@ -898,6 +1476,7 @@ public abstract class Projection implements Cloneable, Serializable {
      * Set the projection scale factor. This is set to 1 by default.
      */
     public void setScaleFactor(double scaleFactor) {
+        checkNotFrozen();
         this.scaleFactor = scaleFactor;
     }
 
@@ -914,6 +1493,7 @@ public abstract class Projection implements Cloneable, Serializable {
      * 1 by default.
      */
     public void setFromMetres(double fromMetres) {
+        checkNotFrozen();
         this.fromMetres = fromMetres;
     }
 
@@ -922,13 +1502,21 @@ public abstract class Projection implements Cloneable, Serializable {
     }
 
     public void setEllipsoid(Ellipsoid ellipsoid) {
+        checkNotFrozen();
         this.ellipsoid = ellipsoid;
         a = ellipsoid.equatorRadius;
         e = ellipsoid.eccentricity;
         es = ellipsoid.eccentricity2;
     }
 
+    /**
+     * Returns the ellipsoid of this projection. A compiled projection returns
+     * a copy, which can be changed without changing the projection.
+     */
     public Ellipsoid getEllipsoid() {
+        if (frozen && ellipsoid != null) {
+            return (Ellipsoid) ellipsoid.clone();
+        }
         return ellipsoid;
     }
 
@@ -945,6 +1533,7 @@ public abstract class Projection implements Cloneable, Serializable {
      * initialization may be expensive.
      */
     public void initialize() {
+        checkNotFrozen();
         spherical = e == 0.0;
         one_es = 1 - es;
         rone_es = 1.0 / one_es;
@@ -0,0 +1,427 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map.proj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of projections and coordinate transforms created from
+ * PROJ.4 definitions. Definitions are normalized before they are used as keys,
+ * so "+proj=merc +ellps=WGS84" and "+ellps=WGS84  +proj=merc" share one
+ * entry. A definition string that is not normalized is also stored as an
+ * alias of the normalized entry, so that looking up the same string again is a
+ * single hash lookup. Each entry keeps at most MAXIMUM_ALIASES aliases and
+ * drops its oldest alias when another one is added, so differently spelled
+ * definitions cannot grow the cache without bound. Aliases do not count
+ * towards the maximum size of the cache and are removed with their entry.
+ * When the cache is full, the least recently used entry is evicted.
+ *
+ * Cached projections are compiled and cannot be changed, so they can be shared
+ * by any number of threads. A ProjectionCache can be used by multiple threads
+ * concurrently. Lookups that find an entry do not lock. Definitions are parsed
+ * outside of any lock; if two threads miss the same definition at the same
+ * time, both parse it and the first result is kept.
+ */
+public class ProjectionCache {
+
+    /**
+     * Default maximum number of projections and of transforms.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+    /**
+     * Maximum number of definitions that are not normalized kept for each
+     * projection and each transform.
+     */
+    public static final int MAXIMUM_ALIASES = 4;
+
+    private static final ProjectionCache defaultCache = new ProjectionCache();
+
+    private final int maximumSize;
+    private final Lru<Projection> projections;
+    private final Lru<CoordinateTransform> transforms;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache holding up to DEFAULT_MAXIMUM_SIZE projections and
+     * DEFAULT_MAXIMUM_SIZE transforms.
+     */
+    public ProjectionCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maximumSize The maximum number of projections, and the maximum
+     * number of transforms, held by the cache.
+     */
+    public ProjectionCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximum size must be positive");
+        }
+        this.maximumSize = maximumSize;
+        projections = new Lru<>(maximumSize);
+        transforms = new Lru<>(maximumSize);
+    }
+
+    /**
+     * Returns a cache shared by the whole application.
+     */
+    public static ProjectionCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * Returns the compiled projection for a PROJ.4 definition, for example
+     * "+proj=merc +ellps=WGS84".
+     *
+     * @param definition The PROJ.4 definition.
+     * @return A compiled projection that must not be changed.
+     */
+    public Projection getProjection(String definition) {
+        Projection projection = projections.get(definition);
+        if (projection != null) {
+            hits.incrementAndGet();
+            return projection;
+        }
+        String[] args = split(definition);
+        String key = normalize(args);
+        projection = getProjection(args, key);
+        projections.alias(definition, key);
+        return projection;
+    }
+
+    /**
+     * Returns the compiled projection for a PROJ.4 argument list.
+     *
+     * @param args The PROJ.4 arguments.
+     * @return A compiled projection that must not be changed.
+     */
+    public Projection getProjection(String[] args) {
+        return getProjection(args, normalize(args));
+    }
+
+    private Projection getProjection(String[] args, String key) {
+        Projection projection = projections.get(key);
+        if (projection != null) {
+            hits.incrementAndGet();
+            return projection;
+        }
+        misses.incrementAndGet();
+        projection = ProjectionFactory.fromPROJ4Specification(args).compile();
+        return projections.add(key, projection);
+    }
+
+    /**
+     * Returns the transform between two PROJ.4 definitions. See
+     * CoordinateTransform.fromPROJ4Specifications().
+     *
+     * @param sourceDefinition The PROJ.4 definition of the source.
+     * @param targetDefinition The PROJ.4 definition of the target.
+     * @return The transform.
+     */
+    public CoordinateTransform getTransform(String sourceDefinition, String targetDefinition) {
+        String definitions = sourceDefinition + " -> " + targetDefinition;
+        CoordinateTransform transform = transforms.get(definitions);
+        if (transform != null) {
+            hits.incrementAndGet();
+            return transform;
+        }
+        String[] sourceArgs = split(sourceDefinition);
+        String[] targetArgs = split(targetDefinition);
+        String key = normalize(sourceArgs) + " -> " + normalize(targetArgs);
+        transform = transforms.get(key);
+        if (transform != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            transform = transforms.add(key,
+                    CoordinateTransform.fromPROJ4Specifications(sourceArgs, targetArgs));
+        }
+        transforms.alias(definitions, key);
+        return transform;
+    }
+
+    /**
+     * Removes all entries. The statistics are not reset.
+     */
+    public void clear() {
+        projections.clear();
+        transforms.clear();
+    }
+
+    /**
+     * Sets the hit, miss and eviction counts to 0.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of cached projections.
+     */
+    public int getProjectionCount() {
+        return projections.size();
+    }
+
+    /**
+     * Returns the number of cached transforms.
+     */
+    public int getTransformCount() {
+        return transforms.size();
+    }
+
+    /**
+     * Returns the number of definitions that are not normalized stored as
+     * aliases of projections and transforms.
+     */
+    int getAliasCount() {
+        return projections.aliases.size() + transforms.aliases.size();
+    }
+
+    /**
+     * Returns the number of lookups of projections and transforms that found
+     * a cached entry.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups of projections and transforms that had to
+     * parse a definition.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries removed because the cache was full.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the ratio of hits to all lookups, or 1 if there was no lookup.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 1 : (double) h / total;
+    }
+
+    public String toString() {
+        return "ProjectionCache[projections=" + getProjectionCount()
+                + ", transforms=" + getTransformCount()
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    /**
+     * Normalizes a PROJ.4 argument list: empty arguments are removed and the
+     * remaining arguments are sorted.
+     */
+    static String normalize(String[] args) {
+        String[] sorted = new String[args.length];
+        int n = 0;
+        for (String arg : args) {
+            arg = arg.trim();
+            if (arg.length() > 0) {
+                sorted[n++] = arg;
+            }
+        }
+        Arrays.sort(sorted, 0, n);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(sorted[i]);
+        }
+        return sb.toString();
+    }
+
+    private static String[] split(String definition) {
+        return definition.trim().split("\\s+");
+    }
+
+    /**
+     * A cached value.
+     */
+    private static final class Entry<V> {
+
+        final String key;
+        final V value;
+
+        /**
+         * The time of the last access in nanoseconds.
+         */
+        volatile long lastAccess = System.nanoTime();
+
+        /**
+         * The definitions that are aliases of this entry, oldest first.
+         * Guarded by the entry.
+         */
+        final ArrayList<String> aliases = new ArrayList<>(1);
+
+        /**
+         * True when the entry has been removed from the cache. Guarded by the
+         * entry.
+         */
+        boolean removed = false;
+
+        Entry(String key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A concurrent map that removes its least recently used entry when it
+     * grows beyond its maximum size. Reads record the time of access without
+     * locking; the least recently used entry is searched when an entry is
+     * added to a full map, which is rare compared to parsing a definition.
+     */
+    private class Lru<V> {
+
+        private final int maximumSize;
+
+        /**
+         * The entries by normalized key.
+         */
+        private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+
+        /**
+         * The entries by definitions that are not normalized.
+         */
+        private final ConcurrentHashMap<String, Entry<V>> aliases = new ConcurrentHashMap<>();
+
+        Lru(int maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        /**
+         * Returns the value for a normalized key or an alias, or null.
+         */
+        V get(String key) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                entry = aliases.get(key);
+                if (entry == null) {
+                    return null;
+                }
+            }
+            entry.lastAccess = System.nanoTime();
+            return entry.value;
+        }
+
+        /**
+         * Adds a value unless the key is already mapped, and returns the
+         * value that is in the map.
+         */
+        V add(String key, V value) {
+            Entry<V> entry = new Entry<>(key, value);
+            Entry<V> old = entries.putIfAbsent(key, entry);
+            if (old != null) {
+                return old.value;
+            }
+            if (entries.size() > maximumSize) {
+                evict();
+            }
+            return value;
+        }
+
+        /**
+         * Adds a definition that is not normalized as an alias of the entry
+         * of a normalized key, so that the next lookup of the same definition
+         * does not need to normalize it. The oldest alias of the entry is
+         * removed if the entry has MAXIMUM_ALIASES aliases.
+         */
+        void alias(String definition, String key) {
+            if (definition.equals(key)) {
+                return;
+            }
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return;
+            }
+            synchronized (entry) {
+                if (!entry.removed && aliases.putIfAbsent(definition, entry) == null) {
+                    if (entry.aliases.size() == MAXIMUM_ALIASES) {
+                        aliases.remove(entry.aliases.remove(0), entry);
+                    }
+                    entry.aliases.add(definition);
+                }
+            }
+        }
+
+        /**
+         * Removes least recently used entries until the map is not larger
+         * than its maximum size.
+         */
+        private synchronized void evict() {
+            while (entries.size() > maximumSize) {
+                Entry<V> eldest = null;
+                for (Entry<V> entry : entries.values()) {
+                    if (eldest == null || entry.lastAccess - eldest.lastAccess < 0) {
+                        eldest = entry;
+                    }
+                }
+                if (eldest != null && remove(eldest)) {
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Removes an entry and its aliases.
+         *
+         * @return True if the entry was in the map.
+         */
+        private boolean remove(Entry<V> entry) {
+            boolean removed = entries.remove(entry.key, entry);
+            synchronized (entry) {
+                entry.removed = true;
+                for (String alias : entry.aliases) {
+                    aliases.remove(alias, entry);
+                }
+                entry.aliases.clear();
+            }
+            return removed;
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        void clear() {
+            for (Entry<V> entry : entries.values()) {
+                remove(entry);
+            }
+        }
+    }
+}
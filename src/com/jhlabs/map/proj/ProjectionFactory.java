@@ -35,11 +35,13 @@ import com.jhlabs.map.*;
 import java.awt.geom.Point2D;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StreamTokenizer;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -294,302 +296,464 @@ public class ProjectionFactory {
     private static double parseAngle(String s) {
         return format.parse(s, null).doubleValue();
     }
-    private static Hashtable registry;
-    private static Hashtable nameMap;
+    /**
+     * Resource with the human-readable name of each projection, generated by
+     * main() at build time.
+     */
+    private static final String NAMES_RESOURCE = "projection-names.txt";
 
-    private static void register(String proj4Name, Class cls) throws InstantiationException, IllegalAccessException {
-        try {
-            registry.put(proj4Name, cls);
-            Projection projection = (Projection) cls.getDeclaredConstructor().newInstance();
-            String readableName = projection.getName();
-            nameMap.put(readableName, proj4Name);
-        } catch (Exception e) {
-            System.err.println("unable to register " + proj4Name);
-            Logger.getLogger(ProjectionFactory.class.getName()).log(Level.SEVERE, null, e);
-        }
+    /**
+     * Maps human-readable projection names to PROJ.4 names. Initialized when
+     * first used, from the names resource if it exists. Class initialization
+     * makes it safe to read the map without locking.
+     */
+    private static final class Names {
+
+        static final Map<String, String> nameMap = loadNames();
+        static final Object[] orderedNames = sortedNames(nameMap);
     }
 
     public static Projection getNamedProjection(String name) {
-        if (registry == null) {
-            initialize();
-        }
-        String proj4Name = (String) nameMap.get(name);
-        return getNamedPROJ4Projection(proj4Name);
+        String proj4Name = Names.nameMap.get(name);
+        return proj4Name == null ? null : getNamedPROJ4Projection(proj4Name);
     }
 
     public static Projection getNamedPROJ4Projection(String name) {
-        if (registry == null) {
-            initialize();
-        }
-        Class cls = (Class) registry.get(name);
-        if (cls != null) {
+        return name == null ? null : Constructors.create(name);
+    }
+
+    public static Object[] getOrderedProjectionNames() {
+        return Names.orderedNames.clone();
+    }
+
+    /**
+     * Reads the human-readable projection names from the names resource. If it
+     * does not exist, every projection is created to ask for its name.
+     */
+    private static Map<String, String> loadNames() {
+        Map<String, String> names = new HashMap<String, String>();
+        InputStream is = ProjectionFactory.class.getResourceAsStream(NAMES_RESOURCE);
+        if (is != null) {
             try {
-                return (Projection) cls.getDeclaredConstructor().newInstance();
-            } catch (Exception e) {
-                System.err.println("unable to instantiate " + name);
-                Logger.getLogger(ProjectionFactory.class.getName()).log(Level.SEVERE, null, e);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int tab = line.indexOf('\t');
+                        if (tab > 0) {
+                            names.put(line.substring(tab + 1), line.substring(0, tab));
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+                return names;
+            } catch (IOException e) {
+                Logger.getLogger(ProjectionFactory.class.getName()).log(Level.WARNING, null, e);
+                names.clear();
             }
         }
-        return null;
+        for (String proj4Name : PROJ4_NAMES) {
+            names.put(Constructors.create(proj4Name).getName(), proj4Name);
+        }
+        return names;
     }
 
-    public static Object[] getOrderedProjectionNames() {
-        if (registry == null) {
-            initialize();
-        }
+    private static Object[] sortedNames(Map<String, String> nameMap) {
         Object[] names = nameMap.keySet().toArray();
         Arrays.sort(names);
         return names;
     }
 
-    private static void initialize() {
+    /**
+     * Generates the resource with the human-readable projection names, so
+     * that no projection has to be created to list the names. Called by the
+     * build, which fails if PROJ4_NAMES contains a name twice or a name that
+     * Constructors.create() does not know, or if two projections have the
+     * same human-readable name.
+     *
+     * @param args The file to write.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: ProjectionFactory namesFile");
+            System.exit(1);
+        }
+        File file = new File(args[0]);
+        file.getParentFile().mkdirs();
+        Set<String> proj4Names = new HashSet<String>();
+        Map<String, String> names = new HashMap<String, String>();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
         try {
-            registry = new Hashtable();
-            nameMap = new Hashtable();
-
-            register("aea", AlbersProjection.class);
-            register("aeqd", EquidistantAzimuthalProjection.class);
-            register("airy", AiryProjection.class);
-            register("aitoff", AitoffProjection.class);
-//            register("alsk", Projection.class);
-            register("apian1", Apian1Projection.class);
-            register("apian2", Apian2Projection.class);
-            register("ardn_cls", ArdenCloseProjection.class);
-            register("aspect", AspectAdaptiveProjection.class);
-            register("august", AugustProjection.class);
-            register("bacon", BaconProjection.class);
-            register("bipc", BipolarProjection.class);
-            register("boggs", BoggsProjection.class);
-            register("bonne", BonneProjection.class);
-            register("cass", CassiniProjection.class);
-            register("cc", CentralCylindricalProjection.class);
-            register("cea", CylindricalEqualAreaProjection.class);
-            register("compmill", CompactMillerProjection.class);
-//		register( "chamb", Projection.class);
-            register("collg", CollignonProjection.class);
-            register("crast", CrasterProjection.class);
-            register("denoy", DenoyerProjection.class);
-            register("eck1", Eckert1Projection.class);
-            register("eck2", Eckert2Projection.class);
-            register("eck3", Eckert3Projection.class);
-            register("eck4", Eckert4Projection.class);
-            register("eck5", Eckert5Projection.class);
-            register("eck6", Eckert6Projection.class);
-            register("eckgreif", EckertGreifendorffProjection.class);
-            register("equalearth", EqualEarthProjection.class);
-            register("eqc", EquidistantCylindricalProjection.class);
-            register("eqdc", EquidistantConicProjection.class);
-            register("euler", EulerProjection.class);
-            register("fahey", FaheyProjection.class);
-            register("fouc", FoucautProjection.class);
-            register("fouc_s", FoucautSinusoidalProjection.class);
-            register("four2", Fournier2Projection.class);
-            register("gall", GallProjection.class);
-            register("gallpeters", GallPetersProjection.class);
-            register("gins8", Ginzburg8Projection.class);
-//		register( "gn_sinu", Projection.class);
-            register("gnom", GnomonicAzimuthalProjection.class);
-            register("goode", GoodeProjection.class);
-//		register( "gs48", Projection.class, "Mod. Stererographics of 48 U.S." );
-//		register( "gs50", Projection.class, "Mod. Stererographics of 50 U.S." );
-            register("hammer", HammerProjection.class); // Eckert-Greifendorff is in own class
-            register("hatano", HatanoProjection.class);
-            register("holzel", HolzelProjection.class);
-            register("hufnagel", HufnagelProjection.class);
-//		register( "imw_p", Projection.class, "Internation Map of the World Polyconic" );
-            register("kav1", Kavrayskiy1Projection.class);
-            register("kav5", Kavrayskiy5Projection.class);
-            register("kav7", Kavrayskiy7Projection.class);
-//		register( "labrd", Projection.class, "Laborde" );
-            register("laea", LambertAzimuthalEqualAreaProjection.class);
-            register("lagrng", LagrangeProjection.class);
-            register("larr", LarriveeProjection.class);
-            register("lask", LaskowskiProjection.class);
-            register("lcc", LambertConformalConicProjection.class);
-            register("leac", LambertEqualAreaConicProjection.class);
-//		register( "lee_os", Projection.class, "Lee Oblated Stereographic" );
-            register("longlat", LinearProjection.class);
-            register("loxim", LoximuthalProjection.class);
-            register("lsat", LandsatProjection.class);
-            register("mbt_s", McBrydeThomasSine1Projection.class);
-            register("mbt_fps", McBrydeThomasFlatPolarSine2Projection.class);
-            register("mbtfpp", McBrydeThomasFlatPolarParabolicProjection.class);
-            register("mbtfpq", McBrydeThomasFlatPolarQuarticProjection.class);
-            // register("mbtfps", .class);
-            register("merc", MercatorProjection.class);
-//		register( "mil_os", Projection.class, "Miller Oblated Stereographic" );
-            register("mill", MillerCylindrical1Projection.class);
-//		register( "mpoly", Projection.class, "Modified Polyconic" );
-            register("moll", MollweideProjection.class);
-            register("murd1", Murdoch1Projection.class);
-            register("murd2", Murdoch2Projection.class);
-            register("murd3", Murdoch3Projection.class);
-            register("natearth", NaturalEarthProjection.class);
-            register("natearth2", NaturalEarth2Projection.class);
-            register("nell", NellProjection.class);
-            register("nell_h", NellHammerProjection.class);
-            register("nicol", NicolosiProjection.class);
-            register("nsper", PerspectiveProjection.class);
-            register("nzmg", NZMGProjection.class);
-//		register( "ob_tran", Projection.class, "General Oblique Transformation" );
-//		register( "ocea", Projection.class, "Oblique Cylindrical Equal Area" );
-//		register( "oea", Projection.class, "Oblated Equal Area" );
-            register("omerc", ObliqueMercatorProjection.class);
-            register("ortel", OrteliusProjection.class);
-            register("ortho", OrthographicAzimuthalProjection.class);
-            register("patt", PattersonProjection.class);
-            register("pconic", PerspectiveConicProjection.class);
-            register("poly", PolyconicProjection.class);
-            register("putp1", PutninsP1Projection.class);
-            register("putp2", PutninsP2Projection.class);
-//		register( "putp3", Projection.class, "Putnins P3" );            
-            register("putp4p", PutninsP4PProjection.class);
-            register("putp5", PutninsP5Projection.class);
-            register("putp5p", PutninsP5PProjection.class);
-//		register( "putp6", Projection.class, "Putnins P6" );
-//		register( "putp6p", Projection.class, "Putnins P6'" );
-            register("qua_aut", QuarticAuthalicProjection.class);
-            register("robin", RobinsonProjection.class); // RobinsonProjectionOriginal_Proj4_JHL has vertical shift at latitude +/-40 degrees
-            register("rpoly", RectangularPolyconicProjection.class);
-            register("sinu", SinusoidalProjection.class);
-            register("somerc", SwissObliqueMercatorProjection.class);
-            register("stere", StereographicAzimuthalProjection.class);
-            register("tcc", TCCProjection.class);
-            register("tcea", TCEAProjection.class);
-            register("tissot", TissotProjection.class);
-            register("toblermercator", ToblerMercator.class);
-            register("tmerc", TransverseMercatorProjection.class);
-            register("tlat", TransformedLambertAzimuthalTransverse.class);
-
-//		register( "tpeqd", Projection.class, "Two Point Equidistant" );
-//		register( "tpers", Projection.class, "Tilted perspective" );
-//		register( "ups", Projection.class, "Universal Polar Stereographic" );
-//		register( "urm5", Projection.class, "Urmaev V" );
-            register("urmfps", URMFPSProjection.class); // Urmaev Flat-Polar Sinusoidal
-            register("utm", UniversalTransverseMercatorProjection.class);
-            register("vandg", VanDerGrintenProjection.class);
-//		register( "vandg2", Projection.class, "van der Grinten II" );
-//		register( "vandg3", Projection.class, "van der Grinten III" );
-//		register( "vandg4", Projection.class, "van der Grinten IV" );
-            register("vitk1", VitkovskyProjection.class);
-            register("wag1", Wagner1Projection.class);
-            register("wag2", Wagner2Projection.class);
-            register("wag3", Wagner3Projection.class);
-            register("wag4", Wagner4Projection.class);
-            register("wag5", Wagner5Projection.class);
-            register("wag6", Wagner6Projection.class);
-            register("wag7", Wagner7Projection.class);
-            register("weren", Werenskiold1Projection.class);
-            register("wink1", Winkel1Projection.class);
-            register("wink2", Winkel2Projection.class);
-            register("wintri", WinkelTripelProjection.class);
-        } catch (InstantiationException | IllegalAccessException ex) {
-            Logger.getLogger(ProjectionFactory.class.getName()).log(Level.SEVERE, null, ex);
+            for (String proj4Name : PROJ4_NAMES) {
+                if (!proj4Names.add(proj4Name)) {
+                    throw new IllegalStateException(proj4Name + " is listed twice");
+                }
+                Projection projection = Constructors.create(proj4Name);
+                if (projection == null) {
+                    throw new IllegalStateException("Cannot create " + proj4Name);
+                }
+                String other = names.put(projection.getName(), proj4Name);
+                if (other != null) {
+                    throw new IllegalStateException(other + " and " + proj4Name
+                            + " are both named " + projection.getName());
+                }
+                writer.write(proj4Name + "\t" + projection.getName() + "\n");
+            }
+        } finally {
+            writer.close();
         }
     }
 
+    /**
+     * The PROJ.4 names of all projections that can be created by
+     * Constructors.create(). A projection added to Constructors.newInstance()
+     * must also be added here; main() checks every name at build time.
+     */
+    private static final String[] PROJ4_NAMES = {
+        "aea", "aeqd", "airy", "aitoff", "apian1", "apian2", "ardn_cls",
+        "aspect", "august", "bacon", "bipc", "boggs", "bonne", "cass", "cc", "cea",
+        "compmill", "collg", "crast", "denoy", "eck1", "eck2", "eck3", "eck4",
+        "eck5", "eck6", "eckgreif", "equalearth", "eqc", "eqdc", "euler",
+        "fahey", "fouc", "fouc_s", "four2", "gall", "gallpeters", "gins8",
+        "gnom", "goode", "hammer", "hatano", "holzel", "hufnagel", "kav1",
+        "kav5", "kav7", "laea", "lagrng", "larr", "lask", "lcc", "leac",
+        "longlat", "loxim", "lsat", "mbt_s", "mbt_fps", "mbtfpp", "mbtfpq",
+        "merc", "mill", "moll", "murd1", "murd2", "murd3", "natearth",
+        "natearth2", "nell", "nell_h", "nicol", "nsper", "nzmg", "omerc",
+        "ortel", "ortho", "patt", "pconic", "poly", "putp1", "putp2", "putp4p",
+        "putp5", "putp5p", "qua_aut", "robin", "rpoly", "sinu", "somerc",
+        "stere", "tcc", "tcea", "tissot", "toblermercator", "tmerc", "tlat",
+        "urmfps", "utm", "vandg", "vitk1", "wag1", "wag2", "wag3", "wag4",
+        "wag5", "wag6", "wag7", "weren", "wink1", "wink2", "wintri"
+    };
+
+    /**
+     * Creates projections without reflection.
+     */
+    private static final class Constructors {
+
+        /**
+         * Creates a projection from its PROJ.4 name, or returns null if there
+         * is no such projection. Only the class of the requested projection is
+         * loaded. The return type is Object, because the bytecode verifier
+         * would otherwise load every projection class to check that it is a
+         * Projection.
+         */
+        private static Object newInstance(String proj4Name) {
+            switch (proj4Name) {
+                case "aea":
+                    return new AlbersProjection();
+                case "aeqd":
+                    return new EquidistantAzimuthalProjection();
+                case "airy":
+                    return new AiryProjection();
+                case "aitoff":
+                    return new AitoffProjection();
+                // "alsk" is not implemented
+                case "apian1":
+                    return new Apian1Projection();
+                case "apian2":
+                    return new Apian2Projection();
+                case "ardn_cls":
+                    return new ArdenCloseProjection();
+                case "aspect":
+                    return new AspectAdaptiveProjection();
+                case "august":
+                    return new AugustProjection();
+                case "bacon":
+                    return new BaconProjection();
+                case "bipc":
+                    return new BipolarProjection();
+                case "boggs":
+                    return new BoggsProjection();
+                case "bonne":
+                    return new BonneProjection();
+                case "cass":
+                    return new CassiniProjection();
+                case "cc":
+                    return new CentralCylindricalProjection();
+                case "cea":
+                    return new CylindricalEqualAreaProjection();
+                case "compmill":
+                    return new CompactMillerProjection();
+                // "chamb" is not implemented
+                case "collg":
+                    return new CollignonProjection();
+                case "crast":
+                    return new CrasterProjection();
+                case "denoy":
+                    return new DenoyerProjection();
+                case "eck1":
+                    return new Eckert1Projection();
+                case "eck2":
+                    return new Eckert2Projection();
+                case "eck3":
+                    return new Eckert3Projection();
+                case "eck4":
+                    return new Eckert4Projection();
+                case "eck5":
+                    return new Eckert5Projection();
+                case "eck6":
+                    return new Eckert6Projection();
+                case "eckgreif":
+                    return new EckertGreifendorffProjection();
+                case "equalearth":
+                    return new EqualEarthProjection();
+                case "eqc":
+                    return new EquidistantCylindricalProjection();
+                case "eqdc":
+                    return new EquidistantConicProjection();
+                case "euler":
+                    return new EulerProjection();
+                case "fahey":
+                    return new FaheyProjection();
+                case "fouc":
+                    return new FoucautProjection();
+                case "fouc_s":
+                    return new FoucautSinusoidalProjection();
+                case "four2":
+                    return new Fournier2Projection();
+                case "gall":
+                    return new GallProjection();
+                case "gallpeters":
+                    return new GallPetersProjection();
+                case "gins8":
+                    return new Ginzburg8Projection();
+                // "gn_sinu" is not implemented
+                case "gnom":
+                    return new GnomonicAzimuthalProjection();
+                case "goode":
+                    return new GoodeProjection();
+                // "gs48" (Mod. Stererographics of 48 U.S.) is not implemented
+                // "gs50" (Mod. Stererographics of 50 U.S.) is not implemented
+                case "hammer": // Eckert-Greifendorff is in own class
+                    return new HammerProjection();
+                case "hatano":
+                    return new HatanoProjection();
+                case "holzel":
+                    return new HolzelProjection();
+                case "hufnagel":
+                    return new HufnagelProjection();
+                // "imw_p" (Internation Map of the World Polyconic) is not implemented
+                case "kav1":
+                    return new Kavrayskiy1Projection();
+                case "kav5":
+                    return new Kavrayskiy5Projection();
+                case "kav7":
+                    return new Kavrayskiy7Projection();
+                // "labrd" (Laborde) is not implemented
+                case "laea":
+                    return new LambertAzimuthalEqualAreaProjection();
+                case "lagrng":
+                    return new LagrangeProjection();
+                case "larr":
+                    return new LarriveeProjection();
+                case "lask":
+                    return new LaskowskiProjection();
+                case "lcc":
+                    return new LambertConformalConicProjection();
+                case "leac":
+                    return new LambertEqualAreaConicProjection();
+                // "lee_os" (Lee Oblated Stereographic) is not implemented
+                case "longlat":
+                    return new LinearProjection();
+                case "loxim":
+                    return new LoximuthalProjection();
+                case "lsat":
+                    return new LandsatProjection();
+                case "mbt_s":
+                    return new McBrydeThomasSine1Projection();
+                case "mbt_fps":
+                    return new McBrydeThomasFlatPolarSine2Projection();
+                case "mbtfpp":
+                    return new McBrydeThomasFlatPolarParabolicProjection();
+                case "mbtfpq":
+                    return new McBrydeThomasFlatPolarQuarticProjection();
+                // "mbtfps" is not implemented
+                case "merc":
+                    return new MercatorProjection();
+                // "mil_os" (Miller Oblated Stereographic) is not implemented
+                case "mill":
+                    return new MillerCylindrical1Projection();
+                // "mpoly" (Modified Polyconic) is not implemented
+                case "moll":
+                    return new MollweideProjection();
+                case "murd1":
+                    return new Murdoch1Projection();
+                case "murd2":
+                    return new Murdoch2Projection();
+                case "murd3":
+                    return new Murdoch3Projection();
+                case "natearth":
+                    return new NaturalEarthProjection();
+                case "natearth2":
+                    return new NaturalEarth2Projection();
+                case "nell":
+                    return new NellProjection();
+                case "nell_h":
+                    return new NellHammerProjection();
+                case "nicol":
+                    return new NicolosiProjection();
+                case "nsper":
+                    return new PerspectiveProjection();
+                case "nzmg":
+                    return new NZMGProjection();
+                // "ob_tran" (General Oblique Transformation) is not implemented
+                // "ocea" (Oblique Cylindrical Equal Area) is not implemented
+                // "oea" (Oblated Equal Area) is not implemented
+                case "omerc":
+                    return new ObliqueMercatorProjection();
+                case "ortel":
+                    return new OrteliusProjection();
+                case "ortho":
+                    return new OrthographicAzimuthalProjection();
+                case "patt":
+                    return new PattersonProjection();
+                case "pconic":
+                    return new PerspectiveConicProjection();
+                case "poly":
+                    return new PolyconicProjection();
+                case "putp1":
+                    return new PutninsP1Projection();
+                case "putp2":
+                    return new PutninsP2Projection();
+                // "putp3" (Putnins P3) is not implemented
+                case "putp4p":
+                    return new PutninsP4PProjection();
+                case "putp5":
+                    return new PutninsP5Projection();
+                case "putp5p":
+                    return new PutninsP5PProjection();
+                // "putp6" (Putnins P6) is not implemented
+                // "putp6p" (Putnins P6') is not implemented
+                case "qua_aut":
+                    return new QuarticAuthalicProjection();
+                case "robin": // RobinsonProjectionOriginal_Proj4_JHL has vertical shift at latitude +/-40 degrees
+                    return new RobinsonProjection();
+                case "rpoly":
+                    return new RectangularPolyconicProjection();
+                case "sinu":
+                    return new SinusoidalProjection();
+                case "somerc":
+                    return new SwissObliqueMercatorProjection();
+                case "stere":
+                    return new StereographicAzimuthalProjection();
+                case "tcc":
+                    return new TCCProjection();
+                case "tcea":
+                    return new TCEAProjection();
+                case "tissot":
+                    return new TissotProjection();
+                case "toblermercator":
+                    return new ToblerMercator();
+                case "tmerc":
+                    return new TransverseMercatorProjection();
+                case "tlat":
+                    return new TransformedLambertAzimuthalTransverse();
+
+                // "tpeqd" (Two Point Equidistant) is not implemented
+                // "tpers" (Tilted perspective) is not implemented
+                // "ups" (Universal Polar Stereographic) is not implemented
+                // "urm5" (Urmaev V) is not implemented
+                case "urmfps": // Urmaev Flat-Polar Sinusoidal
+                    return new URMFPSProjection();
+                case "utm":
+                    return new UniversalTransverseMercatorProjection();
+                case "vandg":
+                    return new VanDerGrintenProjection();
+                // "vandg2" (van der Grinten II) is not implemented
+                // "vandg3" (van der Grinten III) is not implemented
+                // "vandg4" (van der Grinten IV) is not implemented
+                case "vitk1":
+                    return new VitkovskyProjection();
+                case "wag1":
+                    return new Wagner1Projection();
+                case "wag2":
+                    return new Wagner2Projection();
+                case "wag3":
+                    return new Wagner3Projection();
+                case "wag4":
+                    return new Wagner4Projection();
+                case "wag5":
+                    return new Wagner5Projection();
+                case "wag6":
+                    return new Wagner6Projection();
+                case "wag7":
+                    return new Wagner7Projection();
+                case "weren":
+                    return new Werenskiold1Projection();
+                case "wink1":
+                    return new Winkel1Projection();
+                case "wink2":
+                    return new Winkel2Projection();
+                case "wintri":
+                    return new WinkelTripelProjection();
+                default:
+                    return null;
+            }
+        }
+
+        static Projection create(String proj4Name) {
+            return (Projection) newInstance(proj4Name);
+        }
+    }
+
+    /**
+     * Returns the coordinate system with a code from a file in the coordsys
+     * resource folder. The files world, nad83, nad27, esri and epsg are looked
+     * up in the precompiled CoordinateSystemCatalog; other files are parsed.
+     *
+     * @param file The name of the file.
+     * @param name The code of the coordinate system.
+     * @return The coordinate system, or null if the file does not contain the
+     * code.
+     */
     public static Projection readProjectionFile(String file, String name) throws IOException {
+        CoordinateSystemCatalog catalog = CoordinateSystemCatalog.getDefault();
+        if (catalog.containsFile(file)) {
+            String[] args = catalog.getParameters(file, name);
+            return args == null ? null : fromPROJ4Specification(args);
+        }
 
         BufferedReader reader = null;
         try {
             String filePath = "/coordsys/" + file;
             InputStream is = ProjectionFactory.class.getResourceAsStream(filePath);
-            reader = new BufferedReader(new InputStreamReader(is));
-            StreamTokenizer t = new StreamTokenizer(reader);
-            t.commentChar('#');
-            t.ordinaryChars('0', '9');
-            t.ordinaryChars('.', '.');
-            t.ordinaryChars('-', '-');
-            t.ordinaryChars('+', '+');
-            t.wordChars('0', '9');
-            t.wordChars('\'', '\'');
-            t.wordChars('"', '"');
-            t.wordChars('_', '_');
-            t.wordChars('.', '.');
-            t.wordChars('-', '-');
-            t.wordChars('+', '+');
-            t.wordChars(',', ',');
-            t.nextToken();
-
-            while (t.ttype == '<') {
-                t.nextToken();
-                if (t.ttype != StreamTokenizer.TT_WORD) {
-                    throw new IOException(t.lineno() + ": Word expected after '<'");
-                }
-
-                String cname = t.sval;
-                t.nextToken();
-                if (t.ttype != '>') {
-                    throw new IOException(t.lineno() + ": '>' expected");
-                }
-                t.nextToken();
-                Vector v = new Vector();
-                while (t.ttype != '<') {
-                    if (t.ttype == '+') {
-                        t.nextToken();
-                    }
-                    if (t.ttype != StreamTokenizer.TT_WORD) {
-                        throw new IOException(t.lineno() + ": Word expected after '+'");
-                    }
-                    String key = t.sval;
-                    t.nextToken();
-                    if (t.ttype == '=') {
-                        t.nextToken();
-                        //Removed check to allow for proj4 hack +nadgrids=@null
-                        //if ( t.ttype != StreamTokenizer.TT_WORD )
-                        //	throw new IOException( t.lineno()+": Value expected after '='" );
-                        String value = t.sval;
-                        t.nextToken();
-                        if (key.startsWith("+")) {
-                            v.add(key + "=" + value);
-                        } else {
-                            v.add("+" + key + "=" + value);
-                        }
-                    }
-                }
-                t.nextToken();
-                if (t.ttype != '>') {
-                    throw new IOException(t.lineno() + ": '<>' expected");
-                }
-                t.nextToken();
-                if (cname.equals(name)) {
-                    String[] args = new String[v.size()];
-                    v.copyInto(args);
-                    return fromPROJ4Specification(args);
-                }
+            if (is == null) {
+                throw new IOException("Cannot find " + filePath);
             }
-            return null;
+            reader = new BufferedReader(new InputStreamReader(is));
+            Map<String, String[]> definitions = new LinkedHashMap<String, String[]>();
+            CoordinateSystemCatalog.readDefinitions(reader, definitions);
+            String[] args = definitions.get(name);
+            return args == null ? null : fromPROJ4Specification(args);
         } finally {
             if (reader != null) {
                 reader.close();
             }
         }
-
     }
 
+    /**
+     * Returns a coordinate system from the coordsys resource folder.
+     *
+     * @param name A code qualified by a file name, such as "epsg:4326", or a
+     * code without a file name, which is searched in the files world, nad83,
+     * nad27, esri and epsg.
+     * @return The coordinate system, or null if it does not exist.
+     */
     public static Projection getNamedPROJ4CoordinateSystem(String name) {
-        String[] files = {
-            "world",
-            "nad83",
-            "nad27",
-            "esri",
-            "epsg",};
-
-        try {
-            int p = name.indexOf(':');
-            if (p >= 0) {
+        int p = name.indexOf(':');
+        if (p >= 0 && !CoordinateSystemCatalog.getDefault().containsFile(name.substring(0, p))) {
+            try {
                 return readProjectionFile(name.substring(0, p), name.substring(p + 1));
+            } catch (IOException e) {
+                return null;
             }
-
-            for (int i = 0; i < files.length; i++) {
-                Projection projection = readProjectionFile(files[i], name);
-                if (projection != null) {
-                    return projection;
-                }
-            }
-        } catch (IOException e) {
         }
-        return null;
+        String[] args = CoordinateSystemCatalog.getDefault().getParameters(name);
+        return args == null ? null : fromPROJ4Specification(args);
     }
 
 }
@@ -184,7 +184,8 @@ public class RobinsonProjection extends PseudoCylindricalProjection {
                     break;
                 }
             }
-            lp.y = Math.toRadians(5 * i + t);
+            // i is the index of the segment in Y, 4 values per segment
+            lp.y = Math.toRadians(5 * (i / 4) + t);
             if (y < 0.) {
                 lp.y = -lp.y;
             }
@@ -76,6 +76,7 @@ public class TransformedLambertAzimuthalTransverse extends Projection {
      * visually more continuous transformation.
      */
     final public void setW(double w, boolean visuallyContinuous) {
+        checkNotFrozen();
         if (w < 0 || w > 1) {
             throw new IllegalArgumentException("Weight must be between 0 and 1");
         }
@@ -200,6 +201,7 @@ public class TransformedLambertAzimuthalTransverse extends Projection {
      * @param centralLat central latitude in radians
      */
     public void setCentralLatitude(double centralLat) {
+        checkNotFrozen();
         assert (centralLat >= -Math.PI / 2 && centralLat <= Math.PI / 2);
         this.centralLat = centralLat;
     }
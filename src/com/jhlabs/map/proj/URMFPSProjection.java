@@ -66,6 +66,7 @@ public class URMFPSProjection extends PseudoCylindricalProjection {
 
     // Properties
     public void setN(double n) {
+        checkNotFrozen();
         this.n = n;
     }
 
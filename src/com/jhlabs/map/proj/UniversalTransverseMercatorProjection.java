@@ -71,14 +71,17 @@ public class UniversalTransverseMercatorProjection extends TransverseMercatorPro
     }
 
     public void setIsSouth(boolean south) {
+        checkNotFrozen();
         falseNorthing = south ? 10000000. : 0.;
     }
 
     public void clearUTMZone() {
+        checkNotFrozen();
         utmzone = -1;
     }
 
     public void setUTMZone(int zone) {
+        checkNotFrozen();
         utmzone = zone - 1;
 
         projectionLongitude = (utmzone * 6 - 180 + 3) * DTR;  //+3 puts origin in middle of zone
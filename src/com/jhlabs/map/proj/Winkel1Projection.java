@@ -42,6 +42,7 @@ public class Winkel1Projection extends PseudoCylindricalProjection {
     }
     
     public void setLatitudeOfTrueScale(double phi1) {
+        checkNotFrozen();
         if (phi1 < -MapMath.HALFPI || phi1 > MapMath.HALFPI) {
             throw new ProjectionException();
         }
@@ -57,6 +57,7 @@ public class Winkel2Projection extends PseudoCylindricalProjection {
     }
 
     public void setLatitudeOfTrueScale(double phi1) {
+        checkNotFrozen();
         if (phi1 < -MapMath.HALFPI || phi1 > MapMath.HALFPI)
             throw new ProjectionException();
         this.phi1 = phi1;
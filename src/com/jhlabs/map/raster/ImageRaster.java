@@ -0,0 +1,79 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map.raster;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * A raster held in memory by a java.awt.image.Raster, for example the raster
+ * of a BufferedImage.
+ */
+public class ImageRaster implements RasterSource, RasterTarget {
+
+    private final Raster raster;
+    /**
+     * The raster if it can be written to, or null.
+     */
+    private final WritableRaster writableRaster;
+
+    /**
+     * Creates a raster that can be read.
+     */
+    public ImageRaster(Raster raster) {
+        this.raster = raster;
+        this.writableRaster = raster instanceof WritableRaster ? (WritableRaster) raster : null;
+    }
+
+    /**
+     * Creates a raster for the pixels of an image.
+     */
+    public ImageRaster(BufferedImage image) {
+        this(image.getRaster());
+    }
+
+    public Raster getRaster() {
+        return raster;
+    }
+
+    public int getWidth() {
+        return raster.getWidth();
+    }
+
+    public int getHeight() {
+        return raster.getHeight();
+    }
+
+    public int getBandCount() {
+        return raster.getNumBands();
+    }
+
+    public double getSample(int x, int y, int band) {
+        return raster.getSampleDouble(x + raster.getMinX(), y + raster.getMinY(), band);
+    }
+
+    public void setSamples(int x, int y, int width, int height, int band, double[] samples) {
+        if (writableRaster == null) {
+            throw new UnsupportedOperationException("raster cannot be written");
+        }
+        writableRaster.setSamples(x + raster.getMinX(), y + raster.getMinY(),
+                width, height, band, samples);
+    }
+
+    public String toString() {
+        return "ImageRaster[" + getWidth() + " x " + getHeight() + ", "
+                + getBandCount() + " bands]";
+    }
+}
@@ -0,0 +1,233 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map.raster;
+
+import java.awt.image.DataBuffer;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A raster stored in a file without header, with the samples of a pixel next
+ * to each other (band interleaved by pixel) and the pixels row by row, as in
+ * the raw .bip files of many GIS. The file is memory-mapped, so rasters larger
+ * than the heap can be read and written. A file larger than 2 GB is mapped in
+ * several segments of whole rows.
+ *
+ * Data types are the DataBuffer constants TYPE_BYTE, TYPE_USHORT, TYPE_SHORT,
+ * TYPE_INT, TYPE_FLOAT and TYPE_DOUBLE. Bytes are unsigned. Samples written to
+ * integer rasters are rounded; NaN is written as 0.
+ */
+public class MappedRaster implements RasterSource, RasterTarget, Closeable {
+
+    private final RandomAccessFile file;
+    private final int width;
+    private final int height;
+    private final int bands;
+    private final int dataType;
+    private final int sampleSize;
+    /**
+     * The number of bytes per row.
+     */
+    private final long rowSize;
+    /**
+     * The number of rows per segment.
+     */
+    private final int segmentRows;
+    private final ByteBuffer[] segments;
+
+    private MappedRaster(File file, boolean writable, int width, int height,
+            int bands, int dataType, ByteOrder order) throws IOException {
+        if (width <= 0 || height <= 0 || bands <= 0) {
+            throw new IllegalArgumentException("invalid raster size");
+        }
+        this.width = width;
+        this.height = height;
+        this.bands = bands;
+        this.dataType = dataType;
+        this.sampleSize = DataBuffer.getDataTypeSize(dataType) / 8;
+        this.rowSize = (long) width * bands * sampleSize;
+        if (rowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("rows are too long");
+        }
+        this.segmentRows = (int) Math.min(height, Integer.MAX_VALUE / rowSize);
+
+        this.file = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            final long length = rowSize * height;
+            if (writable) {
+                this.file.setLength(length);
+            } else if (this.file.length() < length) {
+                throw new IOException(file + " is too short for a raster of "
+                        + width + " x " + height + " pixels");
+            }
+            FileChannel channel = this.file.getChannel();
+            FileChannel.MapMode mode = writable
+                    ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+            segments = new ByteBuffer[(height + segmentRows - 1) / segmentRows];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * segmentRows * rowSize;
+                long size = Math.min(segmentRows * rowSize, length - start);
+                MappedByteBuffer buffer = channel.map(mode, start, size);
+                buffer.order(order);
+                segments[i] = buffer;
+            }
+        } catch (IOException | RuntimeException exc) {
+            this.file.close();
+            throw exc;
+        }
+    }
+
+    /**
+     * Opens an existing raster for reading.
+     *
+     * @param file The file.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     * @param bands The number of samples per pixel.
+     * @param dataType The type of the samples, a DataBuffer.TYPE_ constant.
+     * @param order The byte order of the samples.
+     * @return The raster, which has to be closed.
+     */
+    public static MappedRaster open(File file, int width, int height, int bands,
+            int dataType, ByteOrder order) throws IOException {
+        return new MappedRaster(file, false, width, height, bands, dataType, order);
+    }
+
+    /**
+     * Creates a raster for writing and reading. An existing file is
+     * overwritten.
+     *
+     * @param file The file.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     * @param bands The number of samples per pixel.
+     * @param dataType The type of the samples, a DataBuffer.TYPE_ constant.
+     * @param order The byte order of the samples.
+     * @return The raster, which has to be closed.
+     */
+    public static MappedRaster create(File file, int width, int height, int bands,
+            int dataType, ByteOrder order) throws IOException {
+        return new MappedRaster(file, true, width, height, bands, dataType, order);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBandCount() {
+        return bands;
+    }
+
+    public int getDataType() {
+        return dataType;
+    }
+
+    public double getSample(int x, int y, int band) {
+        final ByteBuffer buffer = segments[y / segmentRows];
+        final int i = position(x, y, band);
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE:
+                return buffer.get(i) & 0xFF;
+            case DataBuffer.TYPE_USHORT:
+                return buffer.getShort(i) & 0xFFFF;
+            case DataBuffer.TYPE_SHORT:
+                return buffer.getShort(i);
+            case DataBuffer.TYPE_INT:
+                return buffer.getInt(i);
+            case DataBuffer.TYPE_FLOAT:
+                return buffer.getFloat(i);
+            default:
+                return buffer.getDouble(i);
+        }
+    }
+
+    public void setSamples(int x, int y, int width, int height, int band, double[] samples) {
+        int s = 0;
+        for (int row = y; row < y + height; row++) {
+            final ByteBuffer buffer = segments[row / segmentRows];
+            for (int col = x; col < x + width; col++) {
+                set(buffer, position(col, row, band), samples[s++]);
+            }
+        }
+    }
+
+    /**
+     * Returns the position of a sample in its segment.
+     */
+    private int position(int x, int y, int band) {
+        if (x < 0 || x >= width || y < 0 || y >= height || band < 0 || band >= bands) {
+            throw new IndexOutOfBoundsException(x + "/" + y + "/" + band);
+        }
+        return (int) ((y % segmentRows) * rowSize) + (x * bands + band) * sampleSize;
+    }
+
+    private void set(ByteBuffer buffer, int i, double v) {
+        if (dataType != DataBuffer.TYPE_FLOAT && dataType != DataBuffer.TYPE_DOUBLE) {
+            v = Double.isNaN(v) ? 0 : Math.rint(v);
+        }
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE:
+                buffer.put(i, (byte) Math.max(0, Math.min(255, v)));
+                break;
+            case DataBuffer.TYPE_USHORT:
+                buffer.putShort(i, (short) Math.max(0, Math.min(65535, v)));
+                break;
+            case DataBuffer.TYPE_SHORT:
+                buffer.putShort(i, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v)));
+                break;
+            case DataBuffer.TYPE_INT:
+                buffer.putInt(i, (int) v);
+                break;
+            case DataBuffer.TYPE_FLOAT:
+                buffer.putFloat(i, (float) v);
+                break;
+            default:
+                buffer.putDouble(i, v);
+        }
+    }
+
+    /**
+     * Writes changes to the file.
+     */
+    public void flush() {
+        for (ByteBuffer segment : segments) {
+            if (segment instanceof MappedByteBuffer && !segment.isReadOnly()) {
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+    }
+
+    /**
+     * Writes changes and closes the file. The mapped memory is released when
+     * this raster is garbage collected.
+     */
+    public void close() throws IOException {
+        flush();
+        file.close();
+    }
+
+    public String toString() {
+        return "MappedRaster[" + width + " x " + height + ", " + bands + " bands]";
+    }
+}
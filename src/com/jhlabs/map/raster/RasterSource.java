@@ -0,0 +1,46 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map.raster;
+
+/**
+ * A raster that samples can be read from. Implementations must allow
+ * concurrent reads by multiple threads.
+ */
+public interface RasterSource {
+
+    /**
+     * Returns the number of columns.
+     */
+    int getWidth();
+
+    /**
+     * Returns the number of rows.
+     */
+    int getHeight();
+
+    /**
+     * Returns the number of samples per pixel.
+     */
+    int getBandCount();
+
+    /**
+     * Returns a sample.
+     *
+     * @param x The column, starting with 0 on the left.
+     * @param y The row, starting with 0 at the top.
+     * @param band The band.
+     * @return The sample.
+     */
+    double getSample(int x, int y, int band);
+}
@@ -0,0 +1,48 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map.raster;
+
+/**
+ * A raster that samples can be written to. Implementations must allow
+ * multiple threads to write disjoint rectangles concurrently.
+ */
+public interface RasterTarget {
+
+    /**
+     * Returns the number of columns.
+     */
+    int getWidth();
+
+    /**
+     * Returns the number of rows.
+     */
+    int getHeight();
+
+    /**
+     * Returns the number of samples per pixel.
+     */
+    int getBandCount();
+
+    /**
+     * Writes the samples of one band in a rectangle.
+     *
+     * @param x The left column of the rectangle.
+     * @param y The top row of the rectangle.
+     * @param width The width of the rectangle.
+     * @param height The height of the rectangle.
+     * @param band The band.
+     * @param samples The samples, row by row.
+     */
+    void setSamples(int x, int y, int width, int height, int band, double[] samples);
+}
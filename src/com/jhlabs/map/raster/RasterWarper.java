@@ -0,0 +1,467 @@
+/*
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.jhlabs.map.raster;
+
+import com.jhlabs.map.MapMath;
+import com.jhlabs.map.proj.ApproximateTransformer;
+import com.jhlabs.map.proj.InverseGrid;
+import com.jhlabs.map.proj.Projection;
+import com.jhlabs.map.proj.ProjectionException;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Projects a raster in geographic coordinates, for example a world DEM or an
+ * imagery mosaic with equally spaced longitudes and latitudes, to a raster in
+ * projected coordinates. The center of every target pixel is inverse-projected
+ * with Projection.inverseTransformRadians() and the source is resampled at the
+ * resulting longitude and latitude. Projections without inverse equations are
+ * inverted with an InverseGrid.
+ *
+ * Target pixels are set to the no-data value if they cannot be
+ * inverse-projected, if the longitude and latitude are not inside() the
+ * projection, if they are outside of the source, or if the longitude and
+ * latitude do not project back to the pixel. The last test detects pixels
+ * outside of the graticule for projections whose inverse does not return NaN
+ * there.
+ *
+ * The target is divided into tiles that are projected concurrently on an
+ * executor. The source is only accessed through RasterSource, so a
+ * MappedRaster can be used for sources larger than the heap.
+ */
+public class RasterWarper {
+
+    /**
+     * Nearest neighbor resampling.
+     */
+    public static final int NEAREST = 0;
+    /**
+     * Bilinear interpolation of 2 x 2 source pixels.
+     */
+    public static final int BILINEAR = 1;
+    /**
+     * Bicubic (Catmull-Rom) interpolation of 4 x 4 source pixels.
+     */
+    public static final int BICUBIC = 2;
+
+    /**
+     * Default width and height of tiles in pixels.
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private final Projection projection;
+    private final InverseGrid grid;
+    private ExecutorService executor = ForkJoinPool.commonPool();
+    private int resampling = BILINEAR;
+    private int tileSize = DEFAULT_TILE_SIZE;
+    private double noDataValue = 0;
+    private boolean roundTripCheck = true;
+    private double tolerance = 0;
+
+    /**
+     * The extent of the source in degrees, at the outer edges of the pixels.
+     */
+    private double west = -180, south = -90, east = 180, north = 90;
+
+    /**
+     * Creates a warper.
+     *
+     * @param projection The projection of the target. It is not changed.
+     */
+    public RasterWarper(Projection projection) {
+        this.projection = projection.isFrozen() ? projection : projection.compile();
+        this.grid = this.projection.hasInverse() ? null : InverseGrid.getInverseGrid(this.projection);
+    }
+
+    /**
+     * Returns the compiled copy of the projection used by this warper.
+     */
+    public Projection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Sets the extent of the source in degrees, at the outer edges of the
+     * pixels. The default is the whole world. If the source spans 360
+     * degrees, it wraps around the antimeridian when it is resampled.
+     */
+    public void setSourceBounds(double west, double south, double east, double north) {
+        if (!(west < east && south < north)) {
+            throw new IllegalArgumentException("invalid source bounds");
+        }
+        this.west = west;
+        this.south = south;
+        this.east = east;
+        this.north = north;
+    }
+
+    /**
+     * Sets the resampling method, one of NEAREST, BILINEAR and BICUBIC.
+     */
+    public void setResampling(int resampling) {
+        if (resampling != NEAREST && resampling != BILINEAR && resampling != BICUBIC) {
+            throw new IllegalArgumentException("unknown resampling " + resampling);
+        }
+        this.resampling = resampling;
+    }
+
+    public int getResampling() {
+        return resampling;
+    }
+
+    /**
+     * Sets the value of target pixels that are outside of the projection or
+     * of the source. The default is 0.
+     */
+    public void setNoDataValue(double noDataValue) {
+        this.noDataValue = noDataValue;
+    }
+
+    public double getNoDataValue() {
+        return noDataValue;
+    }
+
+    /**
+     * Sets the width and height of the tiles that are projected concurrently.
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tile size must be positive");
+        }
+        this.tileSize = tileSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Sets the executor running the tiles. The default is the common
+     * fork/join pool.
+     */
+    public void setExecutor(ExecutorService executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException();
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Sets whether pixels are masked if their longitude and latitude do not
+     * project back to the pixel. The default is true. Turning this off saves
+     * a forward projection per pixel for projections whose inverse returns
+     * NaN outside of the graticule.
+     */
+    public void setRoundTripCheck(boolean roundTripCheck) {
+        this.roundTripCheck = roundTripCheck;
+    }
+
+    public boolean isRoundTripCheck() {
+        return roundTripCheck;
+    }
+
+    /**
+     * Sets the tolerance in metres for inverse-projecting rows of pixels with
+     * an ApproximateTransformer, or 0 to inverse-project every pixel. The
+     * default is 0. A tolerance of a fraction of a pixel is usually
+     * invisible.
+     */
+    public void setTolerance(double tolerance) {
+        if (!(tolerance >= 0)) {
+            throw new IllegalArgumentException("negative tolerance");
+        }
+        this.tolerance = tolerance;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Projects a source raster to a target raster. The target has the same
+     * number of bands as the source.
+     *
+     * @param source The source raster in geographic coordinates, with the
+     * extent set by setSourceBounds().
+     * @param target The target raster.
+     * @param minX The left edge of the target in projected coordinates.
+     * @param minY The bottom edge of the target in projected coordinates.
+     * @param maxX The right edge of the target in projected coordinates.
+     * @param maxY The top edge of the target in projected coordinates.
+     */
+    public void warp(final RasterSource source, final RasterTarget target,
+            double minX, double minY, double maxX, double maxY) {
+        if (source.getBandCount() != target.getBandCount()) {
+            throw new IllegalArgumentException("source and target have different numbers of bands");
+        }
+        final Target t = new Target(target, minX, minY, maxX, maxY);
+        final ApproximateTransformer approximation = tolerance > 0
+                ? new ApproximateTransformer(projection, true, tolerance) : null;
+        if (target.getWidth() <= tileSize && target.getHeight() <= tileSize) {
+            new Tile(source, t, approximation, 0, 0).warp();
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int y = 0; y < target.getHeight(); y += tileSize) {
+            for (int x = 0; x < target.getWidth(); x += tileSize) {
+                final int tileX = x;
+                final int tileY = y;
+                tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        new Tile(source, t, approximation, tileX, tileY).warp();
+                        return null;
+                    }
+                });
+            }
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProjectionException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ProjectionException(String.valueOf(cause));
+        }
+    }
+
+    /**
+     * The target raster and its extent.
+     */
+    private static class Target {
+
+        final RasterTarget raster;
+        final double minX, maxY, pixelWidth, pixelHeight;
+
+        Target(RasterTarget raster, double minX, double minY, double maxX, double maxY) {
+            if (!(minX < maxX && minY < maxY)) {
+                throw new IllegalArgumentException("invalid target bounds");
+            }
+            this.raster = raster;
+            this.minX = minX;
+            this.maxY = maxY;
+            this.pixelWidth = (maxX - minX) / raster.getWidth();
+            this.pixelHeight = (maxY - minY) / raster.getHeight();
+        }
+    }
+
+    /**
+     * A tile of the target that is projected by a single thread.
+     */
+    private class Tile {
+
+        private final RasterSource source;
+        private final Target target;
+        private final ApproximateTransformer approximation;
+        private final int x0, y0, width, height;
+        private final int sourceWidth, sourceHeight, bands;
+        private final boolean wrap;
+        private final Point2D.Double p = new Point2D.Double();
+        private final double[] wu = new double[4];
+        private final double[] wv = new double[4];
+        private final int[] cols = new int[4];
+        private final int[] rows = new int[4];
+
+        Tile(RasterSource source, Target target, ApproximateTransformer approximation,
+                int x0, int y0) {
+            this.source = source;
+            this.target = target;
+            this.approximation = approximation;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.width = Math.min(tileSize, target.raster.getWidth() - x0);
+            this.height = Math.min(tileSize, target.raster.getHeight() - y0);
+            this.sourceWidth = source.getWidth();
+            this.sourceHeight = source.getHeight();
+            this.bands = source.getBandCount();
+            this.wrap = east - west >= 360;
+        }
+
+        void warp() {
+            final double[][] samples = new double[bands][width * height];
+            final double[] lonLat = new double[width * 2];
+            final double[] pixel = new double[bands];
+            final double sourceScaleX = sourceWidth / (east - west);
+            final double sourceScaleY = sourceHeight / (north - south);
+            for (int r = 0; r < height; r++) {
+                final double y = target.maxY - (y0 + r + 0.5) * target.pixelHeight;
+                final double x = target.minX + (x0 + 0.5) * target.pixelWidth;
+                inverse(x, y, lonLat);
+                for (int c = 0; c < width; c++) {
+                    final int i = r * width + c;
+                    final double lon = lonLat[c * 2];
+                    final double lat = lonLat[c * 2 + 1];
+                    boolean valid = !Double.isNaN(lon) && !Double.isNaN(lat)
+                            && projection.inside(lon, lat)
+                            && (!roundTripCheck
+                            || projectsTo(lon, lat, x + c * target.pixelWidth, y));
+                    if (valid) {
+                        // source pixel coordinates, with pixel centres at integers
+                        double lonW = lon - west;
+                        if (wrap) {
+                            lonW -= 360 * Math.floor(lonW / 360);
+                        }
+                        final double u = lonW * sourceScaleX - 0.5;
+                        final double v = (north - lat) * sourceScaleY - 0.5;
+                        valid = resample(u, v, pixel);
+                    }
+                    for (int b = 0; b < bands; b++) {
+                        samples[b][i] = valid ? pixel[b] : noDataValue;
+                    }
+                }
+            }
+            for (int b = 0; b < bands; b++) {
+                target.raster.setSamples(x0, y0, width, height, b, samples[b]);
+            }
+        }
+
+        /**
+         * Inverse-projects the pixel centres of a row of this tile to
+         * longitude and latitude in degrees.
+         */
+        private void inverse(double x, double y, double[] lonLat) {
+            if (approximation != null) {
+                approximation.transformGrid(x, y, target.pixelWidth, 0, width, 1, lonLat, 0);
+                return;
+            }
+            for (int c = 0; c < width; c++) {
+                p.x = x + c * target.pixelWidth;
+                p.y = y;
+                try {
+                    if (grid != null) {
+                        grid.inverseTransformRadians(p, p);
+                    } else {
+                        projection.inverseTransformRadians(p, p);
+                    }
+                } catch (ProjectionException exc) {
+                    p.x = p.y = Double.NaN;
+                }
+                lonLat[c * 2] = p.x * MapMath.RTD;
+                lonLat[c * 2 + 1] = p.y * MapMath.RTD;
+            }
+        }
+
+        /**
+         * Returns true if lon/lat in degrees projects to within half a pixel
+         * of x/y.
+         */
+        private boolean projectsTo(double lon, double lat, double x, double y) {
+            try {
+                projection.transform(lon, lat, p);
+            } catch (ProjectionException exc) {
+                return false;
+            }
+            return Math.abs(p.x - x) <= target.pixelWidth * 0.5
+                    && Math.abs(p.y - y) <= target.pixelHeight * 0.5;
+        }
+
+        /**
+         * Resamples the source at pixel coordinates u/v.
+         *
+         * @return False if u/v is outside of the source.
+         */
+        private boolean resample(double u, double v, double[] pixel) {
+            if (v < -0.5 || v > sourceHeight - 0.5
+                    || (!wrap && (u < -0.5 || u > sourceWidth - 0.5))) {
+                return false;
+            }
+            if (resampling == NEAREST) {
+                final int col = column((int) Math.floor(u + 0.5));
+                final int row = row((int) Math.floor(v + 0.5));
+                for (int b = 0; b < bands; b++) {
+                    pixel[b] = source.getSample(col, row, b);
+                }
+                return true;
+            }
+            final int col0 = (int) Math.floor(u);
+            final int row0 = (int) Math.floor(v);
+            final double fu = u - col0;
+            final double fv = v - row0;
+            if (resampling == BILINEAR) {
+                final int c0 = column(col0), c1 = column(col0 + 1);
+                final int r0 = row(row0), r1 = row(row0 + 1);
+                for (int b = 0; b < bands; b++) {
+                    final double top = source.getSample(c0, r0, b) * (1 - fu)
+                            + source.getSample(c1, r0, b) * fu;
+                    final double bottom = source.getSample(c0, r1, b) * (1 - fu)
+                            + source.getSample(c1, r1, b) * fu;
+                    pixel[b] = top * (1 - fv) + bottom * fv;
+                }
+                return true;
+            }
+            cubicWeights(fu, wu);
+            cubicWeights(fv, wv);
+            for (int k = 0; k < 4; k++) {
+                cols[k] = column(col0 - 1 + k);
+                rows[k] = row(row0 - 1 + k);
+            }
+            for (int b = 0; b < bands; b++) {
+                double sum = 0;
+                for (int j = 0; j < 4; j++) {
+                    double rowSum = 0;
+                    for (int k = 0; k < 4; k++) {
+                        rowSum += wu[k] * source.getSample(cols[k], rows[j], b);
+                    }
+                    sum += wv[j] * rowSum;
+                }
+                pixel[b] = sum;
+            }
+            return true;
+        }
+
+        /**
+         * Returns a source column, wrapped around the antimeridian or clamped
+         * to the source.
+         */
+        private int column(int col) {
+            if (wrap) {
+                col %= sourceWidth;
+                return col < 0 ? col + sourceWidth : col;
+            }
+            return Math.max(0, Math.min(sourceWidth - 1, col));
+        }
+
+        private int row(int row) {
+            return Math.max(0, Math.min(sourceHeight - 1, row));
+        }
+    }
+
+    /**
+     * Returns the Catmull-Rom weights of the four pixels around a position
+     * at fraction t between the second and the third pixel.
+     */
+    private static void cubicWeights(double t, double[] weights) {
+        final double t2 = t * t;
+        final double t3 = t2 * t;
+        weights[0] = -0.5 * t3 + t2 - 0.5 * t;
+        weights[1] = 1.5 * t3 - 2.5 * t2 + 1;
+        weights[2] = -1.5 * t3 + 2 * t2 + 0.5 * t;
+        weights[3] = 0.5 * t3 - 0.5 * t2;
+    }
+}
@@ -0,0 +1,172 @@
+package ch.ethz.karto.stream;
+
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+
+public class DouglasPeuckerSimplifierTest {
+
+    /**
+     * Collects the points of one line.
+     */
+    private static final class PointRecorder implements GeometryStream {
+
+        final ArrayList<double[]> points = new ArrayList<>();
+
+        public void polygonStart() {
+        }
+
+        public void polygonEnd() {
+        }
+
+        public void lineStart() {
+            points.clear();
+        }
+
+        public void point(double x, double y) {
+            points.add(new double[]{x, y});
+        }
+
+        public void lineEnd() {
+        }
+
+        public void end() {
+        }
+    }
+
+    private static ArrayList<double[]> simplify(double[] coords, double tolerance,
+            boolean pathHull) {
+        PointRecorder recorder = new PointRecorder();
+        DouglasPeuckerSimplifier simplifier = new DouglasPeuckerSimplifier(tolerance, recorder);
+        if (pathHull) {
+            simplifier.scanFactor = 0;
+        }
+        simplifier.lineStart();
+        for (int i = 0; i < coords.length / 2; i++) {
+            simplifier.point(coords[i * 2], coords[i * 2 + 1]);
+        }
+        simplifier.lineEnd();
+        return recorder.points;
+    }
+
+    /**
+     * The recursive algorithm, searching all points of each section.
+     */
+    private static void simplify(double[] coords, int i0, int i1, double tolerance, boolean[] keep) {
+        final double dx = coords[i1 * 2] - coords[i0 * 2];
+        final double dy = coords[i1 * 2 + 1] - coords[i0 * 2 + 1];
+        int farthest = -1;
+        double maxDist = tolerance;
+        for (int i = i0 + 1; i < i1; i++) {
+            final double d = Math.abs(dx * (coords[i * 2 + 1] - coords[i0 * 2 + 1])
+                    - dy * (coords[i * 2] - coords[i0 * 2])) / Math.hypot(dx, dy);
+            if (d > maxDist) {
+                maxDist = d;
+                farthest = i;
+            }
+        }
+        if (farthest >= 0) {
+            keep[farthest] = true;
+            simplify(coords, i0, farthest, tolerance, keep);
+            simplify(coords, farthest, i1, tolerance, keep);
+        }
+    }
+
+    private static double[] randomWalk(Random random, int n, boolean monotone) {
+        double[] coords = new double[n * 2];
+        for (int i = 1; i < n; i++) {
+            final double dx = random.nextDouble() - (monotone ? 0 : 0.5);
+            coords[i * 2] = coords[i * 2 - 2] + dx;
+            coords[i * 2 + 1] = coords[i * 2 - 1] + random.nextGaussian();
+        }
+        return coords;
+    }
+
+    @Test
+    public void simpleLinesEqualRecursiveAlgorithm() {
+        simpleLinesEqualRecursiveAlgorithm(false);
+        simpleLinesEqualRecursiveAlgorithm(true);
+    }
+
+    @Test
+    public void removedPointsOfSelfIntersectingLinesAreWithinTolerance() {
+        removedPointsOfSelfIntersectingLinesAreWithinTolerance(false);
+        removedPointsOfSelfIntersectingLinesAreWithinTolerance(true);
+    }
+
+    /**
+     * Lines with the farthest point next to the end of each section, which
+     * switch to the path hull.
+     */
+    @Test
+    public void zigzagEqualsRecursiveAlgorithm() {
+        final int n = 5001;
+        double[] coords = new double[n * 2];
+        for (int i = 0; i < n; i++) {
+            coords[i * 2] = i;
+            coords[i * 2 + 1] = (i % 2 == 0 ? 1 : -1) * (n - i) * 0.001;
+        }
+        ArrayList<double[]> points = simplify(coords, 0.0015, false);
+        boolean[] keep = new boolean[n];
+        keep[0] = keep[n - 1] = true;
+        simplify(coords, 0, n - 1, 0.0015, keep);
+        assertKept(coords, keep, points);
+    }
+
+    private static void assertKept(double[] coords, boolean[] keep, ArrayList<double[]> points) {
+        int j = 0;
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                assertEquals(coords[i * 2], points.get(j)[0], 0);
+                assertEquals(coords[i * 2 + 1], points.get(j)[1], 0);
+                j++;
+            }
+        }
+        assertEquals(j, points.size());
+    }
+
+    private void simpleLinesEqualRecursiveAlgorithm(boolean pathHull) {
+        Random random = new Random(1);
+        for (int test = 0; test < 200; test++) {
+            // lines with increasing x do not intersect themselves
+            double[] coords = randomWalk(random, 3 + random.nextInt(2000), true);
+            final double tolerance = random.nextDouble() * 5;
+            final int n = coords.length / 2;
+            boolean[] keep = new boolean[n];
+            keep[0] = keep[n - 1] = true;
+            simplify(coords, 0, n - 1, tolerance, keep);
+
+            assertKept(coords, keep, simplify(coords, tolerance, pathHull));
+        }
+    }
+
+    private void removedPointsOfSelfIntersectingLinesAreWithinTolerance(boolean pathHull) {
+        Random random = new Random(2);
+        for (int test = 0; test < 200; test++) {
+            double[] coords = randomWalk(random, 3 + random.nextInt(2000), false);
+            final double tolerance = random.nextDouble() * 5;
+            ArrayList<double[]> points = simplify(coords, tolerance, pathHull);
+            assertEquals(coords[0], points.get(0)[0], 0);
+            assertEquals(coords[coords.length - 1], points.get(points.size() - 1)[1], 0);
+
+            // every point lies within the tolerance of the line through the
+            // kept points before and after it
+            int k = 0;
+            for (int i = 0; i < coords.length / 2; i++) {
+                final double x = coords[i * 2];
+                final double y = coords[i * 2 + 1];
+                if (x == points.get(k)[0] && y == points.get(k)[1]) {
+                    k++;
+                    continue;
+                }
+                final double[] a = points.get(k - 1);
+                final double[] b = points.get(k);
+                final double d = Math.abs((b[0] - a[0]) * (y - a[1]) - (b[1] - a[1]) * (x - a[0]))
+                        / Math.hypot(b[0] - a[0], b[1] - a[1]);
+                assertTrue(d <= tolerance * (1 + 1e-12));
+            }
+            assertEquals(points.size(), k);
+        }
+    }
+}
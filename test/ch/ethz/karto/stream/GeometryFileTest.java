@@ -0,0 +1,66 @@
+package ch.ethz.karto.stream;
+
+import static org.junit.Assert.*;
+import ch.ethz.karto.gui.MapLine;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Checks that files with a damaged index are not opened.
+ */
+public class GeometryFileTest {
+
+    /**
+     * Writes three lines with 2, 3 and 4 points and returns the position of
+     * the index.
+     */
+    private static long write(File file) throws IOException {
+        GeometryFileWriter.write(file, Arrays.asList(
+                new MapLine(new double[]{0, 0, 1, 1}, 0, 2),
+                new MapLine(new double[]{2, 2, 3, 3, 4, 4}, 0, 3),
+                new MapLine(new double[]{5, 5, 6, 6, 7, 7, 8, 8}, 0, 4)));
+        try (GeometryFile geometry = GeometryFile.open(file)) {
+            assertEquals(3, geometry.getLineCount());
+            assertEquals(9, geometry.getPointCount());
+            assertEquals(3, geometry.getPointCount(1));
+        }
+        return GeometryFile.HEADER_SIZE + 9 * 16;
+    }
+
+    private static void assertDamagedIndex(long indexEntry, long value) throws IOException {
+        File file = File.createTempFile("geometry", ".bin");
+        try {
+            final long indexOffset = write(file);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(indexOffset + indexEntry * 8);
+                raf.writeLong(Long.reverseBytes(value));
+            }
+            try (GeometryFile geometry = GeometryFile.open(file)) {
+                fail(geometry.toString());
+            } catch (IOException exc) {
+                assertEquals(file + " is truncated or damaged", exc.getMessage());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void indexNotStartingAtZeroIsRejected() throws IOException {
+        assertDamagedIndex(0, 1);
+    }
+
+    @Test
+    public void decreasingIndexIsRejected() throws IOException {
+        assertDamagedIndex(2, 1);
+    }
+
+    @Test
+    public void indexOutOfRangeIsRejected() throws IOException {
+        assertDamagedIndex(2, 1L << 40);
+        assertDamagedIndex(3, 10);
+    }
+}
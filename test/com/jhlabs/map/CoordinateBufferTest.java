@@ -0,0 +1,48 @@
+package com.jhlabs.map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class CoordinateBufferTest {
+
+    @Test
+    public void wrappedArraysOfDifferentLengthsGrow() {
+        CoordinateBuffer buffer = new CoordinateBuffer(new double[8], new double[2], new double[1], 0);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(i, -i, 10 * i);
+        }
+        assertEquals(5, buffer.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, buffer.getX(i), 0);
+            assertEquals(-i, buffer.getY(i), 0);
+            assertEquals(10 * i, buffer.getHeight(i), 0);
+        }
+    }
+
+    @Test
+    public void heightsAreAddedToWrappedArrays() {
+        CoordinateBuffer buffer = new CoordinateBuffer(new double[4], new double[1], null, 1);
+        buffer.add(1, 2, 3);
+        assertEquals(2, buffer.size());
+        assertEquals(3, buffer.getHeight(1), 0);
+        buffer.addInterleaved(new double[]{4, 5, 6, 7}, 0, 2);
+        assertEquals(6, buffer.getX(3), 0);
+        assertEquals(7, buffer.getY(3), 0);
+    }
+
+    @Test
+    public void viewsShareCoordinates() {
+        CoordinateBuffer buffer = new CoordinateBuffer(4, false);
+        buffer.addInterleaved(new double[]{0, 1, 2, 3, 4, 5}, 0, 3);
+        CoordinateBuffer view = buffer.view(1, 3);
+        view.set(0, 20, 30);
+        assertEquals(20, buffer.getX(1), 0);
+        assertEquals(30, buffer.getY(1), 0);
+        assertEquals(2, view.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeMustFitIntoArrays() {
+        new CoordinateBuffer(new double[4], new double[2], null, 3);
+    }
+}
@@ -0,0 +1,207 @@
+package com.jhlabs.map.proj;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the default loops of Projection.projectBatch() and
+ * projectInverseBatch(), which call project() and projectInverse() for each
+ * point, with candidate kernels that compute the same values in one loop per
+ * batch. The candidates are defined here and are not used by the library,
+ * because they do not project consistently faster. Not a unit test; run with
+ *
+ * java -cp build/classes:build/test/classes com.jhlabs.map.proj.BatchKernelBenchmark
+ *
+ * Each variant is timed in a separate JVM, so that the call sites in
+ * Projection see a single class. The JVMs alternate between the default loop
+ * and the kernel, and the median over all JVMs is printed in million points
+ * per second.
+ */
+public class BatchKernelBenchmark {
+
+    private static final String[] NAMES = {"eqc", "eck1", "eck3", "wag6"};
+    private static final int POINTS = 1 << 20;
+    private static final int WARMUP = 20;
+    private static final int RUNS = 30;
+    private static final int FORKS = 5;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3) {
+            System.out.println(run(args[0], args[1].equals("kernel"), args[2].equals("inverse")));
+            return;
+        }
+        System.out.println("proj   forward: default  kernel   inverse: default  kernel");
+        for (String name : NAMES) {
+            StringBuilder sb = new StringBuilder(String.format("%-6s", name));
+            for (String direction : new String[]{"forward", "inverse"}) {
+                double[] defaults = new double[FORKS];
+                double[] kernels = new double[FORKS];
+                for (int fork = 0; fork < FORKS; fork++) {
+                    defaults[fork] = fork(name, "default", direction);
+                    kernels[fork] = fork(name, "kernel", direction);
+                }
+                sb.append(String.format("  %16.1f %7.1f", median(defaults), median(kernels)));
+            }
+            System.out.println(sb);
+        }
+    }
+
+    private static double fork(String name, String variant, String direction) throws Exception {
+        String java = System.getProperty("java.home") + "/bin/java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                BatchKernelBenchmark.class.getName(), name, variant, direction)
+                .redirectErrorStream(true).start();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), "UTF-8"))) {
+            String line = reader.readLine();
+            if (process.waitFor() != 0 || line == null) {
+                throw new IllegalStateException(name + " " + variant + " failed: " + line);
+            }
+            return Double.parseDouble(line);
+        }
+    }
+
+    private static double median(double[] v) {
+        v = v.clone();
+        Arrays.sort(v);
+        return v.length % 2 == 1 ? v[v.length / 2] : (v[v.length / 2 - 1] + v[v.length / 2]) / 2;
+    }
+
+    /**
+     * Times one variant in this JVM and returns the median throughput in
+     * million points per second.
+     */
+    private static double run(String name, boolean kernel, boolean inverse) {
+        Projection projection = kernel ? kernel(name)
+                : ProjectionFactory.getNamedPROJ4Projection(name);
+        projection.initialize();
+        Random random = new Random(1);
+        double[] src = new double[POINTS * 2];
+        for (int i = 0; i < POINTS; i++) {
+            src[i * 2] = (random.nextDouble() * 2 - 1) * Math.PI;
+            src[i * 2 + 1] = (random.nextDouble() - 0.5) * Math.PI;
+        }
+        double[] dst = new double[POINTS * 2];
+        if (inverse) {
+            projection.transformRadians(src, 0, dst, 0, POINTS);
+            System.arraycopy(dst, 0, src, 0, src.length);
+        }
+        double[] rates = new double[RUNS];
+        for (int run = -WARMUP; run < RUNS; run++) {
+            final long start = System.nanoTime();
+            if (inverse) {
+                projection.inverseTransformRadians(src, 0, dst, 0, POINTS);
+            } else {
+                projection.transformRadians(src, 0, dst, 0, POINTS);
+            }
+            final long time = System.nanoTime() - start;
+            if (run >= 0) {
+                rates[run] = POINTS / (time / 1e3);
+            }
+        }
+        Arrays.sort(rates);
+        return rates[RUNS / 2];
+    }
+
+    /**
+     * Returns a projection with candidate kernels that give the same values
+     * as project() and projectInverse().
+     */
+    private static Projection kernel(String name) {
+        switch (name) {
+            case "eqc":
+                return new EquidistantCylindricalProjection() {
+                    protected void projectBatch(double[] lam, double[] phi, double[] x, double[] y, int n) {
+                        final double k = Math.cos(getTrueScaleLatitude());
+                        for (int i = 0; i < n; i++) {
+                            x[i] = lam[i] * k;
+                            y[i] = phi[i];
+                        }
+                    }
+
+                    protected void projectInverseBatch(double[] x, double[] y, double[] lam, double[] phi, int n) {
+                        final double k = Math.cos(getTrueScaleLatitude());
+                        for (int i = 0; i < n; i++) {
+                            lam[i] = x[i] / k;
+                            phi[i] = y[i];
+                        }
+                    }
+                };
+            case "eck1":
+                return new Eckert1Projection() {
+                    private static final double FC = .92131773192356127802;
+                    private static final double RP = .31830988618379067154;
+
+                    protected void projectBatch(double[] lam, double[] phi, double[] x, double[] y, int n) {
+                        for (int i = 0; i < n; i++) {
+                            final double p = phi[i];
+                            x[i] = FC * lam[i] * (1. - RP * Math.abs(p));
+                            y[i] = FC * p;
+                        }
+                    }
+
+                    protected void projectInverseBatch(double[] x, double[] y, double[] lam, double[] phi, int n) {
+                        for (int i = 0; i < n; i++) {
+                            final double p = y[i] / FC;
+                            lam[i] = x[i] / (FC * (1. - RP * Math.abs(p)));
+                            phi[i] = p;
+                        }
+                    }
+                };
+            case "eck3":
+                return new Eckert3Projection() {
+                    protected void projectBatch(double[] lam, double[] phi, double[] x, double[] y, int n) {
+                        elliptical(0.42223820031577120149, 0.84447640063154240298,
+                                1., 0.4052847345693510857755, lam, phi, x, y, n);
+                    }
+
+                    protected void projectInverseBatch(double[] x, double[] y, double[] lam, double[] phi, int n) {
+                        ellipticalInverse(0.42223820031577120149, 0.84447640063154240298,
+                                1., 0.4052847345693510857755, x, y, lam, phi, n);
+                    }
+                };
+            case "wag6":
+                return new Wagner6Projection() {
+                    protected void projectBatch(double[] lam, double[] phi, double[] x, double[] y, int n) {
+                        elliptical(1., 1., 0., 0.3039635509270133143316383896, lam, phi, x, y, n);
+                    }
+
+                    protected void projectInverseBatch(double[] x, double[] y, double[] lam, double[] phi, int n) {
+                        ellipticalInverse(1., 1., 0., 0.3039635509270133143316383896, x, y, lam, phi, n);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    /**
+     * The forward kernel of EllipticalPseudoCylindrical.
+     */
+    private static void elliptical(double C_x, double C_y, double A, double B,
+            double[] lam, double[] phi, double[] x, double[] y, int n) {
+        for (int i = 0; i < n; i++) {
+            final double l = lam[i];
+            final double p = phi[i];
+            final double v = 1. - B * p * p;
+            y[i] = C_y * p;
+            x[i] = C_x * l * (A + (v <= 0 ? 0. : Math.sqrt(v)));
+        }
+    }
+
+    /**
+     * The inverse kernel of EllipticalPseudoCylindrical.
+     */
+    private static void ellipticalInverse(double C_x, double C_y, double A, double B,
+            double[] x, double[] y, double[] lam, double[] phi, int n) {
+        for (int i = 0; i < n; i++) {
+            final double xx = x[i];
+            final double yy = y[i];
+            final double v = 1. - B * yy * yy;
+            phi[i] = yy / C_y;
+            lam[i] = xx / (C_x * (A + (v <= 0 ? 0. : Math.sqrt(v))));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.jhlabs.map.proj;
+
+import com.jhlabs.map.CoordinateBuffer;
+import java.awt.geom.Point2D;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that the batch transform methods give the same results as the
+ * per-point transform methods.
+ */
+public class BatchTransformTest {
+
+    private static final double[] LON_LAT = {10, 20, -40, -45, 0, 0, 60, 50};
+
+    @Test
+    public void nullProjectionDoesNotChangePoints() {
+        Projection p = new NullProjection();
+        double[] xy = new double[LON_LAT.length];
+        p.transform(LON_LAT, 0, xy, 0, LON_LAT.length / 2);
+        assertArrayEquals(LON_LAT, xy, 0);
+
+        CoordinateBuffer buffer = new CoordinateBuffer(4, false);
+        buffer.addInterleaved(LON_LAT, 0, LON_LAT.length / 2);
+        p.transform(buffer);
+        buffer.toInterleaved(xy, 0);
+        assertArrayEquals(LON_LAT, xy, 0);
+    }
+
+    @Test
+    public void linearProjectionDoesNotChangePoints() {
+        Projection p = new LinearProjection();
+        CoordinateBuffer buffer = new CoordinateBuffer(4, false);
+        buffer.addInterleaved(LON_LAT, 0, LON_LAT.length / 2);
+        p.transform(buffer);
+        p.inverseTransform(buffer);
+        double[] xy = new double[LON_LAT.length];
+        buffer.toInterleaved(xy, 0);
+        assertArrayEquals(LON_LAT, xy, 0);
+    }
+
+    @Test
+    public void batchEqualsPerPoint() {
+        for (Object name : ProjectionFactory.getOrderedProjectionNames()) {
+            Projection p = ProjectionFactory.getNamedProjection((String) name);
+            p.setProjectionLongitudeDegrees(15);
+            p.initialize();
+            checkForward(p);
+        }
+        checkForward(new NullProjection());
+    }
+
+    private static void checkForward(Projection p) {
+        final int n = LON_LAT.length / 2;
+        Point2D.Double out = new Point2D.Double();
+        try {
+            for (int i = 0; i < n; i++) {
+                p.transform(new Point2D.Double(LON_LAT[i * 2], LON_LAT[i * 2 + 1]), out);
+            }
+        } catch (ProjectionException exc) {
+            // the points are outside of the domain of the projection
+            return;
+        }
+        double[] degrees = new double[LON_LAT.length];
+        double[] radians = new double[LON_LAT.length];
+        p.transform(LON_LAT, 0, degrees, 0, n);
+        double[] lonLatRadians = new double[LON_LAT.length];
+        for (int i = 0; i < LON_LAT.length; i++) {
+            lonLatRadians[i] = Math.toRadians(LON_LAT[i]);
+        }
+        p.transformRadians(lonLatRadians, 0, radians, 0, n);
+
+        for (int i = 0; i < n; i++) {
+            p.transform(new Point2D.Double(LON_LAT[i * 2], LON_LAT[i * 2 + 1]), out);
+            assertEquals(p + " x", out.x, degrees[i * 2], 0);
+            assertEquals(p + " y", out.y, degrees[i * 2 + 1], 0);
+            p.transformRadians(new Point2D.Double(lonLatRadians[i * 2], lonLatRadians[i * 2 + 1]), out);
+            assertEquals(p + " x radians", out.x, radians[i * 2], 0);
+            assertEquals(p + " y radians", out.y, radians[i * 2 + 1], 0);
+        }
+    }
+}
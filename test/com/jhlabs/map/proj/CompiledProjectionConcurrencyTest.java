@@ -0,0 +1,156 @@
+package com.jhlabs.map.proj;
+
+import com.jhlabs.map.Ellipsoid;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Shares each compiled projection between threads and checks that every
+ * thread gets the results of a single thread.
+ */
+public class CompiledProjectionConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void compiledProjectionsAreThreadSafe() throws Exception {
+        List<String> failures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (Object name : ProjectionFactory.getOrderedProjectionNames()) {
+                for (Ellipsoid ellipsoid : new Ellipsoid[]{Ellipsoid.SPHERE, Ellipsoid.WGS_1984}) {
+                    Projection p = ProjectionFactory.getNamedProjection((String) name);
+                    Projection compiled;
+                    try {
+                        p.setEllipsoid(ellipsoid);
+                        p.setProjectionLongitudeDegrees(10);
+                        compiled = p.compile();
+                    } catch (RuntimeException exc) {
+                        // not supported with this ellipsoid
+                        continue;
+                    }
+                    String error = check(compiled, executor);
+                    if (error != null) {
+                        failures.add(name + " (" + ellipsoid.getName() + "): " + error);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void compiledProjectionCannotBeChanged() {
+        new MercatorProjection().compile().setProjectionLongitudeDegrees(10);
+    }
+
+    @Test
+    public void compiledProjectionHasFingerprintOfInitializedCopy() {
+        for (Object name : ProjectionFactory.getOrderedProjectionNames()) {
+            Projection p = ProjectionFactory.getNamedProjection((String) name);
+            p.setProjectionLongitudeDegrees(10);
+            Projection compiled;
+            try {
+                compiled = p.compile();
+            } catch (RuntimeException exc) {
+                continue;
+            }
+            Projection copy = (Projection) p.clone();
+            copy.initialize();
+            assertEquals((String) name, copy.getFingerprint(), compiled.getFingerprint());
+        }
+    }
+
+    @Test
+    public void ellipsoidOfCompiledProjectionCannotBeChanged() {
+        Projection p = new MercatorProjection();
+        p.setEllipsoid(Ellipsoid.WGS_1984);
+        Projection compiled = p.compile();
+        compiled.getEllipsoid().setEquatorRadius(1);
+        assertEquals(Ellipsoid.WGS_1984.getEquatorRadius(),
+                compiled.getEllipsoid().getEquatorRadius(), 0);
+    }
+
+    /**
+     * Projects a grid of points forward and inverse on all threads, and
+     * returns a description of the first result that differs from the result
+     * of a single thread, or null.
+     */
+    private static String check(final Projection p, ExecutorService executor) throws Exception {
+        final double[] lonLat = grid();
+        final double[] expectedXY = new double[lonLat.length];
+        final double[] expectedLonLat = new double[lonLat.length];
+        project(p, lonLat, expectedXY, expectedLonLat);
+        List<Future<String>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(executor.submit(new Callable<String>() {
+                public String call() {
+                    double[] xy = new double[lonLat.length];
+                    double[] inverse = new double[lonLat.length];
+                    for (int round = 0; round < ROUNDS; round++) {
+                        project(p, lonLat, xy, inverse);
+                        for (int i = 0; i < xy.length; i++) {
+                            if (!same(xy[i], expectedXY[i]) || !same(inverse[i], expectedLonLat[i])) {
+                                return "point " + lonLat[i & ~1] + "/" + lonLat[i | 1];
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        String error = null;
+        for (Future<String> result : results) {
+            String e = result.get();
+            error = error == null ? e : error;
+        }
+        return error;
+    }
+
+    private static void project(Projection p, double[] lonLat, double[] xy, double[] inverse) {
+        Point2D.Double src = new Point2D.Double();
+        Point2D.Double dst = new Point2D.Double();
+        for (int i = 0; i < lonLat.length; i += 2) {
+            // points outside of the domain of a projection are NaN
+            xy[i] = xy[i + 1] = inverse[i] = inverse[i + 1] = Double.NaN;
+            try {
+                src.setLocation(lonLat[i], lonLat[i + 1]);
+                p.transform(src, dst);
+                xy[i] = dst.x;
+                xy[i + 1] = dst.y;
+                if (p.hasInverse()) {
+                    p.inverseTransform(dst, src);
+                    inverse[i] = src.x;
+                    inverse[i + 1] = src.y;
+                }
+            } catch (ProjectionException exc) {
+            }
+        }
+    }
+
+    private static double[] grid() {
+        double[] lonLat = new double[2 * 37 * 17];
+        int i = 0;
+        for (int lon = -180; lon <= 180; lon += 10) {
+            for (int lat = -80; lat <= 80; lat += 10) {
+                lonLat[i++] = lon + 0.37;
+                lonLat[i++] = lat + 0.21;
+            }
+        }
+        return lonLat;
+    }
+
+    private static boolean same(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+}
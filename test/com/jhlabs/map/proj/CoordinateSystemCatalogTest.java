@@ -0,0 +1,50 @@
+package com.jhlabs.map.proj;
+
+import static org.junit.Assert.*;
+import com.jhlabs.map.MapMath;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Checks that coordinate systems are found within the tolerances of
+ * findCodes().
+ */
+public class CoordinateSystemCatalogTest {
+
+    private static Projection utm33() {
+        CoordinateSystemCatalog catalog = CoordinateSystemCatalog.getDefault();
+        return ProjectionFactory.fromPROJ4Specification(catalog.getParameters("epsg", "32633"));
+    }
+
+    private static boolean matchesUtm33(Projection p) {
+        return Arrays.asList(CoordinateSystemCatalog.getDefault().findCodes(p)).contains("epsg:32633");
+    }
+
+    @Test
+    public void falseEastingWithinToleranceMatches() {
+        Projection p = utm33();
+        assertTrue(matchesUtm33(p));
+        final double falseEasting = p.getFalseEasting();
+
+        // 0.6 mm crosses the rounding boundary at 0.5 mm
+        p.setFalseEasting(falseEasting + 0.0006);
+        assertTrue(matchesUtm33(p));
+        p.setFalseEasting(falseEasting - 0.0009);
+        assertTrue(matchesUtm33(p));
+
+        p.setFalseEasting(falseEasting + 0.002);
+        assertFalse(matchesUtm33(p));
+    }
+
+    @Test
+    public void centralMeridianWithinToleranceMatches() {
+        Projection p = utm33();
+        final double lon0 = p.getProjectionLongitude();
+        for (double d : new double[]{-0.9e-7, -0.5e-7, 0.5e-7, 0.9e-7}) {
+            p.setProjectionLongitude(lon0 + d * MapMath.DTR);
+            assertTrue(matchesUtm33(p));
+        }
+        p.setProjectionLongitude(lon0 + 2e-7 * MapMath.DTR);
+        assertFalse(matchesUtm33(p));
+    }
+}
@@ -0,0 +1,76 @@
+package com.jhlabs.map.proj;
+
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Checks that damaged grid files are not used.
+ */
+public class InverseGridTest {
+
+    private static byte[] write(InverseGrid grid) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        grid.write(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void truncatedStreamIsRejected() throws IOException {
+        Projection p = new RobinsonProjection().compile();
+        InverseGrid.clearCache();
+        byte[] bytes = write(InverseGrid.getInverseGrid(p));
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 8);
+        try {
+            InverseGrid.read(new ByteArrayInputStream(truncated), p);
+            fail();
+        } catch (IOException exc) {
+        }
+    }
+
+    @Test
+    public void damagedCacheFileIsRebuilt() throws IOException {
+        Projection p = new RobinsonProjection().compile();
+        File dir = File.createTempFile("grid", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        File file = new File(dir, p.getFingerprint() + ".grid");
+        File previous = InverseGrid.getCacheDirectory();
+        try {
+            InverseGrid.clearCache();
+            InverseGrid.setCacheDirectory(dir);
+            byte[] bytes = write(InverseGrid.getInverseGrid(p));
+            final int cellCount = InverseGrid.getInverseGrid(p).getCellCount();
+
+            // a cell count larger than the file
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(bytes.length - cellCount * 12 * 8 - 4);
+                assertEquals(cellCount, raf.readInt());
+                raf.seek(raf.getFilePointer() - 4);
+                raf.writeInt(Integer.MAX_VALUE / 12);
+            }
+            InverseGrid.clearCache();
+            assertEquals(cellCount, InverseGrid.getInverseGrid(p).getCellCount());
+            assertEquals(bytes.length, file.length());
+
+            // a truncated file
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(bytes, 0, bytes.length / 2);
+            }
+            InverseGrid.clearCache();
+            assertEquals(cellCount, InverseGrid.getInverseGrid(p).getCellCount());
+            assertEquals(bytes.length, file.length());
+        } finally {
+            InverseGrid.setCacheDirectory(previous);
+            InverseGrid.clearCache();
+            file.delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.jhlabs.map.proj;
+
+import java.awt.geom.Point2D;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that the inverse Nicolosi projection finds projected points, including
+ * points on the bounding meridians and close to the poles.
+ */
+public class NicolosiProjectionTest {
+
+    @Test
+    public void inverseFindsProjectedPoints() {
+        Projection p = new NicolosiProjection();
+        p.initialize();
+        Point2D.Double xy = new Point2D.Double();
+        Point2D.Double lonLat = new Point2D.Double();
+        for (double lon = -90; lon <= 90; lon += 0.5) {
+            for (double lat = -90; lat <= 90; lat += 0.5) {
+                p.transform(lon, lat, xy);
+                p.inverseTransform(xy, lonLat);
+                assertEquals(lat, lonLat.y, 1e-8);
+                // the longitude is undefined at the poles
+                final double cosLat = Math.cos(Math.toRadians(lat));
+                assertEquals(0, (lon - lonLat.x) * cosLat, 1e-8);
+            }
+        }
+    }
+
+    @Test
+    public void inverseOfPointOutsideOfCircleIsNaN() {
+        Projection p = new NicolosiProjection();
+        p.initialize();
+        Point2D.Double lonLat = new Point2D.Double();
+        p.projectInverse(1.2, 1.2, lonLat);
+        assertTrue(Double.isNaN(lonLat.x));
+        assertTrue(Double.isNaN(lonLat.y));
+    }
+}
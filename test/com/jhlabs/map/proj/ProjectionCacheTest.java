@@ -0,0 +1,88 @@
+package com.jhlabs.map.proj;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks the size limit of the cache and the handling of aliases.
+ */
+public class ProjectionCacheTest {
+
+    @Test
+    public void aliasesDoNotCountTowardsMaximumSize() {
+        ProjectionCache cache = new ProjectionCache(2);
+        Projection p = cache.getProjection("+proj=merc +ellps=WGS84");
+        assertSame(p, cache.getProjection("+ellps=WGS84  +proj=merc"));
+        assertSame(p, cache.getProjection(" +ellps=WGS84 +proj=merc"));
+        assertEquals(1, cache.getProjectionCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedWithItsAliases() throws Exception {
+        ProjectionCache cache = new ProjectionCache(2);
+        Projection merc = cache.getProjection("+proj=merc +ellps=WGS84");
+        cache.getProjection("+proj=robin");
+        Thread.sleep(1);
+        // use Mercator, so Robinson is the least recently used entry
+        assertSame(merc, cache.getProjection("+proj=merc +ellps=WGS84"));
+        Thread.sleep(1);
+        cache.getProjection("+proj=moll");
+        assertEquals(2, cache.getProjectionCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(merc, cache.getProjection("+proj=merc +ellps=WGS84"));
+
+        // Robinson and its entry were evicted, so it is parsed again
+        long misses = cache.getMissCount();
+        cache.getProjection("+proj=robin");
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void aliasOfEvictedEntryIsRemoved() {
+        ProjectionCache cache = new ProjectionCache(1);
+        Projection merc = cache.getProjection("+proj=merc +ellps=WGS84");
+        cache.getProjection("+proj=robin");
+        long misses = cache.getMissCount();
+        Projection merc2 = cache.getProjection("+proj=merc +ellps=WGS84");
+        assertEquals(misses + 1, cache.getMissCount());
+        assertNotSame(merc, merc2);
+        assertEquals(1, cache.getProjectionCount());
+    }
+
+    @Test
+    public void aliasesOfOneEntryAreBounded() {
+        ProjectionCache cache = new ProjectionCache(2);
+        Projection p = cache.getProjection("+proj=merc +ellps=WGS84");
+        CoordinateTransform t = cache.getTransform("+proj=longlat +datum=WGS84",
+                "+proj=merc +datum=WGS84");
+        for (int i = 1; i <= 100; i++) {
+            StringBuilder spaces = new StringBuilder();
+            for (int j = 0; j < i; j++) {
+                spaces.append(' ');
+            }
+            assertSame(p, cache.getProjection("+ellps=WGS84" + spaces + "+proj=merc"));
+            assertSame(t, cache.getTransform("+proj=longlat" + spaces + "+datum=WGS84",
+                    "+proj=merc +datum=WGS84"));
+            assertTrue(cache.getAliasCount() <= 2 * ProjectionCache.MAXIMUM_ALIASES);
+        }
+        assertEquals(2 * ProjectionCache.MAXIMUM_ALIASES, cache.getAliasCount());
+        assertEquals(1, cache.getProjectionCount());
+        assertEquals(1, cache.getTransformCount());
+    }
+
+    @Test
+    public void transformsAreCached() {
+        ProjectionCache cache = new ProjectionCache(4);
+        CoordinateTransform t = cache.getTransform("+proj=longlat +datum=WGS84",
+                "+proj=merc +datum=WGS84");
+        assertSame(t, cache.getTransform("+datum=WGS84 +proj=longlat",
+                "+proj=merc  +datum=WGS84"));
+        assertEquals(1, cache.getTransformCount());
+        cache.clear();
+        assertEquals(0, cache.getTransformCount());
+        assertNotSame(t, cache.getTransform("+proj=longlat +datum=WGS84",
+                "+proj=merc +datum=WGS84"));
+    }
+}
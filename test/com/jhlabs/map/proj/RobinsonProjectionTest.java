@@ -0,0 +1,29 @@
+package com.jhlabs.map.proj;
+
+import java.awt.geom.Point2D;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that the inverse Robinson projection finds projected points.
+ */
+public class RobinsonProjectionTest {
+
+    @Test
+    public void inverseFindsProjectedPoints() {
+        Projection p = new RobinsonProjection();
+        p.initialize();
+        Point2D.Double xy = new Point2D.Double();
+        Point2D.Double lonLat = new Point2D.Double();
+        for (double lon = -180; lon <= 180; lon += 2.5) {
+            // between the 5 degree nodes, where the spline segments do not
+            // join exactly
+            for (double lat = -89.75; lat < 90; lat += 0.5) {
+                p.transform(lon, lat, xy);
+                p.inverseTransform(xy, lonLat);
+                assertEquals(lat, lonLat.y, 1e-8);
+                assertEquals(lon, lonLat.x, 1e-8);
+            }
+        }
+    }
+}